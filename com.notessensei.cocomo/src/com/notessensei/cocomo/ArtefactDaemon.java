@@ -0,0 +1,262 @@
+/** ========================================================================= *
+ * Copyright (C) 2014,      IBM Corporation ( http://www.ibm.com/ )           *
+ *                            All rights reserved.                            *
+ * ========================================================================== *
+ *                                                                            *
+ * Licensed under the  Apache License, Version 2.0  (the "License").  You may *
+ * not use this file except in compliance with the License.  You may obtain a *
+ * copy of the License at <http://www.apache.org/licenses/LICENSE-2.0>.       *
+ *                                                                            *
+ * Unless  required  by applicable  law or  agreed  to  in writing,  software *
+ * distributed under the License is distributed on an  "AS IS" BASIS, WITHOUT *
+ * WARRANTIES OR  CONDITIONS OF ANY KIND, either express or implied.  See the *
+ * License for the  specific language  governing permissions  and limitations *
+ * under the License.                                                         *
+ *                                                                            *
+ * ========================================================================== */
+package com.notessensei.cocomo;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Keeps one warm extractor in memory and serves scan requests on a local
+ * socket, so build scripts don't pay JVM startup and property loading for
+ * every project.
+ * 
+ * The protocol is line based UTF-8, one command per line:
+ * 
+ * <pre>
+ * HEADER          the header line of the report
+ * SCAN path       the report row of the On-Disk-Project or archive at path,
+ *                 it has to be inside one of the source directories
+ * RELOAD          reads the configuration files again
+ * QUIT            closes the connection
+ * SHUTDOWN        stops the daemon
+ * </pre>
+ * 
+ * Every answer ends with a line <code>END</code>, failures start with
+ * <code>ERROR</code>. After the row of a SCAN comes one line
+ * <code>SKIPPED file (phase, attempts): error</code> per file that could not
+ * be scanned and is missing in the row. A connection without a command for a minute is
+ * closed, so idle clients don't keep a worker thread
+ * 
+ * @author stw
+ * 
+ */
+public class ArtefactDaemon {
+
+	private static final String		END				= "END";
+
+	/**
+	 * How long (ms) a connection may wait for its next command
+	 */
+	private static final int		IDLE_TIMEOUT	= 60000;
+
+	private final ArtefactExtractor	extractor;
+	private final int				port;
+	private final ExecutorService	workers;
+	private final List<String>		sourceRoots		= new ArrayList<String>();
+	private ServerSocket			serverSocket;
+	private volatile boolean		running;
+
+	/**
+	 * @param extractor
+	 * @param port
+	 * @param threadCount
+	 * @param sourceDirs
+	 *            SCAN only accepts applications inside them, the metrics file
+	 *            is written next to the application
+	 * @throws IOException
+	 */
+	public ArtefactDaemon(ArtefactExtractor extractor, int port, int threadCount, Collection<File> sourceDirs) throws IOException {
+		this.extractor = extractor;
+		this.port = port;
+		this.workers = Executors.newFixedThreadPool(Math.max(1, threadCount));
+		for (File dir : sourceDirs) {
+			this.sourceRoots.add(dir.getCanonicalPath() + File.separator);
+		}
+	}
+
+	/**
+	 * Accepts connections until a SHUTDOWN arrives. Only connections from
+	 * this machine are possible, we bind to the loopback address
+	 * 
+	 * @throws IOException
+	 */
+	public void serve() throws IOException {
+		if (this.serverSocket == null) {
+			this.bind();
+		}
+		this.running = true;
+		System.out.println("Listening on " + this.serverSocket.getLocalSocketAddress() + " for " + this.sourceRoots
+				+ ", stop with SHUTDOWN");
+		try {
+			while (this.running) {
+				final Socket client;
+				try {
+					client = this.serverSocket.accept();
+				} catch (SocketException e) {
+					// Socket was closed by SHUTDOWN
+					break;
+				}
+				this.workers.execute(new Runnable() {
+					public void run() {
+						ArtefactDaemon.this.handleConnection(client);
+					}
+				});
+			}
+		} finally {
+			this.shutdown();
+		}
+	}
+
+	/**
+	 * Opens the socket, serve does it when it wasn't done before
+	 * 
+	 * @throws IOException
+	 */
+	void bind() throws IOException {
+		this.serverSocket = new ServerSocket(this.port, 50, InetAddress.getLoopbackAddress());
+	}
+
+	/**
+	 * @return the port we listen on, the one picked for port 0
+	 */
+	int getLocalPort() {
+		return this.serverSocket.getLocalPort();
+	}
+
+	/**
+	 * Stops accepting requests, running scans may finish
+	 */
+	public void shutdown() {
+		this.running = false;
+		this.workers.shutdown();
+		if (this.serverSocket != null) {
+			try {
+				this.serverSocket.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Answers one command
+	 * 
+	 * @return false when the connection should be closed
+	 */
+	private boolean handleCommand(String line, PrintWriter out) {
+		String command = line.trim();
+		String argument = "";
+		int blank = command.indexOf(" ");
+		if (blank > 0) {
+			argument = command.substring(blank + 1).trim();
+			command = command.substring(0, blank);
+		}
+		command = command.toUpperCase();
+
+		if (command.equals("")) {
+			return true;
+		} else if (command.equals("QUIT")) {
+			return false;
+		} else if (command.equals("SHUTDOWN")) {
+			out.write(ArtefactDaemon.END + "\n");
+			out.flush();
+			this.shutdown();
+			return false;
+		} else if (command.equals("RELOAD")) {
+			this.extractor.reloadRules();
+		} else if (command.equals("HEADER")) {
+			this.extractor.writeResultHeader(out);
+		} else if (command.equals("SCAN")) {
+			File appSource = new File(argument);
+			if (!appSource.isDirectory() && !ArtefactExtractor.isArchive(appSource)) {
+				out.write("ERROR Not an On-Disk-Project or archive: " + argument + "\n");
+			} else if (!this.isInSourceRoot(appSource)) {
+				out.write("ERROR Not in a source directory of the daemon: " + argument + "\n");
+			} else {
+				String appName = ArtefactExtractor.getApplicationName(appSource);
+				ScanErrorLog errorLog = this.extractor.getErrorLog();
+				// Left over from a scan of it that failed
+				errorLog.takeErrors(appName);
+				try {
+					ArtefactResult result = this.extractor.scanApplication(appSource);
+					this.extractor.writeMetrics(appSource, result);
+					out.write(this.extractor.getReportRow(appName, result));
+				} catch (Exception e) {
+					StringWriter trace = new StringWriter();
+					e.printStackTrace(new PrintWriter(trace));
+					System.err.print(trace.toString());
+					out.write("ERROR " + e + "\n");
+				}
+				for (String skipped : errorLog.takeErrors(appName)) {
+					out.write("SKIPPED " + skipped + "\n");
+				}
+			}
+		} else {
+			out.write("ERROR Unknown command: " + command + "\n");
+		}
+		out.write(ArtefactDaemon.END + "\n");
+		out.flush();
+		return true;
+	}
+
+	/**
+	 * Links and .. are resolved first, so a path can't leave the source
+	 * directories
+	 */
+	private boolean isInSourceRoot(File appSource) {
+		try {
+			String path = appSource.getCanonicalPath();
+			for (String root : this.sourceRoots) {
+				if (path.startsWith(root)) {
+					return true;
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return false;
+	}
+
+	private void handleConnection(Socket client) {
+		try {
+			client.setSoTimeout(ArtefactDaemon.IDLE_TIMEOUT);
+			BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream(), "UTF-8"));
+			PrintWriter out = new PrintWriter(new OutputStreamWriter(client.getOutputStream(), "UTF-8"));
+			String line;
+			while ((line = in.readLine()) != null) {
+				if (!this.handleCommand(line, out)) {
+					break;
+				}
+			}
+		} catch (SocketTimeoutException e) {
+			// Idle too long, the worker is needed elsewhere
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			try {
+				client.close();
+			} catch (IOException e) {
+				// Nothing we can do
+			}
+		}
+	}
+}
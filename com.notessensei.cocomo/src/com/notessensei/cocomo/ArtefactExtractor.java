@@ -16,7 +16,8 @@
  * ========================================================================== */
 package com.notessensei.cocomo;
 
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -24,19 +25,20 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintWriter;
-import java.io.StringReader;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Date;
+import java.util.Enumeration;
+import java.util.List;
 import java.util.Map;
-import java.util.Properties;
 import java.util.Scanner;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
-
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
 /**
  * @author stw
@@ -44,8 +46,86 @@ import org.w3c.dom.NodeList;
  */
 public class ArtefactExtractor {
 
+	/**
+	 * Default budget of one file: one minute, 1000 nested elements
+	 */
+	public static final long	DEFAULT_TIME_LIMIT	= 60000;
+	public static final int		DEFAULT_MAX_DEPTH	= 1000;
+	public static final String	QUARANTINE_FILE		= "cocomo.quarantine";
+
+	/**
+	 * One day in ms, for the periods of the store queries
+	 */
+	private static final long	DAY					= 24L * 60 * 60 * 1000;
+
+	/**
+	 * Opens the content of a file again for each attempt to scan it
+	 */
+	interface EntrySource {
+		InputStream open() throws IOException;
+	}
+
+	/**
+	 * Receives the design files of an application while it is walked
+	 */
+	interface FileVisitor {
+		void visit(String path, String fname, EntrySource source) throws IOException;
+	}
+
+	/**
+	 * Also gets the directories of a walk, before their files
+	 */
+	interface DirectoryVisitor extends FileVisitor {
+		void visitDirectory(File dir) throws IOException;
+	}
+
+	/**
+	 * One try to scan a file into a fresh result
+	 */
+	private interface ScanAttempt {
+		void scan(ArtefactResult fileResult) throws IOException;
+	}
+
 	public static String help() {
-		return "Usage:java -jar cocomo.jar sourceDir ReportFile [CommandFile]";
+		return "Usage:java -jar cocomo.jar [-watch] [-threads n] [-duplicates] [-similar] [-functions n] [-config dir] [-retries n] [-maxErrors n]\n"
+				+ "                              [-timeLimit seconds] [-maxDepth n] [-quarantine file]\n"
+				+ "                              [-stages walk,read,parse,count] [-queue n] [-virtualIO n] [-store dir]\n"
+				+ "                              [-index IndexFile] sourceDir ReportFile [CommandFile]\n"
+				+ "   or:java -jar cocomo.jar [-threads n] [-config dir] -sample rate [-seed n] sourceDir EstimateFile [CommandFile]\n"
+				+ "   or:java -jar cocomo.jar [options] -shard i/N [-shardBy hash|range] sourceDir ReportFile [CommandFile]\n"
+				+ "   or:java -jar cocomo.jar [options] -processes N [-shardBy hash|range] sourceDir ReportFile [CommandFile]\n"
+				+ "   or:java -jar cocomo.jar [-duplicates] [-similar] [-functions n] -merge ReportFile PartialFile...\n"
+				+ "   or:java -jar cocomo.jar -diff OldReportFile|OldMetricsDir NewReportFile|NewMetricsDir DeltaReportFile\n"
+				+ "   or:java -jar cocomo.jar [-threads n] [-config dir] [-samples n] [-seed n] -cocomo ReportFile EffortFile\n"
+				+ "   or:java -jar cocomo.jar [-config dir] -history StoreDir Application Column|Counter [days]\n"
+				+ "   or:java -jar cocomo.jar [-config dir] -growers StoreDir Column|Counter [count] [days]\n"
+				+ "   or:java -jar cocomo.jar -query IndexFile Query\n"
+				+ "   or:java -jar cocomo.jar -git fromRevision toRevision RepositoryDir DeltaReportFile\n"
+				+ "   or:java -jar cocomo.jar -daemon port [-threads n] [-config dir] [SourceDir...]\n"
+				+ "   or:java -jar cocomo.jar -serve port [-threads n] [-config dir] StoreDir";
+	}
+
+	/**
+	 * The value of a numeric option, anything else ends the run with the
+	 * usage
+	 */
+	private static long numberOption(String option, String value, long min, long max) {
+		try {
+			long result = Long.parseLong(value.trim());
+			if (result >= min && result <= max) {
+				return result;
+			}
+		} catch (NumberFormatException e) {
+			// Same answer as a number out of range
+		}
+		ArtefactExtractor.usageError(option + " needs a whole number from " + min + " to " + max + ", not " + value);
+		return min;
+	}
+
+	private static void usageError(String message) {
+		System.out.println(message);
+		System.out.println(ArtefactExtractor.help());
+		System.exit(1);
 	}
 
 	/**
@@ -54,25 +134,344 @@ public class ArtefactExtractor {
 	 */
 	public static void main(String[] args) throws IOException {
 
-		if (args.length < 2) {
+		// Leading options switch the mode, the rest stays positional
+		boolean watchMode = false;
+		boolean findDuplicates = false;
+		boolean findSimilarCode = false;
+		int topFunctions = 0;
+		int retries = 0;
+		int maxErrors = -1;
+		long timeLimit = ArtefactExtractor.DEFAULT_TIME_LIMIT;
+		int maxDepth = ArtefactExtractor.DEFAULT_MAX_DEPTH;
+		File quarantineFile = null;
+		int[] stageThreads = null;
+		int queueSize = ScanPipeline.DEFAULT_QUEUE_SIZE;
+		int ioConcurrency = 0;
+		String shard = null;
+		String shardMethod = ShardSpec.BY_HASH;
+		int processes = 0;
+		boolean mergeMode = false;
+		boolean diffMode = false;
+		File storeDir = null;
+		boolean historyMode = false;
+		boolean growersMode = false;
+		File indexFile = null;
+		boolean queryMode = false;
+		// Workers of a multi process run get the same options
+		List<String> workerOptions = new ArrayList<String>();
+		String[] gitRevisions = null;
+		int daemonPort = -1;
+		int servePort = -1;
+		double sampleRate = 0;
+		long sampleSeed = System.currentTimeMillis();
+		boolean cocomoMode = false;
+		long monteCarloSamples = 1000000;
+		File configDir = new File(".");
+		int threadCount = Runtime.getRuntime().availableProcessors();
+		int argStart = 0;
+		while (argStart < args.length && args[argStart].startsWith("-")) {
+			String option = args[argStart];
+			int optionStart = argStart;
+			if (option.equals("-watch")) {
+				watchMode = true;
+			} else if (option.equals("-duplicates")) {
+				findDuplicates = true;
+			} else if (option.equals("-similar")) {
+				findSimilarCode = true;
+			} else if (option.equals("-functions") && argStart + 1 < args.length) {
+				argStart++;
+				topFunctions = (int) ArtefactExtractor.numberOption(option, args[argStart], 0, Integer.MAX_VALUE);
+			} else if (option.equals("-retries") && argStart + 1 < args.length) {
+				argStart++;
+				retries = (int) ArtefactExtractor.numberOption(option, args[argStart], 0, Integer.MAX_VALUE);
+			} else if (option.equals("-maxErrors") && argStart + 1 < args.length) {
+				argStart++;
+				maxErrors = (int) ArtefactExtractor.numberOption(option, args[argStart], -1, Integer.MAX_VALUE);
+			} else if (option.equals("-timeLimit") && argStart + 1 < args.length) {
+				argStart++;
+				timeLimit = ArtefactExtractor.numberOption(option, args[argStart], 0, ScanBudget.MAX_TIME_LIMIT / 1000L) * 1000L;
+			} else if (option.equals("-maxDepth") && argStart + 1 < args.length) {
+				argStart++;
+				maxDepth = (int) ArtefactExtractor.numberOption(option, args[argStart], 0, Integer.MAX_VALUE);
+			} else if (option.equals("-quarantine") && argStart + 1 < args.length) {
+				argStart++;
+				quarantineFile = new File(args[argStart]);
+			} else if (option.equals("-threads") && argStart + 1 < args.length) {
+				argStart++;
+				threadCount = (int) ArtefactExtractor.numberOption(option, args[argStart], 1, Integer.MAX_VALUE);
+			} else if (option.equals("-stages") && argStart + 1 < args.length) {
+				argStart++;
+				String[] counts = args[argStart].split(",");
+				if (counts.length != 4) {
+					ArtefactExtractor.usageError("-stages needs 4 thread counts: walk,read,parse,count");
+				}
+				stageThreads = new int[4];
+				for (int i = 0; i < 4; i++) {
+					stageThreads[i] = (int) ArtefactExtractor.numberOption(option, counts[i], 1, Integer.MAX_VALUE);
+				}
+			} else if (option.equals("-virtualIO") && argStart + 1 < args.length) {
+				argStart++;
+				ioConcurrency = (int) ArtefactExtractor.numberOption(option, args[argStart], 0, Integer.MAX_VALUE);
+			} else if (option.equals("-shard") && argStart + 1 < args.length) {
+				argStart++;
+				shard = args[argStart];
+			} else if (option.equals("-shardBy") && argStart + 1 < args.length) {
+				argStart++;
+				shardMethod = args[argStart];
+			} else if (option.equals("-processes") && argStart + 1 < args.length) {
+				argStart++;
+				processes = (int) ArtefactExtractor.numberOption(option, args[argStart], 1, Integer.MAX_VALUE);
+			} else if (option.equals("-merge")) {
+				mergeMode = true;
+			} else if (option.equals("-diff")) {
+				diffMode = true;
+			} else if (option.equals("-store") && argStart + 1 < args.length) {
+				argStart++;
+				storeDir = new File(args[argStart]);
+			} else if (option.equals("-history")) {
+				historyMode = true;
+			} else if (option.equals("-growers")) {
+				growersMode = true;
+			} else if (option.equals("-index") && argStart + 1 < args.length) {
+				argStart++;
+				indexFile = new File(args[argStart]);
+			} else if (option.equals("-query")) {
+				queryMode = true;
+			} else if (option.equals("-queue") && argStart + 1 < args.length) {
+				argStart++;
+				queueSize = (int) ArtefactExtractor.numberOption(option, args[argStart], 1, Integer.MAX_VALUE);
+			} else if (option.equals("-config") && argStart + 1 < args.length) {
+				argStart++;
+				configDir = new File(args[argStart]);
+			} else if (option.equals("-daemon") && argStart + 1 < args.length) {
+				argStart++;
+				daemonPort = (int) ArtefactExtractor.numberOption(option, args[argStart], 0, 65535);
+			} else if (option.equals("-sample") && argStart + 1 < args.length) {
+				argStart++;
+				try {
+					sampleRate = Double.parseDouble(args[argStart]);
+				} catch (NumberFormatException e) {
+					// Same answer as a rate out of range
+				}
+				if (!(sampleRate > 0 && sampleRate <= 1)) {
+					ArtefactExtractor.usageError(option + " needs a rate above 0 and up to 1, not " + args[argStart]);
+				}
+			} else if (option.equals("-seed") && argStart + 1 < args.length) {
+				argStart++;
+				sampleSeed = ArtefactExtractor.numberOption(option, args[argStart], Long.MIN_VALUE, Long.MAX_VALUE);
+			} else if (option.equals("-cocomo")) {
+				cocomoMode = true;
+			} else if (option.equals("-samples") && argStart + 1 < args.length) {
+				argStart++;
+				monteCarloSamples = ArtefactExtractor.numberOption(option, args[argStart], 0, Long.MAX_VALUE);
+			} else if (option.equals("-serve") && argStart + 1 < args.length) {
+				argStart++;
+				servePort = (int) ArtefactExtractor.numberOption(option, args[argStart], 0, 65535);
+			} else if (option.equals("-git") && argStart + 2 < args.length) {
+				gitRevisions = new String[] { args[argStart + 1], args[argStart + 2] };
+				argStart += 2;
+			} else {
+				System.out.println("Unknown option: " + option);
+				System.out.println(ArtefactExtractor.help());
+				System.exit(1);
+			}
+			// Only the merged run goes into the store and the index
+			if (!option.startsWith("-shard") && !option.equals("-processes") && !option.equals("-merge") && !option.equals("-store")
+					&& !option.equals("-index")) {
+				for (int i = optionStart; i <= argStart; i++) {
+					workerOptions.add(args[i]);
+				}
+			}
+			argStart++;
+		}
+
+		if (daemonPort > -1) {
+			// Requests name their applications, they must be in one of the
+			// source directories, the current one by default
+			List<File> sourceDirs = new ArrayList<File>();
+			for (int i = argStart; i < args.length; i++) {
+				sourceDirs.add(new File(args[i]));
+			}
+			if (sourceDirs.isEmpty()) {
+				sourceDirs.add(new File("."));
+			}
+			ArtefactExtractor ae = new ArtefactExtractor(".", null, RuleSet.load(configDir));
+			new ArtefactDaemon(ae, daemonPort, threadCount, sourceDirs).serve();
+			return;
+		}
+
+		if (servePort > -1 && argStart < args.length) {
+			// Only the report columns are needed, for the names
+			ArtefactExtractor ae = new ArtefactExtractor(".", null, RuleSet.load(configDir));
+			new QueryServer(ae, new File(args[argStart]), servePort, threadCount).serve();
+			return;
+		}
+
+		if (args.length - argStart < 2) {
 			System.out.println(ArtefactExtractor.help());
 			System.exit(1);
 		}
 
-		String sourceDir = ResourceHelper.pathWithSeperator(args[0]);
-		String resultFile = args[1];
+		if (diffMode) {
+			if (args.length - argStart < 3) {
+				System.out.println(ArtefactExtractor.help());
+				System.exit(1);
+			}
+			new RunDiff(new File(args[argStart]), new File(args[argStart + 1])).writeDelta(args[argStart + 2]);
+			System.out.println("Done!");
+			return;
+		}
+
+		if (cocomoMode) {
+			// The effort file is the report of this extractor
+			ArtefactExtractor ae = new ArtefactExtractor(".", args[argStart + 1], RuleSet.load(configDir));
+			new EffortReport(ae).write(new File(args[argStart]), monteCarloSamples, threadCount, sampleSeed);
+			System.out.println("Done!");
+			return;
+		}
+
+		if (queryMode) {
+			CounterIndex index = CounterIndex.load(new File(args[argStart]));
+			CounterIndex.QueryResult result;
+			try {
+				result = index.query(args[argStart + 1]);
+			} catch (IllegalArgumentException e) {
+				System.out.println(e.getMessage());
+				System.exit(1);
+				return;
+			}
+			StringBuilder header = new StringBuilder("Application");
+			for (String term : result.getTerms()) {
+				header.append(",");
+				header.append(term);
+			}
+			System.out.println(header);
+			for (Map.Entry<String, long[]> me : result.getApplications().entrySet()) {
+				StringBuilder row = new StringBuilder(me.getKey());
+				for (long count : me.getValue()) {
+					row.append(",");
+					row.append(count);
+				}
+				System.out.println(row);
+			}
+			System.err.println(result.getApplications().size() + " of " + index.getApplicationCount() + " applications");
+			return;
+		}
+
+		if (historyMode || growersMode) {
+			ArtefactExtractor ae = new ArtefactExtractor(".", null, RuleSet.load(configDir));
+			MetricsStore store = new MetricsStore(new File(args[argStart]));
+			if (historyMode) {
+				if (args.length - argStart < 3) {
+					System.out.println(ArtefactExtractor.help());
+					System.exit(1);
+				}
+				int days = (args.length - argStart > 3) ? (int) ArtefactExtractor.numberOption("days", args[argStart + 3], 1,
+						Integer.MAX_VALUE) : 365;
+				ae.printHistory(store, args[argStart + 1], args[argStart + 2], days);
+			} else {
+				int count = (args.length - argStart > 2) ? (int) ArtefactExtractor.numberOption("count", args[argStart + 2], 1,
+						Integer.MAX_VALUE) : 20;
+				int days = (args.length - argStart > 3) ? (int) ArtefactExtractor.numberOption("days", args[argStart + 3], 1,
+						Integer.MAX_VALUE) : 365;
+				ae.printGrowers(store, args[argStart + 1], count, days);
+			}
+			return;
+		}
+
+		if (mergeMode) {
+			// ReportFile and the partial results of the shards
+			ArtefactExtractor ae = new ArtefactExtractor(".", args[argStart], RuleSet.load(configDir));
+			if (storeDir != null) {
+				ae.setMetricsStore(new MetricsStore(storeDir));
+			}
+			ae.setIndexFile(indexFile);
+			ae.setFindDuplicates(findDuplicates);
+			ae.setFindSimilarCode(findSimilarCode);
+			ae.setTopFunctions(topFunctions);
+			List<File> partials = new ArrayList<File>();
+			for (int i = argStart + 1; i < args.length; i++) {
+				partials.add(new File(args[i]));
+			}
+			ae.mergePartials(partials);
+			System.out.println("Done!");
+			return;
+		}
+
+		String sourceDir = ResourceHelper.pathWithSeperator(args[argStart]);
+		String resultFile = args[argStart + 1];
 
 		File morituri = new File(resultFile);
 		if (morituri.exists()) {
 			morituri.delete();
 		}
 
-		ArtefactExtractor ae = new ArtefactExtractor(sourceDir, resultFile);
+		ArtefactExtractor ae = new ArtefactExtractor(sourceDir, resultFile, RuleSet.load(configDir));
+		ae.setThreadCount(threadCount);
+		if (stageThreads != null) {
+			ae.setStageThreads(stageThreads[0], stageThreads[1], stageThreads[2], stageThreads[3]);
+		}
+		ae.setQueueSize(queueSize);
+		ae.setIoConcurrency(ioConcurrency);
+		ae.setFindDuplicates(findDuplicates);
+		ae.setFindSimilarCode(findSimilarCode);
+		ae.setTopFunctions(topFunctions);
+		ae.getErrorLog().setRetries(retries);
+		ae.getErrorLog().setMaxErrors(maxErrors);
+		ae.setScanBudget(timeLimit, maxDepth);
+		if (quarantineFile != null) {
+			ae.setQuarantine(new QuarantineList(quarantineFile));
+		}
+		if (storeDir != null) {
+			ae.setMetricsStore(new MetricsStore(storeDir));
+		}
+		ae.setIndexFile(indexFile);
 
-		if (args.length > 2) {
-			String commandFile = args[2];
+		String commandFile = null;
+		if (args.length - argStart > 2) {
+			commandFile = args[argStart + 2];
 			ae.setCommandFile(commandFile);
 		}
+
+		if (sampleRate > 0) {
+			new SampleEstimator(ae, sampleRate, sampleSeed, threadCount).writeEstimate(resultFile);
+			System.out.println("Done!");
+			return;
+		}
+
+		if (processes > 0) {
+			new ShardLauncher(workerOptions, shardMethod).run(processes, sourceDir, commandFile, ae);
+			System.out.println("Done!");
+			return;
+		}
+		if (shard != null) {
+			try {
+				ae.setShard(ShardSpec.parse(shard, shardMethod));
+			} catch (IllegalArgumentException e) {
+				ArtefactExtractor.usageError(e.getMessage());
+			}
+		}
+
+		if (gitRevisions != null) {
+			GitDeltaScanner gitScanner = new GitDeltaScanner(ae, new File(sourceDir), gitRevisions[0], gitRevisions[1]);
+			gitScanner.writeDeltaReport(resultFile);
+			System.out.println("Done!");
+			return;
+		}
+
+		if (watchMode) {
+			ArtefactWatcher watcher = new ArtefactWatcher(ae);
+			try {
+				watcher.watch();
+			} catch (InterruptedException e) {
+				// Someone wants us to stop watching
+				Thread.currentThread().interrupt();
+			} finally {
+				watcher.close();
+			}
+			return;
+		}
+
 		ae.extract();
 
 		System.out.println("Done!");
@@ -84,234 +483,870 @@ public class ArtefactExtractor {
 
 	}
 
+	/**
+	 * Fingerprint all XML design elements and report the ones that exist in
+	 * more than one place
+	 * 
+	 * @param findDuplicates
+	 */
+	public void setFindDuplicates(boolean findDuplicates) {
+		if (findDuplicates) {
+			this.fingerprinter = new ElementFingerprinter(this.populateFingerprintExclusions());
+			this.fingerprintIndex = new FingerprintIndex();
+		} else {
+			this.fingerprinter = null;
+			this.fingerprintIndex = null;
+		}
+	}
+
+	/**
+	 * Sign all code units (agents, libraries, formulas...) and report the ones
+	 * that are slightly modified copies of each other
+	 * 
+	 * @param findSimilarCode
+	 */
+	public void setFindSimilarCode(boolean findSimilarCode) {
+		if (findSimilarCode) {
+			this.minHasher = new MinHasher();
+			this.similarityIndex = new CodeSimilarityIndex();
+		} else {
+			this.minHasher = null;
+			this.similarityIndex = null;
+		}
+	}
+
+	/**
+	 * Count every @Function and @Command in formulas and report the most used
+	 * ones per application
+	 * 
+	 * @param topN
+	 *            - how many functions get their own column, 0 switches the
+	 *            profiling off
+	 */
+	public void setTopFunctions(int topN) {
+		this.functionProfile = (topN > 0) ? new FunctionProfileIndex(topN) : null;
+	}
+
+	/**
+	 * What one file may use before it goes to the quarantine
+	 * 
+	 * @param timeLimit
+	 *            - milliseconds, 0 for no limit
+	 * @param maxDepth
+	 *            - deepest element nesting, 0 for no limit
+	 */
+	public void setScanBudget(long timeLimit, int maxDepth) {
+		this.timeLimit = timeLimit;
+		this.maxDepth = maxDepth;
+	}
+
+	/**
+	 * @param quarantine
+	 *            - the files that only get the fallback scan
+	 */
+	public void setQuarantine(QuarantineList quarantine) {
+		this.quarantine = quarantine;
+	}
+
+	/**
+	 * How many files are parsed and counted in parallel, unless the stages
+	 * are set one by one
+	 * 
+	 * @param threadCount
+	 */
+	public void setThreadCount(int threadCount) {
+		this.threadCount = Math.max(1, threadCount);
+	}
+
+	/**
+	 * Threads of the pipeline stages
+	 * 
+	 * @param walk
+	 * @param read
+	 * @param parse
+	 * @param count
+	 */
+	public void setStageThreads(int walk, int read, int parse, int count) {
+		this.stageThreads = new int[] { walk, read, parse, count };
+	}
+
+	/**
+	 * @param queueSize
+	 *            - how many files wait between two pipeline stages at most
+	 */
+	public void setQueueSize(int queueSize) {
+		this.queueSize = queueSize;
+	}
+
+	/**
+	 * Only scan one shard of the applications and write a partial result
+	 * next to the report, for the merge
+	 * 
+	 * @param shard
+	 *            - null to scan all
+	 */
+	public void setShard(ShardSpec shard) {
+		this.shard = shard;
+	}
+
+	/**
+	 * Walk and read with many file system calls at the same time, on virtual
+	 * threads when the Java has them
+	 * 
+	 * @param ioConcurrency
+	 *            - calls in flight at most, 0 switches it off
+	 */
+	public void setIoConcurrency(int ioConcurrency) {
+		this.ioConcurrency = ioConcurrency;
+	}
+
+	/**
+	 * Add the counters of every complete run to a store, for trends over time.
+	 * Shards don't add to it, their merge does
+	 * 
+	 * @param metricsStore
+	 *            - null for no store
+	 */
+	public void setMetricsStore(MetricsStore metricsStore) {
+		this.metricsStore = metricsStore;
+	}
+
+	/**
+	 * Write an inverted index of all counters of a complete run, for
+	 * queries. Shards don't write it, their merge does
+	 * 
+	 * @param indexFile
+	 *            - null for no index
+	 */
+	public void setIndexFile(File indexFile) {
+		this.indexFile = indexFile;
+	}
+
 	private final String					reportFileName;
 	private final File						rootDir;
-	private final Collection<String>		tagsForLOC;
-	private final Collection<String>		xmlExtensions;
-	private final Map<String, Set<String>>	reportMappings;
-	private final Map<String, String>		sourceTypes;
-	private String							commandFileName	= null;
+	private volatile RuleSet				rules;
+	private volatile ScannerRegistry		scanners;
+	private String							commandFileName		= null;
+	private int								threadCount			= 1;
+	private int[]							stageThreads		= null;
+	private int								queueSize			= ScanPipeline.DEFAULT_QUEUE_SIZE;
+	private int								ioConcurrency		= 0;
+	private ShardSpec						shard				= null;
+	private PartialResult					partialResult		= null;
+	private Map<File, Integer>				shardPositions		= null;
+	private MetricsStore					metricsStore		= null;
+	private MetricsStore.Run				storeRun			= null;
+	private File							indexFile			= null;
+	private CounterIndex					counterIndex		= null;
+	private ElementFingerprinter			fingerprinter		= null;
+	private FingerprintIndex				fingerprintIndex	= null;
+	private MinHasher						minHasher			= null;
+	private CodeSimilarityIndex				similarityIndex		= null;
+	private FunctionProfileIndex			functionProfile		= null;
+	private final ScanErrorLog				errorLog			= new ScanErrorLog();
+	private final ScanWatchdog				watchdog			= new ScanWatchdog();
+	private final FallbackScanner			fallbackScanner		= new FallbackScanner();
+	// Wrapper directory of each walked archive, not part of element names
+	private final Map<String, String>		archiveRoots		= new ConcurrentHashMap<String, String>();
+	private QuarantineList					quarantine;
+	private long							timeLimit			= ArtefactExtractor.DEFAULT_TIME_LIMIT;
+	private int								maxDepth			= ArtefactExtractor.DEFAULT_MAX_DEPTH;
 
 	public ArtefactExtractor(String sourceDir, String resultFileName) {
+		this(sourceDir, resultFileName, RuleSet.load(new File(".")));
+	}
+
+	/**
+	 * Extractor with a rule set that can be shared with other extractors
+	 * 
+	 * @param sourceDir
+	 * @param resultFileName
+	 * @param rules
+	 */
+	public ArtefactExtractor(String sourceDir, String resultFileName, RuleSet rules) {
 		this.reportFileName = resultFileName;
 		this.rootDir = new File(ResourceHelper.pathWithSeperator(sourceDir));
-		this.tagsForLOC = this.populateTagsForLoc();
-		this.xmlExtensions = this.populateXmlExtension();
-		this.reportMappings = this.populateReportMappings();
-		this.sourceTypes = this.populateSourceTypes();
+		this.rules = rules;
+		this.scanners = new ScannerRegistry(this);
+		this.quarantine = new QuarantineList(new File(rules.getConfigDir(), ArtefactExtractor.QUARANTINE_FILE));
+	}
+
+	/**
+	 * @return the rules currently in use, scanners take it once per file
+	 */
+	public RuleSet getRules() {
+		return this.rules;
+	}
+
+	/**
+	 * Loads the configuration files again, scans that are running finish with
+	 * the rules they started with
+	 */
+	public void reloadRules() {
+		RuleSet newRules = RuleSet.load(this.rules.getConfigDir());
+		this.setRules(newRules);
+	}
+
+	/**
+	 * Switches to another rule set
+	 * 
+	 * @param newRules
+	 */
+	public synchronized void setRules(RuleSet newRules) {
+		this.rules = newRules;
+		this.scanners = new ScannerRegistry(this);
+	}
+
+	/**
+	 * Entry routine to scan all applications in one directory
+	 * 
+	 * @throws IOException
+	 */
+	public void extract() throws IOException {
+		if (!this.rootDir.isDirectory()) {
+			System.err.println("You need to point to the directory above the On-Disk-Projects!");
+			System.exit(1);
+		}
+
+		File result = new File(this.reportFileName);
+		FileOutputStream out = new FileOutputStream(result);
+		PrintWriter pw = new PrintWriter(out);
+		this.writeResultHeader(pw);
+
+		ScanPipeline pipeline = new ScanPipeline(this, this.queueSize);
+		if (this.stageThreads != null) {
+			pipeline.setStageThreads(this.stageThreads[0], this.stageThreads[1], this.stageThreads[2], this.stageThreads[3]);
+		} else {
+			pipeline.setStageThreads(1, 2, this.threadCount, this.threadCount);
+		}
+		if (this.ioConcurrency > 0) {
+			pipeline.setIoConcurrency(this.ioConcurrency);
+			System.out.println("Concurrent I/O on " + (IoExecutors.hasVirtualThreads() ? "virtual" : "platform") + " threads");
+		}
+		Collection<File> sources = this.getApplicationSources();
+		if (this.shard != null) {
+			this.shardPositions = this.shard.select(sources);
+			sources = this.shardPositions.keySet();
+			this.partialResult = new PartialResult(new File(ArtefactExtractor.getPartialFileName(this.reportFileName)), this.shard);
+			System.out.println("Shard " + this.shard + ": " + sources.size() + " applications");
+		} else {
+			this.startRunIndexes();
+		}
+		try {
+			pipeline.run(sources, pw);
+			if (this.partialResult != null) {
+				// Complete only when all applications made it
+				this.partialResult.close();
+			}
+			this.finishRunIndexes();
+			if (this.fingerprintIndex != null) {
+				this.fingerprintIndex.writeDuplicates(this.getSideReportFileName("duplicates"));
+			}
+			if (this.similarityIndex != null) {
+				this.similarityIndex.writeClusters(this.getSideReportFileName("similar"));
+			}
+			if (this.functionProfile != null) {
+				this.functionProfile.writeProfile(this.getSideReportFileName("functions"));
+			}
+		} finally {
+			pw.flush();
+			pw.close();
+			out.close();
+			// Also when the error budget ended the run
+			this.writeErrorLog();
+		}
+
+	}
+
+	/**
+	 * Combines the partial results of shards into the report, the metrics
+	 * and the side reports, the same as one run over all applications
+	 * 
+	 * @param partialFiles
+	 * @throws IOException
+	 *             when a partial result is incomplete, a shard is missing or
+	 *             present more than once, or an application is in more than one
+	 */
+	public void mergePartials(Collection<File> partialFiles) throws IOException {
+		Map<Integer, PartialResult.Application> applications = new TreeMap<Integer, PartialResult.Application>();
+		Map<Integer, File> shards = new TreeMap<Integer, File>();
+		ShardSpec first = null;
+		for (File partialFile : partialFiles) {
+			PartialResult.Shard partial = PartialResult.read(partialFile);
+			ShardSpec spec = partial.getSpec();
+			if (first == null) {
+				first = spec;
+			} else if (spec.getShardCount() != first.getShardCount() || !spec.getMethod().equals(first.getMethod())) {
+				throw new IOException(partialFile + " is shard " + spec + " by " + spec.getMethod() + ", not of "
+						+ first.getShardCount() + " by " + first.getMethod());
+			}
+			File other = shards.put(Integer.valueOf(spec.getShard()), partialFile);
+			if (other != null) {
+				throw new IOException(partialFile + " and " + other + " are both shard " + spec);
+			}
+			for (PartialResult.Application app : partial.getApplications()) {
+				PartialResult.Application known = applications.put(Integer.valueOf(app.getPosition()), app);
+				if (known != null) {
+					throw new IOException(app.getSource() + " is in more than one partial result");
+				}
+			}
+		}
+		if (first == null || shards.size() != first.getShardCount()) {
+			// Keys are 1 to N, a missing one would drop its applications
+			throw new IOException("Shards " + shards.keySet() + " of " + ((first == null) ? 0 : first.getShardCount())
+					+ ", all of them are needed for the report");
+		}
+
+		this.startRunIndexes();
+		FileOutputStream out = new FileOutputStream(this.reportFileName);
+		PrintWriter pw = new PrintWriter(out);
+		try {
+			this.writeResultHeader(pw);
+			for (PartialResult.Application app : applications.values()) {
+				pw.write(this.finishApplication(app.getSource(), app.getResult()));
+			}
+			this.finishRunIndexes();
+			if (this.fingerprintIndex != null) {
+				this.fingerprintIndex.writeDuplicates(this.getSideReportFileName("duplicates"));
+			}
+			if (this.similarityIndex != null) {
+				this.similarityIndex.writeClusters(this.getSideReportFileName("similar"));
+			}
+			if (this.functionProfile != null) {
+				this.functionProfile.writeProfile(this.getSideReportFileName("functions"));
+			}
+		} finally {
+			pw.flush();
+			pw.close();
+			out.close();
+		}
+		System.out.println("Merged " + applications.size() + " applications from " + partialFiles.size() + " partial results");
+	}
+
+	/**
+	 * A complete run starts, the metrics store and the counter index collect
+	 * its applications
+	 */
+	private void startRunIndexes() {
+		if (this.metricsStore != null) {
+			this.storeRun = this.metricsStore.startRun(System.currentTimeMillis());
+		}
+		if (this.indexFile != null) {
+			this.counterIndex = new CounterIndex();
+		}
+	}
+
+	/**
+	 * All applications made it, the run is saved
+	 */
+	private void finishRunIndexes() throws IOException {
+		if (this.storeRun != null) {
+			this.storeRun.commit();
+		}
+		if (this.counterIndex != null) {
+			this.counterIndex.write(this.indexFile);
+		}
+	}
+
+	/**
+	 * Is this file a ZIP or JAR with an exported On-Disk-Project?
+	 * 
+	 * @param f
+	 * @return true if we can read it as archive
+	 */
+	static boolean isArchive(File f) {
+		String name = f.getName().toLowerCase();
+		return f.isFile() && (name.endsWith(".zip") || name.endsWith(".jar"));
+	}
+
+	/**
+	 * Name of the application in the report: the directory name or the archive
+	 * name without extension
+	 * 
+	 * @param source
+	 * @return the application name
+	 */
+	static String getApplicationName(File source) {
+		String name = source.getName();
+		if (ArtefactExtractor.isArchive(source)) {
+			name = name.substring(0, name.lastIndexOf("."));
+		}
+		return name;
+	}
+
+	/**
+	 * All applications to analyze, either from the command file or all
+	 * directories and archives below the source directory
+	 * 
+	 * @return the On-Disk-Project directories or archives
+	 * @throws FileNotFoundException
+	 */
+	Collection<File> getApplicationSources() throws FileNotFoundException {
+		Collection<File> result = new ArrayList<File>();
+		if (this.commandFileName != null) {
+			Scanner commandScanner = new Scanner(new File(this.commandFileName));
+			while (commandScanner.hasNextLine()) {
+				String nextLine = commandScanner.nextLine().trim();
+				if (!nextLine.startsWith("#") && !nextLine.equals("")) {
+					File f = new File(nextLine);
+					if (f.isDirectory() || ArtefactExtractor.isArchive(f)) {
+						result.add(f);
+					}
+				}
+			}
+			commandScanner.close();
+		} else {
+			for (File f : this.rootDir.listFiles()) {
+				if (!f.getName().startsWith(".") && (f.isDirectory() || ArtefactExtractor.isArchive(f))) {
+					result.add(f);
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Tag names that contain code
+	 * 
+	 * @return the tags from LocTags.properties
+	 */
+	Collection<String> getTagsForLOC() {
+		return this.rules.getTagsForLOC();
+	}
+
+	/**
+	 * File extensions with XML content
+	 * 
+	 * @return the extensions from xmlExtensions.properties
+	 */
+	Collection<String> getXmlExtensions() {
+		return this.rules.getXmlExtensions();
+	}
+
+	/**
+	 * @return the fingerprinter if we look for duplicates, otherwise null
+	 */
+	ElementFingerprinter getFingerprinter() {
+		return this.fingerprinter;
+	}
+
+	/**
+	 * @return where failed files are recorded, also has retries and error
+	 *         budget
+	 */
+	public ScanErrorLog getErrorLog() {
+		return this.errorLog;
+	}
+
+	/**
+	 * Writes the failed files next to the report, if there are any
+	 */
+	void writeErrorLog() {
+		if (this.errorLog.getErrorCount() > 0) {
+			String errorFile = this.getSideReportFileName("errors");
+			try {
+				this.errorLog.writeErrors(errorFile);
+				System.out.println(this.errorLog.getErrorCount() + " files could not be scanned, see " + errorFile);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * @return the MinHasher if we look for similar code, otherwise null
+	 */
+	MinHasher getMinHasher() {
+		return this.minHasher;
+	}
+
+	/**
+	 * @return true if formulas are profiled
+	 */
+	boolean isProfilingFunctions() {
+		return this.functionProfile != null;
+	}
+
+	/**
+	 * Additional reports go next to the report, e.g. report-duplicates.csv
+	 * 
+	 * @param kind
+	 * @return the file name
+	 */
+	String getSideReportFileName(String kind) {
+		String base = this.reportFileName;
+		int dot = base.lastIndexOf(".");
+		if (dot > base.lastIndexOf(File.separator)) {
+			base = base.substring(0, dot);
+		}
+		return base + "-" + kind + ".csv";
+	}
+
+	String getReportFileName() {
+		return this.reportFileName;
+	}
+
+	/**
+	 * @param reportFileName
+	 * @return the report name with .partial instead of its extension
+	 */
+	static String getPartialFileName(String reportFileName) {
+		String base = reportFileName;
+		int dot = base.lastIndexOf(".");
+		if (dot > base.lastIndexOf(File.separator)) {
+			base = base.substring(0, dot);
+		}
+		return base + ".partial";
+	}
+
+	/**
+	 * One line of the report for an application
+	 * 
+	 * @param appName
+	 * @param result
+	 * @return the CSV row including the line break
+	 */
+	String getReportRow(String appName, ArtefactResult result) {
+		return appName + "," + this.getReportValues(result) + "\n";
+	}
+
+	/**
+	 * The report columns in the order they are written
+	 * 
+	 * @return the column labels without Application and Total
+	 */
+	Collection<String> getReportColumns() {
+		Set<String> headers = new TreeSet<String>();
+		headers.addAll(this.rules.getReportMappings().keySet());
+		return headers;
+	}
+
+	/**
+	 * The values of all report columns and the total
+	 * 
+	 * @param result
+	 * @return comma separated values
+	 */
+	String getReportValues(ArtefactResult result) {
+		return result.getResults(this.rules.getReportMappings());
+	}
+
+	/**
+	 * The raw counters behind a report column, Total sums all columns like the
+	 * report does. Anything else is taken as a raw counter
+	 * 
+	 * @param name
+	 * @return the counters to sum up
+	 */
+	Collection<String> getCounters(String name) {
+		Map<String, Set<String>> mappings = this.rules.getReportMappings();
+		List<String> result = new ArrayList<String>();
+		if (name.equals("Total")) {
+			for (Set<String> counters : mappings.values()) {
+				result.addAll(counters);
+			}
+		} else if (mappings.containsKey(name)) {
+			result.addAll(mappings.get(name));
+		} else {
+			result.add(name);
+		}
+		return result;
 	}
 
 	/**
-	 * Entry routine to scan all applications in one directory
+	 * Prints the value of a column or counter of one application in every
+	 * stored run as CSV
 	 * 
+	 * @param store
+	 * @param application
+	 * @param name
+	 *            - report column or raw counter
+	 * @param days
+	 *            - how far back
 	 * @throws IOException
 	 */
-	public void extract() throws IOException {
-		if (!this.rootDir.isDirectory()) {
-			System.err.println("You need to point to the directory above the On-Disk-Projects!");
-			System.exit(1);
+	public void printHistory(MetricsStore store, String application, String name, int days) throws IOException {
+		long since = System.currentTimeMillis() - days * ArtefactExtractor.DAY;
+		SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+		System.out.println("Date," + name);
+		for (MetricsStore.Sample sample : store.history(application, this.getCounters(name), since)) {
+			System.out.println(format.format(new Date(sample.getTime())) + "," + sample.getValue());
 		}
+	}
 
-		File result = new File(this.reportFileName);
-		FileOutputStream out = new FileOutputStream(result);
-		PrintWriter pw = new PrintWriter(out);
-		this.writeResultHeader(pw);
-
-		if (this.commandFileName != null) {
-			Scanner commandScanner = new Scanner(new File(this.commandFileName));
-			while (commandScanner.hasNextLine()) {
-				String nextLine = commandScanner.nextLine().trim();
-				if (!nextLine.startsWith("#") && !nextLine.equals("")) {
-					File f = new File(nextLine);
-					if (f.isDirectory()) {
-						System.out.println("Working on application: " + f.getName());
-						this.analyzeOneApplication(f, pw);
-					}
-				}
-			}
-		} else {
+	/**
+	 * Prints the applications that grew most in a column or counter between
+	 * the oldest stored run of the period and the latest as CSV
+	 * 
+	 * @param store
+	 * @param name
+	 *            - report column or raw counter
+	 * @param count
+	 *            - how many applications
+	 * @param days
+	 *            - how far back
+	 * @throws IOException
+	 */
+	public void printGrowers(MetricsStore store, String name, int count, int days) throws IOException {
+		long since = System.currentTimeMillis() - days * ArtefactExtractor.DAY;
+		System.out.println("Rank,Application,Before,After,Growth");
+		int rank = 1;
+		for (MetricsStore.Growth growth : store.topGrowers(this.getCounters(name), count, since)) {
+			System.out.println(rank + "," + growth.getApplication() + "," + growth.getBefore() + "," + growth.getAfter() + ","
+					+ growth.getGrowth());
+			rank++;
+		}
+	}
 
-			for (File f : this.rootDir.listFiles()) {
-				if (f.isDirectory() && !f.getName().startsWith(".")) {
-					System.out.println("Working on application: " + f.getName());
-					this.analyzeOneApplication(f, pw);
-					pw.flush();
-				}
+	/**
+	 * Scans all design directories of one application, the application can be
+	 * a directory or an archive
+	 * 
+	 * @param appSource
+	 * @return the findings of the application
+	 * @throws IOException
+	 */
+	ArtefactResult scanApplication(final File appSource) throws IOException {
+		final ArtefactResult result = new ArtefactResult();
+		final String appName = ArtefactExtractor.getApplicationName(appSource);
+		Closeable archive = this.walkApplication(appSource, new FileVisitor() {
+			public void visit(String path, String fname, EntrySource source) throws IOException {
+				String directory = ArtefactExtractor.this.getElementDirectory(appSource, path, fname);
+				ArtefactExtractor.this.scanEntrySafely(appName, path, directory, fname, source, result);
 			}
+		});
+		if (archive != null) {
+			archive.close();
 		}
-		pw.flush();
-		pw.close();
-		out.close();
-
+		return result;
 	}
 
-	private void analyzeOneApplication(File appDir, PrintWriter pw) throws FileNotFoundException {
+	/**
+	 * Hands every design file of an application to the visitor. Only files
+	 * in design directories count and hidden directories below them are
+	 * skipped. Entries of archives are read straight from the compressed
+	 * stream, nothing gets unpacked to disk
+	 * 
+	 * @param appSource
+	 *            - a directory or an archive
+	 * @param visitor
+	 * @return the archive, to be closed when all sources are read, null for
+	 *         directories
+	 * @throws IOException
+	 *             when the visitor fails
+	 */
+	Closeable walkApplication(File appSource, FileVisitor visitor) throws IOException {
+		String appName = ArtefactExtractor.getApplicationName(appSource);
+		if (ArtefactExtractor.isArchive(appSource)) {
+			return this.walkArchive(appSource, appName, visitor);
+		}
 		// On this level we only have directories we are interested in
-		final ArtefactResult result = new ArtefactResult();
-		for (File subDir : appDir.listFiles()) {
+		File[] subDirs = appSource.listFiles();
+		if (subDirs == null) {
+			this.errorLog.record(appName, appSource.getPath(), 1, new FileNotFoundException("Can't list " + appSource));
+			return null;
+		}
+		for (File subDir : subDirs) {
 			if (subDir.isDirectory()) {
-				this.scanDirectory(subDir, result);
+				this.walkDirectory(subDir, appName, visitor);
 			}
 		}
-
-		// Write out the raw metrics file in case someone has ideas
-		File metrics = new File(appDir.getAbsolutePath() + "app.metrics");
-		PrintWriter mw = new PrintWriter(new FileOutputStream(metrics));
-		mw.write(result.toString());
-		mw.flush();
-		mw.close();
-
-		pw.write(appDir.getName());
-		pw.write(",");
-		pw.write(result.getResults(this.reportMappings));
-		pw.write("\n");
-
+		return null;
 	}
 
 	/**
-	 * Checks if the current line of code contains any keywords we want to count
+	 * Walks a directory that showed up in an application with the rules of
+	 * walkApplication, a hidden directory below the design directories is
+	 * skipped
 	 * 
-	 * @param workLine
+	 * @param appDir
+	 * @param dir
+	 *            - somewhere below appDir
+	 * @param visitor
+	 * @throws IOException
+	 *             when the visitor fails
 	 */
-	private void inspectCodeLine(String inputLine, ArtefactResult result) {
-		String workLine = inputLine.trim().toLowerCase();
-
-		for (String curkey : this.sourceTypes.keySet()) {
-			if (workLine.contains(curkey.toLowerCase())) {
-				result.add(this.sourceTypes.get(curkey));
-			}
+	void walkDirectory(File appDir, File dir, FileVisitor visitor) throws IOException {
+		if (!dir.getAbsoluteFile().getParentFile().equals(appDir.getAbsoluteFile()) && dir.getName().startsWith(".")) {
+			return;
 		}
+		this.walkDirectory(dir, ArtefactExtractor.getApplicationName(appDir), visitor);
 	}
 
-	private boolean isElementFromTemplate(Element nodeElement) {
-
-		// We need to check if this is an inherited element,
-		// so we check for the attribute fromtemplate
-
-		if (nodeElement.hasAttribute("fromtemplate")) {
-			String fromTemplate = nodeElement.getAttribute("fromtemplate");
-			if (!fromTemplate.trim().equals("")) {
-				// has the attribute and it isn't empty
-				return true;
+	private Closeable walkArchive(File archive, String appName, FileVisitor visitor) throws IOException {
+		final ZipFile zip;
+		try {
+			zip = new ZipFile(archive);
+		} catch (IOException e) {
+			this.errorLog.record(appName, archive.getPath(), 1, e);
+			return null;
+		}
+		boolean walked = false;
+		try {
+			String root = this.findArchiveRoot(zip);
+			this.archiveRoots.put(archive.getAbsolutePath(), root);
+			Enumeration<? extends ZipEntry> entries = zip.entries();
+			while (entries.hasMoreElements()) {
+				final ZipEntry entry = entries.nextElement();
+				String entryName = entry.getName();
+				if (entry.isDirectory() || !entryName.startsWith(root)) {
+					continue;
+				}
+				String[] pathParts = entryName.substring(root.length()).split("/");
+				if (pathParts.length < 2 || this.isHiddenArchivePath(pathParts)) {
+					continue;
+				}
+				String path = archive.getAbsolutePath() + "!/" + entryName;
+				visitor.visit(path, pathParts[pathParts.length - 1], new EntrySource() {
+					public InputStream open() throws IOException {
+						return zip.getInputStream(entry);
+					}
+				});
+			}
+			walked = true;
+		} finally {
+			if (!walked) {
+				zip.close();
 			}
 		}
-		// Not from template, since we didn't find the property
-		return false;
+		return zip;
 	}
 
 	/**
-	 * Process that one element
+	 * Write out the raw metrics file in case someone has ideas
 	 * 
-	 * @param element
+	 * @param appSource
 	 * @param result
-	 * @param extension
+	 * @throws FileNotFoundException
 	 */
-	private void iterateAndCount(Element element, ArtefactResult result, String extension) {
-
-		NodeList nodeList = element.getChildNodes();
-
-		for (int i = 0, size = nodeList.getLength(); i < size; i++) {
-			Node node = nodeList.item(i);
-
-			if (node.getNodeType() == Node.ELEMENT_NODE) {
-				Element nodeElement = (Element) node;
-				String curName = node.getNodeName();
-
-				// Check for template
-				boolean elementIsFromTemplate = this.isElementFromTemplate(nodeElement);
-
-				if (elementIsFromTemplate) {
-					String fromTemplate = nodeElement.getAttribute("fromtemplate");
-					result.add("template_" + fromTemplate);
-					return;
-				}
-
-				result.add(curName);
-				result.add(extension + "_" + curName);
+	void writeMetrics(File appSource, ArtefactResult result) throws FileNotFoundException {
+		File metrics = new File(appSource.getAbsoluteFile().getParentFile(), ArtefactExtractor.getApplicationName(appSource)
+				+ "app.metrics");
+		PrintWriter mw = new PrintWriter(new FileOutputStream(metrics));
+		mw.write(result.toString());
+		mw.flush();
+		mw.close();
+	}
 
-				this.updateLOC(nodeElement, result);
-				this.iterateAndCount(nodeElement, result, extension);
-			}
+	/**
+	 * Everything that happens once all files of an application are counted:
+	 * the metrics file, the indexes for the side reports and the report row
+	 * 
+	 * @param appSource
+	 * @param result
+	 * @return the report row
+	 * @throws IOException
+	 */
+	String finishApplication(File appSource, ArtefactResult result) throws IOException {
+		if (this.partialResult != null) {
+			this.partialResult.write(this.shardPositions.get(appSource).intValue(), appSource, result);
+		}
+		this.writeMetrics(appSource, result);
+		String appName = ArtefactExtractor.getApplicationName(appSource);
+		if (this.storeRun != null) {
+			this.storeRun.add(appName, result);
+		}
+		if (this.counterIndex != null) {
+			this.counterIndex.add(appName, result);
 		}
+		if (this.fingerprintIndex != null) {
+			this.fingerprintIndex.add(appName, result.getFingerprints());
+		}
+		if (this.similarityIndex != null) {
+			this.similarityIndex.add(appName, result.getCodeSignatures());
+		}
+		if (this.functionProfile != null) {
+			this.functionProfile.add(appName, result.getFunctions());
+		}
+		return this.getReportRow(appName, result);
 	}
 
 	/**
-	 * All columns we want to have in the final report, and the raw tags that
-	 * make up the columns, Loads values from a properties file, if it can't
-	 * find it a JAR internal one is used but written out
+	 * The directory of a file relative to its application, e.g. Forms/, it
+	 * keeps design elements with the same file name apart
 	 * 
-	 * @return
+	 * @param appSource
+	 *            - the directory or archive of the application
+	 * @param path
+	 *            - of the file as the walk gives it
+	 * @param fname
+	 * @return the directory with a trailing slash, empty for a file on the
+	 *         top level
 	 */
-	private Map<String, Set<String>> populateReportMappings() {
-		Map<String, Set<String>> result = new TreeMap<String, Set<String>>();
-		Properties workingProperties = new Properties();
-
-		String propFileName = this.getClass().getName() + ".properties";
-		File propFile = new File(propFileName);
-		boolean success = false;
-		if (propFile.exists()) {
-			// Loading properties from File
-			try {
-				workingProperties.load(new FileInputStream(propFile));
-				success = true;
-			} catch (FileNotFoundException e) {
-				e.printStackTrace();
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
+	String getElementDirectory(File appSource, String path, String fname) {
+		String prefix = appSource.getAbsolutePath() + File.separator;
+		if (ArtefactExtractor.isArchive(appSource)) {
+			String root = this.archiveRoots.get(appSource.getAbsolutePath());
+			prefix = appSource.getAbsolutePath() + "!/" + ((root == null) ? "" : root);
 		}
-
-		if (!success) {
-			System.out.println("Using defaults for Report definition:" + propFile.getAbsolutePath());
-			InputStream in = this.getClass().getResourceAsStream("defaultReport.properties");
-			try {
-				workingProperties.load(in);
-				in.close();
-				workingProperties.store(new FileOutputStream(propFile), "***** Default values ******");
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
+		int start = path.startsWith(prefix) ? prefix.length() : 0;
+		int end = path.length() - fname.length();
+		if (end <= start) {
+			return "";
 		}
+		return path.substring(start, end).replace(File.separatorChar, '/');
+	}
 
-		for (Map.Entry<Object, Object> entry : workingProperties.entrySet()) {
-			String key = entry.getKey().toString();
-			String[] rawValues = entry.getValue().toString().split(",");
-			TreeSet<String> values = new TreeSet<String>();
-			for (String v : rawValues) {
-				if (!v.trim().equals("")) {
-					values.add(v.trim());
-				}
+	/**
+	 * Archives either contain the project directly or wrapped in one single
+	 * top level directory
+	 * 
+	 * @param zip
+	 * @return the prefix of the project inside the archive
+	 */
+	private String findArchiveRoot(ZipFile zip) {
+		String commonRoot = null;
+		Enumeration<? extends ZipEntry> entries = zip.entries();
+		while (entries.hasMoreElements()) {
+			String entryName = entries.nextElement().getName();
+			if (entryName.equals(".project")) {
+				return "";
+			}
+			int slash = entryName.indexOf("/");
+			if (slash < 0) {
+				// Files at the top level, so no wrapper directory
+				return "";
+			}
+			String curRoot = entryName.substring(0, slash + 1);
+			if (commonRoot == null) {
+				commonRoot = curRoot;
+			} else if (!commonRoot.equals(curRoot)) {
+				return "";
 			}
-			result.put(key, values);
 		}
-
-		return result;
+		return (commonRoot == null) ? "" : commonRoot;
 	}
 
-	private Map<String, String> populateSourceTypes() {
-		Map<String, String> result = new TreeMap<String, String>();
-		InputStream in = this.getClass().getResourceAsStream("SourceType.properties");
-		Properties workingProperties = new Properties();
-		try {
-			workingProperties.load(in);
-			for (Map.Entry<Object, Object> me : workingProperties.entrySet()) {
-				result.put(me.getKey().toString(), me.getValue().toString());
+	/**
+	 * Mirrors scanDirectory: directories below the design directories starting
+	 * with a dot are not scanned
+	 */
+	private boolean isHiddenArchivePath(String[] pathParts) {
+		for (int i = 1; i < pathParts.length - 1; i++) {
+			if (pathParts[i].startsWith(".")) {
+				return true;
 			}
-		} catch (IOException e) {
-			e.printStackTrace();
 		}
+		return false;
+	}
 
-		return result;
+	/**
+	 * Checks if the current line of code contains any keywords we want to count
+	 * 
+	 * @param workLine
+	 */
+	void inspectCodeLine(String inputLine, ArtefactResult result) {
+		this.rules.countKeywords(inputLine, result);
 	}
 
 	/**
-	 * All Tag names that contain code
+	 * Elements that don't count when we compare design elements
 	 * 
-	 * @return
+	 * @return the element names
 	 */
-	private Collection<String> populateTagsForLoc() {
+	private Collection<String> populateFingerprintExclusions() {
 		Collection<String> result = new TreeSet<String>();
-		InputStream in = this.getClass().getResourceAsStream("LocTags.properties");
+		InputStream in = this.getClass().getResourceAsStream("fingerprintExclusions.properties");
 		Scanner s = new Scanner(in);
 		while (s.hasNextLine()) {
 			String w = s.nextLine().trim();
@@ -319,68 +1354,208 @@ public class ArtefactExtractor {
 				result.add(w);
 			}
 		}
-
 		return result;
 	}
 
 	/**
-	 * All File extensions we know that contain XML parsable content
+	 * Recursive call to process all
 	 * 
-	 * @return
+	 * @param subDir
+	 * @param visitor
+	 * @throws IOException
 	 */
-	private Collection<String> populateXmlExtension() {
-		Collection<String> result = new TreeSet<String>();
-		InputStream in = this.getClass().getResourceAsStream("xmlExtensions.properties");
-		Scanner s = new Scanner(in);
-		while (s.hasNextLine()) {
-			String w = s.nextLine().trim();
-			if (!w.startsWith("#") && !w.equals("")) {
-				result.add(w);
+	private void walkDirectory(File subDir, String appName, FileVisitor visitor) throws IOException {
+		if (visitor instanceof DirectoryVisitor) {
+			((DirectoryVisitor) visitor).visitDirectory(subDir);
+		}
+		File[] files = subDir.listFiles();
+		if (files == null) {
+			// Deleted while we were scanning
+			this.errorLog.record(appName, subDir.getPath(), 1, new FileNotFoundException("Can't list " + subDir));
+			return;
+		}
+		for (final File f : files) {
+			// One call, on network drives each costs
+			boolean isDirectory = f.isDirectory();
+			if (isDirectory && !f.getName().startsWith(".")) {
+				this.walkDirectory(f, appName, visitor);
+			} else if (!isDirectory) {
+				visitor.visit(f.getAbsolutePath(), f.getName(), new EntrySource() {
+					public InputStream open() throws IOException {
+						return new BufferedInputStream(new FileInputStream(f));
+					}
+				});
 			}
 		}
-		return result;
+
 	}
 
-	private void scanCodeFile(File f, ArtefactResult result, String extension) throws FileNotFoundException {
+	/**
+	 * Scans a file, a failure is recorded in the error log instead of ending
+	 * the run. The file is tried again as often as configured, its counts only
+	 * go into the result when a scan succeeded
+	 * 
+	 * @param appName
+	 * @param directory
+	 *            - of the file, relative to the application
+	 * @param f
+	 * @param result
+	 * @return true if the file was scanned
+	 * @throws IOException
+	 *             only when the error budget is used up
+	 */
+	boolean scanFileSafely(String appName, String directory, final File f, ArtefactResult result) throws IOException {
+		return this.scanSafely(appName, f.getAbsolutePath(), directory, f.getName(), new EntrySource() {
+			public InputStream open() throws IOException {
+				return new BufferedInputStream(new FileInputStream(f));
+			}
+		}, new ScanAttempt() {
+			public void scan(ArtefactResult fileResult) throws IOException {
+				ArtefactExtractor.this.scanOneFile(f, fileResult);
+			}
+		}, result);
+	}
 
-		int addLoc = 0;
-		int addFunctions = 0;
-		Scanner sc = new Scanner(f);
-		while (sc.hasNextLine()) {
-			String curLine = sc.nextLine().trim().toLowerCase();
-			if (!curLine.trim().equals("")) {
-				// Slightly crude way of getting functions and methods count
-				if (curLine.startsWith("sub") || curLine.startsWith("function") || curLine.startsWith("public class")
-						|| curLine.startsWith("public") || (curLine.startsWith("private") && curLine.contains("{"))
-						|| (curLine.startsWith("protected") && curLine.contains("{"))) {
-					addFunctions++;
+	/**
+	 * Scans content from a stream with the same isolation as scanFileSafely
+	 * 
+	 * @param appName
+	 * @param path
+	 *            - where the content is from, for the error log
+	 * @param directory
+	 *            - of the file, relative to the application, the key of its
+	 *            design elements
+	 * @param fname
+	 *            - the name of the file without path
+	 * @param source
+	 *            - opens the content, the stream is closed here
+	 * @param result
+	 * @return true if the content was scanned
+	 * @throws IOException
+	 *             only when the error budget is used up
+	 */
+	boolean scanEntrySafely(String appName, String path, String directory, final String fname, final EntrySource source,
+			ArtefactResult result) throws IOException {
+		return this.scanSafely(appName, path, directory, fname, source, new ScanAttempt() {
+			public void scan(ArtefactResult fileResult) throws IOException {
+				InputStream in = source.open();
+				try {
+					ArtefactExtractor.this.scanOneEntry(fname, in, fileResult);
+				} finally {
+					in.close();
 				}
-				addLoc++;
+			}
+		}, result);
+	}
+
+	/**
+	 * Runs the attempts within the scan budget. A file that exceeds the
+	 * budget isn't tried again: it goes to the quarantine and gets the
+	 * fallback scan, now and in later runs
+	 */
+	private boolean scanSafely(String appName, String path, String directory, String fname, EntrySource source,
+			ScanAttempt scanAttempt, ArtefactResult result) throws IOException {
+		if (this.quarantine.contains(path)) {
+			return this.scanQuarantined(appName, path, fname, source, result);
+		}
+		int maxAttempts = this.errorLog.getRetries() + 1;
+		Exception lastError = null;
+		for (int attempt = 1; attempt <= maxAttempts; attempt++) {
+			if (attempt > 1) {
+				ArtefactExtractor.pauseBeforeRetry(path, attempt);
+			}
+			ArtefactResult fileResult = new ArtefactResult();
+			ScanBudget budget = this.startBudget();
+			try {
+				scanAttempt.scan(fileResult);
+				fileResult.addDirectory(directory);
+				result.add(fileResult);
+				return true;
+			} catch (ScanBudget.ExceededException e) {
+				this.quarantine.add(path, e.getMessage());
+				return this.scanQuarantined(appName, path, fname, source, result);
+			} catch (StackOverflowError e) {
+				// The DOM walk recurses, without a depth limit this is where
+				// deep files end
+				this.quarantine.add(path, "Stack overflow");
+				return this.scanQuarantined(appName, path, fname, source, result);
+			} catch (IOException e) {
+				lastError = e;
+			} catch (RuntimeException e) {
+				lastError = e;
+			} finally {
+				this.finishBudget(budget);
 			}
 		}
-		result.add("LOC_" + extension, addLoc);
-		result.add("LOC", addLoc);
-		result.add("functions_" + extension, addFunctions);
-		result.add("functions", addFunctions);
+		this.errorLog.record(appName, path, maxAttempts, lastError);
+		return false;
 	}
 
 	/**
-	 * Recursive call to process all
+	 * Give whoever is writing the file a moment before we try again
 	 * 
-	 * @param subDir
-	 * @param result
-	 * @throws FileNotFoundException
+	 * @param path
+	 * @param attempt
+	 *            - the attempt that comes next, starting at 1
+	 * @throws IOException
+	 *             when interrupted
 	 */
-	private void scanDirectory(File subDir, ArtefactResult result) throws FileNotFoundException {
+	static void pauseBeforeRetry(String path, int attempt) throws IOException {
+		try {
+			Thread.sleep(100L * (attempt - 1));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted retrying " + path, e);
+		}
+	}
 
-		for (File f : subDir.listFiles()) {
-			if (f.isDirectory() && !f.getName().startsWith(".")) {
-				this.scanDirectory(f, result);
-			} else {
-				this.scanOneFile(f, result);
+	/**
+	 * Starts the budget of a file for the current thread
+	 * 
+	 * @return the budget, needs to be finished
+	 */
+	ScanBudget startBudget() {
+		return this.watchdog.start(this.timeLimit, this.maxDepth);
+	}
+
+	void finishBudget(ScanBudget budget) {
+		this.watchdog.finish(budget);
+	}
+
+	/**
+	 * @return the files that only get the fallback scan
+	 */
+	QuarantineList getQuarantine() {
+		return this.quarantine;
+	}
+
+	/**
+	 * Counts a quarantined file with the fallback scanner, no budget there
+	 * 
+	 * @return false if the content couldn't be read, that is in the error
+	 *         log then
+	 */
+	boolean scanQuarantined(String appName, String path, String fname, EntrySource source, ArtefactResult result)
+			throws IOException {
+		String extension = this.getExtension(fname);
+		if (extension == null) {
+			return true;
+		}
+		ArtefactResult fileResult = new ArtefactResult();
+		fileResult.add("File-" + extension);
+		try {
+			InputStream in = source.open();
+			try {
+				this.fallbackScanner.scan(this, fname, extension, in, fileResult);
+			} finally {
+				in.close();
 			}
+		} catch (IOException e) {
+			this.errorLog.record(appName, path, 1, e);
+			return false;
 		}
-
+		result.add(fileResult);
+		return true;
 	}
 
 	/**
@@ -388,114 +1563,90 @@ public class ArtefactExtractor {
 	 * 
 	 * @param f
 	 * @param result
-	 * @throws FileNotFoundException
+	 * @throws IOException
 	 */
-	private void scanOneFile(File f, ArtefactResult result) throws FileNotFoundException {
+	void scanOneFile(File f, ArtefactResult result) throws IOException {
 		String fname = f.getName();
-		int pos = fname.lastIndexOf(".");
-		if (pos < 0) {
-			// File without extension - we don't process
-			return;
-		}
-		String extension = fname.substring(pos + 1).toLowerCase().trim();
-
-		if (extension.endsWith("metadata")) {
-			// We don't need that either
+		String extension = this.getExtension(fname);
+		if (extension == null) {
 			return;
 		}
 
 		// Capture the fact
 		result.add("File-" + extension);
 
-		// Special names
-
-		if (fname.equals("database.properties") || this.xmlExtensions.contains(extension)) {
-			// Classic XML to process
-			this.scanXMLFile(f, result, extension);
-
-		} else if (extension.equals("java") || extension.equals("js") || extension.equals("jss") || extension.equals("lss")) {
-			// Java and JavaScript plain source code
-			this.scanCodeFile(f, result, extension);
-
-		} else if (extension.equals("properties")) {
-			// Plain ASCII Files to count...
-			this.scanPlainFile(f, result);
-
+		ArtefactScanner scanner = this.scanners.getScanner(fname, extension);
+		if (scanner != null) {
+			InputStream in = new BufferedInputStream(new FileInputStream(f));
+			try {
+				ScannerRegistry.runScanner(scanner, this, fname, extension, in, result);
+			} finally {
+				in.close();
+			}
 		} else {
 			// Just helper file count
 			result.add("otherFiles");
 		}
-
 	}
 
-	private void scanPlainFile(File f, ArtefactResult result) throws FileNotFoundException {
-		int addLoc = 0;
-		Scanner sc = new Scanner(f);
-		while (sc.hasNextLine()) {
-			if (!sc.nextLine().trim().equals("")) {
-				addLoc++;
-			}
+	/**
+	 * Scans one file that comes as stream, e.g. from an archive
+	 * 
+	 * @param fname
+	 *            the name of the file without path
+	 * @param in
+	 *            the content, not closed here
+	 * @param result
+	 * @throws IOException
+	 */
+	void scanOneEntry(String fname, InputStream in, ArtefactResult result) throws IOException {
+		String extension = this.getExtension(fname);
+		if (extension == null) {
+			return;
 		}
-		result.add("LOC_other", addLoc);
-		result.add("LOC", addLoc);
-	}
 
-	private void scanXMLFile(File f, ArtefactResult result, String extension) {
-		Document xDoc = DomHelper.getDomHelper().file2Dom(f.getPath());
-		if (xDoc != null) {
-			Element element = xDoc.getDocumentElement();
-			this.iterateAndCount(element, result, extension);
-		}
+		// Capture the fact
+		result.add("File-" + extension);
 
+		ArtefactScanner scanner = this.scanners.getScanner(fname, extension);
+		if (scanner != null) {
+			ScannerRegistry.runScanner(scanner, this, fname, extension, in, result);
+		} else {
+			// Just helper file count
+			result.add("otherFiles");
+		}
 	}
 
 	/**
-	 * Counts element for LOC count if required
-	 * 
-	 * @param nodeElement
+	 * @param fname
+	 * @param extension
+	 * @return the scanner for a file, null if we only count it
 	 */
-	private void updateLOC(Element element, ArtefactResult result) {
-		String language = element.getNodeName();
-		if (this.tagsForLOC.contains(language)) {
-			// Extracts the # of lines inside an element
-			// typically used for lotuscript and formula elements
-			// also checks for code keywords
-			int addCount = 0;
-
-			NodeList nodeList = element.getChildNodes();
-			for (int i = 0, size = nodeList.getLength(); i < size; i++) {
-				Node node = nodeList.item(i);
-				if (node.getNodeType() == Node.TEXT_NODE) {
-
-					BufferedReader source = new BufferedReader(new StringReader(node.getNodeValue()));
-
-					String curLine;
-					try {
-						while ((curLine = source.readLine()) != null) {
-							String workLine = curLine.trim().toLowerCase();
+	ArtefactScanner getScanner(String fname, String extension) {
+		return this.scanners.getScanner(fname, extension);
+	}
 
-							if (!workLine.equals("") && !workLine.startsWith("'")) {
-								this.inspectCodeLine(workLine, result);
-								addCount += 1;
-							}
-						}
-					} catch (IOException e) {
-						e.printStackTrace();
-					}
+	/**
+	 * The lower case extension of a file or null if we don't process the file
+	 */
+	String getExtension(String fname) {
+		int pos = fname.lastIndexOf(".");
+		if (pos < 0) {
+			// File without extension - we don't process
+			return null;
+		}
+		String extension = fname.substring(pos + 1).toLowerCase().trim();
 
-				}
-			}
-			// Now add our findings
-			result.add("LOC", addCount);
-			result.add("LOC_" + language, addCount);
+		if (extension.endsWith("metadata")) {
+			// We don't need that either
+			return null;
 		}
+		return extension;
 	}
 
-	private void writeResultHeader(PrintWriter pw) {
-		Set<String> headers = new TreeSet<String>();
-		headers.addAll(this.reportMappings.keySet());
+	void writeResultHeader(PrintWriter pw) {
 		pw.append("Application");
-		for (String h : headers) {
+		for (String h : this.getReportColumns()) {
 			pw.append(",");
 			pw.write(h);
 		}
@@ -22,7 +22,24 @@ import java.util.TreeMap;
 
 public class ArtefactResult {
 
-	private final Map<String, Integer>	scanresults	= new TreeMap<String, Integer>();
+	private final Map<String, Integer>	scanresults		= new TreeMap<String, Integer>();
+
+	/**
+	 * Structural fingerprints of the design elements, only filled when we
+	 * look for duplicates
+	 */
+	private final Map<String, Long>		fingerprints	= new TreeMap<String, Long>();
+
+	/**
+	 * MinHash signatures of the code units, only filled when we look for
+	 * similar code
+	 */
+	private final Map<String, int[]>	codeSignatures	= new TreeMap<String, int[]>();
+
+	/**
+	 * How often each @Function is used, only filled when we profile formulas
+	 */
+	private final FunctionHistogram		functions		= new FunctionHistogram();
 
 	public int add(String key) {
 		return this.add(key, 1);
@@ -44,6 +61,131 @@ public class ArtefactResult {
 		return result;
 	}
 
+	/**
+	 * Adds all findings of another result, typically the contribution of a
+	 * single file to the result of its application
+	 * 
+	 * @param other
+	 *            - the result to add
+	 */
+	public void add(ArtefactResult other) {
+		for (Map.Entry<String, Integer> me : other.scanresults.entrySet()) {
+			this.add(me.getKey(), me.getValue().intValue());
+		}
+		this.fingerprints.putAll(other.fingerprints);
+		this.codeSignatures.putAll(other.codeSignatures);
+		if (!other.functions.isEmpty()) {
+			this.functions.add(other.functions, 1);
+		}
+	}
+
+	/**
+	 * Records the MinHash signature of a code unit
+	 * 
+	 * @param unit
+	 *            - name of the code unit, unique in the application
+	 * @param signature
+	 */
+	public void addCodeSignature(String unit, int[] signature) {
+		this.codeSignatures.put(unit, signature);
+	}
+
+	/**
+	 * Records the fingerprint of a design element
+	 * 
+	 * @param element
+	 *            - the name of the design element, e.g. the file name
+	 * @param fingerprint
+	 *            - the structural hash
+	 */
+	public void addFingerprint(String element, long fingerprint) {
+		this.fingerprints.put(element, Long.valueOf(fingerprint));
+	}
+
+	/**
+	 * Scanners only know the file name, files with the same name in different
+	 * directories would collide. Puts the directory of the file in front of
+	 * the design element and code unit names
+	 * 
+	 * @param directory
+	 *            - relative to the application, ends with a slash
+	 */
+	public void addDirectory(String directory) {
+		if (directory.length() == 0) {
+			return;
+		}
+		if (!this.fingerprints.isEmpty()) {
+			Map<String, Long> byFileName = new TreeMap<String, Long>(this.fingerprints);
+			this.fingerprints.clear();
+			for (Map.Entry<String, Long> me : byFileName.entrySet()) {
+				this.fingerprints.put(directory + me.getKey(), me.getValue());
+			}
+		}
+		if (!this.codeSignatures.isEmpty()) {
+			Map<String, int[]> byFileName = new TreeMap<String, int[]>(this.codeSignatures);
+			this.codeSignatures.clear();
+			for (Map.Entry<String, int[]> me : byFileName.entrySet()) {
+				this.codeSignatures.put(directory + me.getKey(), me.getValue());
+			}
+		}
+	}
+
+	/**
+	 * @return code unit names and their MinHash signatures
+	 */
+	public Map<String, int[]> getCodeSignatures() {
+		return this.codeSignatures;
+	}
+
+	/**
+	 * @return all counters, the raw values behind the report columns
+	 */
+	Map<String, Integer> getCounters() {
+		return this.scanresults;
+	}
+
+	/**
+	 * @return the @Function histogram
+	 */
+	public FunctionHistogram getFunctions() {
+		return this.functions;
+	}
+
+	/**
+	 * @return design element names and their fingerprints
+	 */
+	public Map<String, Long> getFingerprints() {
+		return this.fingerprints;
+	}
+
+	/**
+	 * Removes the findings of another result again, used when a file changed
+	 * or vanished and its old contribution must be taken out. Keys that drop
+	 * to zero are removed, so the result looks as if the file was never
+	 * scanned
+	 * 
+	 * @param other
+	 *            - the result to subtract
+	 */
+	public void subtract(ArtefactResult other) {
+		for (Map.Entry<String, Integer> me : other.scanresults.entrySet()) {
+			String key = me.getKey();
+			int remaining = this.add(key, -me.getValue().intValue());
+			if (remaining == 0) {
+				this.scanresults.remove(key);
+			}
+		}
+		for (String element : other.fingerprints.keySet()) {
+			this.fingerprints.remove(element);
+		}
+		for (String unit : other.codeSignatures.keySet()) {
+			this.codeSignatures.remove(unit);
+		}
+		if (!other.functions.isEmpty()) {
+			this.functions.add(other.functions, -1);
+		}
+	}
+
 	/**
 	 * Returns the list of results based on the collection adds a zero if none
 	 * of the values is available. Aggregates multiple tags into something easy
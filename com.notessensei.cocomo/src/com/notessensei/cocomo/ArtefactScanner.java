@@ -0,0 +1,88 @@
+/** ========================================================================= *
+ * Copyright (C) 2014,      IBM Corporation ( http://www.ibm.com/ )           *
+ *                            All rights reserved.                            *
+ * ========================================================================== *
+ *                                                                            *
+ * Licensed under the  Apache License, Version 2.0  (the "License").  You may *
+ * not use this file except in compliance with the License.  You may obtain a *
+ * copy of the License at <http://www.apache.org/licenses/LICENSE-2.0>.       *
+ *                                                                            *
+ * Unless  required  by applicable  law or  agreed  to  in writing,  software *
+ * distributed under the License is distributed on an  "AS IS" BASIS, WITHOUT *
+ * WARRANTIES OR  CONDITIONS OF ANY KIND, either express or implied.  See the *
+ * License for the  specific language  governing permissions  and limitations *
+ * under the License.                                                         *
+ *                                                                            *
+ * ========================================================================== */
+package com.notessensei.cocomo;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+
+/**
+ * A scanner for one or more file types. Scanners are discovered with the
+ * ServiceLoader, list them in
+ * <code>META-INF/services/com.notessensei.cocomo.ArtefactScanner</code>.
+ * Scanners from other JARs take precedence over the built-in ones for the same
+ * extension. Implementations need a public constructor without arguments
+ * 
+ * @author stw
+ * 
+ */
+public interface ArtefactScanner {
+
+	/**
+	 * Full file names this scanner handles, regardless of their extension,
+	 * e.g. database.properties
+	 * 
+	 * @param extractor
+	 *            - gives access to the configuration
+	 * @return the file names, can be empty
+	 */
+	Collection<String> getFileNames(ArtefactExtractor extractor);
+
+	/**
+	 * The lower case file extensions (without dot) this scanner handles
+	 * 
+	 * @param extractor
+	 *            - gives access to the configuration
+	 * @return the extensions
+	 */
+	Collection<String> getExtensions(ArtefactExtractor extractor);
+
+	/**
+	 * Does the scanner read its input once from front to back? If not, the
+	 * engine buffers the whole file before calling scan, so the stream
+	 * supports mark and reset
+	 * 
+	 * @return true if the input can come straight from disk or an archive
+	 */
+	boolean isStreaming();
+
+	/**
+	 * Can scan be called from several threads at the same time? If not, the
+	 * engine makes sure only one thread uses the scanner at a time
+	 * 
+	 * @return true if the scanner keeps no state between calls
+	 */
+	boolean isThreadSafe();
+
+	/**
+	 * Scans one file and adds the findings to the result
+	 * 
+	 * @param extractor
+	 *            - gives access to the configuration and shared helpers
+	 * @param fileName
+	 *            - name of the file without path
+	 * @param extension
+	 *            - the lower case extension
+	 * @param in
+	 *            - the content, closed by the caller
+	 * @param result
+	 *            - where the findings go
+	 * @throws IOException
+	 */
+	void scan(ArtefactExtractor extractor, String fileName, String extension, InputStream in, ArtefactResult result)
+			throws IOException;
+}
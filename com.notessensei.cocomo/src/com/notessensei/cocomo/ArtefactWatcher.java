@@ -0,0 +1,319 @@
+/** ========================================================================= *
+ * Copyright (C) 2014,      IBM Corporation ( http://www.ibm.com/ )           *
+ *                            All rights reserved.                            *
+ * ========================================================================== *
+ *                                                                            *
+ * Licensed under the  Apache License, Version 2.0  (the "License").  You may *
+ * not use this file except in compliance with the License.  You may obtain a *
+ * copy of the License at <http://www.apache.org/licenses/LICENSE-2.0>.       *
+ *                                                                            *
+ * Unless  required  by applicable  law or  agreed  to  in writing,  software *
+ * distributed under the License is distributed on an  "AS IS" BASIS, WITHOUT *
+ * WARRANTIES OR  CONDITIONS OF ANY KIND, either express or implied.  See the *
+ * License for the  specific language  governing permissions  and limitations *
+ * under the License.                                                         *
+ *                                                                            *
+ * ========================================================================== */
+package com.notessensei.cocomo;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the report live while developers edit their On-Disk-Projects. After
+ * one initial scan only changed files are scanned again, their old
+ * contribution is taken out of the application result and the new one is
+ * added
+ *
+ * @author stw
+ *
+ */
+public class ArtefactWatcher {
+
+	/**
+	 * How long (ms) we wait for more events after the first one. Designer
+	 * writes a design element in several steps, we only want to scan once
+	 */
+	private static final long	SETTLE_TIME	= 200;
+
+	/**
+	 * Everything we know about one application. The per-file bookkeeping
+	 * lives here, apart from the watch service, so it can be tested on its
+	 * own
+	 */
+	static class ApplicationState {
+		private final File							appDir;
+		private final ArtefactResult				total		= new ArtefactResult();
+		private final Map<String, ArtefactResult>	fileResults	= new HashMap<String, ArtefactResult>();
+		private String								reportRow	= null;
+
+		ApplicationState(File appDir) {
+			this.appDir = appDir;
+		}
+
+		/**
+		 * @return the sum of all file results
+		 */
+		ArtefactResult getTotal() {
+			return this.total;
+		}
+
+		/**
+		 * Scans one file again and swaps its contribution to the application,
+		 * a file that is gone only loses its contribution
+		 */
+		void updateFile(ArtefactExtractor extractor, File f) throws IOException {
+			// The walk gives absolute paths, events maybe not
+			String path = f.getAbsolutePath();
+			ArtefactResult old = this.fileResults.remove(path);
+			if (old != null) {
+				this.total.subtract(old);
+			}
+			if (!f.exists()) {
+				return;
+			}
+			ArtefactResult fileResult = new ArtefactResult();
+			String directory = extractor.getElementDirectory(this.appDir, path, f.getName());
+			if (!extractor.scanFileSafely(this.appDir.getName(), directory, f, fileResult)) {
+				// In the error log, maybe the next change fixes it
+				return;
+			}
+			this.fileResults.put(path, fileResult);
+			this.total.add(fileResult);
+		}
+
+		/**
+		 * Drops the contribution of a file or of all files below a directory
+		 */
+		void removeFiles(Path path) {
+			String absolutePath = path.toAbsolutePath().toString();
+			String prefix = absolutePath + File.separator;
+			Iterator<Map.Entry<String, ArtefactResult>> iter = this.fileResults.entrySet().iterator();
+			while (iter.hasNext()) {
+				Map.Entry<String, ArtefactResult> me = iter.next();
+				if (me.getKey().equals(absolutePath) || me.getKey().startsWith(prefix)) {
+					this.total.subtract(me.getValue());
+					iter.remove();
+				}
+			}
+		}
+
+		/**
+		 * Drops all file results, before the application is scanned again
+		 */
+		void clear() {
+			for (ArtefactResult old : this.fileResults.values()) {
+				this.total.subtract(old);
+			}
+			this.fileResults.clear();
+		}
+	}
+
+	private final ArtefactExtractor					extractor;
+	private final WatchService						watchService;
+	private final Map<WatchKey, Path>				watchedDirs		= new HashMap<WatchKey, Path>();
+	private final Map<Path, ApplicationState>		dirOwners		= new HashMap<Path, ApplicationState>();
+	private final Map<String, ApplicationState>		applications	= new LinkedHashMap<String, ApplicationState>();
+
+	public ArtefactWatcher(ArtefactExtractor extractor) throws IOException {
+		this.extractor = extractor;
+		this.watchService = FileSystems.getDefault().newWatchService();
+	}
+
+	/**
+	 * Stops watching, releases the native watch handles
+	 */
+	public void close() throws IOException {
+		this.watchService.close();
+	}
+
+	/**
+	 * Scans everything once, then runs until interrupted and updates the
+	 * report whenever files change
+	 *
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public void watch() throws IOException, InterruptedException {
+		for (File appDir : this.extractor.getApplicationSources()) {
+			if (!appDir.isDirectory()) {
+				System.out.println("Archives can't be watched, skipping: " + appDir.getName());
+				continue;
+			}
+			System.out.println("Working on application: " + appDir.getName());
+			ApplicationState state = new ApplicationState(appDir);
+			this.applications.put(appDir.getName(), state);
+			this.registerDirectory(appDir.toPath(), state);
+			this.extractor.walkApplication(appDir, this.createVisitor(state));
+			this.updateReportRow(state);
+		}
+		this.writeReport();
+		System.out.println("Watching for changes, stop with Ctrl-C");
+
+		while (true) {
+			Set<Path> changedPaths = new TreeSet<Path>();
+			Collection<ApplicationState> rescans = new ArrayList<ApplicationState>();
+
+			WatchKey key = this.watchService.take();
+			while (key != null) {
+				this.collectEvents(key, changedPaths, rescans);
+				key = this.watchService.poll(ArtefactWatcher.SETTLE_TIME, TimeUnit.MILLISECONDS);
+			}
+
+			Set<ApplicationState> affected = new HashSet<ApplicationState>();
+			for (ApplicationState state : rescans) {
+				this.rescanApplication(state);
+				affected.add(state);
+			}
+			for (Path changed : changedPaths) {
+				ApplicationState state = this.dirOwners.get(changed.getParent());
+				if (state != null && !rescans.contains(state)) {
+					this.updatePath(changed, state);
+					affected.add(state);
+				}
+			}
+
+			if (!affected.isEmpty()) {
+				for (ApplicationState state : affected) {
+					this.updateReportRow(state);
+					System.out.println("Updated application: " + state.appDir.getName());
+				}
+				this.writeReport();
+			}
+		}
+	}
+
+	/**
+	 * Watches the directories and scans the files the walk of the extractor
+	 * finds, so the watcher follows the same rules as a full scan
+	 */
+	private ArtefactExtractor.DirectoryVisitor createVisitor(final ApplicationState state) {
+		return new ArtefactExtractor.DirectoryVisitor() {
+			public void visitDirectory(File dir) throws IOException {
+				ArtefactWatcher.this.registerDirectory(dir.toPath(), state);
+			}
+
+			public void visit(String path, String fname, ArtefactExtractor.EntrySource source) throws IOException {
+				state.updateFile(ArtefactWatcher.this.extractor, new File(path));
+			}
+		};
+	}
+
+	private void collectEvents(WatchKey key, Set<Path> changedPaths, Collection<ApplicationState> rescans) {
+		Path dir = this.watchedDirs.get(key);
+		if (dir != null) {
+			for (WatchEvent<?> event : key.pollEvents()) {
+				if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+					// We lost events, only a full scan of the application helps
+					ApplicationState state = this.dirOwners.get(dir);
+					if (state != null && !rescans.contains(state)) {
+						rescans.add(state);
+					}
+				} else {
+					changedPaths.add(dir.resolve((Path) event.context()));
+				}
+			}
+		}
+		if (!key.reset()) {
+			// Directory is gone
+			this.watchedDirs.remove(key);
+			if (dir != null) {
+				this.dirOwners.remove(dir);
+			}
+		}
+	}
+
+	/**
+	 * Only files in the design directories count, not the ones directly in
+	 * the application directory
+	 */
+	private boolean isDesignPath(Path path, ApplicationState state) {
+		return !state.appDir.toPath().equals(path.getParent());
+	}
+
+	private void registerDirectory(Path dir, ApplicationState state) throws IOException {
+		WatchKey key = dir.register(this.watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE,
+				StandardWatchEventKinds.ENTRY_MODIFY);
+		this.watchedDirs.put(key, dir);
+		this.dirOwners.put(dir, state);
+	}
+
+	/**
+	 * Drops everything we know about a file or a directory tree
+	 */
+	private void removePath(Path path, ApplicationState state) {
+		state.removeFiles(path);
+		Iterator<Path> dirIter = this.dirOwners.keySet().iterator();
+		while (dirIter.hasNext()) {
+			Path dir = dirIter.next();
+			if (dir.startsWith(path) && !dir.equals(state.appDir.toPath())) {
+				dirIter.remove();
+			}
+		}
+	}
+
+	private void rescanApplication(ApplicationState state) throws IOException {
+		state.clear();
+		this.extractor.walkApplication(state.appDir, this.createVisitor(state));
+	}
+
+	private void updatePath(Path changed, ApplicationState state) throws IOException {
+		File f = changed.toFile();
+		if (f.isDirectory()) {
+			if (!this.dirOwners.containsKey(changed)) {
+				// A new (or renamed) directory
+				this.extractor.walkDirectory(state.appDir, f, this.createVisitor(state));
+			}
+		} else if (f.exists()) {
+			if (this.isDesignPath(changed, state)) {
+				state.updateFile(this.extractor, f);
+			}
+		} else {
+			this.removePath(changed, state);
+		}
+	}
+
+	private void updateReportRow(ApplicationState state) throws IOException {
+		this.extractor.writeMetrics(state.appDir, state.total);
+		state.reportRow = this.extractor.getReportRow(state.appDir.getName(), state.total);
+	}
+
+	/**
+	 * Writes the full report from the cached rows. We write into a temp file
+	 * and move it, so a spreadsheet never sees half a report
+	 */
+	private void writeReport() throws IOException {
+		File report = new File(this.extractor.getReportFileName());
+		File tmpReport = new File(report.getAbsolutePath() + ".tmp");
+		FileOutputStream out = new FileOutputStream(tmpReport);
+		PrintWriter pw = new PrintWriter(out);
+		this.extractor.writeResultHeader(pw);
+		for (ApplicationState state : this.applications.values()) {
+			pw.write(state.reportRow);
+		}
+		pw.flush();
+		pw.close();
+		out.close();
+		Files.move(tmpReport.toPath(), report.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+}
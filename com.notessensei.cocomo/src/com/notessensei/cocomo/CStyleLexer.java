@@ -0,0 +1,299 @@
+/** ========================================================================= *
+ * Copyright (C) 2014,      IBM Corporation ( http://www.ibm.com/ )           *
+ *                            All rights reserved.                            *
+ * ========================================================================== *
+ *                                                                            *
+ * Licensed under the  Apache License, Version 2.0  (the "License").  You may *
+ * not use this file except in compliance with the License.  You may obtain a *
+ * copy of the License at <http://www.apache.org/licenses/LICENSE-2.0>.       *
+ *                                                                            *
+ * Unless  required  by applicable  law or  agreed  to  in writing,  software *
+ * distributed under the License is distributed on an  "AS IS" BASIS, WITHOUT *
+ * WARRANTIES OR  CONDITIONS OF ANY KIND, either express or implied.  See the *
+ * License for the  specific language  governing permissions  and limitations *
+ * under the License.                                                         *
+ *                                                                            *
+ * ========================================================================== */
+package com.notessensei.cocomo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Java and JavaScript (including server side JavaScript): line and block
+ * comments, string and character literals, JavaScript template strings and
+ * regular expressions. Statements are the ; outside of parentheses plus the
+ * blocks opened. A procedure is a block that follows a parameter list, e.g.
+ * <code>void run() throws X {</code> or <code>function(a) {</code>, in
+ * JavaScript every arrow function counts too
+ * 
+ * @author stw
+ * 
+ */
+public class CStyleLexer extends CodeLexer {
+
+	/**
+	 * Words in front of a ( that never start a procedure
+	 */
+	private static final Set<String>	CONTROL_WORDS	= new HashSet<String>(Arrays.asList("if", "for", "while", "switch",
+																"catch", "synchronized", "return", "with", "do", "else", "try",
+																"typeof", "throw", "case", "in", "of", "instanceof", "super",
+																"this", "new"));
+
+	/**
+	 * Tokens after which a / starts a regular expression and not a division
+	 */
+	private static final String			REGEX_PREFIX	= "(,=:[!&|?{};+-*%<>~^";
+
+	/**
+	 * Keywords after which a / starts a regular expression, after other
+	 * words it is a division
+	 */
+	private static final Set<String>	REGEX_WORDS		= new HashSet<String>(Arrays.asList("return", "typeof", "case", "in", "of",
+																"delete", "void", "throw", "instanceof", "yield", "await"));
+
+	private final boolean				javaScript;
+
+	public CStyleLexer(boolean javaScript) {
+		this.javaScript = javaScript;
+	}
+
+	@Override
+	protected LexerState newState(CodeMetrics metrics) {
+		return new CStyleState(metrics, this.javaScript);
+	}
+
+	private static class CStyleState extends LexerState {
+
+		private final boolean		javaScript;
+		private boolean				inBlockComment		= false;
+		private boolean				inTemplate			= false;
+
+		/**
+		 * One entry per open parenthesis: could it be a parameter list?
+		 */
+		private final List<Boolean>	parens				= new ArrayList<Boolean>();
+
+		/**
+		 * A parameter list was closed, a following { opens a procedure
+		 */
+		private boolean				procedureHeader		= false;
+		private String				lastWord			= null;
+		private char				lastSignificant		= ';';
+
+		/**
+		 * Inside new a.b.C&lt;D, E&gt; before the (, the { after it opens an
+		 * anonymous class and no procedure
+		 */
+		private boolean				newExpression		= false;
+		private int					newAngles			= 0;
+
+		private CStyleState(CodeMetrics metrics, boolean javaScript) {
+			super(metrics);
+			this.javaScript = javaScript;
+		}
+
+		@Override
+		void endOfSource() {
+			// Statements end with ; or { so nothing is pending
+		}
+
+		@Override
+		int lexLine(String line) {
+			boolean hasCode = false;
+			boolean hasComment = false;
+			int length = line.length();
+			int i = 0;
+			while (i < length) {
+				char c = line.charAt(i);
+
+				if (this.inBlockComment) {
+					hasComment = true;
+					if (c == '*' && i + 1 < length && line.charAt(i + 1) == '/') {
+						this.inBlockComment = false;
+						i++;
+					}
+					i++;
+					continue;
+				}
+
+				if (this.inTemplate) {
+					hasCode = true;
+					if (c == '\\') {
+						i++;
+					} else if (c == '`') {
+						this.inTemplate = false;
+						this.significant('`');
+					}
+					i++;
+					continue;
+				}
+
+				if (Character.isWhitespace(c)) {
+					i++;
+					continue;
+				}
+
+				char next = (i + 1 < length) ? line.charAt(i + 1) : 0;
+				if (c == '/' && next == '/') {
+					hasComment = true;
+					break;
+				}
+				if (c == '/' && next == '*') {
+					hasComment = true;
+					this.inBlockComment = true;
+					i += 2;
+					continue;
+				}
+
+				hasCode = true;
+				if (c == '"' || c == '\'') {
+					i = this.skipQuoted(line, i, c);
+					this.significant(c);
+				} else if (c == '`' && this.javaScript) {
+					this.inTemplate = true;
+					i++;
+				} else if (c == '/' && this.javaScript && this.regexMayStart()) {
+					i = this.skipRegex(line, i);
+					this.significant('/');
+				} else if (LexerState.isIdentifierStart(c)) {
+					int wordStart = i;
+					while (i < length && LexerState.isIdentifierPart(line.charAt(i))) {
+						i++;
+					}
+					this.word(line.substring(wordStart, i));
+				} else {
+					this.symbol(c, next);
+					if (c == '=' && next == '>') {
+						i++;
+					}
+					i++;
+				}
+			}
+
+			if (hasCode) {
+				return LexerState.CODE;
+			}
+			return hasComment ? LexerState.COMMENT : LexerState.BLANK;
+		}
+
+		private void significant(char c) {
+			this.lastSignificant = c;
+			this.procedureHeader = false;
+			this.lastWord = null;
+			this.newExpression = false;
+		}
+
+		/**
+		 * A / after an operator or after return, typeof etc. starts a
+		 * regular expression, after a value it divides
+		 */
+		private boolean regexMayStart() {
+			if (this.lastSignificant == 'a') {
+				return CStyleLexer.REGEX_WORDS.contains(this.lastWord);
+			}
+			return CStyleLexer.REGEX_PREFIX.indexOf(this.lastSignificant) > -1;
+		}
+
+		/**
+		 * Skips a string or character literal, they don't span lines
+		 * 
+		 * @return the position after the closing quote
+		 */
+		private int skipQuoted(String line, int start, char quote) {
+			int i = start + 1;
+			while (i < line.length()) {
+				char c = line.charAt(i);
+				if (c == '\\') {
+					i++;
+				} else if (c == quote) {
+					return i + 1;
+				}
+				i++;
+			}
+			return i;
+		}
+
+		/**
+		 * Skips a regular expression literal, / inside [...] don't end it
+		 * 
+		 * @return the position after the closing /
+		 */
+		private int skipRegex(String line, int start) {
+			int i = start + 1;
+			boolean inClass = false;
+			while (i < line.length()) {
+				char c = line.charAt(i);
+				if (c == '\\') {
+					i++;
+				} else if (c == '[') {
+					inClass = true;
+				} else if (c == ']') {
+					inClass = false;
+				} else if (c == '/' && !inClass) {
+					return i + 1;
+				}
+				i++;
+			}
+			return i;
+		}
+
+		private void symbol(char c, char next) {
+			boolean keepHeader = false;
+			if (c == '(') {
+				// A parameter list follows a name that isn't a keyword
+				boolean possibleHeader = this.lastWord != null && !CStyleLexer.CONTROL_WORDS.contains(this.lastWord)
+						&& !this.newExpression;
+				this.parens.add(Boolean.valueOf(possibleHeader));
+			} else if (c == ')') {
+				if (!this.parens.isEmpty()) {
+					keepHeader = this.parens.remove(this.parens.size() - 1).booleanValue();
+				}
+			} else if (c == ';') {
+				if (this.parens.isEmpty()) {
+					this.metrics.statements++;
+				}
+			} else if (c == '{') {
+				this.metrics.statements++;
+				if (this.procedureHeader) {
+					this.metrics.procedures++;
+				}
+			} else if (c == '=' && next == '>' && this.javaScript) {
+				// Arrow function
+				this.metrics.procedures++;
+			} else if ((c == '.' || c == ',' || c == '@') && this.procedureHeader) {
+				// throws A, b.C
+				keepHeader = true;
+			}
+			if (this.newExpression) {
+				// The class name may be qualified and generic
+				if (c == '<') {
+					this.newAngles++;
+				} else if (c == '>' && this.newAngles > 0) {
+					this.newAngles--;
+				} else if (c != '.' && this.newAngles == 0) {
+					this.newExpression = false;
+				}
+			}
+			this.lastSignificant = c;
+			this.procedureHeader = keepHeader;
+			this.lastWord = null;
+		}
+
+		private void word(String word) {
+			if (word.equals("new")) {
+				this.newExpression = true;
+				this.newAngles = 0;
+			}
+			this.lastWord = word;
+			this.lastSignificant = 'a';
+			// Only throws clauses may sit between parameters and body
+			if (this.procedureHeader && this.javaScript) {
+				this.procedureHeader = false;
+			}
+		}
+	}
+}
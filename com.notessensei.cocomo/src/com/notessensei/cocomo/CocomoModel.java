@@ -0,0 +1,337 @@
+/** ========================================================================= *
+ * Copyright (C) 2014,      IBM Corporation ( http://www.ibm.com/ )           *
+ *                            All rights reserved.                            *
+ * ========================================================================== *
+ *                                                                            *
+ * Licensed under the  Apache License, Version 2.0  (the "License").  You may *
+ * not use this file except in compliance with the License.  You may obtain a *
+ * copy of the License at <http://www.apache.org/licenses/LICENSE-2.0>.       *
+ *                                                                            *
+ * Unless  required  by applicable  law or  agreed  to  in writing,  software *
+ * distributed under the License is distributed on an  "AS IS" BASIS, WITHOUT *
+ * WARRANTIES OR  CONDITIONS OF ANY KIND, either express or implied.  See the *
+ * License for the  specific language  governing permissions  and limitations *
+ * under the License.                                                         *
+ *                                                                            *
+ * ========================================================================== */
+package com.notessensei.cocomo;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.TreeSet;
+
+/**
+ * The COCOMO II post architecture model: effort, schedule and staff of a
+ * project from its size, five scale factors and 17 effort multipliers. The
+ * calibration, the values per rating and the ratings of the estate come from
+ * cocomo.properties
+ * 
+ * @author stw
+ * 
+ */
+public class CocomoModel {
+
+	/**
+	 * Very low to extra high
+	 */
+	public static final String[]	RATINGS	= { "VL", "L", "N", "H", "VH", "XH" };
+	public static final int			NOMINAL	= 2;
+
+	/**
+	 * One scale factor or effort multiplier
+	 */
+	public static class Driver {
+		private final String	name;
+		private final boolean	scaleFactor;
+		// NaN where the rating doesn't exist
+		private final double[]	values;
+		private final int		rating;
+		private final int[]		range;
+
+		private Driver(String name, boolean scaleFactor, double[] values, int rating, int[] range) {
+			this.name = name;
+			this.scaleFactor = scaleFactor;
+			this.values = values;
+			this.rating = rating;
+			this.range = range;
+		}
+
+		public String getName() {
+			return this.name;
+		}
+
+		public boolean isScaleFactor() {
+			return this.scaleFactor;
+		}
+
+		/**
+		 * @param rating
+		 * @return the value, NaN if the driver has no such rating
+		 */
+		public double getValue(int rating) {
+			return this.values[rating];
+		}
+
+		/**
+		 * @return the rating for the estimate
+		 */
+		public int getRating() {
+			return this.rating;
+		}
+
+		/**
+		 * @return the ratings for the Monte Carlo run, lowest first
+		 */
+		public int[] getRange() {
+			return this.range;
+		}
+	}
+
+	/**
+	 * Effort, schedule and staff of one project
+	 */
+	public static class Estimate {
+		private final double	effort;
+		private final double	schedule;
+
+		private Estimate(double effort, double schedule) {
+			this.effort = effort;
+			this.schedule = schedule;
+		}
+
+		/**
+		 * @return person months
+		 */
+		public double getEffort() {
+			return this.effort;
+		}
+
+		/**
+		 * @return months
+		 */
+		public double getSchedule() {
+			return this.schedule;
+		}
+
+		/**
+		 * @return average number of people
+		 */
+		public double getStaff() {
+			return (this.schedule == 0) ? 0 : this.effort / this.schedule;
+		}
+	}
+
+	private final double		a;
+	private final double		b;
+	private final double		c;
+	private final double		d;
+	private final String		sizeColumn;
+	private final List<Driver>	drivers		= new ArrayList<Driver>();
+	private final Driver		sced;
+	private final double[]		scedPercent;
+
+	/**
+	 * @param model
+	 *            - the content of cocomo.properties
+	 * @throws IllegalArgumentException
+	 *             for values or ratings we can't read
+	 */
+	public CocomoModel(Properties model) {
+		this.a = CocomoModel.getNumber(model, "A");
+		this.b = CocomoModel.getNumber(model, "B");
+		this.c = CocomoModel.getNumber(model, "C");
+		this.d = CocomoModel.getNumber(model, "D");
+		this.sizeColumn = model.getProperty("size", "Lines of Code").trim();
+		Driver scedDriver = null;
+		// Scale factors first, sorted by name
+		for (String key : new TreeSet<String>(model.stringPropertyNames())) {
+			boolean scaleFactor = key.startsWith("sf.");
+			if (!scaleFactor && !key.startsWith("em.")) {
+				continue;
+			}
+			String name = key.substring(3);
+			double[] values = CocomoModel.parseValues(key, model.getProperty(key));
+			int rating = CocomoModel.parseRating(key, model.getProperty("rating." + name, CocomoModel.RATINGS[CocomoModel.NOMINAL]));
+			if (Double.isNaN(values[rating])) {
+				throw new IllegalArgumentException(name + " has no rating " + CocomoModel.RATINGS[rating]);
+			}
+			int[] range = CocomoModel.parseRange(name, model.getProperty("range." + name), rating, values);
+			Driver driver = new Driver(name, scaleFactor, values, rating, range);
+			this.drivers.add(scaleFactor ? this.countScaleFactors() : this.drivers.size(), driver);
+			if (name.equals("SCED")) {
+				scedDriver = driver;
+			}
+		}
+		this.sced = scedDriver;
+		this.scedPercent = model.containsKey("sced") ? CocomoModel.parseValues("sced", model.getProperty("sced")) : null;
+	}
+
+	public double getA() {
+		return this.a;
+	}
+
+	public double getB() {
+		return this.b;
+	}
+
+	public double getC() {
+		return this.c;
+	}
+
+	public double getD() {
+		return this.d;
+	}
+
+	/**
+	 * @return the report column with the lines of code
+	 */
+	public String getSizeColumn() {
+		return this.sizeColumn;
+	}
+
+	/**
+	 * @return scale factors first, then the effort multipliers
+	 */
+	public List<Driver> getDrivers() {
+		return Collections.unmodifiableList(this.drivers);
+	}
+
+	/**
+	 * @return the schedule multiplier driver, null if there is none
+	 */
+	public Driver getSced() {
+		return this.sced;
+	}
+
+	/**
+	 * @param rating
+	 *            - of SCED
+	 * @return the share of the nominal schedule
+	 */
+	public double getScheduleFactor(int rating) {
+		if (this.scedPercent == null || Double.isNaN(this.scedPercent[rating])) {
+			return 1.0;
+		}
+		return this.scedPercent[rating] / 100.0;
+	}
+
+	/**
+	 * The estimate with the configured ratings
+	 * 
+	 * @param ksloc
+	 *            - thousand lines of code
+	 * @return effort, schedule and staff
+	 */
+	public Estimate estimate(double ksloc) {
+		if (ksloc <= 0) {
+			return new Estimate(0, 0);
+		}
+		double scaleFactors = 0;
+		double multipliers = 1;
+		for (Driver driver : this.drivers) {
+			if (driver.scaleFactor) {
+				scaleFactors += driver.values[driver.rating];
+			} else {
+				multipliers *= driver.values[driver.rating];
+			}
+		}
+		double scheduleMultiplier = (this.sced == null) ? 1 : this.sced.values[this.sced.rating];
+		double e = this.b + 0.01 * scaleFactors;
+		double nominal = this.a * Math.pow(ksloc, e);
+		double f = this.d + 0.2 * (e - this.b);
+		// The schedule comes from the effort without SCED, SCED stretches it
+		double schedule = this.c * Math.pow(nominal * multipliers / scheduleMultiplier, f)
+				* ((this.sced == null) ? 1 : this.getScheduleFactor(this.sced.rating));
+		return new Estimate(nominal * multipliers, schedule);
+	}
+
+	/**
+	 * Projects done side by side: the efforts add up, the longest schedule
+	 * is the one of all
+	 * 
+	 * @param estimates
+	 * @return the estimate of all projects
+	 */
+	public static Estimate combine(Collection<Estimate> estimates) {
+		double effort = 0;
+		double schedule = 0;
+		for (Estimate estimate : estimates) {
+			effort += estimate.effort;
+			schedule = Math.max(schedule, estimate.schedule);
+		}
+		return new Estimate(effort, schedule);
+	}
+
+	private int countScaleFactors() {
+		int result = 0;
+		for (Driver driver : this.drivers) {
+			if (driver.scaleFactor) {
+				result++;
+			}
+		}
+		return result;
+	}
+
+	private static double getNumber(Properties model, String key) {
+		String value = model.getProperty(key);
+		if (value == null) {
+			throw new IllegalArgumentException("cocomo.properties has no " + key);
+		}
+		return Double.parseDouble(value.trim());
+	}
+
+	/**
+	 * One value per rating, - for ratings that don't exist
+	 */
+	private static double[] parseValues(String key, String value) {
+		String[] parts = value.split(",");
+		if (parts.length != CocomoModel.RATINGS.length) {
+			throw new IllegalArgumentException(key + " needs " + CocomoModel.RATINGS.length + " values (VL,L,N,H,VH,XH)");
+		}
+		double[] result = new double[parts.length];
+		for (int i = 0; i < parts.length; i++) {
+			String part = parts[i].trim();
+			result[i] = part.equals("-") ? Double.NaN : Double.parseDouble(part);
+		}
+		return result;
+	}
+
+	private static int parseRating(String name, String rating) {
+		for (int i = 0; i < CocomoModel.RATINGS.length; i++) {
+			if (CocomoModel.RATINGS[i].equalsIgnoreCase(rating.trim())) {
+				return i;
+			}
+		}
+		throw new IllegalArgumentException("Unknown rating " + rating + " for " + name + ", use VL, L, N, H, VH or XH");
+	}
+
+	/**
+	 * The ratings of a range like L-H that exist for the driver
+	 */
+	private static int[] parseRange(String name, String range, int rating, double[] values) {
+		int low = rating;
+		int high = rating;
+		if (range != null) {
+			String[] bounds = range.split("-");
+			low = CocomoModel.parseRating(name, bounds[0]);
+			high = (bounds.length > 1) ? CocomoModel.parseRating(name, bounds[1]) : low;
+		}
+		List<Integer> ratings = new ArrayList<Integer>();
+		for (int i = Math.min(low, high); i <= Math.max(low, high); i++) {
+			if (!Double.isNaN(values[i])) {
+				ratings.add(Integer.valueOf(i));
+			}
+		}
+		if (ratings.isEmpty()) {
+			throw new IllegalArgumentException(name + " has no rating in " + range);
+		}
+		int[] result = new int[ratings.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = ratings.get(i).intValue();
+		}
+		return result;
+	}
+}
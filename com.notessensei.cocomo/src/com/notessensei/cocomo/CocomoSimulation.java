@@ -0,0 +1,461 @@
+/** ========================================================================= *
+ * Copyright (C) 2014,      IBM Corporation ( http://www.ibm.com/ )           *
+ *                            All rights reserved.                            *
+ * ========================================================================== *
+ *                                                                            *
+ * Licensed under the  Apache License, Version 2.0  (the "License").  You may *
+ * not use this file except in compliance with the License.  You may obtain a *
+ * copy of the License at <http://www.apache.org/licenses/LICENSE-2.0>.       *
+ *                                                                            *
+ * Unless  required  by applicable  law or  agreed  to  in writing,  software *
+ * distributed under the License is distributed on an  "AS IS" BASIS, WITHOUT *
+ * WARRANTIES OR  CONDITIONS OF ANY KIND, either express or implied.  See the *
+ * License for the  specific language  governing permissions  and limitations *
+ * under the License.                                                         *
+ *                                                                            *
+ * ========================================================================== */
+package com.notessensei.cocomo;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Monte Carlo run of the COCOMO II model over all applications: every sample
+ * picks a random rating for each driver from its range and computes effort,
+ * schedule and staff of the estate. The samples are split over the cores,
+ * each thread counts into its own histograms of the logarithms, so memory
+ * doesn't grow with the samples and the threads never wait for each other.
+ * 
+ * The sizes only matter through the sum of KSLOC^E, which only depends on
+ * the scale factors. It is computed once per combination of scale factor
+ * ratings, a sample costs a few table lookups and no pass over the
+ * applications.
+ * 
+ * The sensitivity shows per driver the mean effort of the samples with its
+ * lowest and with its highest rating
+ * 
+ * @author stw
+ * 
+ */
+public class CocomoSimulation {
+
+	public static final double[]	PERCENTILES	= { 5, 10, 50, 90, 95 };
+	private static final int		BINS		= 4096;
+
+	/**
+	 * Counts of logarithms in equal bins between two bounds
+	 */
+	private static class LogHistogram {
+		private final double	low;
+		private final double	width;
+		private final long[]	counts	= new long[CocomoSimulation.BINS];
+		private long			total	= 0;
+		private double			sum		= 0;
+
+		private LogHistogram(double low, double high) {
+			this.low = low;
+			this.width = Math.max(high - low, 1e-9) / CocomoSimulation.BINS;
+		}
+
+		private void add(double log, double value) {
+			int bin = (int) ((log - this.low) / this.width);
+			this.counts[Math.max(0, Math.min(CocomoSimulation.BINS - 1, bin))]++;
+			this.total++;
+			this.sum += value;
+		}
+
+		private void add(LogHistogram other) {
+			for (int i = 0; i < this.counts.length; i++) {
+				this.counts[i] += other.counts[i];
+			}
+			this.total += other.total;
+			this.sum += other.sum;
+		}
+
+		private double getMean() {
+			return (this.total == 0) ? 0 : this.sum / this.total;
+		}
+
+		/**
+		 * @return the value at the middle of the bin with the percentile
+		 */
+		private double getPercentile(double percent) {
+			long target = (long) Math.ceil(percent / 100.0 * this.total);
+			long seen = 0;
+			for (int i = 0; i < this.counts.length; i++) {
+				seen += this.counts[i];
+				if (seen >= Math.max(1, target)) {
+					return Math.exp(this.low + (i + 0.5) * this.width);
+				}
+			}
+			return Math.exp(this.low + CocomoSimulation.BINS * this.width);
+		}
+	}
+
+	/**
+	 * What one thread collects
+	 */
+	private static class Tally {
+		private final LogHistogram	effort;
+		private final LogHistogram	schedule;
+		private final LogHistogram	staff;
+		// Per driver and position in its range: sum of the effort, samples
+		private final double[][]	effortSums;
+		private final long[][]		sampleCounts;
+
+		private Tally(double[] bounds, List<CocomoModel.Driver> drivers) {
+			this.effort = new LogHistogram(bounds[0], bounds[1]);
+			this.schedule = new LogHistogram(bounds[2], bounds[3]);
+			this.staff = new LogHistogram(bounds[0] - bounds[3], bounds[1] - bounds[2]);
+			this.effortSums = new double[drivers.size()][];
+			this.sampleCounts = new long[drivers.size()][];
+			for (int d = 0; d < drivers.size(); d++) {
+				this.effortSums[d] = new double[drivers.get(d).getRange().length];
+				this.sampleCounts[d] = new long[drivers.get(d).getRange().length];
+			}
+		}
+
+		private void add(Tally other) {
+			this.effort.add(other.effort);
+			this.schedule.add(other.schedule);
+			this.staff.add(other.staff);
+			for (int d = 0; d < this.effortSums.length; d++) {
+				for (int r = 0; r < this.effortSums[d].length; r++) {
+					this.effortSums[d][r] += other.effortSums[d][r];
+					this.sampleCounts[d][r] += other.sampleCounts[d][r];
+				}
+			}
+		}
+	}
+
+	private final CocomoModel				model;
+	private final List<CocomoModel.Driver>	drivers;
+	private final long						samples;
+	private final int						threadCount;
+	private final long						seed;
+	// Per driver and position in its range: the logarithm of the value
+	private double[][]						logValues;
+	// Per combination of scale factor ratings: E, F and ln(sum of KSLOC^E)
+	private double[]						exponents;
+	private double[]						scheduleExponents;
+	private double[]						logSizes;
+	private double							logLargest;
+	private int								scaleFactorCount;
+	private int								scedIndex;
+	private Tally							result		= null;
+
+	/**
+	 * @param model
+	 * @param samples
+	 *            - how many estates to compute
+	 * @param threadCount
+	 * @param seed
+	 *            - the same seed gives the same result
+	 */
+	public CocomoSimulation(CocomoModel model, long samples, int threadCount, long seed) {
+		this.model = model;
+		this.drivers = model.getDrivers();
+		this.samples = samples;
+		this.threadCount = Math.max(1, threadCount);
+		this.seed = seed;
+	}
+
+	/**
+	 * Runs the samples
+	 * 
+	 * @param ksloc
+	 *            - size of every application in thousand lines of code
+	 * @throws IOException
+	 *             when a thread fails
+	 */
+	public void run(double[] ksloc) throws IOException {
+		this.prepare(ksloc);
+		final double[] bounds = this.getBounds();
+		ExecutorService workers = Executors.newFixedThreadPool(this.threadCount);
+		try {
+			List<Future<Tally>> parts = new ArrayList<Future<Tally>>();
+			for (int t = 0; t < this.threadCount; t++) {
+				final long count = this.samples / this.threadCount + ((t < this.samples % this.threadCount) ? 1 : 0);
+				final Random random = new Random(this.seed + t);
+				parts.add(workers.submit(new Callable<Tally>() {
+					public Tally call() {
+						Tally tally = new Tally(bounds, CocomoSimulation.this.drivers);
+						CocomoSimulation.this.sample(count, random, tally);
+						return tally;
+					}
+				}));
+			}
+			Tally total = new Tally(bounds, this.drivers);
+			for (Future<Tally> part : parts) {
+				total.add(part.get());
+			}
+			this.result = total;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted in the Monte Carlo run", e);
+		} catch (ExecutionException e) {
+			throw new IOException("Monte Carlo run failed", e.getCause());
+		} finally {
+			workers.shutdown();
+		}
+	}
+
+	/**
+	 * Mean and percentiles of effort, schedule and staff
+	 * 
+	 * @param fileName
+	 * @throws IOException
+	 */
+	public void writeDistribution(String fileName) throws IOException {
+		FileOutputStream out = new FileOutputStream(fileName);
+		PrintWriter pw = new PrintWriter(out);
+		pw.write("Measure,Mean");
+		for (double p : CocomoSimulation.PERCENTILES) {
+			pw.write(",P" + (int) p);
+		}
+		pw.write("\n");
+		this.writeMeasure(pw, "Effort (PM)", this.result.effort);
+		this.writeMeasure(pw, "Schedule (Months)", this.result.schedule);
+		this.writeMeasure(pw, "Staff", this.result.staff);
+		pw.flush();
+		pw.close();
+		out.close();
+	}
+
+	/**
+	 * Per driver the mean effort at its lowest and its highest rating,
+	 * biggest difference first
+	 * 
+	 * @param fileName
+	 * @throws IOException
+	 */
+	public void writeSensitivity(String fileName) throws IOException {
+		List<String[]> rows = new ArrayList<String[]>();
+		final List<Double> swings = new ArrayList<Double>();
+		for (int d = 0; d < this.drivers.size(); d++) {
+			int[] range = this.drivers.get(d).getRange();
+			int last = range.length - 1;
+			double low = this.getMeanEffort(d, 0);
+			double high = this.getMeanEffort(d, last);
+			rows.add(new String[] { this.drivers.get(d).getName(), CocomoModel.RATINGS[range[0]], CocomoSimulation.format(low),
+					CocomoModel.RATINGS[range[last]], CocomoSimulation.format(high), CocomoSimulation.format(high - low) });
+			swings.add(Double.valueOf(Math.abs(high - low)));
+		}
+		List<Integer> order = new ArrayList<Integer>();
+		for (int d = 0; d < rows.size(); d++) {
+			order.add(Integer.valueOf(d));
+		}
+		Collections.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return swings.get(b.intValue()).compareTo(swings.get(a.intValue()));
+			}
+		});
+
+		FileOutputStream out = new FileOutputStream(fileName);
+		PrintWriter pw = new PrintWriter(out);
+		pw.write("Driver,Low,Effort at Low,High,Effort at High,Swing\n");
+		for (Integer d : order) {
+			String[] row = rows.get(d.intValue());
+			for (int i = 0; i < row.length; i++) {
+				pw.write((i > 0 ? "," : "") + row[i]);
+			}
+			pw.write("\n");
+		}
+		pw.flush();
+		pw.close();
+		out.close();
+	}
+
+	/**
+	 * One decimal, no grouping, the same everywhere
+	 */
+	static String format(double value) {
+		return String.format(Locale.US, "%.1f", Double.valueOf(value));
+	}
+
+	private double getMeanEffort(int driver, int position) {
+		long count = this.result.sampleCounts[driver][position];
+		return (count == 0) ? 0 : this.result.effortSums[driver][position] / count;
+	}
+
+	private void writeMeasure(PrintWriter pw, String name, LogHistogram histogram) {
+		pw.write(name + "," + CocomoSimulation.format(histogram.getMean()));
+		for (double p : CocomoSimulation.PERCENTILES) {
+			pw.write("," + CocomoSimulation.format(histogram.getPercentile(p)));
+		}
+		pw.write("\n");
+	}
+
+	/**
+	 * The tables for the samples
+	 */
+	private void prepare(double[] ksloc) {
+		this.logValues = new double[this.drivers.size()][];
+		this.scaleFactorCount = 0;
+		this.scedIndex = -1;
+		int combinations = 1;
+		for (int d = 0; d < this.drivers.size(); d++) {
+			CocomoModel.Driver driver = this.drivers.get(d);
+			int[] range = driver.getRange();
+			this.logValues[d] = new double[range.length];
+			for (int r = 0; r < range.length; r++) {
+				// Scale factors are added, not multiplied
+				this.logValues[d][r] = driver.isScaleFactor() ? driver.getValue(range[r]) : Math.log(driver.getValue(range[r]));
+			}
+			if (driver.isScaleFactor()) {
+				this.scaleFactorCount++;
+				combinations *= range.length;
+			}
+			if (driver == this.model.getSced()) {
+				this.scedIndex = d;
+			}
+		}
+
+		double largest = 0;
+		for (double size : ksloc) {
+			largest = Math.max(largest, size);
+		}
+		this.logLargest = Math.log(largest);
+		this.exponents = new double[combinations];
+		this.scheduleExponents = new double[combinations];
+		this.logSizes = new double[combinations];
+		for (int combination = 0; combination < combinations; combination++) {
+			// The first scale factor changes slowest
+			double scaleFactors = 0;
+			int rest = combination;
+			for (int d = this.scaleFactorCount - 1; d >= 0; d--) {
+				int positions = this.logValues[d].length;
+				scaleFactors += this.logValues[d][rest % positions];
+				rest /= positions;
+			}
+			double e = this.model.getB() + 0.01 * scaleFactors;
+			double sum = 0;
+			for (double size : ksloc) {
+				if (size > 0) {
+					sum += Math.pow(size, e);
+				}
+			}
+			this.exponents[combination] = e;
+			this.scheduleExponents[combination] = this.model.getD() + 0.2 * (e - this.model.getB());
+			this.logSizes[combination] = Math.log(sum);
+		}
+	}
+
+	/**
+	 * Lowest and highest logarithm of effort and schedule any sample can
+	 * have, the histograms are laid out between them
+	 */
+	private double[] getBounds() {
+		double lowMultipliers = 0;
+		double highMultipliers = 0;
+		double lowSchedule = 0;
+		double highSchedule = 0;
+		for (int d = this.scaleFactorCount; d < this.drivers.size(); d++) {
+			double low = Double.MAX_VALUE;
+			double high = -Double.MAX_VALUE;
+			for (int r = 0; r < this.logValues[d].length; r++) {
+				double value = this.logValues[d][r];
+				if (d == this.scedIndex) {
+					double stretch = Math.log(this.model.getScheduleFactor(this.drivers.get(d).getRange()[r]));
+					lowSchedule = Math.min(lowSchedule, stretch);
+					highSchedule = Math.max(highSchedule, stretch);
+				}
+				low = Math.min(low, value);
+				high = Math.max(high, value);
+			}
+			lowMultipliers += low;
+			highMultipliers += high;
+		}
+		double lowSizes = Double.MAX_VALUE;
+		double highSizes = -Double.MAX_VALUE;
+		double lowTime = Double.MAX_VALUE;
+		double highTime = -Double.MAX_VALUE;
+		double logA = Math.log(this.model.getA());
+		for (int c = 0; c < this.logSizes.length; c++) {
+			lowSizes = Math.min(lowSizes, this.logSizes[c]);
+			highSizes = Math.max(highSizes, this.logSizes[c]);
+			// Without SCED the multipliers are at most off by the SCED range
+			double largest = logA + this.exponents[c] * this.logLargest;
+			double f = this.scheduleExponents[c];
+			for (double multipliers : new double[] { lowMultipliers, highMultipliers }) {
+				for (double sced : new double[] { this.getScedBound(false), this.getScedBound(true) }) {
+					double time = f * (largest + multipliers - sced);
+					lowTime = Math.min(lowTime, time);
+					highTime = Math.max(highTime, time);
+				}
+			}
+		}
+		double logC = Math.log(this.model.getC());
+		return new double[] { logA + lowMultipliers + lowSizes, logA + highMultipliers + highSizes,
+				logC + lowTime + lowSchedule, logC + highTime + highSchedule };
+	}
+
+	private double getScedBound(boolean high) {
+		if (this.scedIndex < 0) {
+			return 0;
+		}
+		double result = high ? -Double.MAX_VALUE : Double.MAX_VALUE;
+		for (double value : this.logValues[this.scedIndex]) {
+			result = high ? Math.max(result, value) : Math.min(result, value);
+		}
+		return result;
+	}
+
+	/**
+	 * The inner loop: a few random numbers and table lookups per sample
+	 */
+	private void sample(long count, Random random, Tally tally) {
+		int driverCount = this.drivers.size();
+		int[] picks = new int[driverCount];
+		double logA = Math.log(this.model.getA());
+		double logC = Math.log(this.model.getC());
+		double[] logStretch = new double[(this.scedIndex < 0) ? 0 : this.logValues[this.scedIndex].length];
+		for (int r = 0; r < logStretch.length; r++) {
+			logStretch[r] = Math.log(this.model.getScheduleFactor(this.drivers.get(this.scedIndex).getRange()[r]));
+		}
+		for (long s = 0; s < count; s++) {
+			int combination = 0;
+			for (int d = 0; d < this.scaleFactorCount; d++) {
+				picks[d] = random.nextInt(this.logValues[d].length);
+				combination = combination * this.logValues[d].length + picks[d];
+			}
+			double multipliers = 0;
+			for (int d = this.scaleFactorCount; d < driverCount; d++) {
+				picks[d] = random.nextInt(this.logValues[d].length);
+				multipliers += this.logValues[d][picks[d]];
+			}
+			double withoutSced = multipliers;
+			double stretch = 0;
+			if (this.scedIndex >= 0) {
+				withoutSced -= this.logValues[this.scedIndex][picks[this.scedIndex]];
+				stretch = logStretch[picks[this.scedIndex]];
+			}
+
+			double logEffort = logA + multipliers + this.logSizes[combination];
+			// The longest application sets the schedule of the estate
+			double logSchedule = logC + this.scheduleExponents[combination]
+					* (logA + withoutSced + this.exponents[combination] * this.logLargest) + stretch;
+			double effort = Math.exp(logEffort);
+			double schedule = Math.exp(logSchedule);
+			tally.effort.add(logEffort, effort);
+			tally.schedule.add(logSchedule, schedule);
+			tally.staff.add(logEffort - logSchedule, effort / schedule);
+			for (int d = 0; d < driverCount; d++) {
+				tally.effortSums[d][picks[d]] += effort;
+				tally.sampleCounts[d][picks[d]]++;
+			}
+		}
+	}
+}
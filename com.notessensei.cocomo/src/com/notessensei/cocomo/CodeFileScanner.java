@@ -0,0 +1,67 @@
+/** ========================================================================= *
+ * Copyright (C) 2014,      IBM Corporation ( http://www.ibm.com/ )           *
+ *                            All rights reserved.                            *
+ * ========================================================================== *
+ *                                                                            *
+ * Licensed under the  Apache License, Version 2.0  (the "License").  You may *
+ * not use this file except in compliance with the License.  You may obtain a *
+ * copy of the License at <http://www.apache.org/licenses/LICENSE-2.0>.       *
+ *                                                                            *
+ * Unless  required  by applicable  law or  agreed  to  in writing,  software *
+ * distributed under the License is distributed on an  "AS IS" BASIS, WITHOUT *
+ * WARRANTIES OR  CONDITIONS OF ANY KIND, either express or implied.  See the *
+ * License for the  specific language  governing permissions  and limitations *
+ * under the License.                                                         *
+ *                                                                            *
+ * ========================================================================== */
+package com.notessensei.cocomo;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+
+/**
+ * Java, JavaScript and LotusScript source files, counted by the lexer of
+ * the language
+ * 
+ * @author stw
+ * 
+ */
+public class CodeFileScanner implements ArtefactScanner {
+
+	public Collection<String> getExtensions(ArtefactExtractor extractor) {
+		return Arrays.asList("java", "js", "jss", "lss");
+	}
+
+	public Collection<String> getFileNames(ArtefactExtractor extractor) {
+		return Collections.emptyList();
+	}
+
+	public boolean isStreaming() {
+		return true;
+	}
+
+	public boolean isThreadSafe() {
+		return true;
+	}
+
+	public void scan(ArtefactExtractor extractor, String fileName, String extension, InputStream in, ArtefactResult result)
+			throws IOException {
+		CodeLexer lexer = CodeLexer.forLanguage(extension);
+		final MinHasher.Signer signer = (extractor.getMinHasher() == null) ? null : extractor.getMinHasher().newSigner();
+		CodeMetrics metrics = lexer.lex(new InputStreamReader(in), (signer == null) ? null : new CodeLexer.CodeLineListener() {
+			public void codeLine(String line) {
+				// Same pass feeds the similarity signature
+				signer.feed(line);
+			}
+		});
+		metrics.addTo(result, extension);
+		int[] signature = (signer == null) ? null : signer.finish();
+		if (signature != null) {
+			result.addCodeSignature(fileName, signature);
+		}
+	}
+}
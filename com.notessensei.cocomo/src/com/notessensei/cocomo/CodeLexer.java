@@ -0,0 +1,133 @@
+/** ========================================================================= *
+ * Copyright (C) 2014,      IBM Corporation ( http://www.ibm.com/ )           *
+ *                            All rights reserved.                            *
+ * ========================================================================== *
+ *                                                                            *
+ * Licensed under the  Apache License, Version 2.0  (the "License").  You may *
+ * not use this file except in compliance with the License.  You may obtain a *
+ * copy of the License at <http://www.apache.org/licenses/LICENSE-2.0>.       *
+ *                                                                            *
+ * Unless  required  by applicable  law or  agreed  to  in writing,  software *
+ * distributed under the License is distributed on an  "AS IS" BASIS, WITHOUT *
+ * WARRANTIES OR  CONDITIONS OF ANY KIND, either express or implied.  See the *
+ * License for the  specific language  governing permissions  and limitations *
+ * under the License.                                                         *
+ *                                                                            *
+ * ========================================================================== */
+package com.notessensei.cocomo;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Reads source code once from front to back and counts code lines, comment
+ * lines, logical statements and procedures in that single pass. Lexers keep
+ * no state between calls, so one instance can be shared by all threads
+ * 
+ * @author stw
+ * 
+ */
+public abstract class CodeLexer {
+
+	/**
+	 * Gets every physical line that contains code, e.g. to look for keywords
+	 */
+	public interface CodeLineListener {
+		void codeLine(String line);
+	}
+
+	private static final CodeLexer	LOTUSSCRIPT	= new LotusScriptLexer();
+	private static final CodeLexer	JAVA		= new CStyleLexer(false);
+	private static final CodeLexer	JAVASCRIPT	= new CStyleLexer(true);
+
+	/**
+	 * The lexer for a file extension or a DXL code tag
+	 * 
+	 * @param language
+	 *            - lss, lotusscript, java, js, jss or javascript
+	 * @return the lexer or null if we don't have one
+	 */
+	public static CodeLexer forLanguage(String language) {
+		if (language.equals("lss") || language.equals("lotusscript")) {
+			return CodeLexer.LOTUSSCRIPT;
+		} else if (language.equals("java")) {
+			return CodeLexer.JAVA;
+		} else if (language.equals("js") || language.equals("jss") || language.equals("javascript")) {
+			return CodeLexer.JAVASCRIPT;
+		}
+		return null;
+	}
+
+	/**
+	 * Lexes the source
+	 * 
+	 * @param source
+	 *            - the code, not closed here
+	 * @param listener
+	 *            - gets the code lines, can be null
+	 * @return the metrics
+	 * @throws IOException
+	 */
+	public CodeMetrics lex(Reader source, CodeLineListener listener) throws IOException {
+		CodeMetrics metrics = new CodeMetrics();
+		LexerState state = this.newState(metrics);
+		BufferedReader reader = (source instanceof BufferedReader) ? (BufferedReader) source : new BufferedReader(source);
+		String line;
+		while ((line = reader.readLine()) != null) {
+			int lineType = state.lexLine(line);
+			if (lineType == LexerState.CODE) {
+				metrics.codeLines++;
+				if (listener != null) {
+					listener.codeLine(line);
+				}
+			} else if (lineType == LexerState.COMMENT) {
+				metrics.commentLines++;
+			}
+		}
+		state.endOfSource();
+		return metrics;
+	}
+
+	/**
+	 * Fresh state for one source
+	 */
+	protected abstract LexerState newState(CodeMetrics metrics);
+
+	/**
+	 * The part of a lexer that lives while one source is read. States carry
+	 * what spans lines: block comments, multi line strings and unfinished
+	 * statements
+	 */
+	protected abstract static class LexerState {
+		static final int			BLANK	= 0;
+		static final int			CODE	= 1;
+		static final int			COMMENT	= 2;
+
+		protected final CodeMetrics	metrics;
+
+		protected LexerState(CodeMetrics metrics) {
+			this.metrics = metrics;
+		}
+
+		/**
+		 * Lexes one physical line
+		 * 
+		 * @return BLANK, CODE or COMMENT
+		 */
+		abstract int lexLine(String line);
+
+		/**
+		 * Finishes an open statement at the end of the source
+		 */
+		abstract void endOfSource();
+
+		static boolean isIdentifierStart(char c) {
+			return Character.isLetter(c) || c == '_' || c == '$';
+		}
+
+		static boolean isIdentifierPart(char c) {
+			return Character.isLetterOrDigit(c) || c == '_' || c == '$';
+		}
+	}
+}
@@ -0,0 +1,100 @@
+/** ========================================================================= *
+ * Copyright (C) 2014,      IBM Corporation ( http://www.ibm.com/ )           *
+ *                            All rights reserved.                            *
+ * ========================================================================== *
+ *                                                                            *
+ * Licensed under the  Apache License, Version 2.0  (the "License").  You may *
+ * not use this file except in compliance with the License.  You may obtain a *
+ * copy of the License at <http://www.apache.org/licenses/LICENSE-2.0>.       *
+ *                                                                            *
+ * Unless  required  by applicable  law or  agreed  to  in writing,  software *
+ * distributed under the License is distributed on an  "AS IS" BASIS, WITHOUT *
+ * WARRANTIES OR  CONDITIONS OF ANY KIND, either express or implied.  See the *
+ * License for the  specific language  governing permissions  and limitations *
+ * under the License.                                                         *
+ *                                                                            *
+ * ========================================================================== */
+package com.notessensei.cocomo;
+
+/**
+ * What a lexer found in one piece of source code
+ * 
+ * @author stw
+ * 
+ */
+public class CodeMetrics {
+
+	/**
+	 * Physical lines containing code, with or without a trailing comment
+	 */
+	int	codeLines		= 0;
+
+	/**
+	 * Lines containing only comments
+	 */
+	int	commentLines	= 0;
+
+	/**
+	 * Logical statements, a statement spanning several lines counts once
+	 */
+	int	statements		= 0;
+
+	/**
+	 * Subs, functions, methods and properties
+	 */
+	int	procedures		= 0;
+
+	/**
+	 * Adds the findings to a result, once as total and once for the language
+	 * or file type
+	 * 
+	 * @param result
+	 * @param suffix
+	 *            - e.g. the extension or the tag name
+	 */
+	public void addTo(ArtefactResult result, String suffix) {
+		result.add("LOC", this.codeLines);
+		result.add("LOC_" + suffix, this.codeLines);
+		result.add("functions", this.procedures);
+		result.add("functions_" + suffix, this.procedures);
+		result.add("statements", this.statements);
+		result.add("statements_" + suffix, this.statements);
+		result.add("comments", this.commentLines);
+		result.add("comments_" + suffix, this.commentLines);
+	}
+
+	/**
+	 * Like addTo for code inside a design element. Its procedures are no
+	 * Functions in the report, they go to procedures and procedures_suffix
+	 * 
+	 * @param result
+	 * @param suffix
+	 *            - the tag name
+	 */
+	public void addEmbeddedTo(ArtefactResult result, String suffix) {
+		result.add("LOC", this.codeLines);
+		result.add("LOC_" + suffix, this.codeLines);
+		result.add("procedures", this.procedures);
+		result.add("procedures_" + suffix, this.procedures);
+		result.add("statements", this.statements);
+		result.add("statements_" + suffix, this.statements);
+		result.add("comments", this.commentLines);
+		result.add("comments_" + suffix, this.commentLines);
+	}
+
+	public int getCodeLines() {
+		return this.codeLines;
+	}
+
+	public int getCommentLines() {
+		return this.commentLines;
+	}
+
+	public int getProcedures() {
+		return this.procedures;
+	}
+
+	public int getStatements() {
+		return this.statements;
+	}
+}
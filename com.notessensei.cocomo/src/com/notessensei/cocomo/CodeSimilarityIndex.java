@@ -0,0 +1,201 @@
+/** ========================================================================= *
+ * Copyright (C) 2014,      IBM Corporation ( http://www.ibm.com/ )           *
+ *                            All rights reserved.                            *
+ * ========================================================================== *
+ *                                                                            *
+ * Licensed under the  Apache License, Version 2.0  (the "License").  You may *
+ * not use this file except in compliance with the License.  You may obtain a *
+ * copy of the License at <http://www.apache.org/licenses/LICENSE-2.0>.       *
+ *                                                                            *
+ * Unless  required  by applicable  law or  agreed  to  in writing,  software *
+ * distributed under the License is distributed on an  "AS IS" BASIS, WITHOUT *
+ * WARRANTIES OR  CONDITIONS OF ANY KIND, either express or implied.  See the *
+ * License for the  specific language  governing permissions  and limitations *
+ * under the License.                                                         *
+ *                                                                            *
+ * ========================================================================== */
+package com.notessensei.cocomo;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Finds code units (agents, script libraries, formulas...) that are slightly
+ * modified copies of each other. Signatures are split into bands, units
+ * sharing one band land in the same bucket (locality sensitive hashing).
+ * Buckets are runs in one sorted array of primitive longs and within a bucket
+ * every unit is only compared with the first one, so memory and work grow
+ * linear with the number of units
+ * 
+ * @author stw
+ * 
+ */
+public class CodeSimilarityIndex {
+
+	public static final int		BANDS		= 16;
+	public static final int		ROWS		= MinHasher.SIGNATURE_SIZE / CodeSimilarityIndex.BANDS;
+
+	/**
+	 * Estimated similarity for two units to be in one cluster
+	 */
+	public static final double	THRESHOLD	= 0.7;
+
+	private final List<String>	unitNames	= new ArrayList<String>();
+
+	/**
+	 * All signatures one after the other
+	 */
+	private int[]				signatures	= new int[MinHasher.SIGNATURE_SIZE * 1024];
+
+	/**
+	 * Per unit and band: band hash in the upper, unit number in the lower 32
+	 * bits. Sorted, equal upper halves form a bucket
+	 */
+	private long[]				bandEntries	= new long[CodeSimilarityIndex.BANDS * 1024];
+	private int					unitCount	= 0;
+
+	/**
+	 * Adds the code units of one application
+	 * 
+	 * @param appName
+	 * @param unitSignatures
+	 *            - unit name to MinHash signature
+	 */
+	public synchronized void add(String appName, Map<String, int[]> unitSignatures) {
+		for (Map.Entry<String, int[]> me : unitSignatures.entrySet()) {
+			int unitId = this.unitCount;
+			int[] signature = me.getValue();
+			if ((unitId + 1) * MinHasher.SIGNATURE_SIZE > this.signatures.length) {
+				this.signatures = Arrays.copyOf(this.signatures, this.signatures.length * 2);
+				this.bandEntries = Arrays.copyOf(this.bandEntries, this.bandEntries.length * 2);
+			}
+			System.arraycopy(signature, 0, this.signatures, unitId * MinHasher.SIGNATURE_SIZE, MinHasher.SIGNATURE_SIZE);
+			this.unitNames.add(appName + "/" + me.getKey());
+			for (int band = 0; band < CodeSimilarityIndex.BANDS; band++) {
+				long bandHash = band;
+				for (int row = 0; row < CodeSimilarityIndex.ROWS; row++) {
+					bandHash = MinHasher.mix(bandHash ^ signature[band * CodeSimilarityIndex.ROWS + row]);
+				}
+				this.bandEntries[unitId * CodeSimilarityIndex.BANDS + band] = (bandHash & 0xFFFFFFFF00000000L) | unitId;
+			}
+			this.unitCount++;
+		}
+	}
+
+	/**
+	 * Groups similar units
+	 * 
+	 * @return clusters with at least two units, the unit names
+	 */
+	public synchronized List<List<String>> getClusters() {
+		int[] parent = new int[this.unitCount];
+		for (int i = 0; i < parent.length; i++) {
+			parent[i] = i;
+		}
+
+		long[] sorted = Arrays.copyOf(this.bandEntries, this.unitCount * CodeSimilarityIndex.BANDS);
+		Arrays.sort(sorted);
+		int bucketStart = 0;
+		for (int i = 1; i <= sorted.length; i++) {
+			if (i < sorted.length && (sorted[i] >>> 32) == (sorted[bucketStart] >>> 32)) {
+				continue;
+			}
+			// One bucket from bucketStart to i - 1
+			int first = (int) sorted[bucketStart];
+			for (int j = bucketStart + 1; j < i; j++) {
+				int other = (int) sorted[j];
+				if (this.similarity(first, other) >= CodeSimilarityIndex.THRESHOLD) {
+					int rootA = CodeSimilarityIndex.find(parent, first);
+					int rootB = CodeSimilarityIndex.find(parent, other);
+					if (rootA != rootB) {
+						parent[rootB] = rootA;
+					}
+				}
+			}
+			bucketStart = i;
+		}
+
+		// Most units have no partner, so we only build lists for real clusters
+		int[] clusterSize = new int[parent.length];
+		for (int i = 0; i < parent.length; i++) {
+			clusterSize[CodeSimilarityIndex.find(parent, i)]++;
+		}
+		Map<Integer, List<String>> clusters = new TreeMap<Integer, List<String>>();
+		for (int i = 0; i < parent.length; i++) {
+			int root = CodeSimilarityIndex.find(parent, i);
+			if (clusterSize[root] < 2) {
+				continue;
+			}
+			Integer key = Integer.valueOf(root);
+			List<String> cluster = clusters.get(key);
+			if (cluster == null) {
+				cluster = new ArrayList<String>(clusterSize[root]);
+				clusters.put(key, cluster);
+			}
+			cluster.add(this.unitNames.get(i));
+		}
+		List<List<String>> result = new ArrayList<List<String>>();
+		result.addAll(clusters.values());
+		return result;
+	}
+
+	/**
+	 * Writes one line per cluster: number of units and the units
+	 * 
+	 * @param fileName
+	 * @throws IOException
+	 */
+	public void writeClusters(String fileName) throws IOException {
+		FileOutputStream out = new FileOutputStream(fileName);
+		PrintWriter pw = new PrintWriter(out);
+		pw.write("Cluster,Units,Code\n");
+		int clusterNumber = 0;
+		for (List<String> cluster : this.getClusters()) {
+			clusterNumber++;
+			pw.write(String.valueOf(clusterNumber));
+			pw.write(",");
+			pw.write(String.valueOf(cluster.size()));
+			for (String unit : cluster) {
+				pw.write(",");
+				pw.write(unit);
+			}
+			pw.write("\n");
+		}
+		pw.flush();
+		pw.close();
+		out.close();
+	}
+
+	/**
+	 * Estimated similarity of two units, straight from the flat array
+	 */
+	private double similarity(int unitA, int unitB) {
+		int offsetA = unitA * MinHasher.SIGNATURE_SIZE;
+		int offsetB = unitB * MinHasher.SIGNATURE_SIZE;
+		int same = 0;
+		for (int i = 0; i < MinHasher.SIGNATURE_SIZE; i++) {
+			if (this.signatures[offsetA + i] == this.signatures[offsetB + i]) {
+				same++;
+			}
+		}
+		return (double) same / MinHasher.SIGNATURE_SIZE;
+	}
+
+	/**
+	 * Union-find root with path halving
+	 */
+	private static int find(int[] parent, int start) {
+		int i = start;
+		while (parent[i] != i) {
+			parent[i] = parent[parent[i]];
+			i = parent[i];
+		}
+		return i;
+	}
+}
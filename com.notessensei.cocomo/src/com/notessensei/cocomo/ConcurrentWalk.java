@@ -0,0 +1,182 @@
+/** ========================================================================= *
+ * Copyright (C) 2014,      IBM Corporation ( http://www.ibm.com/ )           *
+ *                            All rights reserved.                            *
+ * ========================================================================== *
+ *                                                                            *
+ * Licensed under the  Apache License, Version 2.0  (the "License").  You may *
+ * not use this file except in compliance with the License.  You may obtain a *
+ * copy of the License at <http://www.apache.org/licenses/LICENSE-2.0>.       *
+ *                                                                            *
+ * Unless  required  by applicable  law or  agreed  to  in writing,  software *
+ * distributed under the License is distributed on an  "AS IS" BASIS, WITHOUT *
+ * WARRANTIES OR  CONDITIONS OF ANY KIND, either express or implied.  See the *
+ * License for the  specific language  governing permissions  and limitations *
+ * under the License.                                                         *
+ *                                                                            *
+ * ========================================================================== */
+package com.notessensei.cocomo;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Walks the design directories of one application with many file system
+ * calls in flight at the same time. Every directory listing and every
+ * check if an entry is a directory is a task of its own, on a network file
+ * system they cost milliseconds each and mostly wait. Follows the rules of
+ * the sequential walk in ArtefactExtractor: all directories on the top
+ * level, below them no hidden directories, files only below the top level.
+ * The visitor gets called from many threads
+ * 
+ * @author stw
+ * 
+ */
+class ConcurrentWalk {
+
+	/**
+	 * One piece of the walk
+	 */
+	private interface WalkStep {
+		void run() throws IOException, InterruptedException;
+	}
+
+	private final ArtefactExtractor				extractor;
+	private final String						appName;
+	private final ArtefactExtractor.FileVisitor	visitor;
+	private final Executor						executor;
+	private final Semaphore						ioPermits;
+	private final AtomicInteger					pending	= new AtomicInteger(0);
+	private final CountDownLatch				done	= new CountDownLatch(1);
+	private volatile Throwable					failure	= null;
+
+	/**
+	 * @param extractor
+	 * @param appName
+	 * @param visitor
+	 *            - needs to be thread safe
+	 * @param executor
+	 *            - runs the steps of the walk
+	 * @param ioPermits
+	 *            - limits the file system calls in flight
+	 */
+	ConcurrentWalk(ArtefactExtractor extractor, String appName, ArtefactExtractor.FileVisitor visitor, Executor executor,
+			Semaphore ioPermits) {
+		this.extractor = extractor;
+		this.appName = appName;
+		this.visitor = visitor;
+		this.executor = executor;
+		this.ioPermits = ioPermits;
+	}
+
+	/**
+	 * Walks the application and returns when all files are visited
+	 * 
+	 * @param appDir
+	 * @throws IOException
+	 *             when a step failed, e.g. the error budget is used up
+	 */
+	void walk(final File appDir) throws IOException {
+		this.submit(new WalkStep() {
+			public void run() throws IOException, InterruptedException {
+				ConcurrentWalk.this.list(appDir, 0);
+			}
+		});
+		try {
+			this.done.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted walking " + this.appName, e);
+		}
+		if (this.failure instanceof IOException) {
+			throw (IOException) this.failure;
+		} else if (this.failure != null) {
+			throw new IOException(this.failure);
+		}
+	}
+
+	private void list(File dir, final int depth) throws IOException, InterruptedException {
+		this.ioPermits.acquire();
+		File[] files;
+		try {
+			files = dir.listFiles();
+		} finally {
+			this.ioPermits.release();
+		}
+		if (files == null) {
+			// Deleted while we were scanning
+			this.extractor.getErrorLog().record(this.appName, dir.getPath(), 1, new FileNotFoundException("Can't list " + dir));
+			return;
+		}
+		for (final File f : files) {
+			this.submit(new WalkStep() {
+				public void run() throws IOException, InterruptedException {
+					ConcurrentWalk.this.visit(f, depth + 1);
+				}
+			});
+		}
+	}
+
+	private void visit(final File f, int depth) throws IOException, InterruptedException {
+		this.ioPermits.acquire();
+		boolean isDirectory;
+		try {
+			isDirectory = f.isDirectory();
+		} finally {
+			this.ioPermits.release();
+		}
+		if (isDirectory) {
+			if (depth == 1 || !f.getName().startsWith(".")) {
+				this.list(f, depth);
+			}
+		} else if (depth > 1) {
+			this.visitor.visit(f.getAbsolutePath(), f.getName(), new ArtefactExtractor.EntrySource() {
+				public InputStream open() throws IOException {
+					return new BufferedInputStream(new FileInputStream(f));
+				}
+			});
+		}
+	}
+
+	private void submit(final WalkStep step) {
+		this.pending.incrementAndGet();
+		try {
+			this.executor.execute(new Runnable() {
+				public void run() {
+					try {
+						if (ConcurrentWalk.this.failure == null) {
+							step.run();
+						}
+					} catch (Throwable t) {
+						ConcurrentWalk.this.fail(t);
+					} finally {
+						ConcurrentWalk.this.stepDone();
+					}
+				}
+			});
+		} catch (RuntimeException e) {
+			// Executor shut down, the run is over
+			this.fail(e);
+			this.stepDone();
+		}
+	}
+
+	private void stepDone() {
+		if (this.pending.decrementAndGet() == 0) {
+			this.done.countDown();
+		}
+	}
+
+	private synchronized void fail(Throwable t) {
+		if (this.failure == null) {
+			this.failure = t;
+		}
+	}
+}
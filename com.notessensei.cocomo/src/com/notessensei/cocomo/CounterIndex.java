@@ -0,0 +1,412 @@
+/** ========================================================================= *
+ * Copyright (C) 2014,      IBM Corporation ( http://www.ibm.com/ )           *
+ *                            All rights reserved.                            *
+ * ========================================================================== *
+ *                                                                            *
+ * Licensed under the  Apache License, Version 2.0  (the "License").  You may *
+ * not use this file except in compliance with the License.  You may obtain a *
+ * copy of the License at <http://www.apache.org/licenses/LICENSE-2.0>.       *
+ *                                                                            *
+ * Unless  required  by applicable  law or  agreed  to  in writing,  software *
+ * distributed under the License is distributed on an  "AS IS" BASIS, WITHOUT *
+ * WARRANTIES OR  CONDITIONS OF ANY KIND, either express or implied.  See the *
+ * License for the  specific language  governing permissions  and limitations *
+ * under the License.                                                         *
+ *                                                                            *
+ * ========================================================================== */
+package com.notessensei.cocomo;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Inverted index from every counter of the scan (markers like UI_script,
+ * template_ names, rule counters, @Functions) to the applications that have
+ * it and how often. Built during the scan and saved in one file, queries
+ * load it and answer boolean expressions without scanning again:
+ * 
+ * <pre>
+ * template_StdR9Mail AND (UI_script OR @dblookup) AND NOT "Wide Views"
+ * </pre>
+ * 
+ * Words next to each other are AND, NOT binds tightest, then AND, then OR. A
+ * term ending in * stands for all counters starting with it. @Functions are
+ * stored lower case, formula language doesn't care.
+ * 
+ * A posting list is the applications in the order they were added, as
+ * varint gaps, each with its varint count
+ * 
+ * @author stw
+ * 
+ */
+public class CounterIndex {
+
+	/**
+	 * The applications a query matched, with the count of every term
+	 */
+	public static class QueryResult {
+		private final List<String>			terms;
+		private final Map<String, long[]>	applications	= new TreeMap<String, long[]>();
+
+		private QueryResult(List<String> terms) {
+			this.terms = terms;
+		}
+
+		public List<String> getTerms() {
+			return this.terms;
+		}
+
+		/**
+		 * @return application name to the counts of the terms, sorted by
+		 *         name
+		 */
+		public Map<String, long[]> getApplications() {
+			return this.applications;
+		}
+	}
+
+	/**
+	 * Applications and counts of one counter while the index is built
+	 */
+	private static class Postings {
+		private int[]	data	= new int[8];
+		private int		size	= 0;
+
+		private void add(int app, int count) {
+			if (this.size + 2 > this.data.length) {
+				this.data = Arrays.copyOf(this.data, this.data.length * 2);
+			}
+			this.data[this.size++] = app;
+			this.data[this.size++] = count;
+		}
+	}
+
+	/**
+	 * Recursive descent over the tokens of a query
+	 */
+	private class Parser {
+		private final List<String>	tokens;
+		private final List<String>	terms	= new ArrayList<String>();
+		private int					pos		= 0;
+
+		private Parser(List<String> tokens) {
+			this.tokens = tokens;
+		}
+
+		private BitSet parseOr() {
+			BitSet result = this.parseAnd();
+			while (this.accept("OR")) {
+				result.or(this.parseAnd());
+			}
+			return result;
+		}
+
+		private BitSet parseAnd() {
+			BitSet result = this.parseNot();
+			while (this.pos < this.tokens.size() && !this.peekIs("OR") && !this.peekIs(")")) {
+				this.accept("AND");
+				result.and(this.parseNot());
+			}
+			return result;
+		}
+
+		private BitSet parseNot() {
+			if (this.accept("NOT")) {
+				BitSet result = this.parseNot();
+				result.flip(0, CounterIndex.this.applications.size());
+				return result;
+			}
+			if (this.accept("(")) {
+				BitSet result = this.parseOr();
+				if (!this.accept(")")) {
+					throw new IllegalArgumentException("Missing ) in query");
+				}
+				return result;
+			}
+			if (this.pos >= this.tokens.size() || !this.tokens.get(this.pos).startsWith(CounterIndex.TERM)) {
+				throw new IllegalArgumentException("Term expected in query"
+						+ ((this.pos < this.tokens.size()) ? " at " + this.tokens.get(this.pos).trim() : ""));
+			}
+			String term = CounterIndex.normalize(this.tokens.get(this.pos++).substring(1));
+			if (!this.terms.contains(term)) {
+				this.terms.add(term);
+			}
+			BitSet result = new BitSet();
+			for (byte[] postings : CounterIndex.this.getPostings(term)) {
+				int[] decoded = CounterIndex.decode(postings);
+				for (int i = 0; i < decoded.length; i += 2) {
+					result.set(decoded[i]);
+				}
+			}
+			return result;
+		}
+
+		private boolean accept(String token) {
+			if (this.peekIs(token)) {
+				this.pos++;
+				return true;
+			}
+			return false;
+		}
+
+		private boolean peekIs(String token) {
+			return this.pos < this.tokens.size() && this.tokens.get(this.pos).equals(token);
+		}
+	}
+
+	private static final int				MAGIC			= 0x43434d49;
+	private static final int				VERSION			= 1;
+	// Marks a term token, a quoted "AND" is no operator
+	private static final String				TERM			= " ";
+
+	private final List<String>				applications	= new ArrayList<String>();
+	// Counter name to postings, while building
+	private final Map<String, Postings>		building		= new TreeMap<String, Postings>();
+	// Counter name to encoded postings, once written or loaded
+	private final TreeMap<String, byte[]>	postings		= new TreeMap<String, byte[]>();
+
+	/**
+	 * Loads a saved index
+	 * 
+	 * @param file
+	 * @return the index, ready for queries
+	 * @throws IOException
+	 */
+	public static CounterIndex load(File file) throws IOException {
+		CounterIndex index = new CounterIndex();
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			if (in.readInt() != CounterIndex.MAGIC || in.readInt() != CounterIndex.VERSION) {
+				throw new IOException(file + " is no index of this version");
+			}
+			int appCount = in.readInt();
+			for (int i = 0; i < appCount; i++) {
+				index.applications.add(in.readUTF());
+			}
+			int keyCount = in.readInt();
+			for (int i = 0; i < keyCount; i++) {
+				String key = in.readUTF();
+				byte[] encoded = new byte[in.readInt()];
+				in.readFully(encoded);
+				index.postings.put(key, encoded);
+			}
+		} finally {
+			in.close();
+		}
+		return index;
+	}
+
+	/**
+	 * Adds all counters and @Functions of an application
+	 * 
+	 * @param appName
+	 * @param result
+	 */
+	public synchronized void add(String appName, ArtefactResult result) {
+		int app = this.applications.size();
+		this.applications.add(appName);
+		for (Map.Entry<String, Integer> me : result.getCounters().entrySet()) {
+			this.addPosting(me.getKey(), app, me.getValue().intValue());
+		}
+		FunctionHistogram functions = result.getFunctions();
+		for (String name : functions.getNames()) {
+			this.addPosting(CounterIndex.normalize(name), app, functions.getCount(name));
+		}
+	}
+
+	/**
+	 * Writes the index, into a temp file first so queries never see half an
+	 * index
+	 * 
+	 * @param file
+	 * @throws IOException
+	 */
+	public synchronized void write(File file) throws IOException {
+		for (Map.Entry<String, Postings> me : this.building.entrySet()) {
+			this.postings.put(me.getKey(), CounterIndex.encode(me.getValue()));
+		}
+		this.building.clear();
+
+		File tmp = new File(file.getAbsolutePath() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+		try {
+			out.writeInt(CounterIndex.MAGIC);
+			out.writeInt(CounterIndex.VERSION);
+			out.writeInt(this.applications.size());
+			for (String app : this.applications) {
+				out.writeUTF(app);
+			}
+			out.writeInt(this.postings.size());
+			for (Map.Entry<String, byte[]> me : this.postings.entrySet()) {
+				out.writeUTF(me.getKey());
+				out.writeInt(me.getValue().length);
+				out.write(me.getValue());
+			}
+		} finally {
+			out.close();
+		}
+		if (file.exists() && !file.delete()) {
+			throw new IOException("Can't replace " + file);
+		}
+		if (!tmp.renameTo(file)) {
+			throw new IOException("Can't write " + file);
+		}
+	}
+
+	/**
+	 * Runs a boolean query
+	 * 
+	 * @param query
+	 * @return the matching applications
+	 * @throws IllegalArgumentException
+	 *             when the query can't be parsed
+	 */
+	public synchronized QueryResult query(String query) {
+		Parser parser = new Parser(CounterIndex.tokenize(query));
+		BitSet matches = parser.parseOr();
+		if (parser.pos < parser.tokens.size()) {
+			throw new IllegalArgumentException("Unexpected " + parser.tokens.get(parser.pos).trim() + " in query");
+		}
+		QueryResult result = new QueryResult(parser.terms);
+		for (int app = matches.nextSetBit(0); app >= 0; app = matches.nextSetBit(app + 1)) {
+			result.applications.put(this.applications.get(app), new long[parser.terms.size()]);
+		}
+		// Counts only for the applications that made it
+		for (int t = 0; t < parser.terms.size(); t++) {
+			for (byte[] encoded : this.getPostings(parser.terms.get(t))) {
+				int[] decoded = CounterIndex.decode(encoded);
+				for (int i = 0; i < decoded.length; i += 2) {
+					if (matches.get(decoded[i])) {
+						result.applications.get(this.applications.get(decoded[i]))[t] += decoded[i + 1];
+					}
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return how many applications are indexed
+	 */
+	public synchronized int getApplicationCount() {
+		return this.applications.size();
+	}
+
+	private void addPosting(String key, int app, int count) {
+		if (count == 0) {
+			return;
+		}
+		Postings p = this.building.get(key);
+		if (p == null) {
+			p = new Postings();
+			this.building.put(key, p);
+		}
+		p.add(app, count);
+	}
+
+	/**
+	 * The posting lists of a term, all counters with the prefix for a
+	 * wildcard
+	 */
+	private List<byte[]> getPostings(String term) {
+		List<byte[]> result = new ArrayList<byte[]>();
+		if (term.endsWith("*")) {
+			String prefix = term.substring(0, term.length() - 1);
+			for (Map.Entry<String, byte[]> me : this.postings.tailMap(prefix, true).entrySet()) {
+				if (!me.getKey().startsWith(prefix)) {
+					break;
+				}
+				result.add(me.getValue());
+			}
+		} else if (this.postings.containsKey(term)) {
+			result.add(this.postings.get(term));
+		}
+		return result;
+	}
+
+	private static byte[] encode(Postings p) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(p.size * 2 + 5);
+		MetricsStore.writeVarInt(out, p.size / 2);
+		int previous = 0;
+		for (int i = 0; i < p.size; i += 2) {
+			MetricsStore.writeVarInt(out, p.data[i] - previous);
+			int count = p.data[i + 1];
+			MetricsStore.writeVarInt(out, (count << 1) ^ (count >> 31));
+			previous = p.data[i];
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * @return pairs of application number and count
+	 */
+	private static int[] decode(byte[] encoded) {
+		int[] pos = new int[1];
+		int n = MetricsStore.readVarInt(encoded, pos);
+		int[] result = new int[n * 2];
+		int app = 0;
+		for (int i = 0; i < n; i++) {
+			app += MetricsStore.readVarInt(encoded, pos);
+			int zigzag = MetricsStore.readVarInt(encoded, pos);
+			result[i * 2] = app;
+			result[i * 2 + 1] = (zigzag >>> 1) ^ -(zigzag & 1);
+		}
+		return result;
+	}
+
+	/**
+	 * Formula language doesn't care about the case of a function
+	 */
+	private static String normalize(String term) {
+		return term.startsWith("@") ? term.toLowerCase() : term;
+	}
+
+	/**
+	 * Splits a query into operators, parentheses and terms, plain or "quoted".
+	 * Terms start with TERM
+	 */
+	private static List<String> tokenize(String query) {
+		List<String> tokens = new ArrayList<String>();
+		int i = 0;
+		while (i < query.length()) {
+			char c = query.charAt(i);
+			if (Character.isWhitespace(c)) {
+				i++;
+			} else if (c == '(' || c == ')') {
+				tokens.add(String.valueOf(c));
+				i++;
+			} else if (c == '"') {
+				int end = query.indexOf('"', i + 1);
+				if (end < 0) {
+					throw new IllegalArgumentException("Missing \" in query");
+				}
+				tokens.add(CounterIndex.TERM + query.substring(i + 1, end));
+				i = end + 1;
+			} else {
+				int end = i;
+				while (end < query.length() && !Character.isWhitespace(query.charAt(end)) && query.charAt(end) != '('
+						&& query.charAt(end) != ')') {
+					end++;
+				}
+				String word = query.substring(i, end);
+				String upper = word.toUpperCase();
+				tokens.add((upper.equals("AND") || upper.equals("OR") || upper.equals("NOT")) ? upper : CounterIndex.TERM + word);
+				i = end;
+			}
+		}
+		return tokens;
+	}
+}
@@ -0,0 +1,348 @@
+/** ========================================================================= *
+ * Copyright (C) 2014,      IBM Corporation ( http://www.ibm.com/ )           *
+ *                            All rights reserved.                            *
+ * ========================================================================== *
+ *                                                                            *
+ * Licensed under the  Apache License, Version 2.0  (the "License").  You may *
+ * not use this file except in compliance with the License.  You may obtain a *
+ * copy of the License at <http://www.apache.org/licenses/LICENSE-2.0>.       *
+ *                                                                            *
+ * Unless  required  by applicable  law or  agreed  to  in writing,  software *
+ * distributed under the License is distributed on an  "AS IS" BASIS, WITHOUT *
+ * WARRANTIES OR  CONDITIONS OF ANY KIND, either express or implied.  See the *
+ * License for the  specific language  governing permissions  and limitations *
+ * under the License.                                                         *
+ *                                                                            *
+ * ========================================================================== */
+package com.notessensei.cocomo;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * One compiled rule from countingRules.properties. The key of the property
+ * is the counter, the value the rule:
+ * 
+ * <pre>
+ * rule      := ['file:'] path predicate* ['~' regex]
+ * path      := ['/'] step ('/' step)*      step is an element name or *
+ * predicate := '[@' name ']'               attribute exists
+ *            | '[@' name '=' value ']'     attribute has the value
+ *            | '[@' name '~' regex ']'     attribute matches, @* for any attribute
+ *            | '[' name '&gt;' number ']'     more than number child elements
+ * </pre>
+ * 
+ * A path without leading / matches the last elements of the element's path.
+ * The regex at the end counts its matches in the text of the element, without
+ * it every matching element counts one. With file: a file counts one when
+ * anything in it matches
+ * 
+ * @author stw
+ * 
+ */
+public final class CountingRule {
+
+	/**
+	 * Where the scan is right now: the element path and the text of the
+	 * current element, read only when a rule needs it
+	 */
+	public static final class Context {
+		private String[]	path	= new String[16];
+		private int			depth	= 0;
+		private Element		element	= null;
+		private String		text	= null;
+
+		/**
+		 * Enters an element
+		 */
+		public void push(Element element) {
+			if (this.depth == this.path.length) {
+				String[] bigger = new String[this.depth * 2];
+				System.arraycopy(this.path, 0, bigger, 0, this.depth);
+				this.path = bigger;
+			}
+			this.path[this.depth++] = element.getNodeName();
+			this.element = element;
+			this.text = null;
+		}
+
+		/**
+		 * Leaves the current element
+		 */
+		public void pop() {
+			this.depth--;
+			this.element = null;
+			this.text = null;
+		}
+
+		private String getText() {
+			if (this.text == null) {
+				StringBuilder b = new StringBuilder();
+				NodeList children = this.element.getChildNodes();
+				for (int i = 0, size = children.getLength(); i < size; i++) {
+					Node node = children.item(i);
+					if (node.getNodeType() == Node.TEXT_NODE || node.getNodeType() == Node.CDATA_SECTION_NODE) {
+						b.append(node.getNodeValue());
+					}
+				}
+				this.text = b.toString();
+			}
+			return this.text;
+		}
+	}
+
+	/**
+	 * A condition on an attribute or the children of the element
+	 */
+	private static final class Predicate {
+		private String	attribute	= null;
+		private String	value		= null;
+		private Pattern	pattern		= null;
+		private String	child		= null;
+		private int		minChildren	= 0;
+
+		private boolean matches(Element element) {
+			if (this.child != null) {
+				int count = 0;
+				NodeList children = element.getChildNodes();
+				for (int i = 0, size = children.getLength(); i < size; i++) {
+					Node node = children.item(i);
+					if (node.getNodeType() == Node.ELEMENT_NODE && node.getNodeName().equals(this.child)) {
+						count++;
+						if (count > this.minChildren) {
+							return true;
+						}
+					}
+				}
+				return false;
+			}
+			if (this.attribute.equals("*")) {
+				NamedNodeMap attributes = element.getAttributes();
+				for (int i = 0, size = attributes.getLength(); i < size; i++) {
+					if (this.matchesValue(((Attr) attributes.item(i)).getValue())) {
+						return true;
+					}
+				}
+				return false;
+			}
+			if (!element.hasAttribute(this.attribute)) {
+				return false;
+			}
+			return this.matchesValue(element.getAttribute(this.attribute));
+		}
+
+		private boolean matchesValue(String attValue) {
+			if (this.value != null) {
+				return this.value.equals(attValue);
+			}
+			if (this.pattern != null) {
+				return this.pattern.matcher(attValue).find();
+			}
+			return true;
+		}
+	}
+
+	private final int			id;
+	private final String		key;
+	private final boolean		perFile;
+	private final boolean		anchored;
+	private final String[]		steps;
+	private final Predicate[]	predicates;
+	private final Pattern		textPattern;
+
+	/**
+	 * Compiles a rule
+	 * 
+	 * @param id
+	 *            - number of the rule in its rule set
+	 * @param key
+	 *            - the counter
+	 * @param rule
+	 *            - the rule text
+	 * @throws IllegalArgumentException
+	 *             when the rule can't be parsed
+	 */
+	public CountingRule(int id, String key, String rule) {
+		this.id = id;
+		this.key = key;
+		String work = rule.trim();
+		this.perFile = work.startsWith("file:");
+		if (this.perFile) {
+			work = work.substring(5).trim();
+		}
+		this.anchored = work.startsWith("/");
+		if (this.anchored) {
+			work = work.substring(1);
+		}
+
+		// Path up to the first predicate or text regex
+		int pos = 0;
+		while (pos < work.length() && work.charAt(pos) != '[' && work.charAt(pos) != '~') {
+			pos++;
+		}
+		List<String> stepList = new ArrayList<String>();
+		for (String step : work.substring(0, pos).split("/")) {
+			if (step.trim().equals("")) {
+				throw new IllegalArgumentException("Empty element name in " + rule);
+			}
+			stepList.add(step.trim());
+		}
+		this.steps = stepList.toArray(new String[stepList.size()]);
+
+		List<Predicate> predicateList = new ArrayList<Predicate>();
+		while (pos < work.length() && work.charAt(pos) == '[') {
+			int end = CountingRule.findClosingBracket(work, pos);
+			if (end < 0) {
+				throw new IllegalArgumentException("Missing ] in " + rule);
+			}
+			predicateList.add(CountingRule.parsePredicate(work.substring(pos + 1, end), rule));
+			pos = end + 1;
+		}
+		this.predicates = predicateList.toArray(new Predicate[predicateList.size()]);
+
+		if (pos < work.length()) {
+			if (work.charAt(pos) != '~') {
+				throw new IllegalArgumentException("Unexpected " + work.substring(pos) + " in " + rule);
+			}
+			this.textPattern = CountingRule.compile(work.substring(pos + 1), rule);
+		} else {
+			this.textPattern = null;
+		}
+	}
+
+	private static Pattern compile(String regex, String rule) {
+		try {
+			return Pattern.compile(regex);
+		} catch (PatternSyntaxException e) {
+			throw new IllegalArgumentException("Invalid regex " + regex + " in " + rule);
+		}
+	}
+
+	/**
+	 * The ] that closes the predicate, brackets of a regex inside and escaped
+	 * chars are skipped
+	 */
+	private static int findClosingBracket(String work, int open) {
+		int nesting = 0;
+		for (int i = open + 1; i < work.length(); i++) {
+			char c = work.charAt(i);
+			if (c == '\\') {
+				i++;
+			} else if (c == '[') {
+				nesting++;
+			} else if (c == ']') {
+				if (nesting == 0) {
+					return i;
+				}
+				nesting--;
+			}
+		}
+		return -1;
+	}
+
+	private static Predicate parsePredicate(String text, String rule) {
+		Predicate p = new Predicate();
+		if (text.startsWith("@")) {
+			int eq = text.indexOf('=');
+			int tilde = text.indexOf('~');
+			if (tilde > 0 && (eq < 0 || tilde < eq)) {
+				p.attribute = text.substring(1, tilde).trim();
+				p.pattern = CountingRule.compile(text.substring(tilde + 1), rule);
+			} else if (eq > 0) {
+				p.attribute = text.substring(1, eq).trim();
+				p.value = text.substring(eq + 1);
+			} else {
+				p.attribute = text.substring(1).trim();
+			}
+			if (p.attribute.equals("")) {
+				throw new IllegalArgumentException("Missing attribute name in " + rule);
+			}
+			return p;
+		}
+		int gt = text.indexOf('>');
+		if (gt <= 0) {
+			throw new IllegalArgumentException("Unknown condition [" + text + "] in " + rule);
+		}
+		p.child = text.substring(0, gt).trim();
+		try {
+			p.minChildren = Integer.parseInt(text.substring(gt + 1).trim());
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid number in [" + text + "] in " + rule);
+		}
+		return p;
+	}
+
+	/**
+	 * How often the rule matches the current element of the context
+	 * 
+	 * @param context
+	 * @return 0 if it doesn't match
+	 */
+	public int count(Context context) {
+		// The last step is checked by the caller via getElementName()
+		int depth = context.depth;
+		if (this.anchored && depth != this.steps.length) {
+			return 0;
+		}
+		if (depth < this.steps.length) {
+			return 0;
+		}
+		for (int i = 0; i < this.steps.length - 1; i++) {
+			String step = this.steps[i];
+			if (!step.equals("*") && !step.equals(context.path[depth - this.steps.length + i])) {
+				return 0;
+			}
+		}
+		for (Predicate p : this.predicates) {
+			if (!p.matches(context.element)) {
+				return 0;
+			}
+		}
+		if (this.textPattern == null) {
+			return 1;
+		}
+		int matches = 0;
+		Matcher m = this.textPattern.matcher(context.getText());
+		while (m.find()) {
+			matches++;
+		}
+		return matches;
+	}
+
+	/**
+	 * @return the element name the rule applies to, * for all elements
+	 */
+	public String getElementName() {
+		return this.steps[this.steps.length - 1];
+	}
+
+	/**
+	 * @return number of the rule in its rule set
+	 */
+	public int getId() {
+		return this.id;
+	}
+
+	/**
+	 * @return the counter the rule increases
+	 */
+	public String getKey() {
+		return this.key;
+	}
+
+	/**
+	 * @return true when the rule counts files, not matches
+	 */
+	public boolean isPerFile() {
+		return this.perFile;
+	}
+}
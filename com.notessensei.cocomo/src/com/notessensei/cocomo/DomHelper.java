@@ -23,16 +23,22 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.FilterWriter;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.io.Writer;
 import java.util.List;
 import java.util.Map;
-import java.util.Scanner;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerException;
 import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
@@ -47,8 +53,10 @@ import org.w3c.dom.Element;
 import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
+import org.xml.sax.ErrorHandler;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
 
 /**
  * DomHelper contains commonly used functions for dealing with DOM objects like
@@ -70,6 +78,23 @@ public final class DomHelper {
 	 */
 	private static DomHelper	domHelper			= null;
 
+	/**
+	 * One parser per thread, so parallel scans don't queue up on the
+	 * synchronized singleton methods
+	 */
+	private static final ThreadLocal<DocumentBuilder>	documentBuilders	= new ThreadLocal<DocumentBuilder>();
+
+	/**
+	 * One identity Transformer per thread, reused for all serialization. The
+	 * built-in identity keeps CDATA sections, an identity stylesheet would not
+	 */
+	private static final ThreadLocal<Transformer>		identityTransformers	= new ThreadLocal<Transformer>();
+
+	/**
+	 * Parse errors end up as exceptions, not on the console
+	 */
+	private static final ErrorHandler					SILENT_ERRORS			= new SilentErrorHandler();
+
 	/**
 	 * Get access to the Domhelper class. We load it only once
 	 * 
@@ -215,10 +240,43 @@ public final class DomHelper {
 	 *            The name to store too
 	 */
 	public synchronized final void dom2File(Node dom, String outFileName) {
-		// To make sure the file is clean we take the step via the string
-		// not high performance but good enough for us
-		String stuff = this.dom2String(dom);
-		this.string2File(outFileName, stuff);
+		File outFile = this.prepareOutputFile(outFileName);
+		if (outFile == null) {
+			return;
+		}
+
+		// Write out, empty lines are filtered on the way
+		BufferedWriter w = null;
+		try {
+			w = new BufferedWriter(new FileWriter(outFile));
+			this.dom2Writer(dom, w);
+		} catch (Exception e) {
+			e.printStackTrace();
+		} finally {
+			try {
+				if (w != null) {
+					w.close();
+				}
+			} catch (Exception e2) {
+				// No action here
+			}
+		}
+	}
+
+	/**
+	 * Serializes a DOM as UTF-8 into a stream without the detour via a
+	 * String. Lines are trimmed and empty lines dropped while writing
+	 * 
+	 * @param dom
+	 *            - a DOM, can be a Document or a Node
+	 * @param out
+	 *            - where to write to, flushed but not closed
+	 * @throws IOException
+	 */
+	public final void dom2Stream(Node dom, OutputStream out) throws IOException {
+		Writer w = new OutputStreamWriter(out, "UTF-8");
+		this.dom2Writer(dom, w);
+		w.flush();
 	}
 
 	/**
@@ -229,26 +287,34 @@ public final class DomHelper {
 	 * @return the DOM in string format
 	 */
 	public synchronized final String dom2String(Node dom) {
-		String result = null;
-
-		StreamResult xResult = null;
-		DOMSource source = null;
-
+		StringWriter result = new StringWriter();
 		try {
-			TransformerFactory tFactory = TransformerFactory.newInstance();
-			Transformer transformer = tFactory.newTransformer();
-			xResult = new StreamResult(new StringWriter());
-			source = new DOMSource(dom);
-			// We don't want the XML declaration in front
-			transformer.setOutputProperty("omit-xml-declaration", "yes");
-			transformer.transform(source, xResult);
-			result = xResult.getWriter().toString();
-
-		} catch (Exception e) {
+			this.dom2Writer(dom, result);
+		} catch (IOException e) {
 			e.printStackTrace();
 		}
+		return result.toString();
+	}
 
-		return this.stripEmptyLines(result);
+	/**
+	 * Serializes a DOM into a Writer using the cached identity transformer. Lines are trimmed and empty lines dropped while writing,
+	 * so no intermediate copy of the XML is needed
+	 * 
+	 * @param dom
+	 *            - a DOM, can be a Document or a Node
+	 * @param out
+	 *            - where to write to, not closed
+	 * @throws IOException
+	 */
+	public final void dom2Writer(Node dom, Writer out) throws IOException {
+		EmptyLineFilterWriter filter = new EmptyLineFilterWriter(out);
+		try {
+			Transformer transformer = DomHelper.getIdentityTransformer();
+			transformer.transform(new DOMSource(dom), new StreamResult(filter));
+		} catch (TransformerException e) {
+			throw new IOException(e);
+		}
+		filter.finish();
 	}
 
 	/**
@@ -373,41 +439,10 @@ public final class DomHelper {
 	 * @return The text list
 	 */
 	public synchronized final String getElementString(Element sourceElement) {
-		String elementName = sourceElement.getTagName();
-		StringBuffer result = new StringBuffer();
-		if (!elementName.equals("textlist") && !elementName.equals("text")) {
-			result.append(elementName);
-			result.append(this.getAttributeString(sourceElement.getAttributes()));
-		}
-
-		NodeList children = sourceElement.getChildNodes();
-
-		if (children != null) {
-			for (int i = 0; i < children.getLength(); i++) {
-				Node curNode = children.item(i);
-				short nodeType = curNode.getNodeType();
-				if (nodeType == Node.ELEMENT_NODE) {
-					Element curElement = (Element) curNode;
-					result.append(this.getElementString(curElement));
-				} else if (nodeType == Node.TEXT_NODE) {
-					result.append(curNode.getNodeValue());
-					result.append("\n");
-				}
-			}
-		}
-
-		// Remove too much empty lines
-		char newLine = new String("\n").charAt(0);
-		for (int i = result.length() - 1; i > 0; i--) {
-			char curChar = result.charAt(i);
-			char previousChar = result.charAt(i - 1);
-
-			// If both are new lines we remove one
-			if (newLine == curChar && newLine == previousChar) {
-				result.deleteCharAt(i);
-			}
-		}
-
+		// One builder for the whole tree, double new lines are
+		// dropped while appending, so we never walk the result again
+		StringBuilder result = new StringBuilder();
+		this.appendElementString(sourceElement, result);
 		return result.toString();
 	}
 
@@ -458,6 +493,68 @@ public final class DomHelper {
 		return b.toString();
 	}
 
+	/**
+	 * Creates a DOM object from a stream, e.g. an entry of an archive. The
+	 * parser detects the encoding from the XML declaration. Not synchronized,
+	 * each thread uses its own parser. Failures are reported to the caller
+	 * 
+	 * @param in
+	 *            the XML source, will be closed by the parser
+	 * @return a proper DOM
+	 * @throws IOException
+	 *             when the stream can't be read or isn't XML, a parse error is
+	 *             the cause
+	 */
+	public final Document parseStream(InputStream in) throws IOException {
+		DocumentBuilder docb = DomHelper.documentBuilders.get();
+		try {
+			if (docb == null) {
+				DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+				factory.setValidating(false); // Will blow if set to true
+				factory.setNamespaceAware(true);
+				docb = factory.newDocumentBuilder();
+				DomHelper.documentBuilders.set(docb);
+			}
+			// Errors go to the caller, not to the console
+			docb.setErrorHandler(DomHelper.SILENT_ERRORS);
+			return docb.parse(new InputSource(in));
+		} catch (SAXException e) {
+			throw new IOException(e.getMessage(), e);
+		} catch (ParserConfigurationException e) {
+			throw new IOException(e.getMessage(), e);
+		} finally {
+			if (docb != null) {
+				docb.reset();
+			}
+		}
+	}
+
+	/**
+	 * Creates a DOM object from a stream, e.g. an entry of an archive. The
+	 * parser detects the encoding from the XML declaration. Not synchronized,
+	 * each thread uses its own parser. Returns null on failure
+	 * 
+	 * @param in
+	 *            the XML source, will be closed by the parser
+	 * @param sourceName
+	 *            name of the source for error messages
+	 * @return a proper DOM
+	 */
+	public final Document stream2Dom(InputStream in, String sourceName) {
+		Document d = null;
+		try {
+			d = this.parseStream(in);
+		} catch (Exception e) {
+			e.printStackTrace();
+			d = null;
+		}
+
+		if (d == null) {
+			System.out.println("DOM from stream generation failed:\n" + sourceName);
+		}
+		return d;
+	}
+
 	/**
 	 * Parses a string containing XML and returns a DocumentFragment
 	 * 
@@ -545,31 +642,9 @@ public final class DomHelper {
 	 *            text to write
 	 */
 	public synchronized final void string2File(String outFileName, String stuff) {
-		// Remove the file
-		File outFile = new File(outFileName);
-
-		try {
-			if (outFile.exists()) {
-				if (outFile.isDirectory()) {
-					// Not a good idea to send a file into a directory :-)
-					System.err.print("Output Error: " + outFileName + " is a directory");
-					return;
-				}
-
-				// We delete the file now
-				outFile.delete();
-			}
-		} catch (Exception e) {
-			// Do nothing if deletion fails
-		}
-		// Make sure the directory tree exists
-		String sep = File.separator;
-		int max = outFileName.lastIndexOf(sep);
-		// max = -1 => local file, max = 0 => root specified
-		if (max > 0) {
-			String dirName = outFileName.substring(0, max);
-			File outDir = new File(dirName);
-			outDir.mkdirs();
+		File outFile = this.prepareOutputFile(outFileName);
+		if (outFile == null) {
+			return;
 		}
 
 		// Write out
@@ -731,6 +806,53 @@ public final class DomHelper {
 		return b.toString();
 	}
 
+	/**
+	 * Appends text and drops a new line that would follow another new line
+	 * 
+	 * @param b
+	 *            the shared builder
+	 * @param text
+	 *            what to append
+	 */
+	private void appendCollapsed(StringBuilder b, String text) {
+		for (int i = 0, max = text.length(); i < max; i++) {
+			char curChar = text.charAt(i);
+			if (curChar != '\n' || b.length() == 0 || b.charAt(b.length() - 1) != '\n') {
+				b.append(curChar);
+			}
+		}
+	}
+
+	/**
+	 * Recursive worker for getElementString, all levels append to the same
+	 * builder
+	 * 
+	 * @param sourceElement
+	 * @param result
+	 */
+	private void appendElementString(Element sourceElement, StringBuilder result) {
+		String elementName = sourceElement.getTagName();
+		if (!elementName.equals("textlist") && !elementName.equals("text")) {
+			this.appendCollapsed(result, elementName);
+			this.appendCollapsed(result, this.getAttributeString(sourceElement.getAttributes()));
+		}
+
+		NodeList children = sourceElement.getChildNodes();
+
+		if (children != null) {
+			for (int i = 0; i < children.getLength(); i++) {
+				Node curNode = children.item(i);
+				short nodeType = curNode.getNodeType();
+				if (nodeType == Node.ELEMENT_NODE) {
+					this.appendElementString((Element) curNode, result);
+				} else if (nodeType == Node.TEXT_NODE) {
+					this.appendCollapsed(result, curNode.getNodeValue());
+					this.appendCollapsed(result, "\n");
+				}
+			}
+		}
+	}
+
 	/**
 	 * Creates a String out of the attributes
 	 * 
@@ -757,6 +879,60 @@ public final class DomHelper {
 		return b.toString();
 	}
 
+	/**
+	 * Removes an existing file and makes sure the directory tree exists
+	 * 
+	 * @param outFileName
+	 * @return the file to write to or null if we can't
+	 */
+	private File prepareOutputFile(String outFileName) {
+		// Remove the file
+		File outFile = new File(outFileName);
+
+		try {
+			if (outFile.exists()) {
+				if (outFile.isDirectory()) {
+					// Not a good idea to send a file into a directory :-)
+					System.err.print("Output Error: " + outFileName + " is a directory");
+					return null;
+				}
+
+				// We delete the file now
+				outFile.delete();
+			}
+		} catch (Exception e) {
+			// Do nothing if deletion fails
+		}
+		// Make sure the directory tree exists
+		String sep = File.separator;
+		int max = outFileName.lastIndexOf(sep);
+		// max = -1 => local file, max = 0 => root specified
+		if (max > 0) {
+			String dirName = outFileName.substring(0, max);
+			File outDir = new File(dirName);
+			outDir.mkdirs();
+		}
+		return outFile;
+	}
+
+	/**
+	 * The identity transformer of the current thread, created only once
+	 * 
+	 * @return the Transformer
+	 * @throws TransformerConfigurationException
+	 */
+	private static Transformer getIdentityTransformer() throws TransformerConfigurationException {
+		Transformer transformer = DomHelper.identityTransformers.get();
+		if (transformer == null) {
+			TransformerFactory tFactory = TransformerFactory.newInstance();
+			transformer = tFactory.newTransformer();
+			// We don't want the XML declaration in front
+			transformer.setOutputProperty("omit-xml-declaration", "yes");
+			DomHelper.identityTransformers.set(transformer);
+		}
+		return transformer;
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -768,25 +944,84 @@ public final class DomHelper {
 	}
 
 	/**
-	 * Removes empty lines from Strings. Comes in handy after XSLT
-	 * Transformations
-	 * 
-	 * @param inString
-	 * @return
+	 * Removes empty lines while writing. Comes in handy after XSLT
+	 * Transformations. Each line is trimmed and written with a line feed, only
+	 * the current line is buffered
 	 */
-	private String stripEmptyLines(String inString) {
-		StringBuffer b = new StringBuffer();
+	private static final class EmptyLineFilterWriter extends FilterWriter {
 
-		Scanner lineScanner = new Scanner(inString);
+		private final StringBuilder	curLine	= new StringBuilder();
 
-		while (lineScanner.hasNextLine()) {
-			String curLine = lineScanner.nextLine().trim();
-			if (!curLine.equals("") && !curLine.replace("\n", "").equals("")) {
-				b.append(curLine);
-				b.append("\n");
+		private EmptyLineFilterWriter(Writer out) {
+			super(out);
+		}
+
+		/**
+		 * Writes the last line, even without line break at the end
+		 * 
+		 * @throws IOException
+		 */
+		public void finish() throws IOException {
+			this.endLine();
+			this.out.flush();
+		}
+
+		@Override
+		public void write(char[] cbuf, int off, int len) throws IOException {
+			for (int i = off; i < off + len; i++) {
+				this.write(cbuf[i]);
 			}
 		}
 
-		return b.toString();
+		@Override
+		public void write(int c) throws IOException {
+			if (c == '\n' || c == '\r') {
+				this.endLine();
+			} else {
+				this.curLine.append((char) c);
+			}
+		}
+
+		@Override
+		public void write(String str, int off, int len) throws IOException {
+			for (int i = off; i < off + len; i++) {
+				this.write(str.charAt(i));
+			}
+		}
+
+		private void endLine() throws IOException {
+			int start = 0;
+			int end = this.curLine.length();
+			while (start < end && this.curLine.charAt(start) <= ' ') {
+				start++;
+			}
+			while (end > start && this.curLine.charAt(end - 1) <= ' ') {
+				end--;
+			}
+			if (start < end) {
+				this.out.append(this.curLine, start, end);
+				this.out.write('\n');
+			}
+			this.curLine.setLength(0);
+		}
+	}
+
+	/**
+	 * Lets every problem end the parse as exception, without the default
+	 * handler's console output
+	 */
+	private static final class SilentErrorHandler implements ErrorHandler {
+
+		public void error(SAXParseException exception) throws SAXException {
+			throw exception;
+		}
+
+		public void fatalError(SAXParseException exception) throws SAXException {
+			throw exception;
+		}
+
+		public void warning(SAXParseException exception) {
+			// Warnings don't stop us
+		}
 	}
 }
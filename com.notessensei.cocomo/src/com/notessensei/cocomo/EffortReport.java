@@ -0,0 +1,146 @@
+/** ========================================================================= *
+ * Copyright (C) 2014,      IBM Corporation ( http://www.ibm.com/ )           *
+ *                            All rights reserved.                            *
+ * ========================================================================== *
+ *                                                                            *
+ * Licensed under the  Apache License, Version 2.0  (the "License").  You may *
+ * not use this file except in compliance with the License.  You may obtain a *
+ * copy of the License at <http://www.apache.org/licenses/LICENSE-2.0>.       *
+ *                                                                            *
+ * Unless  required  by applicable  law or  agreed  to  in writing,  software *
+ * distributed under the License is distributed on an  "AS IS" BASIS, WITHOUT *
+ * WARRANTIES OR  CONDITIONS OF ANY KIND, either express or implied.  See the *
+ * License for the  specific language  governing permissions  and limitations *
+ * under the License.                                                         *
+ *                                                                            *
+ * ========================================================================== */
+package com.notessensei.cocomo;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Turns the lines of code of a report into COCOMO II effort, schedule and
+ * staff per application and for all of them. With samples a Monte Carlo run
+ * over the ratings of the drivers adds the spread of the estate estimate and
+ * the drivers that matter most
+ * 
+ * @author stw
+ * 
+ */
+public class EffortReport {
+
+	private final ArtefactExtractor	extractor;
+	private final CocomoModel		model;
+
+	/**
+	 * @param extractor
+	 *            - its report file name is the effort file, its rules have
+	 *            the model
+	 */
+	public EffortReport(ArtefactExtractor extractor) {
+		this.extractor = extractor;
+		this.model = new CocomoModel(extractor.getRules().getCocomoModel());
+	}
+
+	/**
+	 * Writes the effort file and, with samples, the -montecarlo and
+	 * -sensitivity side reports next to it
+	 * 
+	 * @param report
+	 *            - a report, or an estimate of the sampling mode
+	 * @param samples
+	 *            - 0 for no Monte Carlo run
+	 * @param threadCount
+	 * @param seed
+	 * @throws IOException
+	 */
+	public void write(File report, long samples, int threadCount, long seed) throws IOException {
+		Map<String, Double> sizes = this.readSizes(report);
+		Map<String, CocomoModel.Estimate> estimates = new LinkedHashMap<String, CocomoModel.Estimate>();
+		for (Map.Entry<String, Double> me : sizes.entrySet()) {
+			estimates.put(me.getKey(), this.model.estimate(me.getValue().doubleValue() / 1000.0));
+		}
+
+		FileOutputStream out = new FileOutputStream(this.extractor.getReportFileName());
+		PrintWriter pw = new PrintWriter(out);
+		pw.write("Application,KSLOC,Effort (PM),Schedule (Months),Staff\n");
+		for (Map.Entry<String, CocomoModel.Estimate> me : estimates.entrySet()) {
+			this.writeRow(pw, me.getKey(), sizes.get(me.getKey()).doubleValue(), me.getValue());
+		}
+		double total = 0;
+		for (Double size : sizes.values()) {
+			total += size.doubleValue();
+		}
+		this.writeRow(pw, "All applications", total, CocomoModel.combine(estimates.values()));
+		pw.flush();
+		pw.close();
+		out.close();
+
+		if (samples > 0 && total > 0) {
+			double[] ksloc = new double[sizes.size()];
+			int i = 0;
+			for (Double size : sizes.values()) {
+				ksloc[i++] = size.doubleValue() / 1000.0;
+			}
+			long start = System.currentTimeMillis();
+			CocomoSimulation simulation = new CocomoSimulation(this.model, samples, threadCount, seed);
+			simulation.run(ksloc);
+			simulation.writeDistribution(this.extractor.getSideReportFileName("montecarlo"));
+			simulation.writeSensitivity(this.extractor.getSideReportFileName("sensitivity"));
+			System.out.println(samples + " samples of " + ksloc.length + " applications in " + (System.currentTimeMillis() - start)
+					+ " ms");
+		}
+	}
+
+	private void writeRow(PrintWriter pw, String name, double loc, CocomoModel.Estimate estimate) {
+		pw.write(name + "," + CocomoSimulation.format(loc / 1000.0) + "," + CocomoSimulation.format(estimate.getEffort()) + ","
+				+ CocomoSimulation.format(estimate.getSchedule()) + "," + CocomoSimulation.format(estimate.getStaff()) + "\n");
+	}
+
+	/**
+	 * The size column of every application, in the order of the report
+	 */
+	private Map<String, Double> readSizes(File report) throws IOException {
+		Map<String, Double> result = new LinkedHashMap<String, Double>();
+		BufferedReader in = LineSorter.open(report);
+		try {
+			String header = in.readLine();
+			int column = (header == null) ? -1 : this.findColumn(header.split(","));
+			if (column < 0) {
+				throw new IOException(report + " has no column " + this.model.getSizeColumn());
+			}
+			String line;
+			while ((line = in.readLine()) != null) {
+				String[] values = line.split(",");
+				// The last row of an estimate adds up the others
+				if (values.length <= column || values[0].equals("All applications")) {
+					continue;
+				}
+				try {
+					result.put(values[0], Double.valueOf(values[column]));
+				} catch (NumberFormatException e) {
+					System.err.println("No size for " + values[0] + ": " + values[column]);
+				}
+			}
+		} finally {
+			in.close();
+		}
+		return result;
+	}
+
+	private int findColumn(String[] headers) {
+		List<String> names = new ArrayList<String>();
+		for (String h : headers) {
+			names.add(h.trim());
+		}
+		return names.indexOf(this.model.getSizeColumn());
+	}
+}
@@ -0,0 +1,142 @@
+/** ========================================================================= *
+ * Copyright (C) 2014,      IBM Corporation ( http://www.ibm.com/ )           *
+ *                            All rights reserved.                            *
+ * ========================================================================== *
+ *                                                                            *
+ * Licensed under the  Apache License, Version 2.0  (the "License").  You may *
+ * not use this file except in compliance with the License.  You may obtain a *
+ * copy of the License at <http://www.apache.org/licenses/LICENSE-2.0>.       *
+ *                                                                            *
+ * Unless  required  by applicable  law or  agreed  to  in writing,  software *
+ * distributed under the License is distributed on an  "AS IS" BASIS, WITHOUT *
+ * WARRANTIES OR  CONDITIONS OF ANY KIND, either express or implied.  See the *
+ * License for the  specific language  governing permissions  and limitations *
+ * under the License.                                                         *
+ *                                                                            *
+ * ========================================================================== */
+package com.notessensei.cocomo;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * Computes structural (Merkle) fingerprints of element trees. The hash of an
+ * element covers its name, its attributes (in any order), its whitespace
+ * normalized text and the hashes of its child elements in order. Two elements
+ * get the same fingerprint when areElementsEqual would consider them equal
+ * apart from whitespace, so copies can be found with a hash lookup instead of
+ * comparing every pair. Excluded elements are left out completely
+ * 
+ * @author stw
+ * 
+ */
+public final class ElementFingerprinter {
+
+	private static final long	FNV_OFFSET	= 0xcbf29ce484222325L;
+	private static final long	FNV_PRIME	= 0x100000001b3L;
+
+	private final Set<String>	elementsToExclude;
+
+	public ElementFingerprinter(Collection<String> elementsToExclude) {
+		this.elementsToExclude = (elementsToExclude == null) ? new HashSet<String>() : new HashSet<String>(elementsToExclude);
+	}
+
+	/**
+	 * Fingerprint of one element tree
+	 * 
+	 * @param element
+	 * @return the 64 bit hash
+	 */
+	public long fingerprint(Element element) {
+		long hash = ElementFingerprinter.hashString(ElementFingerprinter.FNV_OFFSET, element.getNodeName());
+
+		// Attributes are combined order independent
+		NamedNodeMap attributes = element.getAttributes();
+		long attributeHash = 0;
+		for (int i = 0; i < attributes.getLength(); i++) {
+			Node curAttr = attributes.item(i);
+			long h = ElementFingerprinter.hashString(ElementFingerprinter.FNV_OFFSET, curAttr.getNodeName());
+			h = ElementFingerprinter.hashString(h ^ '=', curAttr.getNodeValue());
+			attributeHash += ElementFingerprinter.mix(h);
+		}
+		hash = ElementFingerprinter.combine(hash, attributeHash);
+
+		// Text and children in document order, adjacent text nodes form one
+		// segment
+		long textHash = ElementFingerprinter.FNV_OFFSET;
+		boolean textPending = false;
+		boolean spacePending = false;
+		NodeList children = element.getChildNodes();
+		for (int i = 0; i < children.getLength(); i++) {
+			Node child = children.item(i);
+			short nodeType = child.getNodeType();
+			if (nodeType == Node.TEXT_NODE || nodeType == Node.CDATA_SECTION_NODE) {
+				String text = child.getNodeValue();
+				for (int c = 0; c < text.length(); c++) {
+					char curChar = text.charAt(c);
+					if (Character.isWhitespace(curChar)) {
+						spacePending = textPending;
+					} else {
+						if (spacePending) {
+							textHash = (textHash ^ ' ') * ElementFingerprinter.FNV_PRIME;
+							spacePending = false;
+						}
+						textHash = (textHash ^ curChar) * ElementFingerprinter.FNV_PRIME;
+						textPending = true;
+					}
+				}
+			} else if (nodeType == Node.ELEMENT_NODE) {
+				Element childElement = (Element) child;
+				if (this.elementsToExclude.contains(childElement.getNodeName())) {
+					continue;
+				}
+				if (textPending) {
+					hash = ElementFingerprinter.combine(hash, ElementFingerprinter.mix(textHash));
+					textHash = ElementFingerprinter.FNV_OFFSET;
+					textPending = false;
+				}
+				spacePending = false;
+				hash = ElementFingerprinter.combine(hash, this.fingerprint(childElement));
+			}
+		}
+		if (textPending) {
+			hash = ElementFingerprinter.combine(hash, ElementFingerprinter.mix(textHash));
+		}
+
+		return ElementFingerprinter.mix(hash);
+	}
+
+	/**
+	 * Order dependent combination of two hashes
+	 */
+	private static long combine(long hash, long value) {
+		return (hash ^ value) * ElementFingerprinter.FNV_PRIME + 0x9e3779b97f4a7c15L;
+	}
+
+	private static long hashString(long seed, String value) {
+		long h = seed;
+		for (int i = 0; i < value.length(); i++) {
+			h = (h ^ value.charAt(i)) * ElementFingerprinter.FNV_PRIME;
+		}
+		return h;
+	}
+
+	/**
+	 * Final avalanche step (from MurmurHash3), spreads the bits of FNV
+	 */
+	private static long mix(long value) {
+		long h = value;
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+}
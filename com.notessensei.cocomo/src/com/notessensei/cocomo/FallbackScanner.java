@@ -0,0 +1,191 @@
+/** ========================================================================= *
+ * Copyright (C) 2014,      IBM Corporation ( http://www.ibm.com/ )           *
+ *                            All rights reserved.                            *
+ * ========================================================================== *
+ *                                                                            *
+ * Licensed under the  Apache License, Version 2.0  (the "License").  You may *
+ * not use this file except in compliance with the License.  You may obtain a *
+ * copy of the License at <http://www.apache.org/licenses/LICENSE-2.0>.       *
+ *                                                                            *
+ * Unless  required  by applicable  law or  agreed  to  in writing,  software *
+ * distributed under the License is distributed on an  "AS IS" BASIS, WITHOUT *
+ * WARRANTIES OR  CONDITIONS OF ANY KIND, either express or implied.  See the *
+ * License for the  specific language  governing permissions  and limitations *
+ * under the License.                                                         *
+ *                                                                            *
+ * ========================================================================== */
+package com.notessensei.cocomo;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.Collections;
+
+/**
+ * Cheap counting for files that are too big or too deep for the DOM. One pass
+ * over the bytes without parsing or recursion: every start tag counts its
+ * element like the XML scan does, comments, CDATA sections and processing
+ * instructions are skipped. No lines of code are counted. Not registered as
+ * service, the extractor uses it for quarantined files only
+ * 
+ * @author stw
+ * 
+ */
+public class FallbackScanner implements ArtefactScanner {
+
+	private static final byte[]	CDATA_START	= "![CDATA[".getBytes();
+	private static final byte[]	PI_END		= "?>".getBytes();
+	private static final byte[]	CDATA_END	= "]]>".getBytes();
+	private static final byte[]	COMMENT_END	= "-->".getBytes();
+
+	/**
+	 * Where the match of a terminator goes on after a mismatch (KMP failure
+	 * function), so "]]]>" still ends a CDATA section
+	 */
+	private static int[] failureTable(byte[] terminator) {
+		int[] result = new int[terminator.length];
+		int k = 0;
+		for (int i = 1; i < terminator.length; i++) {
+			while (k > 0 && terminator[i] != terminator[k]) {
+				k = result[k - 1];
+			}
+			if (terminator[i] == terminator[k]) {
+				k++;
+			}
+			result[i] = k;
+		}
+		return result;
+	}
+
+	private static final int[]	PI_FAILURE		= FallbackScanner.failureTable(FallbackScanner.PI_END);
+	private static final int[]	CDATA_FAILURE	= FallbackScanner.failureTable(FallbackScanner.CDATA_END);
+	private static final int[]	COMMENT_FAILURE	= FallbackScanner.failureTable(FallbackScanner.COMMENT_END);
+
+	public Collection<String> getExtensions(ArtefactExtractor extractor) {
+		return Collections.emptyList();
+	}
+
+	public Collection<String> getFileNames(ArtefactExtractor extractor) {
+		return Collections.emptyList();
+	}
+
+	public boolean isStreaming() {
+		return true;
+	}
+
+	public boolean isThreadSafe() {
+		return true;
+	}
+
+	public void scan(ArtefactExtractor extractor, String fileName, String extension, InputStream in, ArtefactResult result)
+			throws IOException {
+		result.add("quarantined");
+		if (!extractor.getXmlExtensions().contains(extension)) {
+			return;
+		}
+
+		byte[] buffer = new byte[8192];
+		// The UTF-8 bytes of the name, decoded when it is complete
+		ByteArrayOutputStream name = new ByteArrayOutputStream();
+		// 0 text, 1 after <, 2 in the tag name, 3 rest of the tag,
+		// 4 skipping until the terminator
+		int state = 0;
+		// The quote of the attribute value we are in, a > there is text
+		int quote = 0;
+		byte[] terminator = null;
+		int[] failure = null;
+		int matched = 0;
+		int cdataMatched = 0;
+		// Like the XML scan we don't count the root element
+		boolean rootSeen = false;
+		int n;
+		while ((n = in.read(buffer)) > 0) {
+			for (int i = 0; i < n; i++) {
+				int b = buffer[i] & 0xff;
+				switch (state) {
+				case 0:
+					if (b == '<') {
+						state = 1;
+						cdataMatched = 0;
+					}
+					break;
+				case 1:
+					if (b == '?') {
+						terminator = FallbackScanner.PI_END;
+						failure = FallbackScanner.PI_FAILURE;
+						state = 4;
+						matched = 0;
+					} else if (b == '!') {
+						// Comment, CDATA or DOCTYPE, decided by the next chars
+						cdataMatched = 1;
+						state = 5;
+					} else if (b == '/' || b <= ' ') {
+						state = 0;
+					} else {
+						name.reset();
+						name.write(b);
+						state = 2;
+					}
+					break;
+				case 2:
+					if (b <= ' ' || b == '/' || b == '>') {
+						String element = name.toString("UTF-8");
+						if (rootSeen) {
+							result.add(element);
+							result.add(extension + "_" + element);
+						}
+						rootSeen = true;
+						state = (b == '>') ? 0 : 3;
+						quote = 0;
+					} else {
+						name.write(b);
+					}
+					break;
+				case 3:
+					if (quote != 0) {
+						if (b == quote) {
+							quote = 0;
+						}
+					} else if (b == '"' || b == '\'') {
+						quote = b;
+					} else if (b == '>') {
+						state = 0;
+					}
+					break;
+				case 4:
+					while (matched > 0 && b != terminator[matched]) {
+						matched = failure[matched - 1];
+					}
+					if (b == terminator[matched]) {
+						matched++;
+						if (matched == terminator.length) {
+							state = 0;
+						}
+					}
+					break;
+				case 5:
+					if (cdataMatched < FallbackScanner.CDATA_START.length && b == FallbackScanner.CDATA_START[cdataMatched]) {
+						cdataMatched++;
+						if (cdataMatched == FallbackScanner.CDATA_START.length) {
+							terminator = FallbackScanner.CDATA_END;
+							failure = FallbackScanner.CDATA_FAILURE;
+							matched = 0;
+							state = 4;
+						}
+					} else if (cdataMatched == 1 && b == '-') {
+						terminator = FallbackScanner.COMMENT_END;
+						failure = FallbackScanner.COMMENT_FAILURE;
+						matched = 0;
+						state = 4;
+					} else {
+						// DOCTYPE or similar
+						state = 3;
+						quote = 0;
+					}
+					break;
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,104 @@
+/** ========================================================================= *
+ * Copyright (C) 2014,      IBM Corporation ( http://www.ibm.com/ )           *
+ *                            All rights reserved.                            *
+ * ========================================================================== *
+ *                                                                            *
+ * Licensed under the  Apache License, Version 2.0  (the "License").  You may *
+ * not use this file except in compliance with the License.  You may obtain a *
+ * copy of the License at <http://www.apache.org/licenses/LICENSE-2.0>.       *
+ *                                                                            *
+ * Unless  required  by applicable  law or  agreed  to  in writing,  software *
+ * distributed under the License is distributed on an  "AS IS" BASIS, WITHOUT *
+ * WARRANTIES OR  CONDITIONS OF ANY KIND, either express or implied.  See the *
+ * License for the  specific language  governing permissions  and limitations *
+ * under the License.                                                         *
+ *                                                                            *
+ * ========================================================================== */
+package com.notessensei.cocomo;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Collects the fingerprints of design elements across all applications. Each
+ * element lands in the bucket of its fingerprint, so all copies are found in
+ * one pass over the estate
+ * 
+ * @author stw
+ * 
+ */
+public class FingerprintIndex {
+
+	private final Map<Long, List<String>>	buckets	= new HashMap<Long, List<String>>();
+
+	/**
+	 * Adds all design elements of one application
+	 * 
+	 * @param appName
+	 * @param fingerprints
+	 *            - element name to fingerprint
+	 */
+	public synchronized void add(String appName, Map<String, Long> fingerprints) {
+		for (Map.Entry<String, Long> me : fingerprints.entrySet()) {
+			List<String> bucket = this.buckets.get(me.getValue());
+			if (bucket == null) {
+				bucket = new ArrayList<String>(1);
+				this.buckets.put(me.getValue(), bucket);
+			}
+			bucket.add(appName + "/" + me.getKey());
+		}
+	}
+
+	/**
+	 * All groups of identical design elements
+	 * 
+	 * @return fingerprint to the elements sharing it, only groups with two or
+	 *         more members. Sorted by fingerprint and element, so the side
+	 *         report of two runs can be compared line by line
+	 */
+	public synchronized Map<Long, List<String>> getDuplicates() {
+		Map<Long, List<String>> result = new TreeMap<Long, List<String>>();
+		for (Map.Entry<Long, List<String>> me : this.buckets.entrySet()) {
+			if (me.getValue().size() > 1) {
+				// Applications are added in the order they finish
+				List<String> elements = new ArrayList<String>(me.getValue());
+				Collections.sort(elements);
+				result.put(me.getKey(), elements);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Writes one line per group: fingerprint, number of copies and where they
+	 * are
+	 * 
+	 * @param fileName
+	 * @throws IOException
+	 */
+	public void writeDuplicates(String fileName) throws IOException {
+		FileOutputStream out = new FileOutputStream(fileName);
+		PrintWriter pw = new PrintWriter(out);
+		pw.write("Fingerprint,Copies,Elements\n");
+		for (Map.Entry<Long, List<String>> me : this.getDuplicates().entrySet()) {
+			pw.write(Long.toHexString(me.getKey().longValue()));
+			pw.write(",");
+			pw.write(String.valueOf(me.getValue().size()));
+			for (String element : me.getValue()) {
+				pw.write(",");
+				pw.write(element);
+			}
+			pw.write("\n");
+		}
+		pw.flush();
+		pw.close();
+		out.close();
+	}
+}
@@ -0,0 +1,150 @@
+/** ========================================================================= *
+ * Copyright (C) 2014,      IBM Corporation ( http://www.ibm.com/ )           *
+ *                            All rights reserved.                            *
+ * ========================================================================== *
+ *                                                                            *
+ * Licensed under the  Apache License, Version 2.0  (the "License").  You may *
+ * not use this file except in compliance with the License.  You may obtain a *
+ * copy of the License at <http://www.apache.org/licenses/LICENSE-2.0>.       *
+ *                                                                            *
+ * Unless  required  by applicable  law or  agreed  to  in writing,  software *
+ * distributed under the License is distributed on an  "AS IS" BASIS, WITHOUT *
+ * WARRANTIES OR  CONDITIONS OF ANY KIND, either express or implied.  See the *
+ * License for the  specific language  governing permissions  and limitations *
+ * under the License.                                                         *
+ *                                                                            *
+ * ========================================================================== */
+package com.notessensei.cocomo;
+
+/**
+ * Reads formula language once from front to back and counts every @Function
+ * in a FunctionHistogram. Strings ("..." and {...}) are skipped, so a REM
+ * comment or an @ inside a string doesn't count. For @Command and
+ * &#64;PostedCommand the command is counted, e.g. @Command([FileSave])
+ * 
+ * @author stw
+ * 
+ */
+public final class FormulaTokenizer {
+
+	private FormulaTokenizer() {
+		// Only static
+	}
+
+	/**
+	 * Counts the functions of one formula
+	 * 
+	 * @param formula
+	 * @param histogram
+	 *            - gets the counts
+	 */
+	public static void profile(CharSequence formula, FunctionHistogram histogram) {
+		int length = formula.length();
+		int pos = 0;
+		while (pos < length) {
+			char c = formula.charAt(pos);
+			if (c == '"') {
+				pos = FormulaTokenizer.skipString(formula, pos + 1, '"');
+			} else if (c == '{') {
+				pos = FormulaTokenizer.skipString(formula, pos + 1, '}');
+			} else if (c == '@') {
+				int end = pos + 1;
+				while (end < length && FormulaTokenizer.isNameChar(formula.charAt(end))) {
+					end++;
+				}
+				if (end > pos + 1) {
+					int commandStart = FormulaTokenizer.isCommand(formula, pos, end) ? FormulaTokenizer.findCommand(formula, end) : -1;
+					if (commandStart > 0) {
+						// Written the same way, no matter how the blanks were
+						int commandEnd = commandStart;
+						while (formula.charAt(commandEnd) != ']') {
+							commandEnd++;
+						}
+						commandEnd++;
+						String command = formula.subSequence(pos, end) + "(" + formula.subSequence(commandStart, commandEnd) + ")";
+						histogram.add(command, 0, command.length(), 1);
+						pos = commandEnd;
+						continue;
+					}
+					histogram.add(formula, pos, end, 1);
+				}
+				pos = end;
+			} else {
+				pos++;
+			}
+		}
+	}
+
+	/**
+	 * The start of [Name] in "([Name])" after @Command, -1 if the command
+	 * isn't a literal
+	 */
+	private static int findCommand(CharSequence formula, int pos) {
+		int length = formula.length();
+		pos = FormulaTokenizer.skipBlanks(formula, pos);
+		if (pos >= length || formula.charAt(pos) != '(') {
+			return -1;
+		}
+		pos = FormulaTokenizer.skipBlanks(formula, pos + 1);
+		if (pos >= length || formula.charAt(pos) != '[') {
+			return -1;
+		}
+		for (int i = pos + 1; i < length; i++) {
+			char c = formula.charAt(i);
+			if (c == ']') {
+				return pos;
+			}
+			if (!FormulaTokenizer.isNameChar(c) && c != '-') {
+				return -1;
+			}
+		}
+		return -1;
+	}
+
+	private static boolean isCommand(CharSequence formula, int start, int end) {
+		return FormulaTokenizer.regionIs(formula, start, end, "@command")
+				|| FormulaTokenizer.regionIs(formula, start, end, "@postedcommand");
+	}
+
+	private static boolean isNameChar(char c) {
+		return Character.isLetterOrDigit(c) || c == '_' || c == '$';
+	}
+
+	private static boolean regionIs(CharSequence formula, int start, int end, String word) {
+		if (end - start != word.length()) {
+			return false;
+		}
+		for (int i = 0; i < word.length(); i++) {
+			if (Character.toLowerCase(formula.charAt(start + i)) != word.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int skipBlanks(CharSequence formula, int pos) {
+		while (pos < formula.length() && Character.isWhitespace(formula.charAt(pos))) {
+			pos++;
+		}
+		return pos;
+	}
+
+	/**
+	 * Position after the closing delimiter, inside "..." a backslash escapes
+	 */
+	private static int skipString(CharSequence formula, int pos, char delimiter) {
+		int length = formula.length();
+		while (pos < length) {
+			char c = formula.charAt(pos);
+			if (c == '\\' && delimiter == '"') {
+				pos += 2;
+				continue;
+			}
+			pos++;
+			if (c == delimiter) {
+				break;
+			}
+		}
+		return pos;
+	}
+}
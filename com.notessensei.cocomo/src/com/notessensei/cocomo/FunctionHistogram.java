@@ -0,0 +1,212 @@
+/** ========================================================================= *
+ * Copyright (C) 2014,      IBM Corporation ( http://www.ibm.com/ )           *
+ *                            All rights reserved.                            *
+ * ========================================================================== *
+ *                                                                            *
+ * Licensed under the  Apache License, Version 2.0  (the "License").  You may *
+ * not use this file except in compliance with the License.  You may obtain a *
+ * copy of the License at <http://www.apache.org/licenses/LICENSE-2.0>.       *
+ *                                                                            *
+ * Unless  required  by applicable  law or  agreed  to  in writing,  software *
+ * distributed under the License is distributed on an  "AS IS" BASIS, WITHOUT *
+ * WARRANTIES OR  CONDITIONS OF ANY KIND, either express or implied.  See the *
+ * License for the  specific language  governing permissions  and limitations *
+ * under the License.                                                         *
+ *                                                                            *
+ * ========================================================================== */
+package com.notessensei.cocomo;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Counts how often each @Function or @Command is used. Formula language
+ * ignores case, so @DbLookup and @dblookup are one entry. Counters live in
+ * primitive arrays of an open addressing hash table and a lookup with the
+ * tokenizer's char range creates no objects, only a new name does
+ * 
+ * @author stw
+ * 
+ */
+public final class FunctionHistogram {
+
+	private String[]	names	= new String[16];
+	private int[]		hashes	= new int[16];
+	private int[]		counts	= new int[16];
+	private int			size	= 0;
+
+	/**
+	 * Counts a name that is part of a text
+	 * 
+	 * @param text
+	 * @param start
+	 *            - first char of the name
+	 * @param end
+	 *            - first char after the name
+	 * @param count
+	 *            - how often, can be negative
+	 */
+	public void add(CharSequence text, int start, int end, int count) {
+		int hash = 0;
+		for (int i = start; i < end; i++) {
+			hash = 31 * hash + Character.toLowerCase(text.charAt(i));
+		}
+		int slot = this.find(hash, text, start, end);
+		if (this.names[slot] == null) {
+			this.names[slot] = text.subSequence(start, end).toString();
+			this.hashes[slot] = hash;
+			this.size++;
+		} else if (count > 0) {
+			// The spelling that sorts first wins, so the result doesn't
+			// depend on which application was added first
+			if (this.sortsBefore(text, start, this.names[slot])) {
+				this.names[slot] = text.subSequence(start, end).toString();
+			}
+		}
+		this.counts[slot] += count;
+		if (this.size * 2 > this.names.length) {
+			this.grow();
+		}
+	}
+
+	/**
+	 * Adds or subtracts all counters of another histogram
+	 * 
+	 * @param other
+	 * @param factor
+	 *            - 1 to add, -1 to subtract
+	 */
+	public void add(FunctionHistogram other, int factor) {
+		for (int i = 0; i < other.names.length; i++) {
+			String name = other.names[i];
+			if (name != null && other.counts[i] != 0) {
+				this.add(name, 0, name.length(), factor * other.counts[i]);
+			}
+		}
+	}
+
+	/**
+	 * @param name
+	 * @return how often the function is used, case doesn't matter
+	 */
+	public int getCount(String name) {
+		int hash = 0;
+		for (int i = 0; i < name.length(); i++) {
+			hash = 31 * hash + Character.toLowerCase(name.charAt(i));
+		}
+		int slot = this.find(hash, name, 0, name.length());
+		return (this.names[slot] == null) ? 0 : this.counts[slot];
+	}
+
+	/**
+	 * @return the names used at least once, most used first
+	 */
+	public String[] getNames() {
+		String[] result = new String[this.size];
+		final int[] resultCounts = new int[this.size];
+		Integer[] order = new Integer[this.size];
+		int n = 0;
+		for (int i = 0; i < this.names.length; i++) {
+			if (this.names[i] != null && this.counts[i] > 0) {
+				result[n] = this.names[i];
+				resultCounts[n] = this.counts[i];
+				order[n] = Integer.valueOf(n);
+				n++;
+			}
+		}
+		final String[] unsorted = result;
+		Arrays.sort(order, 0, n, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				int byCount = resultCounts[b.intValue()] - resultCounts[a.intValue()];
+				return (byCount != 0) ? byCount : unsorted[a.intValue()].compareToIgnoreCase(unsorted[b.intValue()]);
+			}
+		});
+		String[] sorted = new String[n];
+		for (int i = 0; i < n; i++) {
+			sorted[i] = unsorted[order[i].intValue()];
+		}
+		return sorted;
+	}
+
+	/**
+	 * @return the sum of all counters
+	 */
+	public long getTotal() {
+		long total = 0;
+		for (int i = 0; i < this.names.length; i++) {
+			if (this.names[i] != null) {
+				total += this.counts[i];
+			}
+		}
+		return total;
+	}
+
+	/**
+	 * @return true when nothing was counted
+	 */
+	public boolean isEmpty() {
+		return this.size == 0;
+	}
+
+	/**
+	 * Linear probing, returns the slot of the name or the free slot for it
+	 */
+	private int find(int hash, CharSequence text, int start, int end) {
+		int mask = this.names.length - 1;
+		int slot = (hash ^ (hash >>> 16)) & mask;
+		while (this.names[slot] != null) {
+			if (this.hashes[slot] == hash && this.sameName(this.names[slot], text, start, end)) {
+				return slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	private void grow() {
+		String[] oldNames = this.names;
+		int[] oldHashes = this.hashes;
+		int[] oldCounts = this.counts;
+		this.names = new String[oldNames.length * 2];
+		this.hashes = new int[oldNames.length * 2];
+		this.counts = new int[oldNames.length * 2];
+		int mask = this.names.length - 1;
+		for (int i = 0; i < oldNames.length; i++) {
+			if (oldNames[i] != null) {
+				int slot = (oldHashes[i] ^ (oldHashes[i] >>> 16)) & mask;
+				while (this.names[slot] != null) {
+					slot = (slot + 1) & mask;
+				}
+				this.names[slot] = oldNames[i];
+				this.hashes[slot] = oldHashes[i];
+				this.counts[slot] = oldCounts[i];
+			}
+		}
+	}
+
+	/**
+	 * Is the spelling in the text lexically before the name? Both have the
+	 * same length
+	 */
+	private boolean sortsBefore(CharSequence text, int start, String name) {
+		for (int i = 0; i < name.length(); i++) {
+			char c = text.charAt(start + i);
+			if (c != name.charAt(i)) {
+				return c < name.charAt(i);
+			}
+		}
+		return false;
+	}
+
+	private boolean sameName(String name, CharSequence text, int start, int end) {
+		if (name.length() != end - start) {
+			return false;
+		}
+		for (int i = 0; i < name.length(); i++) {
+			if (Character.toLowerCase(name.charAt(i)) != Character.toLowerCase(text.charAt(start + i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,93 @@
+/** ========================================================================= *
+ * Copyright (C) 2014,      IBM Corporation ( http://www.ibm.com/ )           *
+ *                            All rights reserved.                            *
+ * ========================================================================== *
+ *                                                                            *
+ * Licensed under the  Apache License, Version 2.0  (the "License").  You may *
+ * not use this file except in compliance with the License.  You may obtain a *
+ * copy of the License at <http://www.apache.org/licenses/LICENSE-2.0>.       *
+ *                                                                            *
+ * Unless  required  by applicable  law or  agreed  to  in writing,  software *
+ * distributed under the License is distributed on an  "AS IS" BASIS, WITHOUT *
+ * WARRANTIES OR  CONDITIONS OF ANY KIND, either express or implied.  See the *
+ * License for the  specific language  governing permissions  and limitations *
+ * under the License.                                                         *
+ *                                                                            *
+ * ========================================================================== */
+package com.notessensei.cocomo;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Collects the @Function histograms of all applications and writes them as
+ * one table: a column for each of the most used functions across all
+ * applications, everything else goes into Other
+ * 
+ * @author stw
+ * 
+ */
+public class FunctionProfileIndex {
+
+	private final int								topN;
+	private final FunctionHistogram					total			= new FunctionHistogram();
+	private final Map<String, FunctionHistogram>	applications	= new TreeMap<String, FunctionHistogram>();
+
+	/**
+	 * @param topN
+	 *            - how many functions get their own column
+	 */
+	public FunctionProfileIndex(int topN) {
+		this.topN = topN;
+	}
+
+	/**
+	 * Adds the histogram of one application
+	 * 
+	 * @param appName
+	 * @param histogram
+	 */
+	public synchronized void add(String appName, FunctionHistogram histogram) {
+		this.applications.put(appName, histogram);
+		this.total.add(histogram, 1);
+	}
+
+	/**
+	 * Writes the table
+	 * 
+	 * @param fileName
+	 * @throws IOException
+	 */
+	public synchronized void writeProfile(String fileName) throws IOException {
+		String[] allNames = this.total.getNames();
+		int columns = Math.min(this.topN, allNames.length);
+
+		FileOutputStream out = new FileOutputStream(fileName);
+		PrintWriter pw = new PrintWriter(out);
+		pw.write("Application");
+		for (int i = 0; i < columns; i++) {
+			pw.write(",");
+			pw.write(allNames[i]);
+		}
+		pw.write(",Other,Distinct,Total\n");
+		for (Map.Entry<String, FunctionHistogram> me : this.applications.entrySet()) {
+			FunctionHistogram histogram = me.getValue();
+			long appTotal = histogram.getTotal();
+			long other = appTotal;
+			pw.write(me.getKey());
+			for (int i = 0; i < columns; i++) {
+				int count = histogram.getCount(allNames[i]);
+				other -= count;
+				pw.write(",");
+				pw.write(String.valueOf(count));
+			}
+			pw.write("," + other + "," + histogram.getNames().length + "," + appTotal + "\n");
+		}
+		pw.flush();
+		pw.close();
+		out.close();
+	}
+}
@@ -0,0 +1,331 @@
+/** ========================================================================= *
+ * Copyright (C) 2014,      IBM Corporation ( http://www.ibm.com/ )           *
+ *                            All rights reserved.                            *
+ * ========================================================================== *
+ *                                                                            *
+ * Licensed under the  Apache License, Version 2.0  (the "License").  You may *
+ * not use this file except in compliance with the License.  You may obtain a *
+ * copy of the License at <http://www.apache.org/licenses/LICENSE-2.0>.       *
+ *                                                                            *
+ * Unless  required  by applicable  law or  agreed  to  in writing,  software *
+ * distributed under the License is distributed on an  "AS IS" BASIS, WITHOUT *
+ * WARRANTIES OR  CONDITIONS OF ANY KIND, either express or implied.  See the *
+ * License for the  specific language  governing permissions  and limitations *
+ * under the License.                                                         *
+ *                                                                            *
+ * ========================================================================== */
+package com.notessensei.cocomo;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Computes the change of the metrics between two revisions of a git
+ * repository with On-Disk-Projects. Only the changed design elements are
+ * scanned, their content comes straight from the object store of the local
+ * repository via <code>git cat-file</code>, no checkout needed.
+ *
+ * The repository either contains one On-Disk-Project (a .project file at the
+ * top) or one project per top level directory
+ *
+ * @author stw
+ *
+ */
+public class GitDeltaScanner {
+
+	/**
+	 * The delta of one application
+	 */
+	private static class ApplicationDelta {
+		private final ArtefactResult	delta		= new ArtefactResult();
+		private int						added		= 0;
+		private int						changed		= 0;
+		private int						deleted		= 0;
+	}
+
+	private final ArtefactExtractor	extractor;
+	private final File				repository;
+	private final String			fromRevision;
+	private final String			toRevision;
+	private Process					catFile		= null;
+	private InputStream				blobsIn		= null;
+	private OutputStream			blobsOut	= null;
+
+	public GitDeltaScanner(ArtefactExtractor extractor, File repository, String fromRevision, String toRevision) {
+		this.extractor = extractor;
+		this.repository = repository;
+		this.fromRevision = fromRevision;
+		this.toRevision = toRevision;
+	}
+
+	/**
+	 * Scans the changed files and writes the delta report: per application the
+	 * number of added, changed and deleted elements and the change of every
+	 * report column
+	 *
+	 * @param reportFileName
+	 * @throws IOException
+	 */
+	public void writeDeltaReport(String reportFileName) throws IOException {
+		boolean singleProject = this.isSingleProject();
+		String singleName = this.repository.getAbsoluteFile().getName();
+		Map<String, ApplicationDelta> deltas = new TreeMap<String, ApplicationDelta>();
+
+		this.startCatFile();
+		try {
+			for (String[] change : this.getChanges()) {
+				String status = change[0];
+				String path = change[1];
+				String[] pathParts = path.split("/");
+				String appName;
+				int designStart;
+				if (singleProject) {
+					appName = singleName;
+					designStart = 0;
+				} else {
+					appName = pathParts[0];
+					designStart = 1;
+					// Skipped by the directory walk as well
+					if (appName.startsWith(".")) {
+						continue;
+					}
+				}
+				if (!this.isDesignPath(pathParts, designStart)) {
+					continue;
+				}
+
+				ApplicationDelta appDelta = deltas.get(appName);
+				if (appDelta == null) {
+					appDelta = new ApplicationDelta();
+					deltas.put(appName, appDelta);
+				}
+
+				String fileName = pathParts[pathParts.length - 1];
+				String directory = path.substring(0, path.length() - fileName.length());
+				if (!singleProject) {
+					directory = directory.substring(appName.length() + 1);
+				}
+				if (!status.equals("A")) {
+					ArtefactResult before = this.scanBlob(appName, this.fromRevision, path, directory, fileName);
+					appDelta.delta.subtract(before);
+				}
+				if (!status.equals("D")) {
+					ArtefactResult after = this.scanBlob(appName, this.toRevision, path, directory, fileName);
+					appDelta.delta.add(after);
+				}
+
+				if (status.equals("A")) {
+					appDelta.added++;
+				} else if (status.equals("D")) {
+					appDelta.deleted++;
+				} else {
+					appDelta.changed++;
+				}
+			}
+		} finally {
+			this.stopCatFile();
+		}
+
+		FileOutputStream out = new FileOutputStream(reportFileName);
+		PrintWriter pw = new PrintWriter(out);
+		pw.append("Application,Added Elements,Changed Elements,Deleted Elements");
+		for (String h : this.extractor.getReportColumns()) {
+			pw.append(",");
+			pw.write(h);
+		}
+		pw.append(",Total");
+		pw.write("\n");
+		for (Map.Entry<String, ApplicationDelta> me : deltas.entrySet()) {
+			ApplicationDelta appDelta = me.getValue();
+			pw.write(me.getKey() + "," + appDelta.added + "," + appDelta.changed + "," + appDelta.deleted + ",");
+			pw.write(this.getDeltaValues(appDelta.delta));
+			pw.write("\n");
+		}
+		pw.flush();
+		pw.close();
+		out.close();
+		this.extractor.writeErrorLog();
+	}
+
+	/**
+	 * The change of every report column and the total. Changes that cancel
+	 * out leave an empty delta, that is a row of zeros, not {EMPTY}
+	 */
+	private String getDeltaValues(ArtefactResult delta) {
+		String values = this.extractor.getReportValues(delta);
+		if (!values.equals("{EMPTY}")) {
+			return values;
+		}
+		StringBuilder zeros = new StringBuilder("0");
+		for (int i = 0; i < this.extractor.getReportColumns().size(); i++) {
+			zeros.append(",0");
+		}
+		return zeros.toString();
+	}
+
+	/**
+	 * Runs a git command in the repository and returns its output
+	 */
+	private byte[] git(String... args) throws IOException {
+		List<String> command = new ArrayList<String>();
+		command.add("git");
+		for (String a : args) {
+			command.add(a);
+		}
+		ProcessBuilder pb = new ProcessBuilder(command);
+		pb.directory(this.repository);
+		pb.redirectError(ProcessBuilder.Redirect.INHERIT);
+		Process p = pb.start();
+		p.getOutputStream().close();
+		ByteArrayOutputStream result = new ByteArrayOutputStream();
+		InputStream in = p.getInputStream();
+		byte[] buffer = new byte[4096];
+		int n = 0;
+		while (-1 != (n = in.read(buffer))) {
+			result.write(buffer, 0, n);
+		}
+		in.close();
+		try {
+			int exitCode = p.waitFor();
+			if (exitCode != 0) {
+				throw new IOException("git " + args[0] + " failed with exit code " + exitCode);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted waiting for git", e);
+		}
+		return result.toByteArray();
+	}
+
+	/**
+	 * All files that differ between the two revisions
+	 *
+	 * @return pairs of status (A, M, D, T) and path
+	 */
+	private List<String[]> getChanges() throws IOException {
+		List<String[]> result = new ArrayList<String[]>();
+		// -z gives us the paths unquoted, separated by NUL
+		String raw = new String(this.git("diff", "--name-status", "--no-renames", "-z", this.fromRevision, this.toRevision),
+				"UTF-8");
+		String[] parts = raw.split("\0");
+		for (int i = 0; i + 1 < parts.length; i += 2) {
+			result.add(new String[] { parts[i].substring(0, 1), parts[i + 1] });
+		}
+		return result;
+	}
+
+	/**
+	 * Mirrors the directory walk: only files in design directories count and
+	 * directories below them starting with a dot are skipped
+	 */
+	private boolean isDesignPath(String[] pathParts, int designStart) {
+		if (pathParts.length - designStart < 2) {
+			return false;
+		}
+		for (int i = designStart + 1; i < pathParts.length - 1; i++) {
+			if (pathParts[i].startsWith(".")) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean isSingleProject() throws IOException {
+		String topLevel = new String(this.git("ls-tree", "--name-only", "-z", this.toRevision), "UTF-8");
+		for (String name : topLevel.split("\0")) {
+			if (name.equals(".project")) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Reads one line terminated by LF from the blob stream
+	 */
+	private String readHeader() throws IOException {
+		StringBuilder b = new StringBuilder();
+		int c;
+		while ((c = this.blobsIn.read()) != '\n') {
+			if (c < 0) {
+				throw new IOException("git cat-file ended unexpectedly");
+			}
+			b.append((char) c);
+		}
+		return b.toString();
+	}
+
+	/**
+	 * Fetches one blob from the object store and scans it like a file
+	 */
+	private ArtefactResult scanBlob(String appName, String revision, String path, String directory, String fileName)
+			throws IOException {
+		ArtefactResult result = new ArtefactResult();
+		this.blobsOut.write((revision + ":" + path + "\n").getBytes("UTF-8"));
+		this.blobsOut.flush();
+
+		// Header is "sha type size" or "name missing"
+		String[] header = this.readHeader().split(" ");
+		if (header.length < 3) {
+			System.err.println("Not in " + revision + ": " + path);
+			return result;
+		}
+		int size = Integer.parseInt(header[2]);
+		final byte[] content = new byte[size];
+		int read = 0;
+		while (read < size) {
+			int n = this.blobsIn.read(content, read, size - read);
+			if (n < 0) {
+				throw new IOException("git cat-file ended unexpectedly");
+			}
+			read += n;
+		}
+		// Content is followed by a LF
+		this.blobsIn.read();
+
+		this.extractor.scanEntrySafely(appName, revision + ":" + path, directory, fileName, new ArtefactExtractor.EntrySource() {
+			public InputStream open() throws IOException {
+				return new ByteArrayInputStream(content);
+			}
+		}, result);
+		return result;
+	}
+
+	/**
+	 * One cat-file process serves all blobs, we don't want to pay process
+	 * startup per design element
+	 */
+	private void startCatFile() throws IOException {
+		ProcessBuilder pb = new ProcessBuilder("git", "cat-file", "--batch");
+		pb.directory(this.repository);
+		pb.redirectError(ProcessBuilder.Redirect.INHERIT);
+		this.catFile = pb.start();
+		this.blobsIn = new BufferedInputStream(this.catFile.getInputStream());
+		this.blobsOut = this.catFile.getOutputStream();
+	}
+
+	private void stopCatFile() {
+		if (this.catFile == null) {
+			return;
+		}
+		try {
+			this.blobsOut.close();
+			this.blobsIn.close();
+			this.catFile.waitFor();
+		} catch (Exception e) {
+			this.catFile.destroy();
+		}
+		this.catFile = null;
+	}
+}
@@ -0,0 +1,91 @@
+/** ========================================================================= *
+ * Copyright (C) 2014,      IBM Corporation ( http://www.ibm.com/ )           *
+ *                            All rights reserved.                            *
+ * ========================================================================== *
+ *                                                                            *
+ * Licensed under the  Apache License, Version 2.0  (the "License").  You may *
+ * not use this file except in compliance with the License.  You may obtain a *
+ * copy of the License at <http://www.apache.org/licenses/LICENSE-2.0>.       *
+ *                                                                            *
+ * Unless  required  by applicable  law or  agreed  to  in writing,  software *
+ * distributed under the License is distributed on an  "AS IS" BASIS, WITHOUT *
+ * WARRANTIES OR  CONDITIONS OF ANY KIND, either express or implied.  See the *
+ * License for the  specific language  governing permissions  and limitations *
+ * under the License.                                                         *
+ *                                                                            *
+ * ========================================================================== */
+package com.notessensei.cocomo;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executors for blocking file system calls. On a Java with virtual threads
+ * (21 and later) every task gets its own virtual thread, so thousands of
+ * slow network calls can wait at the same time without a platform thread
+ * each. Older Javas get a pool of daemon threads instead. We look the
+ * factory up by reflection, the code still compiles and runs on older
+ * Javas
+ * 
+ * @author stw
+ * 
+ */
+public final class IoExecutors {
+
+	private static final Method	VIRTUAL_FACTORY	= IoExecutors.findVirtualFactory();
+
+	private IoExecutors() {
+		// Static helpers only
+	}
+
+	/**
+	 * @return true if the executors use virtual threads
+	 */
+	public static boolean hasVirtualThreads() {
+		return IoExecutors.VIRTUAL_FACTORY != null;
+	}
+
+	/**
+	 * A new executor for blocking calls, needs to be shut down
+	 * 
+	 * @param name
+	 *            - for the thread names of the fallback pool
+	 * @param maxThreads
+	 *            - size of the fallback pool, virtual threads aren't limited
+	 * @return the executor
+	 */
+	public static ExecutorService newExecutor(final String name, int maxThreads) {
+		if (IoExecutors.VIRTUAL_FACTORY != null) {
+			try {
+				return (ExecutorService) IoExecutors.VIRTUAL_FACTORY.invoke(null);
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		}
+		final AtomicInteger threadNumber = new AtomicInteger(0);
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(maxThreads, maxThreads, 10, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "cocomo-" + name + "-" + threadNumber.incrementAndGet());
+						t.setDaemon(true);
+						return t;
+					}
+				});
+		// Idle threads go away, a big pool only costs while it's busy
+		pool.allowCoreThreadTimeOut(true);
+		return pool;
+	}
+
+	private static Method findVirtualFactory() {
+		try {
+			return java.util.concurrent.Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+		} catch (NoSuchMethodException e) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,218 @@
+/** ========================================================================= *
+ * Copyright (C) 2014,      IBM Corporation ( http://www.ibm.com/ )           *
+ *                            All rights reserved.                            *
+ * ========================================================================== *
+ *                                                                            *
+ * Licensed under the  Apache License, Version 2.0  (the "License").  You may *
+ * not use this file except in compliance with the License.  You may obtain a *
+ * copy of the License at <http://www.apache.org/licenses/LICENSE-2.0>.       *
+ *                                                                            *
+ * Unless  required  by applicable  law or  agreed  to  in writing,  software *
+ * distributed under the License is distributed on an  "AS IS" BASIS, WITHOUT *
+ * WARRANTIES OR  CONDITIONS OF ANY KIND, either express or implied.  See the *
+ * License for the  specific language  governing permissions  and limitations *
+ * under the License.                                                         *
+ *                                                                            *
+ * ========================================================================== */
+package com.notessensei.cocomo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Aho-Corasick automaton that finds all keywords in a line in one pass over
+ * its characters, no matter how many keywords there are. Matching ignores
+ * case. Once built the automaton is immutable and can be shared by all
+ * threads
+ * 
+ * @author stw
+ * 
+ */
+public final class KeywordAutomaton {
+
+	/**
+	 * Number of the alphabet entry for every ASCII char, -1 if no keyword
+	 * contains it
+	 */
+	private final int[]		asciiClasses	= new int[128];
+
+	/**
+	 * The non ASCII chars of the keywords, sorted, for binary search
+	 */
+	private final char[]	otherChars;
+
+	private final int		alphabetSize;
+
+	/**
+	 * Complete transition table: state * alphabetSize + char class
+	 */
+	private final int[]		transitions;
+
+	/**
+	 * The keywords found when we reach a state, including the ones reached
+	 * through failure links
+	 */
+	private final int[][]	outputs;
+
+	private final int		keywordCount;
+
+	/**
+	 * Builds the automaton
+	 * 
+	 * @param keywords
+	 *            - the keywords, their position is the number reported on a
+	 *            match
+	 */
+	public KeywordAutomaton(List<String> keywords) {
+		this.keywordCount = keywords.size();
+
+		// Alphabet: every char that occurs in a keyword
+		TreeSet<Character> alphabet = new TreeSet<Character>();
+		for (String keyword : keywords) {
+			for (int i = 0; i < keyword.length(); i++) {
+				alphabet.add(Character.valueOf(Character.toLowerCase(keyword.charAt(i))));
+			}
+		}
+		Arrays.fill(this.asciiClasses, -1);
+		StringBuilder others = new StringBuilder();
+		int classCount = 0;
+		for (Character c : alphabet) {
+			char ch = c.charValue();
+			if (ch < 128) {
+				this.asciiClasses[ch] = classCount;
+			} else {
+				others.append(ch);
+			}
+			classCount++;
+		}
+		this.otherChars = others.toString().toCharArray();
+		this.alphabetSize = Math.max(1, classCount);
+
+		// The trie, -1 is no edge yet
+		List<int[]> trie = new ArrayList<int[]>();
+		List<List<Integer>> found = new ArrayList<List<Integer>>();
+		trie.add(this.newRow());
+		found.add(new ArrayList<Integer>());
+		for (int k = 0; k < keywords.size(); k++) {
+			String keyword = keywords.get(k);
+			if (keyword.length() == 0) {
+				continue;
+			}
+			int state = 0;
+			for (int i = 0; i < keyword.length(); i++) {
+				int c = this.classOf(Character.toLowerCase(keyword.charAt(i)));
+				int next = trie.get(state)[c];
+				if (next < 0) {
+					next = trie.size();
+					trie.get(state)[c] = next;
+					trie.add(this.newRow());
+					found.add(new ArrayList<Integer>());
+				}
+				state = next;
+			}
+			found.get(state).add(Integer.valueOf(k));
+		}
+
+		// Breadth first: failure links and the complete transitions
+		int stateCount = trie.size();
+		int[] fail = new int[stateCount];
+		this.transitions = new int[stateCount * this.alphabetSize];
+		LinkedList<Integer> queue = new LinkedList<Integer>();
+		for (int c = 0; c < this.alphabetSize; c++) {
+			int next = trie.get(0)[c];
+			if (next < 0) {
+				this.transitions[c] = 0;
+			} else {
+				this.transitions[c] = next;
+				fail[next] = 0;
+				queue.add(Integer.valueOf(next));
+			}
+		}
+		while (!queue.isEmpty()) {
+			int state = queue.removeFirst().intValue();
+			found.get(state).addAll(found.get(fail[state]));
+			for (int c = 0; c < this.alphabetSize; c++) {
+				int next = trie.get(state)[c];
+				int viaFail = this.transitions[fail[state] * this.alphabetSize + c];
+				if (next < 0) {
+					this.transitions[state * this.alphabetSize + c] = viaFail;
+				} else {
+					this.transitions[state * this.alphabetSize + c] = next;
+					fail[next] = viaFail;
+					queue.add(Integer.valueOf(next));
+				}
+			}
+		}
+
+		this.outputs = new int[stateCount][];
+		for (int s = 0; s < stateCount; s++) {
+			List<Integer> out = found.get(s);
+			this.outputs[s] = new int[out.size()];
+			for (int i = 0; i < out.size(); i++) {
+				this.outputs[s][i] = out.get(i).intValue();
+			}
+		}
+	}
+
+	/**
+	 * @return the number of keywords
+	 */
+	public int getKeywordCount() {
+		return this.keywordCount;
+	}
+
+	/**
+	 * Finds the keywords in a part of a text
+	 * 
+	 * @param text
+	 * @param start
+	 *            - first char to look at
+	 * @param end
+	 *            - first char not to look at
+	 * @param matched
+	 *            - set to true for every keyword found, needs getKeywordCount()
+	 *            entries
+	 * @return the number of different keywords that were newly found
+	 */
+	public int match(CharSequence text, int start, int end, boolean[] matched) {
+		int newMatches = 0;
+		int state = 0;
+		for (int i = start; i < end; i++) {
+			int c = this.classOf(Character.toLowerCase(text.charAt(i)));
+			if (c < 0) {
+				// No keyword contains that char
+				state = 0;
+				continue;
+			}
+			state = this.transitions[state * this.alphabetSize + c];
+			for (int k : this.outputs[state]) {
+				if (!matched[k]) {
+					matched[k] = true;
+					newMatches++;
+				}
+			}
+		}
+		return newMatches;
+	}
+
+	private int classOf(char c) {
+		if (c < 128) {
+			return this.asciiClasses[c];
+		}
+		int pos = Arrays.binarySearch(this.otherChars, c);
+		if (pos < 0) {
+			return -1;
+		}
+		// Non ASCII chars follow the ASCII ones in the alphabet
+		return this.alphabetSize - this.otherChars.length + pos;
+	}
+
+	private int[] newRow() {
+		int[] row = new int[this.alphabetSize];
+		Arrays.fill(row, -1);
+		return row;
+	}
+}
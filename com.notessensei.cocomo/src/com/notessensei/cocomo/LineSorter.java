@@ -0,0 +1,208 @@
+/** ========================================================================= *
+ * Copyright (C) 2014,      IBM Corporation ( http://www.ibm.com/ )           *
+ *                            All rights reserved.                            *
+ * ========================================================================== *
+ *                                                                            *
+ * Licensed under the  Apache License, Version 2.0  (the "License").  You may *
+ * not use this file except in compliance with the License.  You may obtain a *
+ * copy of the License at <http://www.apache.org/licenses/LICENSE-2.0>.       *
+ *                                                                            *
+ * Unless  required  by applicable  law or  agreed  to  in writing,  software *
+ * distributed under the License is distributed on an  "AS IS" BASIS, WITHOUT *
+ * WARRANTIES OR  CONDITIONS OF ANY KIND, either express or implied.  See the *
+ * License for the  specific language  governing permissions  and limitations *
+ * under the License.                                                         *
+ *                                                                            *
+ * ========================================================================== */
+package com.notessensei.cocomo;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Sorts the rows of a report by application name without loading the
+ * report: sorted chunks of limited size go to temporary files, a merge of
+ * the chunks gives the sorted file. A report that is sorted already is used
+ * as it is
+ * 
+ * @author stw
+ * 
+ */
+class LineSorter {
+
+	/**
+	 * Rows per chunk, what we keep in memory at most
+	 */
+	static final int						CHUNK_LINES		= 20000;
+
+	static final Comparator<String>			BY_FIRST_FIELD	= new FirstFieldComparator();
+
+	/**
+	 * Rows sort by the first field, the application name, then by the whole
+	 * row so the order is always the same
+	 */
+	private static class FirstFieldComparator implements Comparator<String> {
+		public int compare(String a, String b) {
+			int byKey = LineSorter.firstField(a).compareTo(LineSorter.firstField(b));
+			return (byKey != 0) ? byKey : a.compareTo(b);
+		}
+	}
+
+	/**
+	 * One chunk during the merge, with its current row
+	 */
+	private static class Chunk {
+		private final BufferedReader	in;
+		private String					line;
+
+		private Chunk(File f) throws IOException {
+			this.in = LineSorter.open(f);
+			this.line = this.in.readLine();
+		}
+	}
+
+	private final int						chunkLines;
+
+	LineSorter(int chunkLines) {
+		this.chunkLines = Math.max(1, chunkLines);
+	}
+
+	/**
+	 * Opens the rows of a report in the order of the application names
+	 * 
+	 * @param report
+	 * @return the rows without the header line
+	 * @throws IOException
+	 */
+	BufferedReader openSorted(File report) throws IOException {
+		if (this.isSorted(report)) {
+			BufferedReader in = LineSorter.open(report);
+			in.readLine();
+			return in;
+		}
+		List<File> chunks = this.writeChunks(report);
+		File sorted = File.createTempFile("cocomo-sorted", ".csv");
+		sorted.deleteOnExit();
+		this.mergeChunks(chunks, sorted);
+		return LineSorter.open(sorted);
+	}
+
+	static String firstField(String line) {
+		int comma = line.indexOf(',');
+		return (comma < 0) ? line : line.substring(0, comma);
+	}
+
+	/**
+	 * Reports are written in the platform encoding, so we read them that way
+	 */
+	static BufferedReader open(File f) throws IOException {
+		return new BufferedReader(new InputStreamReader(new FileInputStream(f)));
+	}
+
+	private boolean isSorted(File report) throws IOException {
+		BufferedReader in = LineSorter.open(report);
+		try {
+			in.readLine();
+			String previous = null;
+			String line;
+			while ((line = in.readLine()) != null) {
+				if (previous != null && LineSorter.BY_FIRST_FIELD.compare(previous, line) > 0) {
+					return false;
+				}
+				previous = line;
+			}
+			return true;
+		} finally {
+			in.close();
+		}
+	}
+
+	private List<File> writeChunks(File report) throws IOException {
+		List<File> chunks = new ArrayList<File>();
+		BufferedReader in = LineSorter.open(report);
+		try {
+			in.readLine();
+			List<String> rows = new ArrayList<String>();
+			String line;
+			while ((line = in.readLine()) != null) {
+				rows.add(line);
+				if (rows.size() >= this.chunkLines) {
+					chunks.add(this.writeChunk(rows));
+					rows.clear();
+				}
+			}
+			if (!rows.isEmpty() || chunks.isEmpty()) {
+				chunks.add(this.writeChunk(rows));
+			}
+		} finally {
+			in.close();
+		}
+		return chunks;
+	}
+
+	private File writeChunk(List<String> rows) throws IOException {
+		Collections.sort(rows, LineSorter.BY_FIRST_FIELD);
+		File chunk = File.createTempFile("cocomo-chunk", ".csv");
+		chunk.deleteOnExit();
+		Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(chunk)));
+		try {
+			for (String row : rows) {
+				out.write(row);
+				out.write("\n");
+			}
+		} finally {
+			out.close();
+		}
+		return chunk;
+	}
+
+	private void mergeChunks(List<File> chunks, File sorted) throws IOException {
+		PriorityQueue<Chunk> queue = new PriorityQueue<Chunk>(chunks.size(), new Comparator<Chunk>() {
+			public int compare(Chunk a, Chunk b) {
+				return LineSorter.BY_FIRST_FIELD.compare(a.line, b.line);
+			}
+		});
+		Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(sorted)));
+		try {
+			for (File f : chunks) {
+				Chunk chunk = new Chunk(f);
+				if (chunk.line != null) {
+					queue.add(chunk);
+				} else {
+					chunk.in.close();
+				}
+			}
+			while (!queue.isEmpty()) {
+				Chunk chunk = queue.poll();
+				out.write(chunk.line);
+				out.write("\n");
+				chunk.line = chunk.in.readLine();
+				if (chunk.line != null) {
+					queue.add(chunk);
+				} else {
+					chunk.in.close();
+				}
+			}
+		} finally {
+			out.close();
+			for (Chunk chunk : queue) {
+				chunk.in.close();
+			}
+			for (File f : chunks) {
+				f.delete();
+			}
+		}
+	}
+}
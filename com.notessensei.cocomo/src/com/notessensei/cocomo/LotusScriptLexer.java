@@ -0,0 +1,214 @@
+/** ========================================================================= *
+ * Copyright (C) 2014,      IBM Corporation ( http://www.ibm.com/ )           *
+ *                            All rights reserved.                            *
+ * ========================================================================== *
+ *                                                                            *
+ * Licensed under the  Apache License, Version 2.0  (the "License").  You may *
+ * not use this file except in compliance with the License.  You may obtain a *
+ * copy of the License at <http://www.apache.org/licenses/LICENSE-2.0>.       *
+ *                                                                            *
+ * Unless  required  by applicable  law or  agreed  to  in writing,  software *
+ * distributed under the License is distributed on an  "AS IS" BASIS, WITHOUT *
+ * WARRANTIES OR  CONDITIONS OF ANY KIND, either express or implied.  See the *
+ * License for the  specific language  governing permissions  and limitations *
+ * under the License.                                                         *
+ *                                                                            *
+ * ========================================================================== */
+package com.notessensei.cocomo;
+
+/**
+ * LotusScript: ' and REM comments, %REM ... %END REM blocks, "..." strings and
+ * the multi line |...| and {...} strings, : as statement separator and " _"
+ * as line continuation. Procedures are Sub, Function and Property Get/Set
+ * 
+ * @author stw
+ * 
+ */
+public class LotusScriptLexer extends CodeLexer {
+
+	@Override
+	protected LexerState newState(CodeMetrics metrics) {
+		return new LotusScriptState(metrics);
+	}
+
+	private static class LotusScriptState extends LexerState {
+
+		private boolean			inRemBlock			= false;
+
+		/**
+		 * The character closing the open multi line string, 0 if none
+		 */
+		private char			stringTerminator	= 0;
+
+		/**
+		 * The first words of the current statement, enough to spot procedures
+		 */
+		private final String[]	words				= new String[4];
+		private int				wordCount			= 0;
+		private boolean			statementHasCode	= false;
+
+		private LotusScriptState(CodeMetrics metrics) {
+			super(metrics);
+		}
+
+		@Override
+		void endOfSource() {
+			this.endStatement();
+		}
+
+		@Override
+		int lexLine(String line) {
+			int start = 0;
+			int length = line.length();
+			while (start < length && Character.isWhitespace(line.charAt(start))) {
+				start++;
+			}
+
+			if (this.inRemBlock) {
+				if (line.regionMatches(true, start, "%end rem", 0, 8)) {
+					this.inRemBlock = false;
+				}
+				return (start < length) ? LexerState.COMMENT : LexerState.BLANK;
+			}
+
+			if (this.stringTerminator == 0 && line.regionMatches(true, start, "%rem", 0, 4)
+					&& (start + 4 == length || Character.isWhitespace(line.charAt(start + 4)))) {
+				this.inRemBlock = true;
+				return LexerState.COMMENT;
+			}
+
+			boolean hasCode = false;
+			boolean hasComment = false;
+			boolean continued = false;
+			int i = start;
+			while (i < length) {
+				char c = line.charAt(i);
+
+				if (this.stringTerminator != 0) {
+					// Inside a multi line string
+					hasCode = true;
+					if (c == this.stringTerminator) {
+						if (c == '|' && i + 1 < length && line.charAt(i + 1) == '|') {
+							i++;
+						} else {
+							this.stringTerminator = 0;
+						}
+					}
+					i++;
+					continue;
+				}
+
+				if (Character.isWhitespace(c)) {
+					i++;
+				} else if (c == '\'') {
+					hasComment = true;
+					break;
+				} else if (c == '"') {
+					hasCode = true;
+					this.statementHasCode = true;
+					i++;
+					while (i < length) {
+						if (line.charAt(i) == '"') {
+							if (i + 1 < length && line.charAt(i + 1) == '"') {
+								i++;
+							} else {
+								break;
+							}
+						}
+						i++;
+					}
+					i++;
+				} else if (c == '|' || c == '{') {
+					hasCode = true;
+					this.statementHasCode = true;
+					this.stringTerminator = (c == '|') ? '|' : '}';
+					i++;
+				} else if (c == ':') {
+					hasCode = true;
+					this.endStatement();
+					i++;
+				} else if (c == '_' && this.isContinuation(line, i)) {
+					continued = true;
+					i++;
+				} else if (LexerState.isIdentifierStart(c)) {
+					int wordStart = i;
+					while (i < length && (LexerState.isIdentifierPart(line.charAt(i)) || "%&!#@".indexOf(line.charAt(i)) > -1)) {
+						i++;
+					}
+					if (this.wordCount == 0 && !this.statementHasCode && i - wordStart == 3
+							&& line.regionMatches(true, wordStart, "rem", 0, 3)) {
+						// REM at the start of a statement comments the rest
+						hasComment = true;
+						break;
+					}
+					hasCode = true;
+					this.statementHasCode = true;
+					if (this.wordCount < this.words.length) {
+						this.words[this.wordCount] = line.substring(wordStart, i).toLowerCase();
+						this.wordCount++;
+					}
+				} else {
+					hasCode = true;
+					this.statementHasCode = true;
+					i++;
+				}
+			}
+
+			if (!continued && this.stringTerminator == 0) {
+				this.endStatement();
+			}
+
+			if (hasCode) {
+				return LexerState.CODE;
+			}
+			return hasComment ? LexerState.COMMENT : LexerState.BLANK;
+		}
+
+		private void endStatement() {
+			if (this.statementHasCode) {
+				this.metrics.statements++;
+				if (this.isProcedureStart()) {
+					this.metrics.procedures++;
+				}
+			}
+			this.statementHasCode = false;
+			this.wordCount = 0;
+		}
+
+		/**
+		 * A _ separated by whitespace and followed only by whitespace
+		 */
+		private boolean isContinuation(String line, int pos) {
+			if (pos == 0 || !Character.isWhitespace(line.charAt(pos - 1))) {
+				return false;
+			}
+			for (int i = pos + 1; i < line.length(); i++) {
+				if (!Character.isWhitespace(line.charAt(i))) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private boolean isProcedureStart() {
+			int first = 0;
+			while (first < this.wordCount
+					&& (this.words[first].equals("public") || this.words[first].equals("private")
+							|| this.words[first].equals("static") || this.words[first].equals("friend"))) {
+				first++;
+			}
+			if (first >= this.wordCount) {
+				return false;
+			}
+			String word = this.words[first];
+			if (word.equals("sub") || word.equals("function")) {
+				return true;
+			}
+			if (word.equals("property") && first + 1 < this.wordCount) {
+				String accessor = this.words[first + 1];
+				return accessor.equals("get") || accessor.equals("set");
+			}
+			return false;
+		}
+	}
+}
@@ -0,0 +1,737 @@
+/** ========================================================================= *
+ * Copyright (C) 2014,      IBM Corporation ( http://www.ibm.com/ )           *
+ *                            All rights reserved.                            *
+ * ========================================================================== *
+ *                                                                            *
+ * Licensed under the  Apache License, Version 2.0  (the "License").  You may *
+ * not use this file except in compliance with the License.  You may obtain a *
+ * copy of the License at <http://www.apache.org/licenses/LICENSE-2.0>.       *
+ *                                                                            *
+ * Unless  required  by applicable  law or  agreed  to  in writing,  software *
+ * distributed under the License is distributed on an  "AS IS" BASIS, WITHOUT *
+ * WARRANTIES OR  CONDITIONS OF ANY KIND, either express or implied.  See the *
+ * License for the  specific language  governing permissions  and limitations *
+ * under the License.                                                         *
+ *                                                                            *
+ * ========================================================================== */
+package com.notessensei.cocomo;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Scanner;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Keeps the counters of every run, so trends can be queried later. The
+ * store is a directory: one segment file per run, named by the run date, and
+ * two dictionaries that give every application and every counter a number.
+ * Nothing is ever rewritten, a run adds its new names to the dictionaries
+ * and one segment.
+ * 
+ * A segment stores its counters by column: for every counter the
+ * applications and their values, sorted by application number, delta and
+ * varint coded and deflated. An index of fixed size entries at the start
+ * finds a column with a binary search, so a query only reads and inflates
+ * the columns it asks for
+ * 
+ * @author stw
+ * 
+ */
+public class MetricsStore {
+
+	/**
+	 * The values of one application over time
+	 */
+	public static class Sample {
+		private final long	time;
+		private final long	value;
+
+		private Sample(long time, long value) {
+			this.time = time;
+			this.value = value;
+		}
+
+		public long getTime() {
+			return this.time;
+		}
+
+		public long getValue() {
+			return this.value;
+		}
+	}
+
+	/**
+	 * The growth of one application between two runs
+	 */
+	public static class Growth {
+		private final String	application;
+		private final long		before;
+		private final long		after;
+
+		private Growth(String application, long before, long after) {
+			this.application = application;
+			this.before = before;
+			this.after = after;
+		}
+
+		public String getApplication() {
+			return this.application;
+		}
+
+		public long getBefore() {
+			return this.before;
+		}
+
+		public long getAfter() {
+			return this.after;
+		}
+
+		public long getGrowth() {
+			return this.after - this.before;
+		}
+	}
+
+	/**
+	 * All counters of one run in memory, applications and counters sorted by
+	 * name. Like in the segment a counter only has the applications that
+	 * counted it: position << 32 | value, sorted by position
+	 */
+	public static class Snapshot {
+		private final String	name;
+		private final long		time;
+		private final String[]	applications;
+		private final String[]	keys;
+		private final long[][]	columns;
+
+		private Snapshot(String name, long time, String[] applications, String[] keys, long[][] columns) {
+			this.name = name;
+			this.time = time;
+			this.applications = applications;
+			this.keys = keys;
+			this.columns = columns;
+		}
+
+		/**
+		 * @return the name of the segment
+		 */
+		public String getName() {
+			return this.name;
+		}
+
+		public long getTime() {
+			return this.time;
+		}
+
+		public String[] getApplications() {
+			return this.applications;
+		}
+
+		public String[] getKeys() {
+			return this.keys;
+		}
+
+		/**
+		 * @param key
+		 * @return the position of the counter or -1
+		 */
+		public int findKey(String key) {
+			int pos = Arrays.binarySearch(this.keys, key);
+			return (pos < 0) ? -1 : pos;
+		}
+
+		/**
+		 * @param application
+		 * @return the position of the application or -1
+		 */
+		public int findApplication(String application) {
+			int pos = Arrays.binarySearch(this.applications, application);
+			return (pos < 0) ? -1 : pos;
+		}
+
+		/**
+		 * @return the value, 0 where the application didn't count it
+		 */
+		public int getValue(int key, int application) {
+			long[] column = this.columns[key];
+			int pos = MetricsStore.findApplication(column, application);
+			return (pos < 0) ? 0 : (int) column[pos];
+		}
+	}
+
+	/**
+	 * One run being recorded. Applications are added as they are finished,
+	 * commit writes the segment
+	 */
+	public class Run {
+		private final long					time;
+		// Per counter number: application number << 32 | value
+		private final Map<Integer, long[]>	columns		= new TreeMap<Integer, long[]>();
+		private final Map<Integer, Integer>	columnSizes	= new HashMap<Integer, Integer>();
+
+		private Run(long time) {
+			this.time = time;
+		}
+
+		/**
+		 * Records the counters of an application
+		 * 
+		 * @param application
+		 * @param result
+		 */
+		public synchronized void add(String application, ArtefactResult result) {
+			long app = MetricsStore.this.applications.getId(application);
+			for (Map.Entry<String, Integer> me : result.getCounters().entrySet()) {
+				Integer key = Integer.valueOf(MetricsStore.this.keys.getId(me.getKey()));
+				long[] column = this.columns.get(key);
+				Integer size = this.columnSizes.get(key);
+				int n = (size == null) ? 0 : size.intValue();
+				if (column == null) {
+					column = new long[8];
+				} else if (n == column.length) {
+					column = Arrays.copyOf(column, n * 2);
+				}
+				column[n] = (app << 32) | (me.getValue().intValue() & 0xffffffffL);
+				this.columns.put(key, column);
+				this.columnSizes.put(key, Integer.valueOf(n + 1));
+			}
+		}
+
+		/**
+		 * Writes the run to the store
+		 * 
+		 * @throws IOException
+		 */
+		public synchronized void commit() throws IOException {
+			// Names first, a segment must never use a number nobody knows
+			MetricsStore.this.keys.save();
+			MetricsStore.this.applications.save();
+
+			List<byte[]> blocks = new ArrayList<byte[]>();
+			for (Map.Entry<Integer, long[]> me : this.columns.entrySet()) {
+				long[] column = me.getValue();
+				int n = this.columnSizes.get(me.getKey()).intValue();
+				Arrays.sort(column, 0, n);
+				blocks.add(MetricsStore.encodeColumn(column, n));
+			}
+
+			String name = MetricsStore.getSegmentDateFormat().format(new Date(this.time))
+					+ MetricsStore.SEGMENT_EXTENSION;
+			File tmp = new File(MetricsStore.this.dir, name + ".tmp");
+			DataOutputStream out = new DataOutputStream(new FileOutputStream(tmp));
+			try {
+				out.writeInt(MetricsStore.MAGIC);
+				out.writeInt(MetricsStore.VERSION);
+				out.writeLong(this.time);
+				out.writeInt(blocks.size());
+				long offset = MetricsStore.HEADER_SIZE + (long) blocks.size() * MetricsStore.INDEX_ENTRY_SIZE;
+				int b = 0;
+				for (Integer key : this.columns.keySet()) {
+					out.writeInt(key.intValue());
+					out.writeLong(offset);
+					out.writeInt(blocks.get(b).length);
+					offset += blocks.get(b).length;
+					b++;
+				}
+				for (byte[] block : blocks) {
+					out.write(block);
+				}
+			} finally {
+				out.close();
+			}
+			// Queries only see complete segments
+			if (!tmp.renameTo(new File(MetricsStore.this.dir, name))) {
+				throw new IOException("Can't store " + name + " in " + MetricsStore.this.dir);
+			}
+		}
+	}
+
+	/**
+	 * Names and their numbers, the number is the line in the file
+	 */
+	private static class Dictionary {
+		private final File					file;
+		private final List<String>			names	= new ArrayList<String>();
+		private final Map<String, Integer>	ids		= new HashMap<String, Integer>();
+		private int							saved	= 0;
+
+		private Dictionary(File file) throws IOException {
+			this.file = file;
+			if (file.exists()) {
+				Scanner s = new Scanner(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+				try {
+					while (s.hasNextLine()) {
+						String name = s.nextLine();
+						this.ids.put(name, Integer.valueOf(this.names.size()));
+						this.names.add(name);
+					}
+				} finally {
+					s.close();
+				}
+			}
+			this.saved = this.names.size();
+		}
+
+		private synchronized int getId(String name) {
+			Integer id = this.ids.get(name);
+			if (id == null) {
+				id = Integer.valueOf(this.names.size());
+				this.ids.put(name, id);
+				this.names.add(name);
+			}
+			return id.intValue();
+		}
+
+		/**
+		 * @return the number or -1 for an unknown name
+		 */
+		private synchronized int findId(String name) {
+			Integer id = this.ids.get(name);
+			return (id == null) ? -1 : id.intValue();
+		}
+
+		private synchronized String getName(int id) {
+			return this.names.get(id);
+		}
+
+		/**
+		 * Appends the new names
+		 */
+		private synchronized void save() throws IOException {
+			if (this.saved == this.names.size()) {
+				return;
+			}
+			Writer out = new OutputStreamWriter(new FileOutputStream(this.file, true), "UTF-8");
+			try {
+				for (int i = this.saved; i < this.names.size(); i++) {
+					out.write(this.names.get(i));
+					out.write("\n");
+				}
+			} finally {
+				out.close();
+			}
+			this.saved = this.names.size();
+		}
+	}
+
+	private static final int		MAGIC				= 0x43434d53;
+	private static final int		VERSION				= 1;
+	private static final int		HEADER_SIZE			= 20;
+	private static final int		INDEX_ENTRY_SIZE	= 16;
+	private static final String		SEGMENT_DATE		= "yyyyMMdd-HHmmss-SSS";
+	private static final String		SEGMENT_EXTENSION	= ".seg";
+
+	private final File				dir;
+	private final Dictionary		keys;
+	private final Dictionary		applications;
+
+	/**
+	 * Opens a store, a new one is created
+	 * 
+	 * @param dir
+	 * @throws IOException
+	 */
+	public MetricsStore(File dir) throws IOException {
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Can't create the metrics store " + dir);
+		}
+		this.dir = dir;
+		this.keys = new Dictionary(new File(dir, "keys.dict"));
+		this.applications = new Dictionary(new File(dir, "applications.dict"));
+	}
+
+	/**
+	 * @param time
+	 *            - when the run started, names the segment
+	 * @return the run to record
+	 */
+	public Run startRun(long time) {
+		return new Run(time);
+	}
+
+	/**
+	 * The value of one application in every run since a point in time
+	 * 
+	 * @param application
+	 * @param keys
+	 *            - the counters, their values are summed up
+	 * @param since
+	 *            - time in ms
+	 * @return one sample per run the application is in, oldest first
+	 * @throws IOException
+	 */
+	public List<Sample> history(String application, Collection<String> keys, long since) throws IOException {
+		List<Sample> result = new ArrayList<Sample>();
+		int app = this.applications.findId(application);
+		if (app < 0) {
+			return result;
+		}
+		int[] keyIds = this.findKeys(keys);
+		for (File segment : this.listSegments(since)) {
+			RandomAccessFile in = new RandomAccessFile(segment, "r");
+			try {
+				long time = this.readHeader(in, segment);
+				long sum = 0;
+				boolean found = false;
+				for (int key : keyIds) {
+					long[] column = this.readColumn(in, key);
+					int pos = MetricsStore.findApplication(column, app);
+					if (pos >= 0) {
+						sum += (int) column[pos];
+						found = true;
+					}
+				}
+				if (found) {
+					result.add(new Sample(time, sum));
+				}
+			} finally {
+				in.close();
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * The applications that grew most between the oldest run since a point
+	 * in time and the latest run. Applications that are new since then grow
+	 * from 0
+	 * 
+	 * @param keys
+	 *            - the counters, their values are summed up
+	 * @param count
+	 *            - how many applications
+	 * @param since
+	 *            - time in ms
+	 * @return the growers, biggest growth first
+	 * @throws IOException
+	 */
+	public List<Growth> topGrowers(Collection<String> keys, int count, long since) throws IOException {
+		List<Growth> result = new ArrayList<Growth>();
+		List<File> segments = this.listSegments(since);
+		if (segments.size() < 2) {
+			return result;
+		}
+		int[] keyIds = this.findKeys(keys);
+		Map<Integer, long[]> before = this.readTotals(segments.get(0), keyIds);
+		Map<Integer, long[]> after = this.readTotals(segments.get(segments.size() - 1), keyIds);
+		for (Map.Entry<Integer, long[]> me : after.entrySet()) {
+			long[] old = before.get(me.getKey());
+			result.add(new Growth(this.applications.getName(me.getKey().intValue()), (old == null) ? 0 : old[0], me.getValue()[0]));
+		}
+		Collections.sort(result, new Comparator<Growth>() {
+			public int compare(Growth a, Growth b) {
+				long diff = b.getGrowth() - a.getGrowth();
+				return (diff > 0) ? 1 : (diff < 0) ? -1 : a.getApplication().compareTo(b.getApplication());
+			}
+		});
+		return (result.size() > count) ? new ArrayList<Growth>(result.subList(0, count)) : result;
+	}
+
+	/**
+	 * @return the segment name of the latest run, null for an empty store
+	 */
+	public String getLatestRunName() {
+		List<File> segments = this.listSegments(0);
+		return segments.isEmpty() ? null : segments.get(segments.size() - 1).getName();
+	}
+
+	/**
+	 * Reads all counters of the latest run
+	 * 
+	 * @return the run, null for an empty store
+	 * @throws IOException
+	 */
+	public Snapshot readLatest() throws IOException {
+		List<File> segments = this.listSegments(0);
+		if (segments.isEmpty()) {
+			return null;
+		}
+		File segment = segments.get(segments.size() - 1);
+		Map<String, long[]> columns = new TreeMap<String, long[]>();
+		Map<String, Integer> appIds = new TreeMap<String, Integer>();
+		long time;
+		RandomAccessFile in = new RandomAccessFile(segment, "r");
+		try {
+			time = this.readHeader(in, segment);
+			int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				in.seek(MetricsStore.HEADER_SIZE + (long) i * MetricsStore.INDEX_ENTRY_SIZE);
+				int key = in.readInt();
+				long offset = in.readLong();
+				byte[] block = new byte[in.readInt()];
+				in.seek(offset);
+				in.readFully(block);
+				long[] column = MetricsStore.decodeColumn(block);
+				columns.put(this.keys.getName(key), column);
+				for (long entry : column) {
+					int app = (int) (entry >>> 32);
+					appIds.put(this.applications.getName(app), Integer.valueOf(app));
+				}
+			}
+		} finally {
+			in.close();
+		}
+
+		// Dictionary numbers to positions in the sorted names
+		String[] appNames = appIds.keySet().toArray(new String[appIds.size()]);
+		Map<Integer, Integer> positions = new HashMap<Integer, Integer>();
+		for (int i = 0; i < appNames.length; i++) {
+			positions.put(appIds.get(appNames[i]), Integer.valueOf(i));
+		}
+		String[] keyNames = columns.keySet().toArray(new String[columns.size()]);
+		long[][] values = new long[keyNames.length][];
+		for (int k = 0; k < keyNames.length; k++) {
+			long[] column = columns.get(keyNames[k]);
+			for (int i = 0; i < column.length; i++) {
+				long position = positions.get(Integer.valueOf((int) (column[i] >>> 32))).intValue();
+				column[i] = (position << 32) | (column[i] & 0xffffffffL);
+			}
+			Arrays.sort(column);
+			values[k] = column;
+		}
+		return new Snapshot(segment.getName(), time, appNames, keyNames, values);
+	}
+
+	/**
+	 * @return the number of runs in the store
+	 */
+	public int getRunCount() {
+		return this.listSegments(0).size();
+	}
+
+	/**
+	 * Sum of the counters per application in one segment
+	 */
+	private Map<Integer, long[]> readTotals(File segment, int[] keyIds) throws IOException {
+		Map<Integer, long[]> totals = new HashMap<Integer, long[]>();
+		RandomAccessFile in = new RandomAccessFile(segment, "r");
+		try {
+			this.readHeader(in, segment);
+			for (int key : keyIds) {
+				for (long entry : this.readColumn(in, key)) {
+					Integer app = Integer.valueOf((int) (entry >>> 32));
+					long[] total = totals.get(app);
+					if (total == null) {
+						total = new long[1];
+						totals.put(app, total);
+					}
+					total[0] += (int) entry;
+				}
+			}
+		} finally {
+			in.close();
+		}
+		return totals;
+	}
+
+	/**
+	 * Known counter numbers, unknown counters were never counted
+	 */
+	private int[] findKeys(Collection<String> keys) {
+		int[] ids = new int[keys.size()];
+		int n = 0;
+		for (String key : keys) {
+			int id = this.keys.findId(key);
+			if (id >= 0) {
+				ids[n++] = id;
+			}
+		}
+		return Arrays.copyOf(ids, n);
+	}
+
+	/**
+	 * Segment names are in UTC. Local time goes back an hour when daylight
+	 * saving time ends, the names would no longer sort like the runs
+	 */
+	private static SimpleDateFormat getSegmentDateFormat() {
+		SimpleDateFormat format = new SimpleDateFormat(MetricsStore.SEGMENT_DATE);
+		format.setTimeZone(TimeZone.getTimeZone("UTC"));
+		return format;
+	}
+
+	/**
+	 * Segments since a point in time, oldest first. The date is in the name,
+	 * we don't need to open them
+	 */
+	private List<File> listSegments(long since) {
+		File[] files = this.dir.listFiles(new FilenameFilter() {
+			public boolean accept(File d, String name) {
+				return name.endsWith(MetricsStore.SEGMENT_EXTENSION);
+			}
+		});
+		List<File> result = new ArrayList<File>();
+		if (files == null) {
+			return result;
+		}
+		Arrays.sort(files);
+		SimpleDateFormat format = MetricsStore.getSegmentDateFormat();
+		for (File f : files) {
+			String name = f.getName();
+			try {
+				Date date = format.parse(name.substring(0, name.length() - MetricsStore.SEGMENT_EXTENSION.length()));
+				if (date.getTime() >= since) {
+					result.add(f);
+				}
+			} catch (ParseException e) {
+				System.err.println("Not a segment: " + f);
+			}
+		}
+		return result;
+	}
+
+	private long readHeader(RandomAccessFile in, File segment) throws IOException {
+		in.seek(0);
+		if (in.readInt() != MetricsStore.MAGIC || in.readInt() != MetricsStore.VERSION) {
+			throw new IOException(segment + " is no segment of this version");
+		}
+		return in.readLong();
+	}
+
+	/**
+	 * Binary search in the index, then inflates the column
+	 * 
+	 * @return application number << 32 | value, sorted by application
+	 */
+	private long[] readColumn(RandomAccessFile in, int key) throws IOException {
+		in.seek(MetricsStore.HEADER_SIZE - 4);
+		int low = 0;
+		int high = in.readInt() - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			in.seek(MetricsStore.HEADER_SIZE + (long) mid * MetricsStore.INDEX_ENTRY_SIZE);
+			int midKey = in.readInt();
+			if (midKey < key) {
+				low = mid + 1;
+			} else if (midKey > key) {
+				high = mid - 1;
+			} else {
+				long offset = in.readLong();
+				byte[] block = new byte[in.readInt()];
+				in.seek(offset);
+				in.readFully(block);
+				return MetricsStore.decodeColumn(block);
+			}
+		}
+		return new long[0];
+	}
+
+	private static int findApplication(long[] column, int app) {
+		int low = 0;
+		int high = column.length - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int midApp = (int) (column[mid] >>> 32);
+			if (midApp < app) {
+				low = mid + 1;
+			} else if (midApp > app) {
+				high = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Count, then per entry the gap to the previous application number and
+	 * the zigzag coded value, all as varints, deflated
+	 */
+	private static byte[] encodeColumn(long[] column, int n) {
+		ByteArrayOutputStream raw = new ByteArrayOutputStream(n * 3 + 5);
+		MetricsStore.writeVarInt(raw, n);
+		int previous = 0;
+		for (int i = 0; i < n; i++) {
+			int app = (int) (column[i] >>> 32);
+			int value = (int) column[i];
+			MetricsStore.writeVarInt(raw, app - previous);
+			MetricsStore.writeVarInt(raw, (value << 1) ^ (value >> 31));
+			previous = app;
+		}
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		deflater.setInput(raw.toByteArray());
+		deflater.finish();
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		while (!deflater.finished()) {
+			int len = deflater.deflate(buffer);
+			compressed.write(buffer, 0, len);
+		}
+		deflater.end();
+		return compressed.toByteArray();
+	}
+
+	private static long[] decodeColumn(byte[] block) throws IOException {
+		Inflater inflater = new Inflater();
+		inflater.setInput(block);
+		ByteArrayOutputStream raw = new ByteArrayOutputStream(block.length * 4);
+		byte[] buffer = new byte[4096];
+		try {
+			while (!inflater.finished()) {
+				int len = inflater.inflate(buffer);
+				if (len == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					throw new IOException("Broken column in segment");
+				}
+				raw.write(buffer, 0, len);
+			}
+		} catch (DataFormatException e) {
+			throw new IOException("Broken column in segment", e);
+		} finally {
+			inflater.end();
+		}
+		byte[] data = raw.toByteArray();
+		int[] pos = new int[1];
+		int n = MetricsStore.readVarInt(data, pos);
+		long[] column = new long[n];
+		int app = 0;
+		for (int i = 0; i < n; i++) {
+			app += MetricsStore.readVarInt(data, pos);
+			int zigzag = MetricsStore.readVarInt(data, pos);
+			int value = (zigzag >>> 1) ^ -(zigzag & 1);
+			column[i] = ((long) app << 32) | (value & 0xffffffffL);
+		}
+		return column;
+	}
+
+	static void writeVarInt(ByteArrayOutputStream out, int value) {
+		while ((value & ~0x7f) != 0) {
+			out.write((value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		out.write(value);
+	}
+
+	static int readVarInt(byte[] data, int[] pos) {
+		int result = 0;
+		int shift = 0;
+		int b;
+		do {
+			b = data[pos[0]++];
+			result |= (b & 0x7f) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+		return result;
+	}
+}
@@ -0,0 +1,184 @@
+/** ========================================================================= *
+ * Copyright (C) 2014,      IBM Corporation ( http://www.ibm.com/ )           *
+ *                            All rights reserved.                            *
+ * ========================================================================== *
+ *                                                                            *
+ * Licensed under the  Apache License, Version 2.0  (the "License").  You may *
+ * not use this file except in compliance with the License.  You may obtain a *
+ * copy of the License at <http://www.apache.org/licenses/LICENSE-2.0>.       *
+ *                                                                            *
+ * Unless  required  by applicable  law or  agreed  to  in writing,  software *
+ * distributed under the License is distributed on an  "AS IS" BASIS, WITHOUT *
+ * WARRANTIES OR  CONDITIONS OF ANY KIND, either express or implied.  See the *
+ * License for the  specific language  governing permissions  and limitations *
+ * under the License.                                                         *
+ *                                                                            *
+ * ========================================================================== */
+package com.notessensei.cocomo;
+
+/**
+ * Turns code into a MinHash signature: the code is split into tokens, every
+ * run of SHINGLE_SIZE tokens is hashed and for each of the SIGNATURE_SIZE hash
+ * functions the smallest value is kept. The share of equal positions in two
+ * signatures estimates how similar (Jaccard) the two pieces of code are.
+ * String and number literals are normalized, so changed messages or constants
+ * don't hide a copy
+ * 
+ * @author stw
+ * 
+ */
+public final class MinHasher {
+
+	/**
+	 * Collects the tokens of one code unit, feed it line by line
+	 */
+	public final class Signer {
+		private final int[]		signature	= new int[MinHasher.SIGNATURE_SIZE];
+		private final long[]	window		= new long[MinHasher.SHINGLE_SIZE];
+		private int				tokenCount	= 0;
+
+		private Signer() {
+			for (int i = 0; i < this.signature.length; i++) {
+				this.signature[i] = Integer.MAX_VALUE;
+			}
+		}
+
+		/**
+		 * Adds one line of code
+		 * 
+		 * @param line
+		 */
+		public void feed(String line) {
+			int length = line.length();
+			int i = 0;
+			while (i < length) {
+				char c = line.charAt(i);
+				if (Character.isWhitespace(c)) {
+					i++;
+				} else if (Character.isLetter(c) || c == '_' || c == '@' || c == '$') {
+					int start = i;
+					i++;
+					while (i < length && (Character.isLetterOrDigit(line.charAt(i)) || line.charAt(i) == '_')) {
+						i++;
+					}
+					this.token(MinHasher.hashLowerCase(line, start, i));
+				} else if (Character.isDigit(c)) {
+					while (i < length && (Character.isLetterOrDigit(line.charAt(i)) || line.charAt(i) == '.')) {
+						i++;
+					}
+					this.token(MinHasher.NUMBER_TOKEN);
+				} else if (c == '"') {
+					i++;
+					while (i < length && line.charAt(i) != '"') {
+						i++;
+					}
+					i++;
+					this.token(MinHasher.STRING_TOKEN);
+				} else {
+					this.token(c);
+					i++;
+				}
+			}
+		}
+
+		/**
+		 * @return the signature or null if the unit is too small to compare
+		 */
+		public int[] finish() {
+			if (this.tokenCount < MinHasher.MIN_TOKENS) {
+				return null;
+			}
+			return this.signature;
+		}
+
+		private void token(long tokenHash) {
+			this.window[this.tokenCount % MinHasher.SHINGLE_SIZE] = tokenHash;
+			this.tokenCount++;
+			if (this.tokenCount < MinHasher.SHINGLE_SIZE) {
+				return;
+			}
+			// Hash of the last SHINGLE_SIZE tokens in order
+			long shingle = 0;
+			for (int i = 0; i < MinHasher.SHINGLE_SIZE; i++) {
+				shingle = MinHasher.mix(shingle ^ this.window[(this.tokenCount + i) % MinHasher.SHINGLE_SIZE]);
+			}
+			for (int i = 0; i < MinHasher.SIGNATURE_SIZE; i++) {
+				int h = (int) (MinHasher.mix(shingle ^ MinHasher.this.seeds[i]) >>> 33);
+				if (h < this.signature[i]) {
+					this.signature[i] = h;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Number of hash functions, 16 LSH bands of 8 rows each
+	 */
+	public static final int		SIGNATURE_SIZE	= 128;
+	public static final int		SHINGLE_SIZE	= 4;
+
+	/**
+	 * Smaller units (a single Exit Sub...) would only create noise
+	 */
+	public static final int		MIN_TOKENS		= 24;
+
+	private static final long	NUMBER_TOKEN	= 0x4e554d424552L;
+	private static final long	STRING_TOKEN	= 0x535452494e47L;
+
+	private final long[]		seeds			= new long[MinHasher.SIGNATURE_SIZE];
+
+	public MinHasher() {
+		long seed = 0x2545f4914f6cdd1dL;
+		for (int i = 0; i < this.seeds.length; i++) {
+			seed = MinHasher.mix(seed + i);
+			this.seeds[i] = seed;
+		}
+	}
+
+	/**
+	 * Estimated Jaccard similarity of two signatures
+	 * 
+	 * @param a
+	 * @param b
+	 * @return 0.0 to 1.0
+	 */
+	public static double similarity(int[] a, int[] b) {
+		int same = 0;
+		for (int i = 0; i < a.length; i++) {
+			if (a[i] == b[i]) {
+				same++;
+			}
+		}
+		return (double) same / a.length;
+	}
+
+	/**
+	 * A new signer for one code unit
+	 * 
+	 * @return the signer
+	 */
+	public Signer newSigner() {
+		return new Signer();
+	}
+
+	private static long hashLowerCase(String s, int start, int end) {
+		long h = 0xcbf29ce484222325L;
+		for (int i = start; i < end; i++) {
+			h = (h ^ Character.toLowerCase(s.charAt(i))) * 0x100000001b3L;
+		}
+		return h;
+	}
+
+	/**
+	 * Final avalanche step of MurmurHash3
+	 */
+	static long mix(long value) {
+		long h = value;
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+}
@@ -0,0 +1,301 @@
+/** ========================================================================= *
+ * Copyright (C) 2014,      IBM Corporation ( http://www.ibm.com/ )           *
+ *                            All rights reserved.                            *
+ * ========================================================================== *
+ *                                                                            *
+ * Licensed under the  Apache License, Version 2.0  (the "License").  You may *
+ * not use this file except in compliance with the License.  You may obtain a *
+ * copy of the License at <http://www.apache.org/licenses/LICENSE-2.0>.       *
+ *                                                                            *
+ * Unless  required  by applicable  law or  agreed  to  in writing,  software *
+ * distributed under the License is distributed on an  "AS IS" BASIS, WITHOUT *
+ * WARRANTIES OR  CONDITIONS OF ANY KIND, either express or implied.  See the *
+ * License for the  specific language  governing permissions  and limitations *
+ * under the License.                                                         *
+ *                                                                            *
+ * ========================================================================== */
+package com.notessensei.cocomo;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The raw results of a shard, so several worker processes can be merged
+ * into one report. Unlike the report rows it keeps every counter, the
+ * fingerprints, code signatures and @Function counts, the merge computes
+ * the report, the metrics and the side reports from them as if one process
+ * had scanned everything.
+ * 
+ * A text file, one line per value, fields separated by tabs:
+ * 
+ * <pre>
+ * #cocomo-partial	2
+ * shard	i/N	hash|range
+ * application	position	path
+ * count	key	value
+ * fingerprint	element	value
+ * signature	unit	v1,v2,...
+ * function	name	count
+ * end
+ * </pre>
+ * 
+ * The shard line lets the merge check that every shard is there once, the
+ * end line tells a finished worker from one that died
+ * 
+ * @author stw
+ * 
+ */
+public class PartialResult {
+
+	/**
+	 * One application read from a partial result
+	 */
+	public static class Application {
+		private final int				position;
+		private final File				source;
+		private final ArtefactResult	result	= new ArtefactResult();
+
+		private Application(int position, File source) {
+			this.position = position;
+			this.source = source;
+		}
+
+		/**
+		 * @return where the application is in the full list
+		 */
+		public int getPosition() {
+			return this.position;
+		}
+
+		public File getSource() {
+			return this.source;
+		}
+
+		public ArtefactResult getResult() {
+			return this.result;
+		}
+	}
+
+	/**
+	 * The content of a partial result file
+	 */
+	public static class Shard {
+		private final ShardSpec			spec;
+		private final List<Application>	applications	= new ArrayList<Application>();
+
+		private Shard(ShardSpec spec) {
+			this.spec = spec;
+		}
+
+		/**
+		 * @return the shard the worker scanned
+		 */
+		public ShardSpec getSpec() {
+			return this.spec;
+		}
+
+		public List<Application> getApplications() {
+			return this.applications;
+		}
+	}
+
+	private static final String	HEADER	= "#cocomo-partial\t2";
+
+	private final PrintWriter	out;
+
+	/**
+	 * Starts a new partial result
+	 * 
+	 * @param file
+	 * @param shard
+	 *            - the shard the worker scans
+	 * @throws IOException
+	 */
+	public PartialResult(File file, ShardSpec shard) throws IOException {
+		this.out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+		this.out.write(PartialResult.HEADER + "\n");
+		this.line("shard", shard.toString(), shard.getMethod());
+	}
+
+	/**
+	 * Adds the result of one application
+	 * 
+	 * @param position
+	 *            - where the application is in the full list, the merged
+	 *            report keeps that order
+	 * @param source
+	 * @param result
+	 */
+	public synchronized void write(int position, File source, ArtefactResult result) {
+		this.line("application", String.valueOf(position), source.getAbsolutePath());
+		for (Map.Entry<String, Integer> me : result.getCounters().entrySet()) {
+			this.line("count", me.getKey(), me.getValue().toString());
+		}
+		for (Map.Entry<String, Long> me : result.getFingerprints().entrySet()) {
+			this.line("fingerprint", me.getKey(), me.getValue().toString());
+		}
+		for (Map.Entry<String, int[]> me : result.getCodeSignatures().entrySet()) {
+			StringBuilder values = new StringBuilder();
+			for (int v : me.getValue()) {
+				if (values.length() > 0) {
+					values.append(",");
+				}
+				values.append(v);
+			}
+			this.line("signature", me.getKey(), values.toString());
+		}
+		FunctionHistogram functions = result.getFunctions();
+		for (String name : functions.getNames()) {
+			this.line("function", name, String.valueOf(functions.getCount(name)));
+		}
+		this.out.flush();
+	}
+
+	/**
+	 * Marks the partial result as complete
+	 */
+	public synchronized void close() {
+		this.out.write("end\n");
+		this.out.flush();
+		this.out.close();
+	}
+
+	/**
+	 * Reads a complete partial result
+	 * 
+	 * @param file
+	 * @return the shard and its applications
+	 * @throws IOException
+	 *             when the file isn't a partial result or is incomplete
+	 */
+	public static Shard read(File file) throws IOException {
+		BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+		try {
+			String line = in.readLine();
+			if (!PartialResult.HEADER.equals(line)) {
+				throw new IOException(file + " is no partial result of this version");
+			}
+			line = in.readLine();
+			String[] fields = (line == null) ? new String[0] : line.split("\t", -1);
+			if (fields.length != 3 || !fields[0].equals("shard")) {
+				throw new IOException(file + " line 2: expected the shard");
+			}
+			Shard result;
+			try {
+				result = new Shard(ShardSpec.parse(fields[1], fields[2]));
+			} catch (IllegalArgumentException e) {
+				throw new IOException(file + " line 2: " + e.getMessage(), e);
+			}
+			Application current = null;
+			int lineNumber = 2;
+			while ((line = in.readLine()) != null) {
+				lineNumber++;
+				if (line.equals("end")) {
+					return result;
+				}
+				fields = line.split("\t", -1);
+				if (fields.length != 3) {
+					throw new IOException(file + " line " + lineNumber + ": expected 3 fields");
+				}
+				String kind = fields[0];
+				String key = PartialResult.unescape(fields[1]);
+				String value = PartialResult.unescape(fields[2]);
+				try {
+					if (kind.equals("application")) {
+						current = new Application(Integer.parseInt(key), new File(value));
+						result.applications.add(current);
+					} else if (current == null) {
+						throw new IOException(file + " line " + lineNumber + ": value before the first application");
+					} else if (kind.equals("count")) {
+						current.result.add(key, Integer.parseInt(value));
+					} else if (kind.equals("fingerprint")) {
+						current.result.addFingerprint(key, Long.parseLong(value));
+					} else if (kind.equals("signature")) {
+						String[] parts = value.split(",");
+						int[] signature = new int[parts.length];
+						for (int i = 0; i < parts.length; i++) {
+							signature[i] = Integer.parseInt(parts[i]);
+						}
+						current.result.addCodeSignature(key, signature);
+					} else if (kind.equals("function")) {
+						current.result.getFunctions().add(key, 0, key.length(), Integer.parseInt(value));
+					} else {
+						throw new IOException(file + " line " + lineNumber + ": unknown entry " + kind);
+					}
+				} catch (NumberFormatException e) {
+					throw new IOException(file + " line " + lineNumber + ": " + e.getMessage(), e);
+				}
+			}
+			throw new IOException(file + " is incomplete, the worker didn't finish");
+		} finally {
+			in.close();
+		}
+	}
+
+	private void line(String kind, String key, String value) {
+		this.out.write(kind);
+		this.out.write("\t");
+		this.out.write(PartialResult.escape(key));
+		this.out.write("\t");
+		this.out.write(PartialResult.escape(value));
+		this.out.write("\n");
+	}
+
+	/**
+	 * Keys are file and element names, tabs and line breaks would break the
+	 * format
+	 */
+	private static String escape(String s) {
+		if (s.indexOf('\\') < 0 && s.indexOf('\t') < 0 && s.indexOf('\n') < 0 && s.indexOf('\r') < 0) {
+			return s;
+		}
+		StringBuilder b = new StringBuilder();
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			switch (c) {
+			case '\\':
+				b.append("\\\\");
+				break;
+			case '\t':
+				b.append("\\t");
+				break;
+			case '\n':
+				b.append("\\n");
+				break;
+			case '\r':
+				b.append("\\r");
+				break;
+			default:
+				b.append(c);
+			}
+		}
+		return b.toString();
+	}
+
+	private static String unescape(String s) {
+		if (s.indexOf('\\') < 0) {
+			return s;
+		}
+		StringBuilder b = new StringBuilder();
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c == '\\' && i + 1 < s.length()) {
+				i++;
+				char e = s.charAt(i);
+				b.append((e == 't') ? '\t' : (e == 'n') ? '\n' : (e == 'r') ? '\r' : e);
+			} else {
+				b.append(c);
+			}
+		}
+		return b.toString();
+	}
+}
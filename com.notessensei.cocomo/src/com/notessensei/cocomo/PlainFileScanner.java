@@ -0,0 +1,62 @@
+/** ========================================================================= *
+ * Copyright (C) 2014,      IBM Corporation ( http://www.ibm.com/ )           *
+ *                            All rights reserved.                            *
+ * ========================================================================== *
+ *                                                                            *
+ * Licensed under the  Apache License, Version 2.0  (the "License").  You may *
+ * not use this file except in compliance with the License.  You may obtain a *
+ * copy of the License at <http://www.apache.org/licenses/LICENSE-2.0>.       *
+ *                                                                            *
+ * Unless  required  by applicable  law or  agreed  to  in writing,  software *
+ * distributed under the License is distributed on an  "AS IS" BASIS, WITHOUT *
+ * WARRANTIES OR  CONDITIONS OF ANY KIND, either express or implied.  See the *
+ * License for the  specific language  governing permissions  and limitations *
+ * under the License.                                                         *
+ *                                                                            *
+ * ========================================================================== */
+package com.notessensei.cocomo;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Scanner;
+
+/**
+ * Plain ASCII files where we only count the non empty lines
+ * 
+ * @author stw
+ * 
+ */
+public class PlainFileScanner implements ArtefactScanner {
+
+	public Collection<String> getExtensions(ArtefactExtractor extractor) {
+		return Arrays.asList("properties");
+	}
+
+	public Collection<String> getFileNames(ArtefactExtractor extractor) {
+		return Collections.emptyList();
+	}
+
+	public boolean isStreaming() {
+		return true;
+	}
+
+	public boolean isThreadSafe() {
+		return true;
+	}
+
+	public void scan(ArtefactExtractor extractor, String fileName, String extension, InputStream in, ArtefactResult result)
+			throws IOException {
+		int addLoc = 0;
+		Scanner sc = new Scanner(in);
+		while (sc.hasNextLine()) {
+			if (!sc.nextLine().trim().equals("")) {
+				addLoc++;
+			}
+		}
+		result.add("LOC_other", addLoc);
+		result.add("LOC", addLoc);
+	}
+}
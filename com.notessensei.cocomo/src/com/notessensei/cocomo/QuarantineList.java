@@ -0,0 +1,103 @@
+/** ========================================================================= *
+ * Copyright (C) 2014,      IBM Corporation ( http://www.ibm.com/ )           *
+ *                            All rights reserved.                            *
+ * ========================================================================== *
+ *                                                                            *
+ * Licensed under the  Apache License, Version 2.0  (the "License").  You may *
+ * not use this file except in compliance with the License.  You may obtain a *
+ * copy of the License at <http://www.apache.org/licenses/LICENSE-2.0>.       *
+ *                                                                            *
+ * Unless  required  by applicable  law or  agreed  to  in writing,  software *
+ * distributed under the License is distributed on an  "AS IS" BASIS, WITHOUT *
+ * WARRANTIES OR  CONDITIONS OF ANY KIND, either express or implied.  See the *
+ * License for the  specific language  governing permissions  and limitations *
+ * under the License.                                                         *
+ *                                                                            *
+ * ========================================================================== */
+package com.notessensei.cocomo;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.HashSet;
+import java.util.Scanner;
+import java.util.Set;
+
+/**
+ * Files that blew their scan budget once. They are kept in a file, one per
+ * line with the reason after a tab, so later runs send them straight to the
+ * fallback scanner. Remove a line to give a file another chance
+ * 
+ * @author stw
+ * 
+ */
+public class QuarantineList {
+
+	private final File			listFile;
+	private final Set<String>	paths	= new HashSet<String>();
+
+	/**
+	 * Loads the list, a missing file is an empty list
+	 * 
+	 * @param listFile
+	 */
+	public QuarantineList(File listFile) {
+		this.listFile = listFile;
+		if (!listFile.isFile()) {
+			return;
+		}
+		try {
+			Scanner s = new Scanner(listFile, "UTF-8");
+			while (s.hasNextLine()) {
+				String line = s.nextLine();
+				int tab = line.indexOf('\t');
+				String path = (tab < 0) ? line.trim() : line.substring(0, tab).trim();
+				if (!path.equals("") && !path.startsWith("#")) {
+					this.paths.add(path);
+				}
+			}
+			s.close();
+		} catch (FileNotFoundException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Adds a file and writes it to the list right away, so it survives a crash
+	 * 
+	 * @param path
+	 * @param reason
+	 */
+	public synchronized void add(String path, String reason) {
+		if (!this.paths.add(path)) {
+			return;
+		}
+		System.err.println("Quarantined " + path + ": " + reason);
+		try {
+			PrintWriter pw = new PrintWriter(new OutputStreamWriter(new FileOutputStream(this.listFile, true), "UTF-8"));
+			pw.write(path + "\t" + reason + "\n");
+			pw.flush();
+			pw.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * @param path
+	 * @return true if the file goes to the fallback scanner
+	 */
+	public synchronized boolean contains(String path) {
+		return this.paths.contains(path);
+	}
+
+	/**
+	 * @return where the list is kept
+	 */
+	public File getListFile() {
+		return this.listFile;
+	}
+}
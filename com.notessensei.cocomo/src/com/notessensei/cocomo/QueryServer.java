@@ -0,0 +1,445 @@
+/** ========================================================================= *
+ * Copyright (C) 2014,      IBM Corporation ( http://www.ibm.com/ )           *
+ *                            All rights reserved.                            *
+ * ========================================================================== *
+ *                                                                            *
+ * Licensed under the  Apache License, Version 2.0  (the "License").  You may *
+ * not use this file except in compliance with the License.  You may obtain a *
+ * copy of the License at <http://www.apache.org/licenses/LICENSE-2.0>.       *
+ *                                                                            *
+ * Unless  required  by applicable  law or  agreed  to  in writing,  software *
+ * distributed under the License is distributed on an  "AS IS" BASIS, WITHOUT *
+ * WARRANTIES OR  CONDITIONS OF ANY KIND, either express or implied.  See the *
+ * License for the  specific language  governing permissions  and limitations *
+ * under the License.                                                         *
+ *                                                                            *
+ * ========================================================================== */
+package com.notessensei.cocomo;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves the counters of the latest run in a metrics store as JSON on a
+ * local HTTP port. The run is held in memory, per counter the applications
+ * that counted it, and replaced as soon as a newer run shows up in the store.
+ * Requests keep answering from the old run while the new one is read.
+ * 
+ * <pre>
+ * GET /run                        the run: time, applications, counters, report columns
+ * GET /applications               one object per application with the report columns
+ * GET /applications/Name          all counters of one application
+ * GET /aggregate                  sum, min, max and average of the columns
+ * </pre>
+ * 
+ * Parameters: <code>name</code> only applications starting with it,
+ * <code>columns</code> comma separated report columns or counters,
+ * <code>prefix</code> all counters starting with it, <code>sort</code> a
+ * column, <code>order</code> asc or desc, <code>min</code> and
+ * <code>max</code> limit the sort column, <code>limit</code> the number of
+ * applications
+ * 
+ * @author stw
+ * 
+ */
+public class QueryServer {
+
+	/**
+	 * How often (ms) we look for a new run at most
+	 */
+	private static final long				RELOAD_CHECK	= 1000;
+
+	private final ArtefactExtractor			extractor;
+	private final File						storeDir;
+	private final int						port;
+	private final int						threadCount;
+	private final ReentrantLock				reload			= new ReentrantLock();
+	// Only used while holding reload
+	private MetricsStore					store			= null;
+	private volatile MetricsStore.Snapshot	snapshot		= null;
+	private volatile long					lastCheck		= 0;
+	private HttpServer						server			= null;
+	private ExecutorService					executor		= null;
+
+	public QueryServer(ArtefactExtractor extractor, File storeDir, int port, int threadCount) {
+		this.extractor = extractor;
+		this.storeDir = storeDir;
+		this.port = port;
+		this.threadCount = threadCount;
+	}
+
+	/**
+	 * Starts the server, it runs until the JVM ends. Only this machine can
+	 * connect, we bind to the loopback address
+	 * 
+	 * @throws IOException
+	 */
+	public void serve() throws IOException {
+		this.current();
+		HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), this.port), 50);
+		this.server = server;
+		server.createContext("/", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				QueryServer.this.handle(exchange);
+			}
+		});
+		this.executor = Executors.newFixedThreadPool(Math.max(1, this.threadCount));
+		server.setExecutor(this.executor);
+		server.start();
+		System.out.println("Serving " + this.storeDir + " on http://" + server.getAddress().getHostString() + ":"
+				+ server.getAddress().getPort() + "/");
+	}
+
+	/**
+	 * @return the port we listen on, the real one when started on port 0
+	 */
+	int getLocalPort() {
+		return this.server.getAddress().getPort();
+	}
+
+	/**
+	 * Stops the server, requests that are running get one second to finish
+	 */
+	void stop() {
+		if (this.server != null) {
+			this.server.stop(1);
+			this.server = null;
+			this.executor.shutdown();
+		}
+	}
+
+	/**
+	 * The latest run, loaded again when the store has a newer one. One
+	 * request checks and loads, the others don't wait for it and get the run
+	 * we have
+	 */
+	private MetricsStore.Snapshot current() throws IOException {
+		MetricsStore.Snapshot run = this.snapshot;
+		long now = System.currentTimeMillis();
+		if (now - this.lastCheck < QueryServer.RELOAD_CHECK || !this.reload.tryLock()) {
+			return run;
+		}
+		try {
+			this.lastCheck = now;
+			if (this.store == null) {
+				this.store = new MetricsStore(this.storeDir);
+			}
+			String latest = this.store.getLatestRunName();
+			if (latest != null && (run == null || !latest.equals(run.getName()))) {
+				// New runs bring new names, the dictionaries are read again
+				this.store = new MetricsStore(this.storeDir);
+				run = this.store.readLatest();
+				this.snapshot = run;
+				System.out.println("Serving run " + latest + ": " + run.getApplications().length + " applications");
+			}
+			return run;
+		} finally {
+			this.reload.unlock();
+		}
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		int status = 200;
+		String body;
+		try {
+			MetricsStore.Snapshot run = this.current();
+			Map<String, String> params = QueryServer.parseQuery(exchange.getRequestURI().getRawQuery());
+			String path = exchange.getRequestURI().getPath();
+			if (!exchange.getRequestMethod().equals("GET")) {
+				status = 405;
+				body = QueryServer.error("Only GET");
+			} else if (run == null) {
+				status = 503;
+				body = QueryServer.error("No run in " + this.storeDir);
+			} else if (path.equals("/run")) {
+				body = this.getRun(run);
+			} else if (path.equals("/applications")) {
+				body = this.getApplications(run, params);
+			} else if (path.startsWith("/applications/")) {
+				int app = run.findApplication(path.substring("/applications/".length()));
+				if (app < 0) {
+					status = 404;
+					body = QueryServer.error("Unknown application");
+				} else {
+					body = this.getApplication(run, app, params);
+				}
+			} else if (path.equals("/aggregate")) {
+				body = this.getAggregate(run, params);
+			} else {
+				status = 404;
+				body = QueryServer.error("Use /run, /applications, /applications/Name or /aggregate");
+			}
+		} catch (NumberFormatException e) {
+			status = 400;
+			body = QueryServer.error("Not a number: " + e.getMessage());
+		} catch (Exception e) {
+			e.printStackTrace();
+			status = 500;
+			body = QueryServer.error(e.toString());
+		}
+		byte[] bytes = body.getBytes("UTF-8");
+		exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+		exchange.sendResponseHeaders(status, bytes.length);
+		OutputStream out = exchange.getResponseBody();
+		out.write(bytes);
+		out.close();
+	}
+
+	private String getRun(MetricsStore.Snapshot run) {
+		StringBuilder b = new StringBuilder("{\"run\":");
+		QueryServer.appendString(b, run.getName());
+		b.append(",\"time\":");
+		QueryServer.appendString(b, new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date(run.getTime())));
+		b.append(",\"applications\":").append(run.getApplications().length);
+		b.append(",\"counters\":").append(run.getKeys().length);
+		b.append(",\"columns\":[");
+		boolean first = true;
+		for (String column : this.extractor.getReportColumns()) {
+			if (!first) {
+				b.append(",");
+			}
+			first = false;
+			QueryServer.appendString(b, column);
+		}
+		b.append("]}");
+		return b.toString();
+	}
+
+	private String getApplications(MetricsStore.Snapshot run, Map<String, String> params) {
+		Map<String, int[]> fields = this.getFields(run, params);
+		List<Integer> apps = this.select(run, params);
+		StringBuilder b = new StringBuilder("[");
+		for (int i = 0; i < apps.size(); i++) {
+			int app = apps.get(i).intValue();
+			if (i > 0) {
+				b.append(",");
+			}
+			b.append("\n{\"application\":");
+			QueryServer.appendString(b, run.getApplications()[app]);
+			for (Map.Entry<String, int[]> me : fields.entrySet()) {
+				b.append(",");
+				QueryServer.appendString(b, me.getKey());
+				b.append(":").append(QueryServer.sum(run, me.getValue(), app));
+			}
+			b.append("}");
+		}
+		b.append("]");
+		return b.toString();
+	}
+
+	/**
+	 * The counters of one application that aren't 0
+	 */
+	private String getApplication(MetricsStore.Snapshot run, int app, Map<String, String> params) {
+		String prefix = params.containsKey("prefix") ? params.get("prefix") : "";
+		StringBuilder b = new StringBuilder("{\"application\":");
+		QueryServer.appendString(b, run.getApplications()[app]);
+		b.append(",\"counters\":{");
+		boolean first = true;
+		String[] keys = run.getKeys();
+		for (int k = 0; k < keys.length; k++) {
+			int value = run.getValue(k, app);
+			if (value != 0 && keys[k].startsWith(prefix)) {
+				if (!first) {
+					b.append(",");
+				}
+				first = false;
+				QueryServer.appendString(b, keys[k]);
+				b.append(":").append(value);
+			}
+		}
+		b.append("}}");
+		return b.toString();
+	}
+
+	private String getAggregate(MetricsStore.Snapshot run, Map<String, String> params) {
+		Map<String, int[]> fields = this.getFields(run, params);
+		List<Integer> apps = this.select(run, params);
+		StringBuilder b = new StringBuilder("{\"applications\":");
+		b.append(apps.size());
+		b.append(",\"columns\":{");
+		boolean first = true;
+		for (Map.Entry<String, int[]> me : fields.entrySet()) {
+			long total = 0;
+			long min = Long.MAX_VALUE;
+			long max = Long.MIN_VALUE;
+			for (Integer app : apps) {
+				long value = QueryServer.sum(run, me.getValue(), app.intValue());
+				total += value;
+				min = Math.min(min, value);
+				max = Math.max(max, value);
+			}
+			if (!first) {
+				b.append(",");
+			}
+			first = false;
+			b.append("\n");
+			QueryServer.appendString(b, me.getKey());
+			b.append(":{\"sum\":").append(total);
+			if (!apps.isEmpty()) {
+				b.append(",\"min\":").append(min);
+				b.append(",\"max\":").append(max);
+				b.append(",\"avg\":").append(Math.round(total * 100.0 / apps.size()) / 100.0);
+			}
+			b.append("}");
+		}
+		b.append("}}");
+		return b.toString();
+	}
+
+	/**
+	 * The columns of the answer and the counters behind them: the report
+	 * columns and Total, or the ones asked for
+	 */
+	private Map<String, int[]> getFields(MetricsStore.Snapshot run, Map<String, String> params) {
+		List<String> names = new ArrayList<String>();
+		if (params.containsKey("columns")) {
+			for (String name : params.get("columns").split(",")) {
+				names.add(name.trim());
+			}
+		}
+		if (params.containsKey("prefix")) {
+			for (String key : run.getKeys()) {
+				if (key.startsWith(params.get("prefix"))) {
+					names.add(key);
+				}
+			}
+		}
+		if (names.isEmpty()) {
+			names.addAll(this.extractor.getReportColumns());
+			names.add("Total");
+		}
+		Map<String, int[]> fields = new LinkedHashMap<String, int[]>();
+		for (String name : names) {
+			fields.put(name, this.resolve(run, name));
+		}
+		return fields;
+	}
+
+	/**
+	 * Positions of the counters behind a column, unknown counters are left
+	 * out
+	 */
+	private int[] resolve(MetricsStore.Snapshot run, String name) {
+		List<Integer> keys = new ArrayList<Integer>();
+		for (String counter : this.extractor.getCounters(name)) {
+			int key = run.findKey(counter);
+			if (key >= 0) {
+				keys.add(Integer.valueOf(key));
+			}
+		}
+		int[] result = new int[keys.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = keys.get(i).intValue();
+		}
+		return result;
+	}
+
+	/**
+	 * The applications by name prefix and range of the sort column, sorted
+	 * and limited
+	 */
+	private List<Integer> select(final MetricsStore.Snapshot run, Map<String, String> params) {
+		String prefix = params.containsKey("name") ? params.get("name") : "";
+		final int[] sortKeys = params.containsKey("sort") ? this.resolve(run, params.get("sort")) : null;
+		long min = params.containsKey("min") ? Long.parseLong(params.get("min")) : Long.MIN_VALUE;
+		long max = params.containsKey("max") ? Long.parseLong(params.get("max")) : Long.MAX_VALUE;
+		final Map<Integer, Long> sortValues = new HashMap<Integer, Long>();
+		List<Integer> result = new ArrayList<Integer>();
+		String[] apps = run.getApplications();
+		for (int app = 0; app < apps.length; app++) {
+			if (!apps[app].startsWith(prefix)) {
+				continue;
+			}
+			if (sortKeys != null) {
+				long value = QueryServer.sum(run, sortKeys, app);
+				if (value < min || value > max) {
+					continue;
+				}
+				sortValues.put(Integer.valueOf(app), Long.valueOf(value));
+			}
+			result.add(Integer.valueOf(app));
+		}
+		if (sortKeys != null) {
+			final int direction = "asc".equals(params.get("order")) ? 1 : -1;
+			// Stable, equal values stay sorted by name
+			Collections.sort(result, new Comparator<Integer>() {
+				public int compare(Integer a, Integer b) {
+					return direction * sortValues.get(a).compareTo(sortValues.get(b));
+				}
+			});
+		}
+		if (params.containsKey("limit")) {
+			int limit = Integer.parseInt(params.get("limit"));
+			if (limit < result.size()) {
+				result = result.subList(0, limit);
+			}
+		}
+		return result;
+	}
+
+	private static long sum(MetricsStore.Snapshot run, int[] keys, int app) {
+		long result = 0;
+		for (int key : keys) {
+			result += run.getValue(key, app);
+		}
+		return result;
+	}
+
+	private static Map<String, String> parseQuery(String rawQuery) throws UnsupportedEncodingException {
+		Map<String, String> params = new HashMap<String, String>();
+		if (rawQuery == null) {
+			return params;
+		}
+		for (String pair : rawQuery.split("&")) {
+			int eq = pair.indexOf("=");
+			if (eq > 0) {
+				params.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"), URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+			}
+		}
+		return params;
+	}
+
+	private static String error(String message) {
+		StringBuilder b = new StringBuilder("{\"error\":");
+		QueryServer.appendString(b, message);
+		b.append("}");
+		return b.toString();
+	}
+
+	private static void appendString(StringBuilder b, String s) {
+		b.append('"');
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c == '"' || c == '\\') {
+				b.append('\\').append(c);
+			} else if (c < 0x20) {
+				b.append(String.format("\\u%04x", Integer.valueOf(c)));
+			} else {
+				b.append(c);
+			}
+		}
+		b.append('"');
+	}
+}
@@ -0,0 +1,425 @@
+/** ========================================================================= *
+ * Copyright (C) 2014,      IBM Corporation ( http://www.ibm.com/ )           *
+ *                            All rights reserved.                            *
+ * ========================================================================== *
+ *                                                                            *
+ * Licensed under the  Apache License, Version 2.0  (the "License").  You may *
+ * not use this file except in compliance with the License.  You may obtain a *
+ * copy of the License at <http://www.apache.org/licenses/LICENSE-2.0>.       *
+ *                                                                            *
+ * Unless  required  by applicable  law or  agreed  to  in writing,  software *
+ * distributed under the License is distributed on an  "AS IS" BASIS, WITHOUT *
+ * WARRANTIES OR  CONDITIONS OF ANY KIND, either express or implied.  See the *
+ * License for the  specific language  governing permissions  and limitations *
+ * under the License.                                                         *
+ *                                                                            *
+ * ========================================================================== */
+package com.notessensei.cocomo;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Scanner;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Everything the configuration files tell us, loaded once and compiled into
+ * lookup structures. A RuleSet never changes after construction, so all
+ * threads can share it. To pick up edited files load a new one and swap it.
+ * 
+ * Every file is taken from the configuration directory when it is there,
+ * otherwise the one from the JAR is used. The report definition keeps its
+ * old name and is written out with the defaults when missing
+ * 
+ * @author stw
+ * 
+ */
+public final class RuleSet {
+
+	/**
+	 * The tag contains code that is counted as lines of code
+	 */
+	public static final int					TAG_LOC					= 1;
+
+	/**
+	 * The code in the tag is read by a CodeLexer
+	 */
+	public static final int					TAG_LEXED				= 2;
+
+	/**
+	 * The tag contains formula language
+	 */
+	public static final int					TAG_FORMULA				= 4;
+
+	public static final String				REPORT_PROPERTIES		= ArtefactExtractor.class.getName() + ".properties";
+	public static final String				LOCTAGS_PROPERTIES		= "LocTags.properties";
+	public static final String				SOURCETYPE_PROPERTIES	= "SourceType.properties";
+	public static final String				XMLEXTENSION_PROPERTIES	= "xmlExtensions.properties";
+	public static final String				COUNTING_PROPERTIES		= "countingRules.properties";
+	public static final String				COCOMO_PROPERTIES		= "cocomo.properties";
+
+	private static final CountingRule[]		NO_RULES				= new CountingRule[0];
+
+	private final File							configDir;
+	private final Map<String, Set<String>>		reportMappings;
+	private final Collection<String>			tagsForLOC;
+	private final Map<String, Integer>			tagFlags;
+	private final Set<String>					xmlExtensions;
+	private final KeywordAutomaton				keywords;
+	private final String[]						keywordTypes;
+	private final Map<String, CountingRule[]>	countingRules;
+	private final CountingRule[]				anyElementRules;
+	private final CountingRule[]				perFileRules;
+	private final int							countingRuleCount;
+	private final Properties					cocomoModel;
+
+	/**
+	 * Loads and compiles all configuration files
+	 * 
+	 * @param configDir
+	 *            - the directory with the overrides
+	 * @return the new rule set
+	 */
+	public static RuleSet load(File configDir) {
+		return new RuleSet(configDir);
+	}
+
+	private RuleSet(File configDir) {
+		this.configDir = configDir;
+		this.reportMappings = Collections.unmodifiableMap(this.populateReportMappings());
+
+		Collection<String> locTags = this.populateWordList(RuleSet.LOCTAGS_PROPERTIES);
+		this.tagsForLOC = Collections.unmodifiableCollection(locTags);
+		this.tagFlags = new HashMap<String, Integer>();
+		for (String tag : locTags) {
+			int flags = RuleSet.TAG_LOC;
+			if (CodeLexer.forLanguage(tag) != null) {
+				flags |= RuleSet.TAG_LEXED;
+			} else if (tag.equals("formula")) {
+				flags |= RuleSet.TAG_FORMULA;
+			}
+			this.tagFlags.put(tag, Integer.valueOf(flags));
+		}
+
+		Set<String> extensions = new HashSet<String>();
+		for (String ext : this.populateWordList(RuleSet.XMLEXTENSION_PROPERTIES)) {
+			extensions.add(ext.toLowerCase());
+		}
+		this.xmlExtensions = Collections.unmodifiableSet(extensions);
+
+		Map<String, String> sourceTypes = this.populateSourceTypes();
+		List<String> words = new ArrayList<String>(sourceTypes.keySet());
+		this.keywords = new KeywordAutomaton(words);
+		this.keywordTypes = new String[words.size()];
+		for (int i = 0; i < words.size(); i++) {
+			this.keywordTypes[i] = sourceTypes.get(words.get(i));
+		}
+
+		// Rules are found by their element name, so the number of rules
+		// hardly matters for the scan
+		Map<String, List<CountingRule>> byElement = new HashMap<String, List<CountingRule>>();
+		List<CountingRule> anyElement = new ArrayList<CountingRule>();
+		List<CountingRule> perFile = new ArrayList<CountingRule>();
+		int ruleId = 0;
+		for (Map.Entry<String, String> me : this.populateCountingRules().entrySet()) {
+			CountingRule rule;
+			try {
+				rule = new CountingRule(ruleId, me.getKey(), me.getValue());
+			} catch (IllegalArgumentException e) {
+				System.err.println("Ignoring counting rule " + me.getKey() + ": " + e.getMessage());
+				continue;
+			}
+			ruleId++;
+			if (rule.isPerFile()) {
+				perFile.add(rule);
+			}
+			if (rule.getElementName().equals("*")) {
+				anyElement.add(rule);
+			} else {
+				List<CountingRule> rules = byElement.get(rule.getElementName());
+				if (rules == null) {
+					rules = new ArrayList<CountingRule>();
+					byElement.put(rule.getElementName(), rules);
+				}
+				rules.add(rule);
+			}
+		}
+		this.countingRuleCount = ruleId;
+		this.anyElementRules = anyElement.toArray(new CountingRule[anyElement.size()]);
+		this.perFileRules = perFile.toArray(new CountingRule[perFile.size()]);
+		this.countingRules = new HashMap<String, CountingRule[]>();
+		for (Map.Entry<String, List<CountingRule>> me : byElement.entrySet()) {
+			this.countingRules.put(me.getKey(), me.getValue().toArray(new CountingRule[me.getValue().size()]));
+		}
+
+		this.cocomoModel = this.populateCocomoModel();
+	}
+
+	/**
+	 * @return the counting rules that apply to all elements
+	 */
+	public CountingRule[] getAnyElementRules() {
+		return this.anyElementRules;
+	}
+
+	/**
+	 * @return the number of counting rules, their ids are below
+	 */
+	public int getCountingRuleCount() {
+		return this.countingRuleCount;
+	}
+
+	/**
+	 * @return the counting rules that count files, they are in the other
+	 *         lists too
+	 */
+	public CountingRule[] getPerFileRules() {
+		return this.perFileRules;
+	}
+
+	/**
+	 * The counting rules for one element name, without the ones for all
+	 * elements
+	 * 
+	 * @param element
+	 * @return the rules, never null
+	 */
+	public CountingRule[] getCountingRules(String element) {
+		CountingRule[] rules = this.countingRules.get(element);
+		return (rules == null) ? RuleSet.NO_RULES : rules;
+	}
+
+	/**
+	 * Counts the source types of all keywords in a line of code, every
+	 * keyword once per line
+	 * 
+	 * @param line
+	 * @param result
+	 */
+	public void countKeywords(String line, ArtefactResult result) {
+		// Same as trim(), without the copy
+		int start = 0;
+		int end = line.length();
+		while (start < end && line.charAt(start) <= ' ') {
+			start++;
+		}
+		while (end > start && line.charAt(end - 1) <= ' ') {
+			end--;
+		}
+		boolean[] matched = new boolean[this.keywordTypes.length];
+		if (this.keywords.match(line, start, end, matched) > 0) {
+			for (int i = 0; i < matched.length; i++) {
+				if (matched[i]) {
+					result.add(this.keywordTypes[i]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the directory the overrides come from
+	 */
+	public File getConfigDir() {
+		return this.configDir;
+	}
+
+	/**
+	 * @return calibration, drivers and ratings of the COCOMO II estimate
+	 */
+	public Properties getCocomoModel() {
+		return this.cocomoModel;
+	}
+
+	/**
+	 * @return report columns and the raw tags that make up the columns
+	 */
+	public Map<String, Set<String>> getReportMappings() {
+		return this.reportMappings;
+	}
+
+	/**
+	 * The flags of an element name
+	 * 
+	 * @param tag
+	 * @return TAG_LOC, TAG_LEXED, TAG_FORMULA combined, 0 for ordinary tags
+	 */
+	public int getTagFlags(String tag) {
+		Integer flags = this.tagFlags.get(tag);
+		return (flags == null) ? 0 : flags.intValue();
+	}
+
+	/**
+	 * @return the tags from LocTags.properties
+	 */
+	public Collection<String> getTagsForLOC() {
+		return this.tagsForLOC;
+	}
+
+	/**
+	 * @return the lower case extensions from xmlExtensions.properties
+	 */
+	public Set<String> getXmlExtensions() {
+		return this.xmlExtensions;
+	}
+
+	/**
+	 * @return true if files with that extension are parsed as XML
+	 */
+	public boolean isXmlExtension(String extension) {
+		return this.xmlExtensions.contains(extension);
+	}
+
+	/**
+	 * The override from the configuration directory or the JAR resource
+	 */
+	private InputStream openConfig(String fileName) {
+		File override = new File(this.configDir, fileName);
+		if (override.isFile()) {
+			try {
+				return new FileInputStream(override);
+			} catch (FileNotFoundException e) {
+				e.printStackTrace();
+			}
+		}
+		return RuleSet.class.getResourceAsStream(fileName);
+	}
+
+	/**
+	 * All columns we want to have in the final report, and the raw tags that
+	 * make up the columns, Loads values from a properties file, if it can't
+	 * find it a JAR internal one is used but written out
+	 * 
+	 * @return
+	 */
+	private Map<String, Set<String>> populateReportMappings() {
+		Map<String, Set<String>> result = new TreeMap<String, Set<String>>();
+		Properties workingProperties = new Properties();
+
+		File propFile = new File(this.configDir, RuleSet.REPORT_PROPERTIES);
+		boolean success = false;
+		if (propFile.exists()) {
+			// Loading properties from File
+			try {
+				InputStream in = new FileInputStream(propFile);
+				workingProperties.load(in);
+				in.close();
+				success = true;
+			} catch (FileNotFoundException e) {
+				e.printStackTrace();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+
+		if (!success) {
+			System.out.println("Using defaults for Report definition:" + propFile.getAbsolutePath());
+			InputStream in = RuleSet.class.getResourceAsStream("defaultReport.properties");
+			try {
+				workingProperties.load(in);
+				in.close();
+				FileOutputStream out = new FileOutputStream(propFile);
+				workingProperties.store(out, "***** Default values ******");
+				out.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+
+		for (Map.Entry<Object, Object> entry : workingProperties.entrySet()) {
+			String key = entry.getKey().toString();
+			String[] rawValues = entry.getValue().toString().split(",");
+			TreeSet<String> values = new TreeSet<String>();
+			for (String v : rawValues) {
+				if (!v.trim().equals("")) {
+					values.add(v.trim());
+				}
+			}
+			result.put(key, Collections.unmodifiableSet(values));
+		}
+
+		return result;
+	}
+
+	private Map<String, String> populateCountingRules() {
+		Map<String, String> result = new TreeMap<String, String>();
+		InputStream in = this.openConfig(RuleSet.COUNTING_PROPERTIES);
+		if (in == null) {
+			return result;
+		}
+		Properties workingProperties = new Properties();
+		try {
+			workingProperties.load(in);
+			in.close();
+			for (Map.Entry<Object, Object> me : workingProperties.entrySet()) {
+				result.put(me.getKey().toString(), me.getValue().toString());
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return result;
+	}
+
+	private Properties populateCocomoModel() {
+		Properties result = new Properties();
+		InputStream in = this.openConfig(RuleSet.COCOMO_PROPERTIES);
+		if (in == null) {
+			return result;
+		}
+		try {
+			result.load(in);
+			in.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return result;
+	}
+
+	private Map<String, String> populateSourceTypes() {
+		Map<String, String> result = new TreeMap<String, String>();
+		InputStream in = this.openConfig(RuleSet.SOURCETYPE_PROPERTIES);
+		Properties workingProperties = new Properties();
+		try {
+			workingProperties.load(in);
+			in.close();
+			for (Map.Entry<Object, Object> me : workingProperties.entrySet()) {
+				result.put(me.getKey().toString(), me.getValue().toString());
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+
+		return result;
+	}
+
+	/**
+	 * One word per line, # starts a comment
+	 * 
+	 * @return the words
+	 */
+	private Collection<String> populateWordList(String fileName) {
+		Collection<String> result = new TreeSet<String>();
+		InputStream in = this.openConfig(fileName);
+		Scanner s = new Scanner(in);
+		while (s.hasNextLine()) {
+			String w = s.nextLine().trim();
+			if (!w.startsWith("#") && !w.equals("")) {
+				result.add(w);
+			}
+		}
+		s.close();
+		return result;
+	}
+}
@@ -0,0 +1,309 @@
+/** ========================================================================= *
+ * Copyright (C) 2014,      IBM Corporation ( http://www.ibm.com/ )           *
+ *                            All rights reserved.                            *
+ * ========================================================================== *
+ *                                                                            *
+ * Licensed under the  Apache License, Version 2.0  (the "License").  You may *
+ * not use this file except in compliance with the License.  You may obtain a *
+ * copy of the License at <http://www.apache.org/licenses/LICENSE-2.0>.       *
+ *                                                                            *
+ * Unless  required  by applicable  law or  agreed  to  in writing,  software *
+ * distributed under the License is distributed on an  "AS IS" BASIS, WITHOUT *
+ * WARRANTIES OR  CONDITIONS OF ANY KIND, either express or implied.  See the *
+ * License for the  specific language  governing permissions  and limitations *
+ * under the License.                                                         *
+ *                                                                            *
+ * ========================================================================== */
+package com.notessensei.cocomo;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compares two runs, e.g. last night's and tonight's, application by
+ * application. Both runs are read as sorted streams and merged like in a
+ * merge sort, only the current application of each run is in memory, no
+ * matter how big the runs are.
+ * 
+ * A run is either a report (the CSV) or a directory with the metrics files
+ * of the applications. For reports the delta has one row per application
+ * with the change of every column. Metrics have any number of counters,
+ * there the delta has one row per counter that changed
+ * 
+ * @author stw
+ * 
+ */
+public class RunDiff {
+
+	public static final String	NEW			= "new";
+	public static final String	REMOVED		= "removed";
+	public static final String	CHANGED		= "changed";
+	public static final String	UNCHANGED	= "unchanged";
+
+	private static final String	METRICS		= "app.metrics";
+
+	/**
+	 * One counter of a metrics file
+	 */
+	private static class Counter {
+		private final String	key;
+		private final long		value;
+
+		private Counter(String line) {
+			int eq = line.lastIndexOf('=');
+			this.key = line.substring(0, eq);
+			this.value = Long.parseLong(line.substring(eq + 1).trim());
+		}
+	}
+
+	private final File			oldRun;
+	private final File			newRun;
+	private final LineSorter	sorter	= new LineSorter(LineSorter.CHUNK_LINES);
+
+	/**
+	 * @param oldRun
+	 *            - report or metrics directory of the earlier run
+	 * @param newRun
+	 *            - the same of the later run
+	 */
+	public RunDiff(File oldRun, File newRun) {
+		this.oldRun = oldRun;
+		this.newRun = newRun;
+	}
+
+	/**
+	 * Writes the delta report
+	 * 
+	 * @param deltaFileName
+	 * @throws IOException
+	 *             also when one run is a report and the other a directory
+	 */
+	public void writeDelta(String deltaFileName) throws IOException {
+		if (this.oldRun.isDirectory() != this.newRun.isDirectory()) {
+			throw new IOException("Compare two reports or two metrics directories, not one of each");
+		}
+		PrintWriter pw = new PrintWriter(new FileOutputStream(deltaFileName));
+		try {
+			if (this.oldRun.isDirectory()) {
+				this.diffMetrics(pw);
+			} else {
+				this.diffReports(pw);
+			}
+		} finally {
+			pw.flush();
+			pw.close();
+		}
+	}
+
+	/**
+	 * Column by column, columns are matched by name. A column only one run
+	 * has counts as 0 in the other
+	 */
+	private void diffReports(PrintWriter pw) throws IOException {
+		List<String> oldHeader = RunDiff.readHeader(this.oldRun);
+		List<String> newHeader = RunDiff.readHeader(this.newRun);
+		List<String> columns = new ArrayList<String>(newHeader);
+		for (String c : oldHeader) {
+			if (!columns.contains(c)) {
+				columns.add(c);
+			}
+		}
+		int[] oldIndex = new int[columns.size()];
+		int[] newIndex = new int[columns.size()];
+		pw.append("Application,Status");
+		for (int i = 0; i < columns.size(); i++) {
+			oldIndex[i] = oldHeader.indexOf(columns.get(i));
+			newIndex[i] = newHeader.indexOf(columns.get(i));
+			pw.append(",");
+			pw.append(columns.get(i));
+		}
+		pw.append("\n");
+
+		BufferedReader oldRows = this.sorter.openSorted(this.oldRun);
+		BufferedReader newRows = this.sorter.openSorted(this.newRun);
+		try {
+			String oldRow = oldRows.readLine();
+			String newRow = newRows.readLine();
+			while (oldRow != null || newRow != null) {
+				int order;
+				if (oldRow == null) {
+					order = 1;
+				} else if (newRow == null) {
+					order = -1;
+				} else {
+					order = LineSorter.firstField(oldRow).compareTo(LineSorter.firstField(newRow));
+				}
+				long[] oldValues = (order <= 0) ? RunDiff.values(oldRow, oldIndex) : new long[columns.size()];
+				long[] newValues = (order >= 0) ? RunDiff.values(newRow, newIndex) : new long[columns.size()];
+				String status;
+				if (order < 0) {
+					status = RunDiff.REMOVED;
+				} else if (order > 0) {
+					status = RunDiff.NEW;
+				} else {
+					status = Arrays.equals(oldValues, newValues) ? RunDiff.UNCHANGED : RunDiff.CHANGED;
+				}
+				pw.append(LineSorter.firstField((order <= 0) ? oldRow : newRow));
+				pw.append(",");
+				pw.append(status);
+				for (int i = 0; i < columns.size(); i++) {
+					pw.append(",");
+					pw.append(String.valueOf(newValues[i] - oldValues[i]));
+				}
+				pw.append("\n");
+				if (order <= 0) {
+					oldRow = oldRows.readLine();
+				}
+				if (order >= 0) {
+					newRow = newRows.readLine();
+				}
+			}
+		} finally {
+			oldRows.close();
+			newRows.close();
+		}
+	}
+
+	/**
+	 * Counter by counter, the metrics files are sorted by counter already
+	 */
+	private void diffMetrics(PrintWriter pw) throws IOException {
+		pw.append("Application,Status,Counter,Old,New,Delta\n");
+		String[] oldApps = RunDiff.listMetrics(this.oldRun);
+		String[] newApps = RunDiff.listMetrics(this.newRun);
+		int o = 0;
+		int n = 0;
+		while (o < oldApps.length || n < newApps.length) {
+			int order;
+			if (o == oldApps.length) {
+				order = 1;
+			} else if (n == newApps.length) {
+				order = -1;
+			} else {
+				order = oldApps[o].compareTo(newApps[n]);
+			}
+			String appFile = (order <= 0) ? oldApps[o] : newApps[n];
+			String appName = appFile.substring(0, appFile.length() - RunDiff.METRICS.length());
+			String status = (order < 0) ? RunDiff.REMOVED : (order > 0) ? RunDiff.NEW : RunDiff.CHANGED;
+			BufferedReader oldCounters = (order <= 0) ? LineSorter.open(new File(this.oldRun, appFile)) : null;
+			BufferedReader newCounters = (order >= 0) ? LineSorter.open(new File(this.newRun, appFile)) : null;
+			try {
+				this.diffCounters(pw, appName, status, oldCounters, newCounters);
+			} finally {
+				if (oldCounters != null) {
+					oldCounters.close();
+				}
+				if (newCounters != null) {
+					newCounters.close();
+				}
+			}
+			if (order <= 0) {
+				o++;
+			}
+			if (order >= 0) {
+				n++;
+			}
+		}
+	}
+
+	private void diffCounters(PrintWriter pw, String appName, String status, BufferedReader oldCounters,
+			BufferedReader newCounters) throws IOException {
+		Counter oldCounter = RunDiff.nextCounter(oldCounters);
+		Counter newCounter = RunDiff.nextCounter(newCounters);
+		while (oldCounter != null || newCounter != null) {
+			int order;
+			if (oldCounter == null) {
+				order = 1;
+			} else if (newCounter == null) {
+				order = -1;
+			} else {
+				order = oldCounter.key.compareTo(newCounter.key);
+			}
+			long oldValue = (order <= 0) ? oldCounter.value : 0;
+			long newValue = (order >= 0) ? newCounter.value : 0;
+			if (oldValue != newValue) {
+				pw.append(appName + "," + status + "," + ((order <= 0) ? oldCounter.key : newCounter.key) + "," + oldValue + ","
+						+ newValue + "," + (newValue - oldValue) + "\n");
+			}
+			if (order <= 0) {
+				oldCounter = RunDiff.nextCounter(oldCounters);
+			}
+			if (order >= 0) {
+				newCounter = RunDiff.nextCounter(newCounters);
+			}
+		}
+	}
+
+	/**
+	 * The next key=value line, null at the end. An empty application has
+	 * {EMPTY} instead
+	 */
+	private static Counter nextCounter(BufferedReader in) throws IOException {
+		if (in == null) {
+			return null;
+		}
+		String line;
+		while ((line = in.readLine()) != null) {
+			if (line.indexOf('=') > 0) {
+				return new Counter(line);
+			}
+		}
+		return null;
+	}
+
+	private static String[] listMetrics(File dir) throws IOException {
+		String[] result = dir.list(new FilenameFilter() {
+			public boolean accept(File d, String name) {
+				return name.endsWith(RunDiff.METRICS);
+			}
+		});
+		if (result == null) {
+			throw new IOException("Can't list " + dir);
+		}
+		Arrays.sort(result);
+		return result;
+	}
+
+	/**
+	 * The column names without Application
+	 */
+	private static List<String> readHeader(File report) throws IOException {
+		BufferedReader in = LineSorter.open(report);
+		try {
+			String header = in.readLine();
+			if (header == null || !header.startsWith("Application,")) {
+				throw new IOException(report + " is no report");
+			}
+			return Arrays.asList(header.substring(header.indexOf(',') + 1).split(","));
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * The values of a row in the order of the columns, an application
+	 * without any findings has {EMPTY} instead of numbers
+	 */
+	private static long[] values(String row, int[] index) {
+		long[] result = new long[index.length];
+		String[] fields = row.split(",");
+		for (int i = 0; i < index.length; i++) {
+			int field = index[i] + 1;
+			if (index[i] >= 0 && field < fields.length) {
+				try {
+					result[i] = Long.parseLong(fields[field].trim());
+				} catch (NumberFormatException e) {
+					result[i] = 0;
+				}
+			}
+		}
+		return result;
+	}
+}
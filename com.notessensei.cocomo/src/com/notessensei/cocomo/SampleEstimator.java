@@ -0,0 +1,337 @@
+/** ========================================================================= *
+ * Copyright (C) 2014,      IBM Corporation ( http://www.ibm.com/ )           *
+ *                            All rights reserved.                            *
+ * ========================================================================== *
+ *                                                                            *
+ * Licensed under the  Apache License, Version 2.0  (the "License").  You may *
+ * not use this file except in compliance with the License.  You may obtain a *
+ * copy of the License at <http://www.apache.org/licenses/LICENSE-2.0>.       *
+ *                                                                            *
+ * Unless  required  by applicable  law or  agreed  to  in writing,  software *
+ * distributed under the License is distributed on an  "AS IS" BASIS, WITHOUT *
+ * WARRANTIES OR  CONDITIONS OF ANY KIND, either express or implied.  See the *
+ * License for the  specific language  governing permissions  and limitations *
+ * under the License.                                                         *
+ *                                                                            *
+ * ========================================================================== */
+package com.notessensei.cocomo;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Estimates the report of an estate from a sample of its files, for a first
+ * number in minutes instead of hours. Every application is walked
+ * completely, but only a random part of the files of each extension
+ * (stratum) is scanned. The total of a column is extrapolated per stratum
+ * (files times the mean of the sample) and the strata are added up. The
+ * error margin is the 95% confidence interval of the stratified estimate,
+ * with the finite population correction, so a stratum scanned completely
+ * adds no error. Samples of a few files have a wide t distribution, the
+ * interval uses its quantile for the Welch-Satterthwaite degrees of freedom
+ * of the sum.
+ * 
+ * @author stw
+ * 
+ */
+public class SampleEstimator {
+
+	/**
+	 * Fewer files per stratum give no variance
+	 */
+	private static final int		MIN_PER_STRATUM	= 2;
+	/**
+	 * Degrees of freedom of the t table
+	 */
+	private static final double[]	T_DF			= { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17, 18, 19, 20, 21, 22,
+			23, 24, 25, 26, 27, 28, 29, 30, 40, 60, 120 };
+	/**
+	 * 97.5% quantiles of the t distribution for T_DF, in between we
+	 * interpolate on 1/df
+	 */
+	private static final double[]	T_95			= { 12.706, 4.303, 3.182, 2.776, 2.571, 2.447, 2.365, 2.306, 2.262, 2.228, 2.201,
+			2.179, 2.160, 2.145, 2.131, 2.120, 2.110, 2.101, 2.093, 2.086, 2.080, 2.074, 2.069, 2.064, 2.060, 2.056, 2.052, 2.048,
+			2.045, 2.042, 2.021, 2.000, 1.980 };
+	/**
+	 * Normal quantile for a 95% confidence interval, the t quantile for
+	 * infinite degrees of freedom
+	 */
+	private static final double		Z_95			= 1.96;
+
+	/**
+	 * A file found by the walk
+	 */
+	private static class Candidate {
+		private final String						path;
+		private final String						fname;
+		private final ArtefactExtractor.EntrySource	source;
+
+		private Candidate(String path, String fname, ArtefactExtractor.EntrySource source) {
+			this.path = path;
+			this.fname = fname;
+			this.source = source;
+		}
+	}
+
+	/**
+	 * Estimates and variances of the columns
+	 */
+	private static class Estimate {
+		private final double[]	totals;
+		private final double[]	variances;
+		// Sum of variance^2 / degrees of freedom of the strata, the
+		// denominator of Welch-Satterthwaite
+		private final double[]	dfTerms;
+		private int				files	= 0;
+		private int				sampled	= 0;
+
+		private Estimate(int columns) {
+			this.totals = new double[columns];
+			this.variances = new double[columns];
+			this.dfTerms = new double[columns];
+		}
+
+		private void add(Estimate other) {
+			for (int c = 0; c < this.totals.length; c++) {
+				this.totals[c] += other.totals[c];
+				this.variances[c] += other.variances[c];
+				this.dfTerms[c] += other.dfTerms[c];
+			}
+			this.files += other.files;
+			this.sampled += other.sampled;
+		}
+	}
+
+	private final ArtefactExtractor			extractor;
+	private final double					rate;
+	private final Random					random;
+	private final int						threadCount;
+	private final List<String>				columns		= new ArrayList<String>();
+	private final List<Collection<String>>	counters	= new ArrayList<Collection<String>>();
+
+	/**
+	 * @param extractor
+	 * @param rate
+	 *            - part of the files to scan, 0.1 scans every tenth file
+	 * @param seed
+	 *            - the same seed picks the same files
+	 * @param threadCount
+	 *            - files scanned at the same time
+	 */
+	public SampleEstimator(ArtefactExtractor extractor, double rate, long seed, int threadCount) {
+		if (rate <= 0 || rate > 1) {
+			throw new IllegalArgumentException("The sample rate is between 0 and 1, not " + rate);
+		}
+		this.extractor = extractor;
+		this.rate = rate;
+		this.random = new Random(seed);
+		this.threadCount = Math.max(1, threadCount);
+		this.columns.addAll(extractor.getReportColumns());
+		this.columns.add("Total");
+		for (String column : this.columns) {
+			this.counters.add(extractor.getCounters(column));
+		}
+	}
+
+	/**
+	 * Samples all applications and writes the estimate: per application and
+	 * for all of them the files, the sampled files and every column with its
+	 * error margin
+	 * 
+	 * @param reportFileName
+	 * @throws IOException
+	 */
+	public void writeEstimate(String reportFileName) throws IOException {
+		ExecutorService scanners = Executors.newFixedThreadPool(this.threadCount);
+		FileOutputStream out = new FileOutputStream(reportFileName);
+		PrintWriter pw = new PrintWriter(out);
+		try {
+			pw.write("Application,Files,Sampled");
+			for (String column : this.columns) {
+				pw.write("," + column + "," + column + " +-");
+			}
+			pw.write("\n");
+			Estimate estate = new Estimate(this.columns.size());
+			for (File appSource : this.extractor.getApplicationSources()) {
+				String appName = ArtefactExtractor.getApplicationName(appSource);
+				System.out.println("Sampling application: " + appName);
+				Estimate estimate = this.estimateApplication(appSource, appName, scanners);
+				this.writeRow(pw, appName, estimate);
+				estate.add(estimate);
+			}
+			this.writeRow(pw, "All applications", estate);
+			System.out.println("Scanned " + estate.sampled + " of " + estate.files + " files");
+		} finally {
+			scanners.shutdown();
+			pw.flush();
+			pw.close();
+			out.close();
+			this.extractor.writeErrorLog();
+		}
+	}
+
+	private Estimate estimateApplication(File appSource, final String appName, ExecutorService scanners) throws IOException {
+		// Extension to the files, sorted by path: the seed alone picks the sample
+		final Map<String, Map<String, Candidate>> strata = new TreeMap<String, Map<String, Candidate>>();
+		Closeable archive = this.extractor.walkApplication(appSource, new ArtefactExtractor.FileVisitor() {
+			public void visit(String path, String fname, ArtefactExtractor.EntrySource source) throws IOException {
+				String extension = SampleEstimator.this.extractor.getExtension(fname);
+				if (extension == null) {
+					return;
+				}
+				Map<String, Candidate> stratum = strata.get(extension);
+				if (stratum == null) {
+					stratum = new TreeMap<String, Candidate>();
+					strata.put(extension, stratum);
+				}
+				stratum.put(path, new Candidate(path, fname, source));
+			}
+		});
+		Estimate result = new Estimate(this.columns.size());
+		try {
+			// All strata are queued first, so small ones don't leave threads
+			// idle
+			List<Integer> populations = new ArrayList<Integer>();
+			List<List<Future<ArtefactResult>>> scans = new ArrayList<List<Future<ArtefactResult>>>();
+			for (Map<String, Candidate> stratum : strata.values()) {
+				List<Candidate> files = new ArrayList<Candidate>(stratum.values());
+				int n = Math.min(files.size(), Math.max(SampleEstimator.MIN_PER_STRATUM, (int) Math.ceil(this.rate * files.size())));
+				// The first n after a partial shuffle are the sample
+				for (int i = 0; i < n; i++) {
+					int pick = i + this.random.nextInt(files.size() - i);
+					Candidate swap = files.get(i);
+					files.set(i, files.get(pick));
+					files.set(pick, swap);
+				}
+				populations.add(Integer.valueOf(files.size()));
+				scans.add(this.submitStratum(appName, files.subList(0, n), scanners));
+			}
+			for (int i = 0; i < scans.size(); i++) {
+				this.estimateStratum(populations.get(i).intValue(), scans.get(i), result);
+			}
+		} finally {
+			if (archive != null) {
+				archive.close();
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Queues the scans of the sample of one stratum
+	 */
+	private List<Future<ArtefactResult>> submitStratum(final String appName, List<Candidate> sample, ExecutorService scanners) {
+		List<Future<ArtefactResult>> scans = new ArrayList<Future<ArtefactResult>>();
+		for (final Candidate file : sample) {
+			scans.add(scanners.submit(new Callable<ArtefactResult>() {
+				public ArtefactResult call() throws IOException {
+					ArtefactResult fileResult = new ArtefactResult();
+					// A file that fails counts nothing, like in a full run. Only
+					// the counters are used, no design element names
+					SampleEstimator.this.extractor.scanEntrySafely(appName, file.path, "", file.fname, file.source, fileResult);
+					return fileResult;
+				}
+			}));
+		}
+		return scans;
+	}
+
+	/**
+	 * Waits for the scans of one stratum and adds its extrapolation
+	 */
+	private void estimateStratum(int population, List<Future<ArtefactResult>> scans, Estimate result) throws IOException {
+		int n = scans.size();
+		double[][] values = new double[this.columns.size()][n];
+		for (int i = 0; i < n; i++) {
+			Map<String, Integer> fileCounters;
+			try {
+				fileCounters = scans.get(i).get().getCounters();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while sampling", e);
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof IOException) {
+					throw (IOException) e.getCause();
+				}
+				throw new IOException(e.getCause());
+			}
+			for (int c = 0; c < values.length; c++) {
+				for (String counter : this.counters.get(c)) {
+					Integer v = fileCounters.get(counter);
+					if (v != null) {
+						values[c][i] += v.intValue();
+					}
+				}
+			}
+		}
+
+		for (int c = 0; c < values.length; c++) {
+			double mean = 0;
+			for (double v : values[c]) {
+				mean += v;
+			}
+			mean /= n;
+			double squares = 0;
+			for (double v : values[c]) {
+				squares += (v - mean) * (v - mean);
+			}
+			result.totals[c] += population * mean;
+			if (n > 1 && n < population) {
+				double s2 = squares / (n - 1);
+				double variance = (double) population * population * (1.0 - (double) n / population) * s2 / n;
+				result.variances[c] += variance;
+				result.dfTerms[c] += variance * variance / (n - 1);
+			}
+		}
+		result.files += population;
+		result.sampled += n;
+	}
+
+	private void writeRow(PrintWriter pw, String name, Estimate estimate) {
+		pw.write(name + "," + estimate.files + "," + estimate.sampled);
+		for (int c = 0; c < this.columns.size(); c++) {
+			pw.write("," + Math.round(estimate.totals[c]));
+			double variance = estimate.variances[c];
+			double t = (variance > 0) ? SampleEstimator.tQuantile(variance * variance / estimate.dfTerms[c]) : 0;
+			pw.write("," + Math.round(t * Math.sqrt(variance)));
+		}
+		pw.write("\n");
+	}
+
+	/**
+	 * The 97.5% quantile of the t distribution
+	 * 
+	 * @param df
+	 *            - degrees of freedom, need not be whole
+	 */
+	static double tQuantile(double df) {
+		double[] dfs = SampleEstimator.T_DF;
+		double[] quantiles = SampleEstimator.T_95;
+		if (df <= dfs[0]) {
+			return quantiles[0];
+		}
+		int i = 1;
+		while (i < dfs.length && dfs[i] < df) {
+			i++;
+		}
+		// Beyond the table the last step goes to the normal quantile at 1/df = 0
+		double upperDf = (i < dfs.length) ? dfs[i] : Double.POSITIVE_INFINITY;
+		double upper = (i < dfs.length) ? quantiles[i] : SampleEstimator.Z_95;
+		double share = (1 / dfs[i - 1] - 1 / df) / (1 / dfs[i - 1] - 1 / upperDf);
+		return quantiles[i - 1] + share * (upper - quantiles[i - 1]);
+	}
+}
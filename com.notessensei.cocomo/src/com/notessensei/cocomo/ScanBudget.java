@@ -0,0 +1,160 @@
+/** ========================================================================= *
+ * Copyright (C) 2014,      IBM Corporation ( http://www.ibm.com/ )           *
+ *                            All rights reserved.                            *
+ * ========================================================================== *
+ *                                                                            *
+ * Licensed under the  Apache License, Version 2.0  (the "License").  You may *
+ * not use this file except in compliance with the License.  You may obtain a *
+ * copy of the License at <http://www.apache.org/licenses/LICENSE-2.0>.       *
+ *                                                                            *
+ * Unless  required  by applicable  law or  agreed  to  in writing,  software *
+ * distributed under the License is distributed on an  "AS IS" BASIS, WITHOUT *
+ * WARRANTIES OR  CONDITIONS OF ANY KIND, either express or implied.  See the *
+ * License for the  specific language  governing permissions  and limitations *
+ * under the License.                                                         *
+ *                                                                            *
+ * ========================================================================== */
+package com.notessensei.cocomo;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The time and nesting depth one file may use. The ScanWatchdog marks the
+ * budget as expired when the time is up, the scanner finds out on its next
+ * check: when the parser reads from the guarded stream or the walk enters
+ * the next element. Checking is a read of a volatile flag, no clock needed
+ * 
+ * @author stw
+ * 
+ */
+public final class ScanBudget {
+
+	/**
+	 * The file used more than its budget
+	 */
+	public static class ExceededException extends IOException {
+		private static final long	serialVersionUID	= 1L;
+
+		public ExceededException(String message) {
+			super(message);
+		}
+	}
+
+	/**
+	 * Stream that stops the parser once the budget expired
+	 */
+	private final class GuardedInputStream extends FilterInputStream {
+
+		private GuardedInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			ScanBudget.this.checkTime();
+			return super.read();
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			ScanBudget.this.checkTime();
+			return super.read(b, off, len);
+		}
+	}
+
+	/**
+	 * Longest time limit in ms, about 146 years. Deadlines are compared as
+	 * differences of nanoTime, those must stay below half the range of long
+	 */
+	static final long								MAX_TIME_LIMIT	= Long.MAX_VALUE / 2 / 1000000L;
+
+	private static final ThreadLocal<ScanBudget>	currentBudget	= new ThreadLocal<ScanBudget>();
+
+	private final long								deadline;
+	private final long								timeLimit;
+	private final int								maxDepth;
+	private volatile boolean						expired			= false;
+
+	/**
+	 * @param timeLimit
+	 *            - milliseconds, 0 for no limit, at most MAX_TIME_LIMIT
+	 * @param maxDepth
+	 *            - deepest element nesting, 0 for no limit
+	 */
+	ScanBudget(long timeLimit, int maxDepth) {
+		this.timeLimit = Math.min(timeLimit, ScanBudget.MAX_TIME_LIMIT);
+		this.maxDepth = maxDepth;
+		this.deadline = System.nanoTime() + this.timeLimit * 1000000L;
+	}
+
+	/**
+	 * @return the budget of the file the current thread scans, null if there
+	 *         is none
+	 */
+	public static ScanBudget current() {
+		return ScanBudget.currentBudget.get();
+	}
+
+	/**
+	 * Throws when the time is up or the element is nested too deep
+	 * 
+	 * @param depth
+	 *            - nesting of the current element
+	 * @throws ExceededException
+	 */
+	public void check(int depth) throws ExceededException {
+		if (this.maxDepth > 0 && depth > this.maxDepth) {
+			throw new ExceededException("Elements nested deeper than " + this.maxDepth);
+		}
+		this.checkTime();
+	}
+
+	/**
+	 * Throws when the time is up
+	 * 
+	 * @throws ExceededException
+	 */
+	public void checkTime() throws ExceededException {
+		if (this.expired) {
+			throw new ExceededException("Scan took longer than " + this.timeLimit + " ms");
+		}
+	}
+
+	/**
+	 * Wraps the content of a file, so the parser stops once the time is up
+	 * 
+	 * @param in
+	 * @return the guarded stream
+	 */
+	public InputStream guard(InputStream in) {
+		return new GuardedInputStream(in);
+	}
+
+	long getDeadline() {
+		return this.deadline;
+	}
+
+	boolean hasTimeLimit() {
+		return this.timeLimit > 0;
+	}
+
+	void expire() {
+		this.expired = true;
+	}
+
+	/**
+	 * The current thread scans a file with that budget now
+	 */
+	void activate() {
+		ScanBudget.currentBudget.set(this);
+	}
+
+	/**
+	 * The current thread is done with the file
+	 */
+	void deactivate() {
+		ScanBudget.currentBudget.remove();
+	}
+}
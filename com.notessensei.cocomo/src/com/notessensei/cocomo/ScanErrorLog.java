@@ -0,0 +1,215 @@
+/** ========================================================================= *
+ * Copyright (C) 2014,      IBM Corporation ( http://www.ibm.com/ )           *
+ *                            All rights reserved.                            *
+ * ========================================================================== *
+ *                                                                            *
+ * Licensed under the  Apache License, Version 2.0  (the "License").  You may *
+ * not use this file except in compliance with the License.  You may obtain a *
+ * copy of the License at <http://www.apache.org/licenses/LICENSE-2.0>.       *
+ *                                                                            *
+ * Unless  required  by applicable  law or  agreed  to  in writing,  software *
+ * distributed under the License is distributed on an  "AS IS" BASIS, WITHOUT *
+ * WARRANTIES OR  CONDITIONS OF ANY KIND, either express or implied.  See the *
+ * License for the  specific language  governing permissions  and limitations *
+ * under the License.                                                         *
+ *                                                                            *
+ * ========================================================================== */
+package com.notessensei.cocomo;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+
+import org.xml.sax.SAXException;
+
+/**
+ * Collects the files that could not be scanned, so one bad file doesn't end
+ * a run of hours. When more files fail than the error budget allows, the run
+ * is stopped with an ErrorBudgetExceededException
+ * 
+ * @author stw
+ * 
+ */
+public class ScanErrorLog {
+
+	/**
+	 * Thrown when the error budget is used up
+	 */
+	public static class ErrorBudgetExceededException extends IOException {
+		private static final long	serialVersionUID	= 1L;
+
+		public ErrorBudgetExceededException(String message) {
+			super(message);
+		}
+	}
+
+	/**
+	 * One file that failed
+	 */
+	private static class ScanError {
+		private final Date		time		= new Date();
+		private String			application;
+		private String			file;
+		private String			phase;
+		private int				attempts;
+		private Throwable		error;
+	}
+
+	private final List<ScanError>	errors		= new ArrayList<ScanError>();
+	private int						maxErrors	= -1;
+	private int						retries		= 0;
+
+	/**
+	 * @return how many files failed so far
+	 */
+	public synchronized int getErrorCount() {
+		return this.errors.size();
+	}
+
+	/**
+	 * @return how often a failed file is tried again
+	 */
+	public int getRetries() {
+		return this.retries;
+	}
+
+	/**
+	 * Records a failed file and checks the budget
+	 * 
+	 * @param application
+	 * @param file
+	 * @param attempts
+	 *            - how often we tried
+	 * @param error
+	 *            - the last failure
+	 * @throws ErrorBudgetExceededException
+	 *             when there were more errors than allowed
+	 */
+	public void record(String application, String file, int attempts, Throwable error) throws ErrorBudgetExceededException {
+		ScanError scanError = new ScanError();
+		scanError.application = application;
+		scanError.file = file;
+		scanError.phase = ScanErrorLog.getPhase(error);
+		scanError.attempts = attempts;
+		scanError.error = error;
+		int errorCount;
+		synchronized (this) {
+			this.errors.add(scanError);
+			errorCount = this.errors.size();
+		}
+		System.err.println("Skipped " + file + " (" + scanError.phase + "): " + error);
+		if (this.maxErrors > -1 && errorCount > this.maxErrors) {
+			throw new ErrorBudgetExceededException("More than " + this.maxErrors + " files failed, giving up");
+		}
+	}
+
+	/**
+	 * @param maxErrors
+	 *            - how many files may fail before the run stops, -1 for no
+	 *            limit
+	 */
+	public void setMaxErrors(int maxErrors) {
+		this.maxErrors = maxErrors;
+	}
+
+	/**
+	 * @param retries
+	 *            - how often a failed file is tried again
+	 */
+	public void setRetries(int retries) {
+		this.retries = Math.max(0, retries);
+	}
+
+	/**
+	 * Writes one line per failed file
+	 * 
+	 * @param fileName
+	 * @throws IOException
+	 */
+	public synchronized void writeErrors(String fileName) throws IOException {
+		SimpleDateFormat timeFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss");
+		FileOutputStream out = new FileOutputStream(fileName);
+		PrintWriter pw = new PrintWriter(out);
+		pw.write("Time,Application,File,Phase,Attempts,Error,Message\n");
+		for (ScanError e : this.errors) {
+			pw.write(timeFormat.format(e.time));
+			pw.write(",");
+			pw.write(ScanErrorLog.csv(e.application));
+			pw.write(",");
+			pw.write(ScanErrorLog.csv(e.file));
+			pw.write(",");
+			pw.write(e.phase);
+			pw.write(",");
+			pw.write(String.valueOf(e.attempts));
+			pw.write(",");
+			Throwable reported = ScanErrorLog.getReported(e.error);
+			pw.write(reported.getClass().getName());
+			pw.write(",");
+			pw.write(ScanErrorLog.csv(reported.getMessage()));
+			pw.write("\n");
+		}
+		pw.flush();
+		pw.close();
+		out.close();
+	}
+
+	/**
+	 * Takes the errors of one application out of the log. A daemon runs for
+	 * weeks and answers per application, there the log only holds the scans
+	 * in progress
+	 * 
+	 * @param application
+	 * @return one line per failed file
+	 */
+	public synchronized List<String> takeErrors(String application) {
+		List<String> result = new ArrayList<String>();
+		Iterator<ScanError> iterator = this.errors.iterator();
+		while (iterator.hasNext()) {
+			ScanError e = iterator.next();
+			if (e.application.equals(application)) {
+				result.add(e.file + " (" + e.phase + ", " + e.attempts + " attempts): " + ScanErrorLog.getReported(e.error));
+				iterator.remove();
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Parse errors come wrapped, the parser's exception says more
+	 */
+	private static Throwable getReported(Throwable error) {
+		return (error.getCause() instanceof SAXException) ? error.getCause() : error;
+	}
+
+	/**
+	 * Quotes a value when needed
+	 */
+	private static String csv(String value) {
+		if (value == null) {
+			return "";
+		}
+		String oneLine = value.replace('\n', ' ').replace('\r', ' ');
+		if (oneLine.indexOf(',') < 0 && oneLine.indexOf('"') < 0) {
+			return oneLine;
+		}
+		return "\"" + oneLine.replace("\"", "\"\"") + "\"";
+	}
+
+	/**
+	 * Where it went wrong: reading the file, parsing the XML or in the scanner
+	 */
+	private static String getPhase(Throwable error) {
+		if (error instanceof SAXException || error.getCause() instanceof SAXException) {
+			return "parse";
+		}
+		if (error instanceof IOException) {
+			return "read";
+		}
+		return "scan";
+	}
+}
@@ -0,0 +1,676 @@
+/** ========================================================================= *
+ * Copyright (C) 2014,      IBM Corporation ( http://www.ibm.com/ )           *
+ *                            All rights reserved.                            *
+ * ========================================================================== *
+ *                                                                            *
+ * Licensed under the  Apache License, Version 2.0  (the "License").  You may *
+ * not use this file except in compliance with the License.  You may obtain a *
+ * copy of the License at <http://www.apache.org/licenses/LICENSE-2.0>.       *
+ *                                                                            *
+ * Unless  required  by applicable  law or  agreed  to  in writing,  software *
+ * distributed under the License is distributed on an  "AS IS" BASIS, WITHOUT *
+ * WARRANTIES OR  CONDITIONS OF ANY KIND, either express or implied.  See the *
+ * License for the  specific language  governing permissions  and limitations *
+ * under the License.                                                         *
+ *                                                                            *
+ * ========================================================================== */
+package com.notessensei.cocomo;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.w3c.dom.Document;
+
+/**
+ * Scans applications in stages: walk the directories, read the files, parse
+ * the XML, count and aggregate per application. Every stage has its own
+ * threads and hands its files to the next one through a bounded queue, a
+ * full queue stops the stage before it. So disk reads, parsing and counting
+ * overlap and the stages can be tuned for the storage at hand: more read
+ * threads for network drives, more parse threads for more cores.
+ * 
+ * Aggregation runs in one thread, the results of the applications need no
+ * locking. Rows are written in the order of the applications
+ * 
+ * @author stw
+ * 
+ */
+public class ScanPipeline {
+
+	public static final int	DEFAULT_QUEUE_SIZE	= 256;
+	/**
+	 * Content read but not yet parsed or counted, in KB
+	 */
+	public static final int	DEFAULT_BUFFER_KB	= 64 * 1024;
+
+	/**
+	 * One application on its way through the pipeline
+	 */
+	private static class Application {
+		private final int				index;
+		private final File				source;
+		private final String			name;
+		private final ArtefactResult	total		= new ArtefactResult();
+		private volatile Closeable		archive		= null;
+		// Only touched by the aggregator
+		private int						expected	= -1;
+		private int						received	= 0;
+
+		private Application(int index, File source) {
+			this.index = index;
+			this.source = source;
+			this.name = ArtefactExtractor.getApplicationName(source);
+		}
+	}
+
+	/**
+	 * One file, or the end of an application when there is no path. Each
+	 * stage adds what it found and passes it on, a file that failed travels
+	 * on without content so the aggregator can count it
+	 */
+	private static class FileItem {
+		private final Application					app;
+		private final String						path;
+		private final String						fname;
+		private final ArtefactExtractor.EntrySource	source;
+		private final int							fileCount;
+		private String								extension	= null;
+		private ArtefactScanner						scanner		= null;
+		private byte[]								content		= null;
+		// KB of the buffer held by the content
+		private int									buffered	= 0;
+		private Document							document	= null;
+		private boolean								quarantined	= false;
+		private boolean								failed		= false;
+		private ArtefactResult						result		= null;
+
+		private FileItem(Application app, String path, String fname, ArtefactExtractor.EntrySource source) {
+			this.app = app;
+			this.path = path;
+			this.fname = fname;
+			this.source = source;
+			this.fileCount = 0;
+		}
+
+		private FileItem(Application app, int fileCount) {
+			this.app = app;
+			this.path = null;
+			this.fname = null;
+			this.source = null;
+			this.fileCount = fileCount;
+		}
+
+		private boolean isEndOfApplication() {
+			return this.path == null;
+		}
+	}
+
+	/**
+	 * The work of one stage on one file
+	 */
+	private interface StageWork {
+		void process(FileItem item) throws IOException;
+	}
+
+	/**
+	 * Tells the threads of a stage that no more files come
+	 */
+	private static final FileItem				END				= new FileItem(null, 0);
+
+	/**
+	 * Files we only count are not read
+	 */
+	private static final byte[]					NO_CONTENT		= new byte[0];
+
+	private final ArtefactExtractor				extractor;
+	private final BlockingQueue<FileItem>		readQueue;
+	private final BlockingQueue<FileItem>		parseQueue;
+	private final BlockingQueue<FileItem>		countQueue;
+	private final BlockingQueue<FileItem>		aggregateQueue;
+	private final Semaphore						buffer			= new Semaphore(ScanPipeline.DEFAULT_BUFFER_KB);
+	private final List<Thread>					threads			= new ArrayList<Thread>();
+	private final List<Application>				applications	= new ArrayList<Application>();
+	private int									walkThreads		= 1;
+	private int									readThreads		= 2;
+	private int									parseThreads	= 1;
+	private int									countThreads	= 1;
+	private int									ioConcurrency	= 0;
+	private ExecutorService						walkExecutor	= null;
+	private ExecutorService						readExecutor	= null;
+	private Semaphore							walkPermits		= null;
+	private volatile Throwable					failure			= null;
+
+	// Rows of the report, written in the order of the applications
+	private PrintWriter							report			= null;
+	private String[]							rows			= null;
+	private int									nextRow			= 0;
+
+	/**
+	 * @param extractor
+	 * @param queueSize
+	 *            - how many files wait between two stages at most
+	 */
+	public ScanPipeline(ArtefactExtractor extractor, int queueSize) {
+		this.extractor = extractor;
+		int capacity = Math.max(1, queueSize);
+		this.readQueue = new ArrayBlockingQueue<FileItem>(capacity);
+		this.parseQueue = new ArrayBlockingQueue<FileItem>(capacity);
+		this.countQueue = new ArrayBlockingQueue<FileItem>(capacity);
+		this.aggregateQueue = new ArrayBlockingQueue<FileItem>(capacity);
+	}
+
+	/**
+	 * Threads per stage, aggregation always has one
+	 * 
+	 * @param walk
+	 *            - applications walked in parallel
+	 * @param read
+	 *            - files read in parallel
+	 * @param parse
+	 *            - XML files parsed in parallel
+	 * @param count
+	 *            - files counted in parallel
+	 */
+	public void setStageThreads(int walk, int read, int parse, int count) {
+		this.walkThreads = Math.max(1, walk);
+		this.readThreads = Math.max(1, read);
+		this.parseThreads = Math.max(1, parse);
+		this.countThreads = Math.max(1, count);
+	}
+
+	/**
+	 * Switches walk and read to many concurrent file system calls, for file
+	 * systems with high latency. They run on virtual threads when the Java
+	 * has them, parsing and counting stay with the stage threads
+	 * 
+	 * @param ioConcurrency
+	 *            - file system calls in flight at most per stage, 0 for one
+	 *            call per walk or read thread
+	 */
+	public void setIoConcurrency(int ioConcurrency) {
+		this.ioConcurrency = Math.max(0, ioConcurrency);
+	}
+
+	/**
+	 * Scans the applications and writes one report row per application. Read
+	 * files wait for the next stages up to DEFAULT_BUFFER_KB, then the reads
+	 * wait
+	 * 
+	 * @param sources
+	 *            - On-Disk-Project directories or archives
+	 * @param report
+	 *            - gets the rows in the order of the sources
+	 * @throws IOException
+	 *             when the error budget is used up or a stage failed
+	 */
+	public void run(Collection<File> sources, PrintWriter report) throws IOException {
+		this.report = report;
+		this.rows = new String[sources.size()];
+		final Queue<Application> toWalk = new ConcurrentLinkedQueue<Application>();
+		for (File source : sources) {
+			Application app = new Application(this.applications.size(), source);
+			this.applications.add(app);
+			toWalk.add(app);
+		}
+
+		final AtomicInteger walking = new AtomicInteger(this.walkThreads);
+		for (int i = 1; i <= this.walkThreads; i++) {
+			this.createThread("walk-" + i, new Runnable() {
+				public void run() {
+					try {
+						Application app;
+						while ((app = toWalk.poll()) != null && ScanPipeline.this.failure == null) {
+							ScanPipeline.this.walk(app);
+						}
+						if (walking.decrementAndGet() == 0) {
+							// With concurrent I/O the read queue has one
+							// consumer, the dispatcher
+							int readers = (ScanPipeline.this.ioConcurrency > 0) ? 1 : ScanPipeline.this.readThreads;
+							ScanPipeline.this.endStage(ScanPipeline.this.readQueue, readers);
+						}
+					} catch (Throwable t) {
+						ScanPipeline.this.fail(t);
+					}
+				}
+			});
+		}
+		if (this.ioConcurrency > 0) {
+			this.walkExecutor = IoExecutors.newExecutor("walk-io", this.ioConcurrency);
+			this.readExecutor = IoExecutors.newExecutor("read-io", this.ioConcurrency);
+			// Shared by all walk threads
+			this.walkPermits = new Semaphore(this.ioConcurrency);
+			this.createThread("read", new Runnable() {
+				public void run() {
+					try {
+						ScanPipeline.this.dispatchReads();
+					} catch (InterruptedException e) {
+						// Aborted
+					} catch (Throwable t) {
+						ScanPipeline.this.fail(t);
+					}
+				}
+			});
+		} else {
+			this.createStage("read", this.readThreads, this.readQueue, this.parseQueue, this.parseThreads, new StageWork() {
+				public void process(FileItem item) throws IOException {
+					ScanPipeline.this.read(item);
+				}
+			});
+		}
+		this.createStage("parse", this.parseThreads, this.parseQueue, this.countQueue, this.countThreads, new StageWork() {
+			public void process(FileItem item) throws IOException {
+				ScanPipeline.this.parse(item);
+			}
+		});
+		this.createStage("count", this.countThreads, this.countQueue, this.aggregateQueue, 1, new StageWork() {
+			public void process(FileItem item) throws IOException {
+				ScanPipeline.this.count(item);
+			}
+		});
+		this.createThread("aggregate", new Runnable() {
+			public void run() {
+				try {
+					FileItem item;
+					while ((item = ScanPipeline.this.aggregateQueue.take()) != ScanPipeline.END) {
+						ScanPipeline.this.aggregate(item);
+					}
+				} catch (InterruptedException e) {
+					// Aborted
+				} catch (Throwable t) {
+					ScanPipeline.this.fail(t);
+				}
+			}
+		});
+
+		// A stage that fails right away interrupts all others, so none may
+		// start after that
+		synchronized (this) {
+			for (Thread t : this.threads) {
+				t.start();
+			}
+		}
+		try {
+			for (Thread t : this.threads) {
+				t.join();
+			}
+		} catch (InterruptedException e) {
+			this.abort();
+			Thread.currentThread().interrupt();
+			throw new IOException("Extraction interrupted", e);
+		} finally {
+			this.shutdownExecutors();
+			this.closeArchives();
+		}
+		if (this.failure != null) {
+			if (this.failure instanceof IOException) {
+				throw (IOException) this.failure;
+			}
+			throw new IOException(this.failure);
+		}
+	}
+
+	/**
+	 * Walk stage: puts all files of an application in the read queue and
+	 * then tells the aggregator how many there were
+	 */
+	private void walk(final Application app) throws IOException, InterruptedException {
+		System.out.println("Working on application: " + app.source.getName());
+		// Visited from many threads in the concurrent walk
+		final AtomicInteger fileCount = new AtomicInteger(0);
+		ArtefactExtractor.FileVisitor visitor = new ArtefactExtractor.FileVisitor() {
+			public void visit(String path, String fname, ArtefactExtractor.EntrySource source) throws IOException {
+				try {
+					ScanPipeline.this.readQueue.put(new FileItem(app, path, fname, source));
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException("Interrupted walking " + app.name, e);
+				}
+				fileCount.incrementAndGet();
+			}
+		};
+		if (this.walkExecutor != null && app.source.isDirectory()) {
+			new ConcurrentWalk(this.extractor, app.name, visitor, this.walkExecutor, this.walkPermits)
+					.walk(app.source);
+		} else {
+			app.archive = this.extractor.walkApplication(app.source, visitor);
+		}
+		this.aggregateQueue.put(new FileItem(app, fileCount.get()));
+	}
+
+	/**
+	 * Read stage with concurrent I/O: every file is read in a task of its
+	 * own, up to ioConcurrency at the same time. A task holds its permit
+	 * until the parse queue took the file, so a full parse queue stops the
+	 * reads
+	 */
+	private void dispatchReads() throws InterruptedException {
+		final Semaphore inFlight = new Semaphore(this.ioConcurrency);
+		FileItem item;
+		while ((item = this.readQueue.take()) != ScanPipeline.END) {
+			final FileItem toRead = item;
+			inFlight.acquire();
+			try {
+				this.readExecutor.execute(new Runnable() {
+					public void run() {
+						try {
+							ScanPipeline.this.read(toRead);
+							ScanPipeline.this.parseQueue.put(toRead);
+						} catch (InterruptedException e) {
+							// Aborted
+						} catch (Throwable t) {
+							ScanPipeline.this.fail(t);
+						} finally {
+							inFlight.release();
+						}
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				// Shut down by an abort
+				inFlight.release();
+				return;
+			}
+		}
+		// All permits back means all reads are in the parse queue
+		inFlight.acquire(this.ioConcurrency);
+		this.endStage(this.parseQueue, this.parseThreads);
+	}
+
+	/**
+	 * Read stage: loads the content, tried as often as configured. Files
+	 * without a scanner are only counted and not read
+	 */
+	private void read(FileItem item) throws IOException {
+		item.extension = this.extractor.getExtension(item.fname);
+		if (item.extension == null) {
+			return;
+		}
+		item.quarantined = this.extractor.getQuarantine().contains(item.path);
+		item.scanner = this.extractor.getScanner(item.fname, item.extension);
+		if (item.scanner == null && !item.quarantined) {
+			return;
+		}
+
+		ScanErrorLog errorLog = this.extractor.getErrorLog();
+		int maxAttempts = errorLog.getRetries() + 1;
+		IOException lastError = null;
+		for (int attempt = 1; attempt <= maxAttempts; attempt++) {
+			if (attempt > 1) {
+				ArtefactExtractor.pauseBeforeRetry(item.path, attempt);
+			}
+			try {
+				item.content = this.readContent(item);
+				this.reserveBuffer(item);
+				return;
+			} catch (IOException e) {
+				lastError = e;
+			}
+		}
+		item.failed = true;
+		errorLog.record(item.app.name, item.path, maxAttempts, lastError);
+	}
+
+	/**
+	 * Waits until the content fits into the buffer, a file bigger than the
+	 * whole buffer waits until it is empty
+	 */
+	private void reserveBuffer(FileItem item) throws IOException {
+		int kb = (int) Math.min(ScanPipeline.DEFAULT_BUFFER_KB, (item.content.length + 1023L) / 1024);
+		try {
+			this.buffer.acquire(kb);
+		} catch (InterruptedException e) {
+			item.content = null;
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted reading " + item.path, e);
+		}
+		item.buffered = kb;
+	}
+
+	private void dropContent(FileItem item) {
+		item.content = null;
+		if (item.buffered > 0) {
+			this.buffer.release(item.buffered);
+			item.buffered = 0;
+		}
+	}
+
+	/**
+	 * Parse stage: builds the DOM of XML design elements, everything else is
+	 * parsed by its scanner in the count stage. A parse error might be a file
+	 * that was just being written, so it is read and parsed again as often as
+	 * configured
+	 */
+	private void parse(FileItem item) throws IOException {
+		if (item.failed || item.quarantined || !(item.scanner instanceof XmlFileScanner)) {
+			return;
+		}
+
+		ScanErrorLog errorLog = this.extractor.getErrorLog();
+		int maxAttempts = errorLog.getRetries() + 1;
+		Exception lastError = null;
+		for (int attempt = 1; attempt <= maxAttempts; attempt++) {
+			ScanBudget budget = null;
+			try {
+				if (attempt > 1) {
+					ArtefactExtractor.pauseBeforeRetry(item.path, attempt);
+					item.content = this.readContent(item);
+				}
+				budget = this.extractor.startBudget();
+				item.document = ((XmlFileScanner) item.scanner).parse(new ByteArrayInputStream(item.content));
+				// The document has all we need, quarantined ones read again
+				this.dropContent(item);
+				return;
+			} catch (ScanBudget.ExceededException e) {
+				this.quarantine(item, e.getMessage());
+				return;
+			} catch (StackOverflowError e) {
+				this.quarantine(item, "Stack overflow");
+				return;
+			} catch (IOException e) {
+				lastError = e;
+			} catch (RuntimeException e) {
+				lastError = e;
+			} finally {
+				if (budget != null) {
+					this.extractor.finishBudget(budget);
+				}
+			}
+		}
+		item.failed = true;
+		this.dropContent(item);
+		errorLog.record(item.app.name, item.path, maxAttempts, lastError);
+	}
+
+	/**
+	 * Count stage: runs the scanner on the parsed document or the content,
+	 * quarantined files get the fallback scan
+	 */
+	private void count(FileItem item) throws IOException {
+		if (item.failed || item.extension == null) {
+			this.dropContent(item);
+			return;
+		}
+		if (!item.quarantined) {
+			ArtefactResult fileResult = new ArtefactResult();
+			ScanBudget budget = this.extractor.startBudget();
+			try {
+				if (item.document != null) {
+					fileResult.add("File-" + item.extension);
+					XmlFileScanner scanner = (XmlFileScanner) item.scanner;
+					scanner.scanDocument(this.extractor, item.fname, item.extension, item.document, fileResult);
+				} else {
+					byte[] content = (item.content != null) ? item.content : ScanPipeline.NO_CONTENT;
+					this.extractor.scanOneEntry(item.fname, new ByteArrayInputStream(content), fileResult);
+				}
+				fileResult.addDirectory(this.extractor.getElementDirectory(item.app.source, item.path, item.fname));
+				item.result = fileResult;
+			} catch (ScanBudget.ExceededException e) {
+				this.quarantine(item, e.getMessage());
+			} catch (StackOverflowError e) {
+				this.quarantine(item, "Stack overflow");
+			} catch (IOException e) {
+				item.failed = true;
+				this.extractor.getErrorLog().record(item.app.name, item.path, 1, e);
+			} catch (RuntimeException e) {
+				item.failed = true;
+				this.extractor.getErrorLog().record(item.app.name, item.path, 1, e);
+			} finally {
+				this.extractor.finishBudget(budget);
+			}
+		}
+		if (item.quarantined) {
+			final byte[] content = item.content;
+			ArtefactExtractor.EntrySource source = item.source;
+			if (content != null) {
+				source = new ArtefactExtractor.EntrySource() {
+					public InputStream open() throws IOException {
+						return new ByteArrayInputStream(content);
+					}
+				};
+			}
+			ArtefactResult fileResult = new ArtefactResult();
+			if (this.extractor.scanQuarantined(item.app.name, item.path, item.fname, source, fileResult)) {
+				item.result = fileResult;
+			}
+		}
+		// Done with the file, only the counts travel on
+		this.dropContent(item);
+		item.document = null;
+	}
+
+	/**
+	 * Aggregate stage: adds the files to their application and finishes the
+	 * application once all its files arrived
+	 */
+	private void aggregate(FileItem item) throws IOException {
+		Application app = item.app;
+		if (item.isEndOfApplication()) {
+			app.expected = item.fileCount;
+		} else {
+			app.received++;
+			if (item.result != null) {
+				app.total.add(item.result);
+			}
+		}
+		if (app.received != app.expected) {
+			return;
+		}
+		if (app.archive != null) {
+			app.archive.close();
+			app.archive = null;
+		}
+		this.rows[app.index] = this.extractor.finishApplication(app.source, app.total);
+		while (this.nextRow < this.rows.length && this.rows[this.nextRow] != null) {
+			this.report.write(this.rows[this.nextRow]);
+			this.report.flush();
+			this.rows[this.nextRow] = null;
+			this.nextRow++;
+		}
+	}
+
+	private void quarantine(FileItem item, String reason) {
+		this.extractor.getQuarantine().add(item.path, reason);
+		item.quarantined = true;
+		item.document = null;
+	}
+
+	private byte[] readContent(FileItem item) throws IOException {
+		InputStream in = item.source.open();
+		try {
+			return ScannerRegistry.readFully(in);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Creates the threads of a stage. The thread that gets the last END of its
+	 * stage passes the END on to all threads of the next stage
+	 */
+	private void createStage(String name, int threadCount, final BlockingQueue<FileItem> in, final BlockingQueue<FileItem> out,
+			final int nextThreads, final StageWork work) {
+		final AtomicInteger running = new AtomicInteger(threadCount);
+		for (int i = 1; i <= threadCount; i++) {
+			this.createThread(name + "-" + i, new Runnable() {
+				public void run() {
+					try {
+						FileItem item;
+						while ((item = in.take()) != ScanPipeline.END) {
+							work.process(item);
+							out.put(item);
+						}
+						if (running.decrementAndGet() == 0) {
+							ScanPipeline.this.endStage(out, nextThreads);
+						}
+					} catch (InterruptedException e) {
+						// Aborted
+					} catch (Throwable t) {
+						ScanPipeline.this.fail(t);
+					}
+				}
+			});
+		}
+	}
+
+	private void endStage(BlockingQueue<FileItem> out, int nextThreads) throws InterruptedException {
+		for (int i = 0; i < nextThreads; i++) {
+			out.put(ScanPipeline.END);
+		}
+	}
+
+	private void createThread(String name, Runnable runnable) {
+		this.threads.add(new Thread(runnable, "cocomo-" + name));
+	}
+
+	/**
+	 * The first failure ends the run, all stages stop
+	 */
+	private synchronized void fail(Throwable t) {
+		if (this.failure == null) {
+			this.failure = t;
+			this.abort();
+		}
+	}
+
+	private void abort() {
+		for (Thread t : this.threads) {
+			t.interrupt();
+		}
+		this.shutdownExecutors();
+	}
+
+	private synchronized void shutdownExecutors() {
+		if (this.walkExecutor != null) {
+			this.walkExecutor.shutdownNow();
+			this.readExecutor.shutdownNow();
+		}
+	}
+
+	private void closeArchives() {
+		for (Application app : this.applications) {
+			Closeable archive = app.archive;
+			if (archive != null) {
+				try {
+					archive.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+				app.archive = null;
+			}
+		}
+	}
+}
@@ -0,0 +1,102 @@
+/** ========================================================================= *
+ * Copyright (C) 2014,      IBM Corporation ( http://www.ibm.com/ )           *
+ *                            All rights reserved.                            *
+ * ========================================================================== *
+ *                                                                            *
+ * Licensed under the  Apache License, Version 2.0  (the "License").  You may *
+ * not use this file except in compliance with the License.  You may obtain a *
+ * copy of the License at <http://www.apache.org/licenses/LICENSE-2.0>.       *
+ *                                                                            *
+ * Unless  required  by applicable  law or  agreed  to  in writing,  software *
+ * distributed under the License is distributed on an  "AS IS" BASIS, WITHOUT *
+ * WARRANTIES OR  CONDITIONS OF ANY KIND, either express or implied.  See the *
+ * License for the  specific language  governing permissions  and limitations *
+ * under the License.                                                         *
+ *                                                                            *
+ * ========================================================================== */
+package com.notessensei.cocomo;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * One background thread that watches the time budgets of all files being
+ * scanned and expires the ones that ran out of time. The thread only starts
+ * with the first budget that has a time limit
+ * 
+ * @author stw
+ * 
+ */
+public class ScanWatchdog {
+
+	/**
+	 * How often (ms) the watchdog looks at the running scans
+	 */
+	private static final long				TICK	= 50;
+
+	private final Map<ScanBudget, Boolean>	running	= new ConcurrentHashMap<ScanBudget, Boolean>();
+	private Thread							watcher	= null;
+
+	/**
+	 * Starts the budget for a file, the calling thread scans it
+	 * 
+	 * @param timeLimit
+	 *            - milliseconds, 0 for no limit
+	 * @param maxDepth
+	 *            - deepest element nesting, 0 for no limit
+	 * @return the budget, needs to be finished
+	 */
+	public ScanBudget start(long timeLimit, int maxDepth) {
+		ScanBudget budget = new ScanBudget(timeLimit, maxDepth);
+		if (budget.hasTimeLimit()) {
+			this.ensureRunning();
+			this.running.put(budget, Boolean.TRUE);
+		}
+		budget.activate();
+		return budget;
+	}
+
+	/**
+	 * The file is done, successful or not
+	 * 
+	 * @param budget
+	 */
+	public void finish(ScanBudget budget) {
+		this.running.remove(budget);
+		budget.deactivate();
+	}
+
+	private synchronized void ensureRunning() {
+		if (this.watcher != null) {
+			return;
+		}
+		this.watcher = new Thread(new Runnable() {
+			public void run() {
+				ScanWatchdog.this.watch();
+			}
+		}, "cocomo-watchdog");
+		// Never keeps the JVM alive
+		this.watcher.setDaemon(true);
+		this.watcher.start();
+	}
+
+	private void watch() {
+		while (true) {
+			try {
+				Thread.sleep(ScanWatchdog.TICK);
+			} catch (InterruptedException e) {
+				return;
+			}
+			long now = System.nanoTime();
+			Iterator<ScanBudget> iter = this.running.keySet().iterator();
+			while (iter.hasNext()) {
+				ScanBudget budget = iter.next();
+				if (now - budget.getDeadline() > 0) {
+					budget.expire();
+					iter.remove();
+				}
+			}
+		}
+	}
+}
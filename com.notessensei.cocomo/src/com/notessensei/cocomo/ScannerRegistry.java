@@ -0,0 +1,131 @@
+/** ========================================================================= *
+ * Copyright (C) 2014,      IBM Corporation ( http://www.ibm.com/ )           *
+ *                            All rights reserved.                            *
+ * ========================================================================== *
+ *                                                                            *
+ * Licensed under the  Apache License, Version 2.0  (the "License").  You may *
+ * not use this file except in compliance with the License.  You may obtain a *
+ * copy of the License at <http://www.apache.org/licenses/LICENSE-2.0>.       *
+ *                                                                            *
+ * Unless  required  by applicable  law or  agreed  to  in writing,  software *
+ * distributed under the License is distributed on an  "AS IS" BASIS, WITHOUT *
+ * WARRANTIES OR  CONDITIONS OF ANY KIND, either express or implied.  See the *
+ * License for the  specific language  governing permissions  and limitations *
+ * under the License.                                                         *
+ *                                                                            *
+ * ========================================================================== */
+package com.notessensei.cocomo;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceLoader;
+
+/**
+ * Dispatch table from file name and extension to the scanner, computed once
+ * from all scanners the ServiceLoader finds. Scanners from other JARs are
+ * registered first, so they win over the built-in ones
+ * 
+ * @author stw
+ * 
+ */
+public final class ScannerRegistry {
+
+	private final Map<String, ArtefactScanner>	byFileName	= new HashMap<String, ArtefactScanner>();
+	private final Map<String, ArtefactScanner>	byExtension	= new HashMap<String, ArtefactScanner>();
+
+	public ScannerRegistry(ArtefactExtractor extractor) {
+		List<ArtefactScanner> builtIn = new ArrayList<ArtefactScanner>();
+		List<ArtefactScanner> external = new ArrayList<ArtefactScanner>();
+		for (ArtefactScanner scanner : ServiceLoader.load(ArtefactScanner.class, ArtefactScanner.class.getClassLoader())) {
+			if (scanner.getClass().getPackage() == ArtefactScanner.class.getPackage()) {
+				builtIn.add(scanner);
+			} else {
+				external.add(scanner);
+			}
+		}
+		for (ArtefactScanner scanner : external) {
+			this.register(extractor, scanner);
+		}
+		for (ArtefactScanner scanner : builtIn) {
+			this.register(extractor, scanner);
+		}
+	}
+
+	/**
+	 * The scanner for a file, special file names first
+	 * 
+	 * @param fileName
+	 * @param extension
+	 * @return the scanner or null if we only count the file
+	 */
+	public ArtefactScanner getScanner(String fileName, String extension) {
+		ArtefactScanner result = this.byFileName.get(fileName);
+		if (result == null) {
+			result = this.byExtension.get(extension);
+		}
+		return result;
+	}
+
+	/**
+	 * Runs a scanner honouring what it declared: non streaming scanners get
+	 * the whole file buffered, scanners that aren't thread safe are used by
+	 * one thread at a time
+	 * 
+	 * @param scanner
+	 * @param extractor
+	 * @param fileName
+	 * @param extension
+	 * @param in
+	 * @param result
+	 * @throws IOException
+	 */
+	public static void runScanner(ArtefactScanner scanner, ArtefactExtractor extractor, String fileName, String extension,
+			InputStream in, ArtefactResult result) throws IOException {
+		InputStream source = in;
+		if (!scanner.isStreaming()) {
+			source = new ByteArrayInputStream(ScannerRegistry.readFully(in));
+		}
+		if (scanner.isThreadSafe()) {
+			scanner.scan(extractor, fileName, extension, source, result);
+		} else {
+			synchronized (scanner) {
+				scanner.scan(extractor, fileName, extension, source, result);
+			}
+		}
+	}
+
+	static byte[] readFully(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		int n = 0;
+		while (-1 != (n = in.read(buffer))) {
+			out.write(buffer, 0, n);
+		}
+		return out.toByteArray();
+	}
+
+	private void register(ArtefactExtractor extractor, ArtefactScanner scanner) {
+		for (String fileName : scanner.getFileNames(extractor)) {
+			this.register(this.byFileName, fileName, scanner);
+		}
+		for (String extension : scanner.getExtensions(extractor)) {
+			this.register(this.byExtension, extension.toLowerCase(), scanner);
+		}
+	}
+
+	private void register(Map<String, ArtefactScanner> table, String key, ArtefactScanner scanner) {
+		ArtefactScanner existing = table.get(key);
+		if (existing == null) {
+			table.put(key, scanner);
+		} else if (existing != scanner) {
+			System.out.println("Scanner " + scanner.getClass().getName() + " ignored for " + key + ", using "
+					+ existing.getClass().getName());
+		}
+	}
+}
@@ -0,0 +1,119 @@
+/** ========================================================================= *
+ * Copyright (C) 2014,      IBM Corporation ( http://www.ibm.com/ )           *
+ *                            All rights reserved.                            *
+ * ========================================================================== *
+ *                                                                            *
+ * Licensed under the  Apache License, Version 2.0  (the "License").  You may *
+ * not use this file except in compliance with the License.  You may obtain a *
+ * copy of the License at <http://www.apache.org/licenses/LICENSE-2.0>.       *
+ *                                                                            *
+ * Unless  required  by applicable  law or  agreed  to  in writing,  software *
+ * distributed under the License is distributed on an  "AS IS" BASIS, WITHOUT *
+ * WARRANTIES OR  CONDITIONS OF ANY KIND, either express or implied.  See the *
+ * License for the  specific language  governing permissions  and limitations *
+ * under the License.                                                         *
+ *                                                                            *
+ * ========================================================================== */
+package com.notessensei.cocomo;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs a sharded scan with several worker processes on this machine and
+ * merges their partial results. Each worker is a JVM of its own with the
+ * same options, it scans its shard and writes its report, metrics and
+ * partial result. Good to try sharding before it goes to several hosts,
+ * there every host runs one worker with -shard and one of them merges
+ * 
+ * @author stw
+ * 
+ */
+public class ShardLauncher {
+
+	private final List<String>	workerOptions;
+	private final String		shardMethod;
+
+	/**
+	 * @param workerOptions
+	 *            - the options every worker gets, without -shard
+	 * @param shardMethod
+	 *            - ShardSpec.BY_HASH or ShardSpec.BY_RANGE
+	 */
+	public ShardLauncher(List<String> workerOptions, String shardMethod) {
+		this.workerOptions = workerOptions;
+		this.shardMethod = shardMethod;
+	}
+
+	/**
+	 * Starts the workers, waits for all of them and merges the partial
+	 * results
+	 * 
+	 * @param processes
+	 *            - how many workers
+	 * @param sourceDir
+	 * @param commandFile
+	 *            - may be null
+	 * @param merger
+	 *            - writes the final report
+	 * @throws IOException
+	 *             when a worker failed
+	 */
+	public void run(int processes, String sourceDir, String commandFile, ArtefactExtractor merger) throws IOException {
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		List<Process> workers = new ArrayList<Process>();
+		List<File> partials = new ArrayList<File>();
+		try {
+			for (int shard = 1; shard <= processes; shard++) {
+				String workerReport = this.getWorkerReportName(merger.getReportFileName(), shard);
+				List<String> command = new ArrayList<String>();
+				command.add(java);
+				command.add("-cp");
+				command.add(System.getProperty("java.class.path"));
+				command.add(ArtefactExtractor.class.getName());
+				command.addAll(this.workerOptions);
+				command.add("-shardBy");
+				command.add(this.shardMethod);
+				command.add("-shard");
+				command.add(shard + "/" + processes);
+				command.add(sourceDir);
+				command.add(workerReport);
+				if (commandFile != null) {
+					command.add(commandFile);
+				}
+				ProcessBuilder pb = new ProcessBuilder(command);
+				pb.inheritIO();
+				workers.add(pb.start());
+				partials.add(new File(ArtefactExtractor.getPartialFileName(workerReport)));
+			}
+			for (int i = 0; i < workers.size(); i++) {
+				int exitCode = workers.get(i).waitFor();
+				if (exitCode != 0) {
+					throw new IOException("Worker " + (i + 1) + "/" + processes + " failed with exit code " + exitCode);
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted waiting for the workers", e);
+		} finally {
+			// Nobody merges what's left of a failed run
+			for (Process worker : workers) {
+				worker.destroy();
+			}
+		}
+		merger.mergePartials(partials);
+	}
+
+	/**
+	 * report.csv becomes report-shard2.csv
+	 */
+	private String getWorkerReportName(String reportFileName, int shard) {
+		int dot = reportFileName.lastIndexOf(".");
+		if (dot > reportFileName.lastIndexOf(File.separator)) {
+			return reportFileName.substring(0, dot) + "-shard" + shard + reportFileName.substring(dot);
+		}
+		return reportFileName + "-shard" + shard;
+	}
+}
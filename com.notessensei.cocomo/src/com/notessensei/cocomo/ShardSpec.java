@@ -0,0 +1,125 @@
+/** ========================================================================= *
+ * Copyright (C) 2014,      IBM Corporation ( http://www.ibm.com/ )           *
+ *                            All rights reserved.                            *
+ * ========================================================================== *
+ *                                                                            *
+ * Licensed under the  Apache License, Version 2.0  (the "License").  You may *
+ * not use this file except in compliance with the License.  You may obtain a *
+ * copy of the License at <http://www.apache.org/licenses/LICENSE-2.0>.       *
+ *                                                                            *
+ * Unless  required  by applicable  law or  agreed  to  in writing,  software *
+ * distributed under the License is distributed on an  "AS IS" BASIS, WITHOUT *
+ * WARRANTIES OR  CONDITIONS OF ANY KIND, either express or implied.  See the *
+ * License for the  specific language  governing permissions  and limitations *
+ * under the License.                                                         *
+ *                                                                            *
+ * ========================================================================== */
+package com.notessensei.cocomo;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Which part of the applications one worker process scans. Hash sharding
+ * puts an application always in the same shard, no matter what else is in
+ * the list. Range sharding cuts the list in N consecutive slices of the same
+ * size, good when the list is sorted by size
+ * 
+ * @author stw
+ * 
+ */
+public class ShardSpec {
+
+	public static final String	BY_HASH		= "hash";
+	public static final String	BY_RANGE	= "range";
+
+	private final int			shard;
+	private final int			shardCount;
+	private final String		method;
+
+	/**
+	 * @param shard
+	 *            - 1 to shardCount
+	 * @param shardCount
+	 * @param method
+	 *            - BY_HASH or BY_RANGE
+	 */
+	public ShardSpec(int shard, int shardCount, String method) {
+		if (shardCount < 1 || shard < 1 || shard > shardCount) {
+			throw new IllegalArgumentException("Shard " + shard + " of " + shardCount + " doesn't exist");
+		}
+		if (!ShardSpec.BY_HASH.equals(method) && !ShardSpec.BY_RANGE.equals(method)) {
+			throw new IllegalArgumentException("Shards are by " + ShardSpec.BY_HASH + " or " + ShardSpec.BY_RANGE + ", not " + method);
+		}
+		this.shard = shard;
+		this.shardCount = shardCount;
+		this.method = method;
+	}
+
+	/**
+	 * @param spec
+	 *            - shard/shardCount, e.g. 2/4
+	 * @param method
+	 * @return the shard
+	 */
+	public static ShardSpec parse(String spec, String method) {
+		int slash = spec.indexOf('/');
+		if (slash < 0) {
+			throw new IllegalArgumentException("Shard needs to be shard/count, e.g. 2/4: " + spec);
+		}
+		return new ShardSpec(Integer.parseInt(spec.substring(0, slash).trim()), Integer.parseInt(spec.substring(slash + 1).trim()),
+				method);
+	}
+
+	/**
+	 * The applications of this shard
+	 * 
+	 * @param sources
+	 *            - all applications, in report order
+	 * @return the applications of this shard and their position in the full
+	 *         list
+	 */
+	public Map<File, Integer> select(Collection<File> sources) {
+		Map<File, Integer> result = new LinkedHashMap<File, Integer>();
+		List<File> all = new ArrayList<File>(sources);
+		for (int i = 0; i < all.size(); i++) {
+			File source = all.get(i);
+			int target;
+			if (ShardSpec.BY_RANGE.equals(this.method)) {
+				target = (int) ((long) i * this.shardCount / all.size());
+			} else {
+				// String.hashCode is the same in every JVM, so all workers
+				// agree
+				target = (ArtefactExtractor.getApplicationName(source).hashCode() & 0x7fffffff) % this.shardCount;
+			}
+			if (target == this.shard - 1) {
+				result.put(source, Integer.valueOf(i));
+			}
+		}
+		return result;
+	}
+
+	public int getShard() {
+		return this.shard;
+	}
+
+	public int getShardCount() {
+		return this.shardCount;
+	}
+
+	/**
+	 * @return BY_HASH or BY_RANGE
+	 */
+	public String getMethod() {
+		return this.method;
+	}
+
+	@Override
+	public String toString() {
+		return this.shard + "/" + this.shardCount;
+	}
+}
@@ -0,0 +1,417 @@
+/** ========================================================================= *
+ * Copyright (C) 2014,      IBM Corporation ( http://www.ibm.com/ )           *
+ *                            All rights reserved.                            *
+ * ========================================================================== *
+ *                                                                            *
+ * Licensed under the  Apache License, Version 2.0  (the "License").  You may *
+ * not use this file except in compliance with the License.  You may obtain a *
+ * copy of the License at <http://www.apache.org/licenses/LICENSE-2.0>.       *
+ *                                                                            *
+ * Unless  required  by applicable  law or  agreed  to  in writing,  software *
+ * distributed under the License is distributed on an  "AS IS" BASIS, WITHOUT *
+ * WARRANTIES OR  CONDITIONS OF ANY KIND, either express or implied.  See the *
+ * License for the  specific language  governing permissions  and limitations *
+ * under the License.                                                         *
+ *                                                                            *
+ * ========================================================================== */
+package com.notessensei.cocomo;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Collection;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * Design elements stored as XML (DXL, XPages, themes...). Counts every
+ * element and the lines of code inside the code bearing tags
+ * 
+ * @author stw
+ * 
+ */
+public class XmlFileScanner implements ArtefactScanner {
+
+	/**
+	 * Files where the logic sits in computed attributes (#{...} and ${...})
+	 */
+	private static final Collection<String>	BINDING_EXTENSIONS	= Arrays.asList("xsp", "xsp-config");
+
+	private static final String				SSJS_PREFIX			= "javascript:";
+
+	/**
+	 * Everything that belongs to the scan of one file
+	 */
+	private static final class FileScan {
+		private final ArtefactExtractor		extractor;
+		private final RuleSet				rules;
+		private final String				fileName;
+		private final String				extension;
+		private final ArtefactResult		result;
+		private int							codeUnits	= 0;
+		private final CountingRule.Context	ruleContext	= new CountingRule.Context();
+		private final boolean[]				filesCounted;
+		private final boolean				scanBindings;
+		private final ScanBudget			budget;
+
+		private FileScan(ArtefactExtractor extractor, String fileName, String extension, ArtefactResult result) {
+			this.extractor = extractor;
+			this.rules = extractor.getRules();
+			this.fileName = fileName;
+			this.extension = extension;
+			this.result = result;
+			this.filesCounted = new boolean[this.rules.getCountingRuleCount()];
+			this.scanBindings = XmlFileScanner.BINDING_EXTENSIONS.contains(extension);
+			this.budget = ScanBudget.current();
+		}
+	}
+
+	public Collection<String> getExtensions(ArtefactExtractor extractor) {
+		return extractor.getXmlExtensions();
+	}
+
+	public Collection<String> getFileNames(ArtefactExtractor extractor) {
+		return Arrays.asList("database.properties");
+	}
+
+	public boolean isStreaming() {
+		return true;
+	}
+
+	public boolean isThreadSafe() {
+		return true;
+	}
+
+	public void scan(ArtefactExtractor extractor, String fileName, String extension, InputStream in, ArtefactResult result)
+			throws IOException {
+		this.scanDocument(extractor, fileName, extension, this.parse(in), result);
+	}
+
+	/**
+	 * The first half of scan: parses the content within the budget of the
+	 * current thread
+	 * 
+	 * @param in
+	 * @return the document
+	 * @throws IOException
+	 *             also when the content isn't XML
+	 */
+	public Document parse(InputStream in) throws IOException {
+		// Parse errors go to the caller, it decides if the run goes on
+		ScanBudget budget = ScanBudget.current();
+		return DomHelper.getDomHelper().parseStream((budget == null) ? in : budget.guard(in));
+	}
+
+	/**
+	 * The second half of scan: counts a parsed document
+	 * 
+	 * @param extractor
+	 * @param fileName
+	 * @param extension
+	 * @param xDoc
+	 * @param result
+	 * @throws IOException
+	 *             only when the budget is exceeded
+	 */
+	public void scanDocument(ArtefactExtractor extractor, String fileName, String extension, Document xDoc, ArtefactResult result)
+			throws IOException {
+		Element element = xDoc.getDocumentElement();
+		FileScan scan = new FileScan(extractor, fileName, extension, result);
+		scan.ruleContext.push(element);
+		this.applyRules(scan, element.getNodeName());
+		if (scan.scanBindings) {
+			this.scanBindings(scan, element, element.getNodeName());
+		}
+		this.iterateAndCount(scan, element, 0);
+		scan.ruleContext.pop();
+
+		// Rules that count files, not matches
+		for (CountingRule rule : scan.rules.getPerFileRules()) {
+			if (scan.filesCounted[rule.getId()]) {
+				result.add(rule.getKey());
+			}
+		}
+		ElementFingerprinter fingerprinter = extractor.getFingerprinter();
+		if (fingerprinter != null) {
+			result.addFingerprint(fileName, fingerprinter.fingerprint(element));
+		}
+	}
+
+	/**
+	 * Counts the computed bindings in the attributes of an XPages component.
+	 * #{javascript:...} and ${javascript:...} are server side JavaScript, their
+	 * code is lexed like any other JavaScript, all other bindings are
+	 * expression language
+	 */
+	private void scanBindings(FileScan scan, Element element, String component) {
+		NamedNodeMap attributes = element.getAttributes();
+		for (int a = 0, count = attributes.getLength(); a < count; a++) {
+			String value = ((Attr) attributes.item(a)).getValue();
+			int pos = value.indexOf('{');
+			while (pos >= 0) {
+				// A brace without # or $ in front, also one at the start, is
+				// plain text
+				char marker = (pos == 0) ? ' ' : value.charAt(pos - 1);
+				if (marker != '#' && marker != '$') {
+					pos = value.indexOf('{', pos + 1);
+					continue;
+				}
+				scan.result.add("bindings");
+				scan.result.add("bindings_" + component);
+				if (value.startsWith(XmlFileScanner.SSJS_PREFIX, pos + 1)) {
+					// JavaScript has braces itself, the binding ends with the
+					// one that closes the first
+					int end = XmlFileScanner.findClosingBrace(value, pos);
+					if (end < 0) {
+						this.countScript(scan, value.substring(pos + 1 + XmlFileScanner.SSJS_PREFIX.length()), component);
+						break;
+					}
+					this.countScript(scan, value.substring(pos + 1 + XmlFileScanner.SSJS_PREFIX.length(), end), component);
+					pos = value.indexOf('{', end);
+					continue;
+				}
+				int end = value.indexOf('}', pos);
+				if (end < 0) {
+					break;
+				}
+				scan.result.add("el_bindings");
+				pos = value.indexOf('{', end);
+			}
+		}
+	}
+
+	/**
+	 * The brace that closes the one at open, braces in JavaScript strings
+	 * don't count
+	 * 
+	 * @return its position, -1 when it isn't closed
+	 */
+	static int findClosingBrace(String value, int open) {
+		int depth = 0;
+		char quote = 0;
+		for (int i = open, length = value.length(); i < length; i++) {
+			char c = value.charAt(i);
+			if (quote != 0) {
+				if (c == '\\') {
+					i++;
+				} else if (c == quote) {
+					quote = 0;
+				}
+			} else if (c == '"' || c == '\'' || c == '`') {
+				quote = c;
+			} else if (c == '{') {
+				depth++;
+			} else if (c == '}') {
+				depth--;
+				if (depth == 0) {
+					return i;
+				}
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Lexes the server side JavaScript of one binding
+	 */
+	private void countScript(final FileScan scan, String script, String component) {
+		scan.result.add("ssjs_bindings");
+		scan.result.add("ssjs_bindings_" + component);
+		CodeLexer.CodeLineListener lineCheck = new CodeLexer.CodeLineListener() {
+			public void codeLine(String line) {
+				scan.rules.countKeywords(line, scan.result);
+			}
+		};
+		try {
+			CodeMetrics metrics = CodeLexer.forLanguage("javascript").lex(new StringReader(script), lineCheck);
+			metrics.addEmbeddedTo(scan.result, "ssjs");
+			scan.result.add("LOC_ssjs_" + component, metrics.getCodeLines());
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Runs all counting rules for the element on top of the rule context
+	 */
+	private void applyRules(FileScan scan, String elementName) {
+		for (CountingRule rule : scan.rules.getCountingRules(elementName)) {
+			this.applyRule(scan, rule);
+		}
+		for (CountingRule rule : scan.rules.getAnyElementRules()) {
+			this.applyRule(scan, rule);
+		}
+	}
+
+	private void applyRule(FileScan scan, CountingRule rule) {
+		int count = rule.count(scan.ruleContext);
+		if (count > 0) {
+			if (rule.isPerFile()) {
+				scan.filesCounted[rule.getId()] = true;
+			} else {
+				scan.result.add(rule.getKey(), count);
+			}
+		}
+	}
+
+	private boolean isElementFromTemplate(Element nodeElement) {
+
+		// We need to check if this is an inherited element,
+		// so we check for the attribute fromtemplate
+
+		if (nodeElement.hasAttribute("fromtemplate")) {
+			String fromTemplate = nodeElement.getAttribute("fromtemplate");
+			if (!fromTemplate.trim().equals("")) {
+				// has the attribute and it isn't empty
+				return true;
+			}
+		}
+		// Not from template, since we didn't find the property
+		return false;
+	}
+
+	/**
+	 * Process that one element
+	 * 
+	 * @param scan
+	 * @param element
+	 * @param depth
+	 *            - nesting of the element, the root is 0
+	 * @throws ScanBudget.ExceededException
+	 */
+	private void iterateAndCount(FileScan scan, Element element, int depth) throws ScanBudget.ExceededException {
+		if (scan.budget != null) {
+			scan.budget.check(depth);
+		}
+
+		NodeList nodeList = element.getChildNodes();
+
+		for (int i = 0, size = nodeList.getLength(); i < size; i++) {
+			Node node = nodeList.item(i);
+
+			if (node.getNodeType() == Node.ELEMENT_NODE) {
+				Element nodeElement = (Element) node;
+				String curName = node.getNodeName();
+
+				// Check for template
+				boolean elementIsFromTemplate = this.isElementFromTemplate(nodeElement);
+
+				if (elementIsFromTemplate) {
+					String fromTemplate = nodeElement.getAttribute("fromtemplate");
+					scan.result.add("template_" + fromTemplate);
+					return;
+				}
+
+				scan.result.add(curName);
+				scan.result.add(scan.extension + "_" + curName);
+				scan.ruleContext.push(nodeElement);
+				this.applyRules(scan, curName);
+				if (scan.scanBindings) {
+					this.scanBindings(scan, nodeElement, curName);
+				}
+
+				this.updateLOC(scan, nodeElement);
+				this.iterateAndCount(scan, nodeElement, depth + 1);
+				scan.ruleContext.pop();
+			}
+		}
+	}
+
+	/**
+	 * Counts element for LOC count if required
+	 * 
+	 * @param scan
+	 * @param nodeElement
+	 */
+	private void updateLOC(final FileScan scan, Element element) {
+		String language = element.getNodeName();
+		int tagFlags = scan.rules.getTagFlags(language);
+		if ((tagFlags & RuleSet.TAG_LOC) == 0) {
+			return;
+		}
+		CodeLexer lexer = ((tagFlags & RuleSet.TAG_LEXED) == 0) ? null : CodeLexer.forLanguage(language);
+		MinHasher minHasher = scan.extractor.getMinHasher();
+		final MinHasher.Signer signer = (minHasher == null) ? null : minHasher.newSigner();
+		// The parser may split the code in several text and CDATA nodes
+		String code = XmlFileScanner.getCode(element);
+		if (lexer != null) {
+			// Real languages get their lexer, it knows about comments
+			// and statements spanning lines
+			CodeLexer.CodeLineListener keywordCheck = new CodeLexer.CodeLineListener() {
+				public void codeLine(String line) {
+					scan.rules.countKeywords(line, scan.result);
+					if (signer != null) {
+						signer.feed(line);
+					}
+				}
+			};
+			try {
+				CodeMetrics metrics = lexer.lex(new StringReader(code), keywordCheck);
+				metrics.addEmbeddedTo(scan.result, language);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		} else {
+			// Extracts the # of lines inside an element
+			// typically used for lotuscript and formula elements
+			// also checks for code keywords
+			int addCount = 0;
+			if ((tagFlags & RuleSet.TAG_FORMULA) != 0 && scan.extractor.isProfilingFunctions()) {
+				FormulaTokenizer.profile(code, scan.result.getFunctions());
+			}
+
+			BufferedReader source = new BufferedReader(new StringReader(code));
+
+			String curLine;
+			try {
+				while ((curLine = source.readLine()) != null) {
+					String workLine = curLine.trim().toLowerCase();
+
+					if (!workLine.equals("") && !workLine.startsWith("'")) {
+						scan.rules.countKeywords(workLine, scan.result);
+						if (signer != null) {
+							signer.feed(workLine);
+						}
+						addCount += 1;
+					}
+				}
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+
+			// Now add our findings
+			scan.result.add("LOC", addCount);
+			scan.result.add("LOC_" + language, addCount);
+		}
+
+		if (signer != null) {
+			int[] signature = signer.finish();
+			if (signature != null) {
+				scan.codeUnits++;
+				scan.result.addCodeSignature(scan.fileName + "#" + language + scan.codeUnits, signature);
+			}
+		}
+	}
+
+	/**
+	 * The text of an element, its text and CDATA nodes joined
+	 */
+	private static String getCode(Element element) {
+		StringBuilder code = new StringBuilder();
+		NodeList nodeList = element.getChildNodes();
+		for (int i = 0, size = nodeList.getLength(); i < size; i++) {
+			Node node = nodeList.item(i);
+			if (node.getNodeType() == Node.TEXT_NODE || node.getNodeType() == Node.CDATA_SECTION_NODE) {
+				code.append(node.getNodeValue());
+			}
+		}
+		return code.toString();
+	}
+}
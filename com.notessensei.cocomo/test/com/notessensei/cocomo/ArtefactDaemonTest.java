@@ -0,0 +1,143 @@
+/** ========================================================================= *
+ * Copyright (C) 2014,      IBM Corporation ( http://www.ibm.com/ )           *
+ *                            All rights reserved.                            *
+ * ========================================================================== *
+ *                                                                            *
+ * Licensed under the  Apache License, Version 2.0  (the "License").  You may *
+ * not use this file except in compliance with the License.  You may obtain a *
+ * copy of the License at <http://www.apache.org/licenses/LICENSE-2.0>.       *
+ *                                                                            *
+ * Unless  required  by applicable  law or  agreed  to  in writing,  software *
+ * distributed under the License is distributed on an  "AS IS" BASIS, WITHOUT *
+ * WARRANTIES OR  CONDITIONS OF ANY KIND, either express or implied.  See the *
+ * License for the  specific language  governing permissions  and limitations *
+ * under the License.                                                         *
+ *                                                                            *
+ * ========================================================================== */
+package com.notessensei.cocomo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Talks to a daemon over a loopback socket
+ * 
+ * @author stw
+ * 
+ */
+public class ArtefactDaemonTest {
+
+	private File				root;
+	private File				sources;
+	private ArtefactDaemon		daemon;
+	private Thread				server;
+	private Socket				socket;
+	private BufferedReader		in;
+	private PrintWriter			out;
+
+	@Before
+	public void setUp() throws IOException {
+		this.root = File.createTempFile("daemon", "");
+		this.root.delete();
+		this.sources = new File(this.root, "projects");
+		ScanPipelineTest.write(new File(this.sources, "App/Forms/Main.form"), "<form><field name='a'/></form>");
+		ScanPipelineTest.write(new File(this.sources, "App/Forms/Broken.form"), "<form><field>");
+		ScanPipelineTest.write(new File(this.root, "Outside/Forms/Main.form"), "<form/>");
+		ArtefactExtractor extractor = new ArtefactExtractor(this.sources.getAbsolutePath(), new File(this.root, "report.csv")
+				.getAbsolutePath(), RuleSet.load(this.root));
+		this.daemon = new ArtefactDaemon(extractor, 0, 2, Collections.singletonList(this.sources));
+		this.daemon.bind();
+		this.server = new Thread(new Runnable() {
+			public void run() {
+				try {
+					ArtefactDaemonTest.this.daemon.serve();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		});
+		this.server.start();
+		this.socket = new Socket(InetAddress.getLoopbackAddress(), this.daemon.getLocalPort());
+		this.in = new BufferedReader(new InputStreamReader(this.socket.getInputStream(), "UTF-8"));
+		this.out = new PrintWriter(new OutputStreamWriter(this.socket.getOutputStream(), "UTF-8"));
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		this.socket.close();
+		this.daemon.shutdown();
+		this.server.join(10000);
+		ScanPipelineTest.delete(this.root);
+	}
+
+	@Test(timeout = 60000)
+	public void headerAndScan() throws IOException {
+		List<String> header = this.send("HEADER");
+		assertEquals(1, header.size());
+		assertTrue(header.get(0), header.get(0).startsWith("Application,"));
+
+		File app = new File(this.sources, "App");
+		for (int i = 0; i < 2; i++) {
+			// The second scan must not report the skipped file twice
+			List<String> answer = this.send("SCAN " + app.getAbsolutePath());
+			assertEquals(answer.toString(), 2, answer.size());
+			assertTrue(answer.get(0), answer.get(0).startsWith("App,"));
+			assertTrue(answer.get(1), answer.get(1).startsWith("SKIPPED " + new File(app, "Forms/Broken.form").getAbsolutePath()
+					+ " (parse, 1 attempts): "));
+		}
+		assertTrue(new File(this.sources, "Appapp.metrics").exists());
+	}
+
+	@Test(timeout = 60000)
+	public void scanOutsideTheSourceRoots() throws IOException {
+		String outside = new File(this.root, "Outside").getAbsolutePath();
+		assertEquals("ERROR Not in a source directory of the daemon: " + outside, this.send("SCAN " + outside).get(0));
+		// .. can't sneak out either
+		String sneaky = this.sources.getAbsolutePath() + File.separator + ".." + File.separator + "Outside";
+		assertEquals("ERROR Not in a source directory of the daemon: " + sneaky, this.send("SCAN " + sneaky).get(0));
+		assertTrue(this.send("SCAN " + new File(this.sources, "Missing").getAbsolutePath()).get(0).startsWith(
+				"ERROR Not an On-Disk-Project"));
+		assertEquals("ERROR Unknown command: FROB", this.send("frob").get(0));
+	}
+
+	@Test(timeout = 60000)
+	public void reloadKeepsServing() throws IOException {
+		List<String> before = this.send("HEADER");
+		assertEquals(0, this.send("RELOAD").size());
+		assertEquals(before, this.send("HEADER"));
+		assertEquals(0, this.send("SHUTDOWN").size());
+	}
+
+	/**
+	 * @return the lines of the answer without END
+	 */
+	private List<String> send(String command) throws IOException {
+		this.out.write(command + "\n");
+		this.out.flush();
+		List<String> result = new ArrayList<String>();
+		String line;
+		while (!"END".equals(line = this.in.readLine())) {
+			if (line == null) {
+				throw new IOException("Connection closed before END");
+			}
+			result.add(line);
+		}
+		return result;
+	}
+}
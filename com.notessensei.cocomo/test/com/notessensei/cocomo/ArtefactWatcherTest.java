@@ -0,0 +1,127 @@
+/** ========================================================================= *
+ * Copyright (C) 2014,      IBM Corporation ( http://www.ibm.com/ )           *
+ *                            All rights reserved.                            *
+ * ========================================================================== *
+ *                                                                            *
+ * Licensed under the  Apache License, Version 2.0  (the "License").  You may *
+ * not use this file except in compliance with the License.  You may obtain a *
+ * copy of the License at <http://www.apache.org/licenses/LICENSE-2.0>.       *
+ *                                                                            *
+ * Unless  required  by applicable  law or  agreed  to  in writing,  software *
+ * distributed under the License is distributed on an  "AS IS" BASIS, WITHOUT *
+ * WARRANTIES OR  CONDITIONS OF ANY KIND, either express or implied.  See the *
+ * License for the  specific language  governing permissions  and limitations *
+ * under the License.                                                         *
+ *                                                                            *
+ * ========================================================================== */
+package com.notessensei.cocomo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The per-file bookkeeping of the watcher, without a watch service
+ * 
+ * @author stw
+ * 
+ */
+public class ArtefactWatcherTest {
+
+	private static final String	SCRIPT	= "Option Public\nSub Initialize\n  Print 1\nEnd Sub\n";
+	private static final String	BIGGER	= "Option Public\nSub Initialize\n  Print 1\n  Print 2\nEnd Sub\n"
+												+ "Function f As Integer\n  f = 1\nEnd Function\n";
+
+	private File				root;
+	private File				appDir;
+	private ArtefactExtractor	extractor;
+
+	@Before
+	public void setUp() throws IOException {
+		this.root = File.createTempFile("watcher", "");
+		this.root.delete();
+		this.root.mkdirs();
+		this.appDir = new File(this.root, "App");
+		ScanPipelineTest.write(new File(this.appDir, "Code/ScriptLibraries/Lib.lss"), ArtefactWatcherTest.SCRIPT);
+		this.extractor = new ArtefactExtractor(this.root.getAbsolutePath(), new File(this.root, "report.csv").getAbsolutePath(),
+				RuleSet.load(this.root));
+	}
+
+	@After
+	public void tearDown() {
+		ScanPipelineTest.delete(this.root);
+	}
+
+	@Test
+	public void modifyThenDeleteRestoresTheBaseline() throws IOException {
+		ArtefactWatcher.ApplicationState state = new ArtefactWatcher.ApplicationState(this.appDir);
+		state.updateFile(this.extractor, new File(this.appDir, "Code/ScriptLibraries/Lib.lss"));
+		Map<String, Integer> baseline = ArtefactWatcherTest.counters(state);
+		assertFalse(baseline.isEmpty());
+
+		File added = new File(this.appDir, "Code/ScriptLibraries/Added.lss");
+		ScanPipelineTest.write(added, ArtefactWatcherTest.SCRIPT);
+		state.updateFile(this.extractor, added);
+		Map<String, Integer> twice = ArtefactWatcherTest.counters(state);
+		for (Map.Entry<String, Integer> me : baseline.entrySet()) {
+			assertEquals(me.getKey(), Integer.valueOf(2 * me.getValue().intValue()), twice.get(me.getKey()));
+		}
+
+		// A change swaps the old contribution, it doesn't add to it
+		ScanPipelineTest.write(added, ArtefactWatcherTest.BIGGER);
+		state.updateFile(this.extractor, added);
+		state.updateFile(this.extractor, added);
+		Map<String, Integer> modified = ArtefactWatcherTest.counters(state);
+		assertFalse(modified.equals(twice));
+
+		added.delete();
+		state.removeFiles(added.toPath());
+		assertEquals(baseline, ArtefactWatcherTest.counters(state));
+	}
+
+	@Test
+	public void deletedFileNoticedByTheUpdate() throws IOException {
+		ArtefactWatcher.ApplicationState state = new ArtefactWatcher.ApplicationState(this.appDir);
+		state.updateFile(this.extractor, new File(this.appDir, "Code/ScriptLibraries/Lib.lss"));
+		Map<String, Integer> baseline = ArtefactWatcherTest.counters(state);
+
+		File added = new File(this.appDir, "Code/ScriptLibraries/More/Added.lss");
+		ScanPipelineTest.write(added, ArtefactWatcherTest.BIGGER);
+		state.updateFile(this.extractor, added);
+		ScanPipelineTest.write(added, ArtefactWatcherTest.SCRIPT);
+		state.updateFile(this.extractor, added);
+		added.delete();
+		state.updateFile(this.extractor, added);
+		assertEquals(baseline, ArtefactWatcherTest.counters(state));
+
+		// A directory takes all files below it along
+		ScanPipelineTest.write(added, ArtefactWatcherTest.BIGGER);
+		state.updateFile(this.extractor, added);
+		state.removeFiles(added.getParentFile().toPath());
+		assertEquals(baseline, ArtefactWatcherTest.counters(state));
+
+		state.clear();
+		assertEquals(new TreeMap<String, Integer>(), ArtefactWatcherTest.counters(state));
+	}
+
+	/**
+	 * The report writes a missing counter as 0, so zeros don't count
+	 */
+	private static Map<String, Integer> counters(ArtefactWatcher.ApplicationState state) {
+		Map<String, Integer> result = new TreeMap<String, Integer>();
+		for (Map.Entry<String, Integer> me : state.getTotal().getCounters().entrySet()) {
+			if (me.getValue().intValue() != 0) {
+				result.put(me.getKey(), me.getValue());
+			}
+		}
+		return result;
+	}
+}
@@ -0,0 +1,201 @@
+/** ========================================================================= *
+ * Copyright (C) 2014,      IBM Corporation ( http://www.ibm.com/ )           *
+ *                            All rights reserved.                            *
+ * ========================================================================== *
+ *                                                                            *
+ * Licensed under the  Apache License, Version 2.0  (the "License").  You may *
+ * not use this file except in compliance with the License.  You may obtain a *
+ * copy of the License at <http://www.apache.org/licenses/LICENSE-2.0>.       *
+ *                                                                            *
+ * Unless  required  by applicable  law or  agreed  to  in writing,  software *
+ * distributed under the License is distributed on an  "AS IS" BASIS, WITHOUT *
+ * WARRANTIES OR  CONDITIONS OF ANY KIND, either express or implied.  See the *
+ * License for the  specific language  governing permissions  and limitations *
+ * under the License.                                                         *
+ *                                                                            *
+ * ========================================================================== */
+package com.notessensei.cocomo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import org.junit.Test;
+
+/**
+ * The shipped calibration against the published COCOMO II.2000 values and
+ * the Monte Carlo run
+ * 
+ * @author stw
+ * 
+ */
+public class CocomoModelTest {
+
+	@Test
+	public void calibrationIsCocomoII2000() throws IOException {
+		CocomoModel model = new CocomoModel(CocomoModelTest.load());
+		assertEquals(2.94, model.getA(), 0);
+		assertEquals(0.91, model.getB(), 0);
+		assertEquals(3.67, model.getC(), 0);
+		assertEquals(0.28, model.getD(), 0);
+		List<CocomoModel.Driver> drivers = model.getDrivers();
+		assertEquals(22, drivers.size());
+		double scaleFactors = 0;
+		double multipliers = 1;
+		for (int i = 0; i < drivers.size(); i++) {
+			CocomoModel.Driver driver = drivers.get(i);
+			// Scale factors first
+			assertEquals(driver.getName(), i < 5, driver.isScaleFactor());
+			assertEquals(CocomoModel.NOMINAL, driver.getRating());
+			if (driver.isScaleFactor()) {
+				scaleFactors += driver.getValue(CocomoModel.NOMINAL);
+			} else {
+				multipliers *= driver.getValue(CocomoModel.NOMINAL);
+			}
+		}
+		assertEquals(18.97, scaleFactors, 1e-9);
+		assertEquals(1.0, multipliers, 1e-9);
+		assertEquals("SCED", model.getSced().getName());
+	}
+
+	@Test
+	public void nominalProject() throws IOException {
+		CocomoModel model = new CocomoModel(CocomoModelTest.load());
+		// E = 0.91 + 0.01 * 18.97 = 1.0997, 2.94 * 100^1.0997 = 465.3 PM
+		// F = 0.28 + 0.2 * 0.1897 = 0.3179, 3.67 * 465.3^0.3179 = 25.9 months
+		CocomoModel.Estimate estimate = model.estimate(100);
+		assertEquals(465.3, estimate.getEffort(), 0.05);
+		assertEquals(25.9, estimate.getSchedule(), 0.05);
+		assertEquals(18.0, estimate.getStaff(), 0.05);
+		assertEquals(2.94, model.estimate(1).getEffort(), 1e-9);
+		assertEquals(0, model.estimate(0).getEffort(), 0);
+		assertEquals(0, model.estimate(0).getStaff(), 0);
+	}
+
+	@Test
+	public void ratingsChangeTheEstimate() throws IOException {
+		CocomoModel.Estimate nominal = new CocomoModel(CocomoModelTest.load()).estimate(100);
+		Properties properties = CocomoModelTest.load();
+		properties.setProperty("rating.CPLX", "H");
+		assertEquals(nominal.getEffort() * 1.17, new CocomoModel(properties).estimate(100).getEffort(), 1e-6);
+
+		// Compressed schedule: more effort, 75% of the nominal schedule
+		properties = CocomoModelTest.load();
+		properties.setProperty("rating.SCED", "VL");
+		CocomoModel.Estimate compressed = new CocomoModel(properties).estimate(100);
+		assertEquals(nominal.getEffort() * 1.43, compressed.getEffort(), 1e-6);
+		assertEquals(nominal.getSchedule() * 0.75, compressed.getSchedule(), 1e-6);
+
+		// All scale factors extra high: E = B
+		properties = CocomoModelTest.load();
+		for (String sf : new String[] { "PREC", "FLEX", "RESL", "TEAM", "PMAT" }) {
+			properties.setProperty("rating." + sf, "XH");
+		}
+		assertEquals(2.94 * Math.pow(100, 0.91), new CocomoModel(properties).estimate(100).getEffort(), 1e-6);
+	}
+
+	@Test
+	public void brokenModels() throws IOException {
+		String[][] broken = { { "rating.DATA", "VL" }, { "rating.CPLX", "Huge" }, { "em.CPLX", "1,2,3" },
+				{ "range.TIME", "VL-L" }, { "A", null } };
+		for (String[] change : broken) {
+			Properties properties = CocomoModelTest.load();
+			if (change[1] == null) {
+				properties.remove(change[0]);
+			} else {
+				properties.setProperty(change[0], change[1]);
+			}
+			try {
+				new CocomoModel(properties);
+				fail("Accepted " + change[0] + "=" + change[1]);
+			} catch (IllegalArgumentException e) {
+				// Expected
+			}
+		}
+	}
+
+	@Test
+	public void simulationWithoutRangesIsTheEstimate() throws IOException {
+		Properties properties = CocomoModelTest.load();
+		for (String key : properties.stringPropertyNames()) {
+			if (key.startsWith("range.")) {
+				properties.remove(key);
+			}
+		}
+		CocomoModel model = new CocomoModel(properties);
+		String[] effort = CocomoModelTest.simulate(model, 1000, 2, 1).get(1);
+		for (int i = 1; i < effort.length; i++) {
+			assertEquals(effort[0] + " " + i, model.estimate(100).getEffort(), Double.parseDouble(effort[i]), 0.1);
+		}
+	}
+
+	@Test
+	public void simulationIsRepeatable() throws IOException {
+		CocomoModel model = new CocomoModel(CocomoModelTest.load());
+		List<String[]> first = CocomoModelTest.simulate(model, 20000, 4, 42);
+		List<String[]> second = CocomoModelTest.simulate(model, 20000, 4, 42);
+		assertEquals(4, first.size());
+		for (int row = 0; row < first.size(); row++) {
+			assertEquals(Arrays.asList(first.get(row)), Arrays.asList(second.get(row)));
+		}
+		for (int row = 1; row < first.size(); row++) {
+			// Percentiles P5 to P95 never go down
+			String[] values = first.get(row);
+			for (int i = 3; i < values.length; i++) {
+				assertTrue(values[0], Double.parseDouble(values[i - 1]) <= Double.parseDouble(values[i]));
+			}
+		}
+		// Ratings L to H spread the effort around the nominal one
+		double p5 = Double.parseDouble(first.get(1)[2]);
+		double p95 = Double.parseDouble(first.get(1)[6]);
+		assertTrue(p5 < 465.3 && 465.3 < p95);
+	}
+
+	/**
+	 * The shipped cocomo.properties
+	 */
+	private static Properties load() throws IOException {
+		Properties result = new Properties();
+		InputStream in = CocomoModel.class.getResourceAsStream(RuleSet.COCOMO_PROPERTIES);
+		try {
+			result.load(in);
+		} finally {
+			in.close();
+		}
+		return result;
+	}
+
+	/**
+	 * @return the rows of the distribution, split at the commas
+	 */
+	private static List<String[]> simulate(CocomoModel model, long samples, int threads, long seed) throws IOException {
+		CocomoSimulation simulation = new CocomoSimulation(model, samples, threads, seed);
+		simulation.run(new double[] { 100 });
+		File f = File.createTempFile("distribution", ".csv");
+		try {
+			simulation.writeDistribution(f.getPath());
+			List<String[]> result = new ArrayList<String[]>();
+			BufferedReader in = LineSorter.open(f);
+			try {
+				String line;
+				while ((line = in.readLine()) != null) {
+					result.add(line.split(","));
+				}
+			} finally {
+				in.close();
+			}
+			return result;
+		} finally {
+			f.delete();
+		}
+	}
+}
@@ -0,0 +1,139 @@
+/** ========================================================================= *
+ * Copyright (C) 2014,      IBM Corporation ( http://www.ibm.com/ )           *
+ *                            All rights reserved.                            *
+ * ========================================================================== *
+ *                                                                            *
+ * Licensed under the  Apache License, Version 2.0  (the "License").  You may *
+ * not use this file except in compliance with the License.  You may obtain a *
+ * copy of the License at <http://www.apache.org/licenses/LICENSE-2.0>.       *
+ *                                                                            *
+ * Unless  required  by applicable  law or  agreed  to  in writing,  software *
+ * distributed under the License is distributed on an  "AS IS" BASIS, WITHOUT *
+ * WARRANTIES OR  CONDITIONS OF ANY KIND, either express or implied.  See the *
+ * License for the  specific language  governing permissions  and limitations *
+ * under the License.                                                         *
+ *                                                                            *
+ * ========================================================================== */
+package com.notessensei.cocomo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Code lines, comment lines, statements and procedures of the lexers, the
+ * expected values are counted by hand
+ * 
+ * @author stw
+ * 
+ */
+public class CodeLexerTest {
+
+	private static final String	LOTUSSCRIPT	= "Option Public\n" + "%REM\n" + "Nothing here\n" + "%END REM\n" + "\n"
+													+ "Public Function add(a As Integer, _\n" + "  b As Integer) As Integer\n"
+													+ "  add = a + b : Print \"it's\"\n" + "End Function\n" + "REM old\n"
+													+ "Private Sub Initialize\n" + "  s = |multi\n" + "line|\n" + "End Sub\n"
+													+ "Property Get name As String\n" + "End Property\n" + "Dim x%";
+
+	private static final String	JAVA		= "package a;\n" + "/* block\n" + " * comment */\n" + "public class A {\n"
+													+ "  // line\n" + "  void run() throws Exception {\n" + "    if (x) { y(); }\n"
+													+ "    for (int i = 0; i < 3; i++) s += \"}/*\";\n" + "  }\n"
+													+ "  int get() { return 1; }\n" + "}";
+
+	private static final String	JAVASCRIPT	= "var f = function(a) {\n" + "  return a / 2; // half\n" + "};\n"
+													+ "var g = (x) => x * 2;\n" + "var r = /[/]*/g;\n" + "var t = `a\n"
+													+ "${b}\n" + "`;\n" + "function h() {}";
+
+	@Test
+	public void languages() {
+		assertSame(CodeLexer.forLanguage("lss"), CodeLexer.forLanguage("lotusscript"));
+		assertSame(CodeLexer.forLanguage("js"), CodeLexer.forLanguage("jss"));
+		assertSame(CodeLexer.forLanguage("js"), CodeLexer.forLanguage("javascript"));
+		assertEquals(CStyleLexer.class, CodeLexer.forLanguage("java").getClass());
+		assertNull(CodeLexer.forLanguage("xml"));
+	}
+
+	@Test
+	public void lotusScript() throws IOException {
+		// REM blocks and lines are comments, the continued and the multi line
+		// string statement count once, : separates statements
+		CodeLexerTest.assertMetrics("lss", CodeLexerTest.LOTUSSCRIPT, 12, 4, 11, 3);
+	}
+
+	@Test
+	public void java() throws IOException {
+		// Blocks count as statements, the ; in for (...) and in strings don't
+		CodeLexerTest.assertMetrics("java", CodeLexerTest.JAVA, 8, 3, 8, 2);
+	}
+
+	@Test
+	public void javaScript() throws IOException {
+		// A / in a regular expression opens no comment, template strings span
+		// lines, arrow functions are procedures
+		CodeLexerTest.assertMetrics("js", CodeLexerTest.JAVASCRIPT, 9, 0, 7, 3);
+	}
+
+	@Test
+	public void anonymousClassesAreNoProcedures() throws IOException {
+		// Only run() is a procedure, the class bodies after new are none
+		CodeLexerTest.assertMetrics("java", "Runnable r = new Foo.Bar() {\n  public void run() {}\n};\n"
+				+ "List<String> l = new java.util.ArrayList<String>() {};\n"
+				+ "Map<A, B> m = new HashMap<A, List<B>>(16) {};", 5, 0, 7, 1);
+		// A method call after new still opens a procedure
+		CodeLexerTest.assertMetrics("java", "Object o = new A();\nvoid f() {}", 2, 0, 2, 1);
+	}
+
+	@Test
+	public void regularExpressionsAfterKeywords() throws IOException {
+		// Each regular expression has a // or /* in it that would otherwise
+		// end the line as a comment
+		String[] keywords = { "return", "typeof", "case", "in", "of", "delete" };
+		for (String keyword : keywords) {
+			CodeLexerTest.assertMetrics("js", "x = " + keyword + " /a\\//.test(s);\nvar y = 1;", 2, 0, 2, 0);
+			CodeLexerTest.assertMetrics("js", "x = " + keyword + " /[/*]/;\ny = 1;", 2, 0, 2, 0);
+		}
+		// After a value a / divides
+		CodeLexerTest.assertMetrics("js", "x = a / b; // half\ny = returned / 2; /* c */", 2, 0, 2, 0);
+	}
+
+	@Test
+	public void codeLinesGoToTheListener() throws IOException {
+		final List<String> lines = new ArrayList<String>();
+		CodeLexer.forLanguage("java").lex(new StringReader(CodeLexerTest.JAVA), new CodeLexer.CodeLineListener() {
+			public void codeLine(String line) {
+				lines.add(line);
+			}
+		});
+		assertEquals(8, lines.size());
+		assertEquals("package a;", lines.get(0));
+		assertEquals("public class A {", lines.get(1));
+		assertEquals("}", lines.get(7));
+	}
+
+	@Test
+	public void sharedLexerKeepsNoState() throws IOException {
+		// An open block comment must not leak into the next source
+		CodeLexer java = CodeLexer.forLanguage("java");
+		java.lex(new StringReader("/* open"), null);
+		CodeLexerTest.assertMetrics("java", CodeLexerTest.JAVA, 8, 3, 8, 2);
+		CodeLexer lss = CodeLexer.forLanguage("lss");
+		lss.lex(new StringReader("%REM\nopen"), null);
+		CodeLexerTest.assertMetrics("lss", CodeLexerTest.LOTUSSCRIPT, 12, 4, 11, 3);
+	}
+
+	private static void assertMetrics(String language, String source, int code, int comments, int statements, int procedures)
+			throws IOException {
+		CodeMetrics metrics = CodeLexer.forLanguage(language).lex(new StringReader(source), null);
+		assertEquals("code lines", code, metrics.getCodeLines());
+		assertEquals("comment lines", comments, metrics.getCommentLines());
+		assertEquals("statements", statements, metrics.getStatements());
+		assertEquals("procedures", procedures, metrics.getProcedures());
+	}
+}
@@ -0,0 +1,130 @@
+/** ========================================================================= *
+ * Copyright (C) 2014,      IBM Corporation ( http://www.ibm.com/ )           *
+ *                            All rights reserved.                            *
+ * ========================================================================== *
+ *                                                                            *
+ * Licensed under the  Apache License, Version 2.0  (the "License").  You may *
+ * not use this file except in compliance with the License.  You may obtain a *
+ * copy of the License at <http://www.apache.org/licenses/LICENSE-2.0>.       *
+ *                                                                            *
+ * Unless  required  by applicable  law or  agreed  to  in writing,  software *
+ * distributed under the License is distributed on an  "AS IS" BASIS, WITHOUT *
+ * WARRANTIES OR  CONDITIONS OF ANY KIND, either express or implied.  See the *
+ * License for the  specific language  governing permissions  and limitations *
+ * under the License.                                                         *
+ *                                                                            *
+ * ========================================================================== */
+package com.notessensei.cocomo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The concurrent walk has to find the same files as the sequential walk of
+ * the extractor
+ * 
+ * @author stw
+ * 
+ */
+public class ConcurrentWalkTest {
+
+	private File				root;
+	private File				appDir;
+	private ArtefactExtractor	extractor;
+	private ExecutorService		executor;
+
+	@Before
+	public void setUp() throws IOException {
+		this.root = File.createTempFile("walk", "");
+		this.root.delete();
+		this.appDir = new File(this.root, "App");
+		for (int i = 0; i < 20; i++) {
+			ScanPipelineTest.write(new File(this.appDir, "Forms/Form" + i + ".form"), "<form/>");
+			ScanPipelineTest.write(new File(this.appDir, "Code/Agents/Sub" + (i % 3) + "/Agent" + i + ".lsa"), "<agent/>");
+		}
+		// Top level: only directories count, hidden ones too
+		ScanPipelineTest.write(new File(this.appDir, "readme.txt"), "Not design");
+		ScanPipelineTest.write(new File(this.appDir, ".settings/org.eclipse.core.resources.prefs"), "x=1");
+		// Below the top level hidden directories are skipped
+		ScanPipelineTest.write(new File(this.appDir, "Forms/.svn/entries"), "svn");
+		ScanPipelineTest.write(new File(this.appDir, "Resources/Images/.logo.gif"), "GIF89a");
+		this.extractor = new ArtefactExtractor(this.root.getAbsolutePath(), new File(this.root, "report.csv").getAbsolutePath(),
+				RuleSet.load(this.root));
+		this.executor = IoExecutors.newExecutor("walk-test", 8);
+	}
+
+	@After
+	public void tearDown() {
+		this.executor.shutdownNow();
+		ScanPipelineTest.delete(this.root);
+	}
+
+	@Test(timeout = 60000)
+	public void sameFilesAsTheSequentialWalk() throws IOException {
+		Set<String> expected = this.collect(false, 1);
+		assertEquals(42, expected.size());
+		assertTrue(expected.contains(new File(this.appDir, ".settings/org.eclipse.core.resources.prefs").getAbsolutePath()));
+		assertTrue(expected.contains(new File(this.appDir, "Resources/Images/.logo.gif").getAbsolutePath()));
+		assertEquals(expected, this.collect(true, 1));
+		assertEquals(expected, this.collect(true, 16));
+	}
+
+	@Test(timeout = 60000)
+	public void visitorFailureEndsTheWalk() {
+		ArtefactExtractor.FileVisitor visitor = new ArtefactExtractor.FileVisitor() {
+			public void visit(String path, String fname, ArtefactExtractor.EntrySource source) throws IOException {
+				throw new IOException("Stop at " + fname);
+			}
+		};
+		try {
+			new ConcurrentWalk(this.extractor, "App", visitor, this.executor, new Semaphore(4)).walk(this.appDir);
+			fail("Failure of the visitor got lost");
+		} catch (IOException e) {
+			assertTrue(e.getMessage(), e.getMessage().startsWith("Stop at "));
+		}
+	}
+
+	@Test(timeout = 60000)
+	public void missingDirectoryGoesToTheErrorLog() throws IOException {
+		Set<String> found = this.collect(new File(this.root, "Gone"), 4);
+		assertEquals(0, found.size());
+		assertEquals(1, this.extractor.getErrorLog().getErrorCount());
+	}
+
+	private Set<String> collect(boolean concurrent, int ioPermits) throws IOException {
+		if (concurrent) {
+			return this.collect(this.appDir, ioPermits);
+		}
+		final Set<String> result = new TreeSet<String>();
+		this.extractor.walkApplication(this.appDir, new ArtefactExtractor.FileVisitor() {
+			public void visit(String path, String fname, ArtefactExtractor.EntrySource source) {
+				result.add(path);
+			}
+		});
+		return result;
+	}
+
+	private Set<String> collect(File dir, int ioPermits) throws IOException {
+		final Set<String> result = Collections.synchronizedSet(new TreeSet<String>());
+		ArtefactExtractor.FileVisitor visitor = new ArtefactExtractor.FileVisitor() {
+			public void visit(String path, String fname, ArtefactExtractor.EntrySource source) {
+				result.add(path);
+			}
+		};
+		new ConcurrentWalk(this.extractor, "App", visitor, this.executor, new Semaphore(ioPermits)).walk(dir);
+		return new TreeSet<String>(result);
+	}
+}
@@ -0,0 +1,167 @@
+/** ========================================================================= *
+ * Copyright (C) 2014,      IBM Corporation ( http://www.ibm.com/ )           *
+ *                            All rights reserved.                            *
+ * ========================================================================== *
+ *                                                                            *
+ * Licensed under the  Apache License, Version 2.0  (the "License").  You may *
+ * not use this file except in compliance with the License.  You may obtain a *
+ * copy of the License at <http://www.apache.org/licenses/LICENSE-2.0>.       *
+ *                                                                            *
+ * Unless  required  by applicable  law or  agreed  to  in writing,  software *
+ * distributed under the License is distributed on an  "AS IS" BASIS, WITHOUT *
+ * WARRANTIES OR  CONDITIONS OF ANY KIND, either express or implied.  See the *
+ * License for the  specific language  governing permissions  and limitations *
+ * under the License.                                                         *
+ *                                                                            *
+ * ========================================================================== */
+package com.notessensei.cocomo;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The boolean queries and the posting lists of the counter index
+ * 
+ * @author stw
+ * 
+ */
+public class CounterIndexTest {
+
+	private File			file;
+	private CounterIndex	index;
+
+	@Before
+	public void setUp() throws IOException {
+		this.file = File.createTempFile("counters", ".idx");
+		this.index = new CounterIndex();
+		this.index.add("Mail", CounterIndexTest.result("template_StdR9Mail=1", "UI_script=3", "Wide Views=2", "AND=1"));
+		this.index.add("Lookup", CounterIndexTest.result("UI_script=1", "form=4", "@DbLookup(\"\";\"\";\"a\";1)"));
+		this.index.add("Mail2", CounterIndexTest.result("template_StdR9Mail=1", "form=2", "@dblookup(\"\";\"\";\"a\";1)"));
+		this.index.add("Empty", new ArtefactResult());
+		this.index.write(this.file);
+	}
+
+	@After
+	public void tearDown() {
+		this.file.delete();
+	}
+
+	@Test
+	public void operators() {
+		this.assertMatches("UI_script", "Lookup", "Mail");
+		this.assertMatches("template_StdR9Mail form", "Mail2");
+		this.assertMatches("template_StdR9Mail and form", "Mail2");
+		this.assertMatches("form OR \"Wide Views\"", "Lookup", "Mail", "Mail2");
+		this.assertMatches("NOT form", "Empty", "Mail");
+		this.assertMatches("NOT NOT form", "Lookup", "Mail2");
+		this.assertMatches("unknown");
+		this.assertMatches("NOT unknown", "Empty", "Lookup", "Mail", "Mail2");
+	}
+
+	@Test
+	public void precedence() {
+		// NOT before AND before OR
+		this.assertMatches("UI_script OR form AND template_StdR9Mail", "Lookup", "Mail", "Mail2");
+		this.assertMatches("(UI_script OR form) AND template_StdR9Mail", "Mail", "Mail2");
+		this.assertMatches("template_StdR9Mail AND (UI_script OR @dblookup) AND NOT \"Wide Views\"", "Mail2");
+		this.assertMatches("NOT form AND UI_script", "Mail");
+		this.assertMatches("NOT (form AND UI_script)", "Empty", "Mail", "Mail2");
+	}
+
+	@Test
+	public void termsAndCounts() {
+		// A quoted operator is a term, functions don't care about case
+		this.assertMatches("\"AND\"", "Mail");
+		CounterIndex.QueryResult result = this.index.query("@DBLOOKUP OR UI_*");
+		assertEquals(Arrays.asList("@dblookup", "UI_*"), result.getTerms());
+		assertEquals(Arrays.asList("Lookup", "Mail", "Mail2"), new ArrayList<String>(result.getApplications().keySet()));
+		assertArrayEquals(new long[] { 1, 1 }, result.getApplications().get("Lookup"));
+		assertArrayEquals(new long[] { 0, 3 }, result.getApplications().get("Mail"));
+		assertArrayEquals(new long[] { 1, 0 }, result.getApplications().get("Mail2"));
+	}
+
+	@Test
+	public void brokenQueries() {
+		for (String query : new String[] { "", "form AND", "(form", "form)", "NOT", "\"Wide Views", "OR form" }) {
+			try {
+				this.index.query(query);
+				fail("Parsed: " + query);
+			} catch (IllegalArgumentException e) {
+				// Expected
+			}
+		}
+	}
+
+	@Test
+	public void loadedIndexAnswersTheSame() throws IOException {
+		CounterIndex loaded = CounterIndex.load(this.file);
+		assertEquals(4, loaded.getApplicationCount());
+		for (String query : new String[] { "UI_script", "NOT form", "template_* @dblookup", "\"Wide Views\" OR form" }) {
+			assertEquals(query, this.index.query(query).getApplications().keySet(), loaded.query(query).getApplications()
+					.keySet());
+		}
+	}
+
+	@Test
+	public void postingsRoundTrip() throws IOException {
+		// Long lists with big gaps and big counts
+		CounterIndex big = new CounterIndex();
+		Random random = new Random(3);
+		int[] expected = new int[5000];
+		for (int app = 0; app < expected.length; app++) {
+			ArtefactResult result = new ArtefactResult();
+			if (random.nextInt(10) == 0) {
+				expected[app] = 1 + random.nextInt(Integer.MAX_VALUE - 1);
+				result.add("rare", expected[app]);
+			}
+			result.add("all", 1);
+			big.add("App" + app, result);
+		}
+		big.write(this.file);
+		CounterIndex.QueryResult result = CounterIndex.load(this.file).query("rare AND all");
+		int matched = 0;
+		for (int app = 0; app < expected.length; app++) {
+			long[] counts = result.getApplications().get("App" + app);
+			if (expected[app] == 0) {
+				assertEquals(null, counts);
+			} else {
+				assertArrayEquals(new long[] { expected[app], 1 }, counts);
+				matched++;
+			}
+		}
+		assertEquals(matched, result.getApplications().size());
+	}
+
+	private void assertMatches(String query, String... applications) {
+		List<String> actual = new ArrayList<String>(this.index.query(query).getApplications().keySet());
+		assertEquals(query, Arrays.asList(applications), actual);
+	}
+
+	/**
+	 * Counters as name=count, formulas go to the @Function histogram
+	 */
+	private static ArtefactResult result(String... entries) {
+		ArtefactResult result = new ArtefactResult();
+		for (String entry : entries) {
+			if (entry.startsWith("@")) {
+				result.getFunctions().add(entry, 0, entry.indexOf('('), 1);
+			} else {
+				int eq = entry.lastIndexOf('=');
+				result.add(entry.substring(0, eq), Integer.parseInt(entry.substring(eq + 1)));
+			}
+		}
+		return result;
+	}
+}
@@ -0,0 +1,115 @@
+/** ========================================================================= *
+ * Copyright (C) 2014,      IBM Corporation ( http://www.ibm.com/ )           *
+ *                            All rights reserved.                            *
+ * ========================================================================== *
+ *                                                                            *
+ * Licensed under the  Apache License, Version 2.0  (the "License").  You may *
+ * not use this file except in compliance with the License.  You may obtain a *
+ * copy of the License at <http://www.apache.org/licenses/LICENSE-2.0>.       *
+ *                                                                            *
+ * Unless  required  by applicable  law or  agreed  to  in writing,  software *
+ * distributed under the License is distributed on an  "AS IS" BASIS, WITHOUT *
+ * WARRANTIES OR  CONDITIONS OF ANY KIND, either express or implied.  See the *
+ * License for the  specific language  governing permissions  and limitations *
+ * under the License.                                                         *
+ *                                                                            *
+ * ========================================================================== */
+package com.notessensei.cocomo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+
+import org.junit.Test;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * Parsing and evaluation of the rules of countingRules.properties
+ * 
+ * @author stw
+ * 
+ */
+public class CountingRuleTest {
+
+	private static final String	XML	= "<form name='Main'><body><par>x</par><par>y</par><par>z</par></body>"
+											+ "<field name='f' kind='computed'><formula>@DbLookup(a);@dblookup(b)</formula></field>"
+											+ "<field name='g'><formula>@Now</formula></field>"
+											+ "<view><formula><![CDATA[@DbLookup(c)]]></formula></view></form>";
+
+	@Test
+	public void pathsAndText() {
+		assertEquals(3, CountingRuleTest.count("formula~(?i)@dblookup"));
+		assertEquals(2, CountingRuleTest.count("field/formula~(?i)@dblookup"));
+		assertEquals(3, CountingRuleTest.count("*/formula"));
+		assertEquals(0, CountingRuleTest.count("/formula"));
+		assertEquals(1, CountingRuleTest.count("/form"));
+		assertEquals(1, CountingRuleTest.count("/form/view/formula"));
+	}
+
+	@Test
+	public void predicates() {
+		assertEquals(2, CountingRuleTest.count("field[@name]"));
+		assertEquals(1, CountingRuleTest.count("field[@name=g]"));
+		assertEquals(1, CountingRuleTest.count("field[@kind~comp.*]"));
+		assertEquals(1, CountingRuleTest.count("*[@*~^comp]"));
+		assertEquals(1, CountingRuleTest.count("body[par>2]"));
+		assertEquals(0, CountingRuleTest.count("body[par>3]"));
+		assertEquals(1, CountingRuleTest.count("field[@name=f][@kind]"));
+	}
+
+	@Test
+	public void bracketsInsideRegex() {
+		CountingRule rule = new CountingRule(0, "k", "file: *[@*~#\\{java[s]cript:]");
+		assertTrue(rule.isPerFile());
+		assertEquals("*", rule.getElementName());
+		assertEquals(1, CountingRuleTest.count("field[@name~[fg]][@kind]"));
+	}
+
+	@Test
+	public void brokenRules() {
+		for (String broken : new String[] { "form//field", "field[@name", "field[@]", "field[par]", "body[par>x]",
+				"field~(", "field[@name~(]", "field[@kind]/formula" }) {
+			try {
+				new CountingRule(0, "k", broken);
+				fail("Parsed " + broken);
+			} catch (IllegalArgumentException e) {
+				assertFalse(e.getMessage(), e.getMessage().equals(""));
+			}
+		}
+	}
+
+	@Test
+	public void defaultRulesInTheScan() throws IOException {
+		assertEquals(Integer.valueOf(3), XmlFileScannerTest.scan("form", CountingRuleTest.XML).get("DbLookup Calls"));
+	}
+
+	/**
+	 * Walks the document like the XML scan and adds up the rule
+	 */
+	private static int count(String text) {
+		CountingRule rule = new CountingRule(0, "k", text);
+		Element root = DomHelper.getDomHelper().string2Dom(CountingRuleTest.XML).getDocumentElement();
+		return CountingRuleTest.count(rule, new CountingRule.Context(), root);
+	}
+
+	private static int count(CountingRule rule, CountingRule.Context context, Element element) {
+		context.push(element);
+		int result = 0;
+		if (rule.getElementName().equals("*") || rule.getElementName().equals(element.getNodeName())) {
+			result += rule.count(context);
+		}
+		NodeList children = element.getChildNodes();
+		for (int i = 0; i < children.getLength(); i++) {
+			if (children.item(i).getNodeType() == Node.ELEMENT_NODE) {
+				result += CountingRuleTest.count(rule, context, (Element) children.item(i));
+			}
+		}
+		context.pop();
+		return result;
+	}
+}
@@ -0,0 +1,91 @@
+/** ========================================================================= *
+ * Copyright (C) 2014,      IBM Corporation ( http://www.ibm.com/ )           *
+ *                            All rights reserved.                            *
+ * ========================================================================== *
+ *                                                                            *
+ * Licensed under the  Apache License, Version 2.0  (the "License").  You may *
+ * not use this file except in compliance with the License.  You may obtain a *
+ * copy of the License at <http://www.apache.org/licenses/LICENSE-2.0>.       *
+ *                                                                            *
+ * Unless  required  by applicable  law or  agreed  to  in writing,  software *
+ * distributed under the License is distributed on an  "AS IS" BASIS, WITHOUT *
+ * WARRANTIES OR  CONDITIONS OF ANY KIND, either express or implied.  See the *
+ * License for the  specific language  governing permissions  and limitations *
+ * under the License.                                                         *
+ *                                                                            *
+ * ========================================================================== */
+package com.notessensei.cocomo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+import org.w3c.dom.Document;
+
+/**
+ * Serialization and text of DOMs, the expected values are what the helper
+ * wrote before it streamed
+ * 
+ * @author stw
+ * 
+ */
+public class DomHelperTest {
+
+	private static final String	XML	= "<form name='Main' x='1'>\n   <textlist><text>one</text><text>two\n\nlines</text></textlist>\n\n"
+											+ "  <par>a<b>bold</b>\n</par><code><![CDATA[x < y]]></code><e>&amp;&lt;</e>\n</form>";
+
+	@Test
+	public void serializedWithoutEmptyLines() {
+		DomHelper helper = DomHelper.getDomHelper();
+		Document dom = helper.string2Dom(DomHelperTest.XML);
+		assertEquals("<form name=\"Main\" x=\"1\">\n<textlist><text>one</text><text>two\nlines</text></textlist>\n"
+				+ "<par>a<b>bold</b>\n</par><code><![CDATA[x < y]]></code><e>&amp;&lt;</e>\n</form>\n", helper.dom2String(dom));
+	}
+
+	@Test
+	public void streamHasTheSameBytes() throws IOException {
+		DomHelper helper = DomHelper.getDomHelper();
+		Document dom = helper.string2Dom("<a>\u00e4\u20ac<b/>\n\n  <c>x</c></a>");
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		helper.dom2Stream(dom, out);
+		assertEquals(helper.dom2String(dom), out.toString("UTF-8"));
+	}
+
+	@Test
+	public void roundTripKeepsTheDocument() {
+		DomHelper helper = DomHelper.getDomHelper();
+		Document dom = helper.string2Dom("<a x='1'><b>text &amp; more</b><c><![CDATA[x < y]]></c></a>");
+		String xml = helper.dom2String(dom);
+		assertTrue(xml.contains("<![CDATA[x < y]]>"));
+		Document again = helper.string2Dom(xml);
+		assertEquals("1", again.getDocumentElement().getAttribute("x"));
+		assertEquals(dom.getDocumentElement().getTextContent(), again.getDocumentElement().getTextContent());
+	}
+
+	@Test
+	public void secondSerializationIsTheSame() {
+		DomHelper helper = DomHelper.getDomHelper();
+		String once = helper.dom2String(helper.string2Dom(DomHelperTest.XML));
+		assertEquals(once, helper.dom2String(helper.string2Dom(once)));
+	}
+
+	@Test
+	public void elementTextOfTheWholeTree() {
+		DomHelper helper = DomHelper.getDomHelper();
+		Document dom = helper.string2Dom(DomHelperTest.XML);
+		assertEquals("form (name=Main, x=1, )\n   \none\ntwo\nlines\n  \npara\nbbold\ncodee&<\n", helper.getElementString(dom
+				.getDocumentElement()));
+	}
+
+	@Test
+	public void elementTextWithoutDoubleNewLines() {
+		DomHelper helper = DomHelper.getDomHelper();
+		assertEquals("ax\nb (c=d, )\ny\n", helper.getElementString(helper.string2Dom("<a>x\n\n\n<b c='d'>\n\ny</b>\n</a>")
+				.getDocumentElement()));
+		assertEquals("a\nb\n", helper.getElementString(helper.string2Dom(
+				"<textlist><text>a</text><text></text><text>b</text></textlist>").getDocumentElement()));
+	}
+}
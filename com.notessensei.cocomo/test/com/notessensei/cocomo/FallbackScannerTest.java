@@ -0,0 +1,83 @@
+/** ========================================================================= *
+ * Copyright (C) 2014,      IBM Corporation ( http://www.ibm.com/ )           *
+ *                            All rights reserved.                            *
+ * ========================================================================== *
+ *                                                                            *
+ * Licensed under the  Apache License, Version 2.0  (the "License").  You may *
+ * not use this file except in compliance with the License.  You may obtain a *
+ * copy of the License at <http://www.apache.org/licenses/LICENSE-2.0>.       *
+ *                                                                            *
+ * Unless  required  by applicable  law or  agreed  to  in writing,  software *
+ * distributed under the License is distributed on an  "AS IS" BASIS, WITHOUT *
+ * WARRANTIES OR  CONDITIONS OF ANY KIND, either express or implied.  See the *
+ * License for the  specific language  governing permissions  and limitations *
+ * under the License.                                                         *
+ *                                                                            *
+ * ========================================================================== */
+package com.notessensei.cocomo;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Element counts of the byte level scan of broken XML
+ * 
+ * @author stw
+ * 
+ */
+public class FallbackScannerTest {
+
+	@Test
+	public void cdataEndsAfterRepeatedBrackets() throws IOException {
+		Map<String, Integer> counters = FallbackScannerTest.scan("<form><![CDATA[a[0]]]><field/><field/></form>");
+		assertEquals(Integer.valueOf(2), counters.get("field"));
+	}
+
+	@Test
+	public void commentEndsAfterRepeatedDashes() throws IOException {
+		Map<String, Integer> counters = FallbackScannerTest.scan("<form><!-- ---><field/><?pi ??><action/></form>");
+		assertEquals(Integer.valueOf(1), counters.get("field"));
+		assertEquals(Integer.valueOf(1), counters.get("action"));
+	}
+
+	@Test
+	public void skipsMarkupInsideCdata() throws IOException {
+		Map<String, Integer> counters = FallbackScannerTest.scan("<form><![CDATA[<field/> ]] >]]><action/>");
+		assertEquals(null, counters.get("field"));
+		assertEquals(Integer.valueOf(1), counters.get("action"));
+	}
+
+	@Test
+	public void greaterThanInAttributeValues() throws IOException {
+		Map<String, Integer> counters = FallbackScannerTest.scan("<form><field formula='a > 1 &amp;&amp; <b'/>"
+				+ "<field value=\"#{javascript:x > y}\"/><action title='say \"<no>\"'/></form>");
+		assertEquals(Integer.valueOf(2), counters.get("field"));
+		assertEquals(Integer.valueOf(1), counters.get("action"));
+		assertEquals(null, counters.get("b"));
+		assertEquals(null, counters.get("no"));
+	}
+
+	@Test
+	public void nonAsciiNamesLikeTheDomScan() throws IOException {
+		String xml = "<form><\u00e9l\u00e9ment a='1'/><\u5b57\u6bb5/></form>";
+		Map<String, Integer> counters = FallbackScannerTest.scan(xml);
+		assertEquals(Integer.valueOf(1), counters.get("\u00e9l\u00e9ment"));
+		assertEquals(Integer.valueOf(1), counters.get("\u5b57\u6bb5"));
+		counters.remove("quarantined");
+		assertEquals(XmlFileScannerTest.scan("form", xml), counters);
+	}
+
+	private static Map<String, Integer> scan(String xml) throws IOException {
+		File dir = new File(System.getProperty("java.io.tmpdir"));
+		ArtefactExtractor extractor = new ArtefactExtractor(dir.getPath(), new File(dir, "unused.csv").getPath(), RuleSet.load(dir));
+		ArtefactResult result = new ArtefactResult();
+		new FallbackScanner().scan(extractor, "test.form", "form", new ByteArrayInputStream(xml.getBytes("UTF-8")), result);
+		return result.getCounters();
+	}
+}
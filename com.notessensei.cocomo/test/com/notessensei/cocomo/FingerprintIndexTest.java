@@ -0,0 +1,113 @@
+/** ========================================================================= *
+ * Copyright (C) 2014,      IBM Corporation ( http://www.ibm.com/ )           *
+ *                            All rights reserved.                            *
+ * ========================================================================== *
+ *                                                                            *
+ * Licensed under the  Apache License, Version 2.0  (the "License").  You may *
+ * not use this file except in compliance with the License.  You may obtain a *
+ * copy of the License at <http://www.apache.org/licenses/LICENSE-2.0>.       *
+ *                                                                            *
+ * Unless  required  by applicable  law or  agreed  to  in writing,  software *
+ * distributed under the License is distributed on an  "AS IS" BASIS, WITHOUT *
+ * WARRANTIES OR  CONDITIONS OF ANY KIND, either express or implied.  See the *
+ * License for the  specific language  governing permissions  and limitations *
+ * under the License.                                                         *
+ *                                                                            *
+ * ========================================================================== */
+package com.notessensei.cocomo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Fingerprints of design elements and the duplicates report
+ * 
+ * @author stw
+ * 
+ */
+public class FingerprintIndexTest {
+
+	private static final String	FORM	= "<form xmlns='http://www.lotus.com/dxl' name='Main'>"
+												+ "<noteinfo noteid='%s' unid='%s'><created>%s</created></noteinfo>"
+												+ "<updatedby><name>%s</name></updatedby>"
+												+ "<field name='a' type='text'/>  <field   type='text' name='%s'/>"
+												+ "<code event='%s'><formula>@Now</formula></code></form>";
+
+	@Test
+	public void copiesDifferOnlyInTheirNoteinfo() throws IOException {
+		long original = FingerprintIndexTest.fingerprint(String.format(FingerprintIndexTest.FORM, "1a", "AAAA", "20240101",
+				"CN=Alice", "b", "onload"));
+		// Other note, other creation date, other author
+		long copy = FingerprintIndexTest.fingerprint(String.format(FingerprintIndexTest.FORM, "2f", "BBBB", "20250505",
+				"CN=Bob", "b", "onload"));
+		assertEquals(original, copy);
+		// A real change: other field name, other event
+		assertTrue(original != FingerprintIndexTest.fingerprint(String.format(FingerprintIndexTest.FORM, "1a", "AAAA",
+				"20240101", "CN=Alice", "c", "onload")));
+		assertTrue(original != FingerprintIndexTest.fingerprint(String.format(FingerprintIndexTest.FORM, "1a", "AAAA",
+				"20240101", "CN=Alice", "b", "onunload")));
+	}
+
+	@Test
+	public void duplicatesInTheSameOrderEveryRun() throws IOException {
+		String expected = null;
+		List<String> apps = new ArrayList<String>(Arrays.asList("Zeta", "Alpha", "Mid", "Beta"));
+		for (int run = 0; run < 4; run++) {
+			// Applications finish in another order every run
+			Collections.rotate(apps, 1);
+			FingerprintIndex index = new FingerprintIndex();
+			for (String app : apps) {
+				Map<String, Long> fingerprints = new HashMap<String, Long>();
+				for (long f = 1; f <= 40; f++) {
+					fingerprints.put("Forms/Form" + f + ".form", Long.valueOf(f * 0x9e3779b97f4a7c15L));
+				}
+				fingerprints.put("Forms/" + app + ".form", Long.valueOf(app.hashCode()));
+				index.add(app, fingerprints);
+			}
+			File f = File.createTempFile("duplicates", ".csv");
+			try {
+				index.writeDuplicates(f.getPath());
+				StringBuilder content = new StringBuilder();
+				BufferedReader in = LineSorter.open(f);
+				String line;
+				while ((line = in.readLine()) != null) {
+					content.append(line).append("\n");
+				}
+				in.close();
+				if (expected == null) {
+					expected = content.toString();
+					assertEquals(41, expected.split("\n").length);
+					assertTrue(expected, expected.contains(",4,Alpha/Forms/Form1.form,Beta/Forms/Form1.form,Mid/Forms/Form1.form,"
+							+ "Zeta/Forms/Form1.form\n"));
+				} else {
+					assertEquals(expected, content.toString());
+				}
+			} finally {
+				f.delete();
+			}
+		}
+	}
+
+	private static long fingerprint(String xml) throws IOException {
+		File dir = new File(System.getProperty("java.io.tmpdir"));
+		ArtefactExtractor extractor = new ArtefactExtractor(dir.getPath(), new File(dir, "unused.csv").getPath(), RuleSet.load(dir));
+		extractor.setFindDuplicates(true);
+		ArtefactResult result = new ArtefactResult();
+		new XmlFileScanner().scan(extractor, "Main.form", "form", new ByteArrayInputStream(xml.getBytes("UTF-8")), result);
+		assertEquals(1, result.getFingerprints().size());
+		return result.getFingerprints().values().iterator().next().longValue();
+	}
+}
@@ -0,0 +1,95 @@
+/** ========================================================================= *
+ * Copyright (C) 2014,      IBM Corporation ( http://www.ibm.com/ )           *
+ *                            All rights reserved.                            *
+ * ========================================================================== *
+ *                                                                            *
+ * Licensed under the  Apache License, Version 2.0  (the "License").  You may *
+ * not use this file except in compliance with the License.  You may obtain a *
+ * copy of the License at <http://www.apache.org/licenses/LICENSE-2.0>.       *
+ *                                                                            *
+ * Unless  required  by applicable  law or  agreed  to  in writing,  software *
+ * distributed under the License is distributed on an  "AS IS" BASIS, WITHOUT *
+ * WARRANTIES OR  CONDITIONS OF ANY KIND, either express or implied.  See the *
+ * License for the  specific language  governing permissions  and limitations *
+ * under the License.                                                         *
+ *                                                                            *
+ * ========================================================================== */
+package com.notessensei.cocomo;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Which @Functions and @Commands the formula tokenizer counts
+ * 
+ * @author stw
+ * 
+ */
+public class FormulaTokenizerTest {
+
+	@Test
+	public void functionsIgnoreCase() {
+		FunctionHistogram histogram = FormulaTokenizerTest.profile("@DbLookup(\"\";\"\";\"v\";1) : @dblookup(x);@If(@IsNewDoc;1;2)");
+		assertEquals(2, histogram.getCount("@DBLOOKUP"));
+		assertEquals(1, histogram.getCount("@If"));
+		assertEquals(1, histogram.getCount("@IsNewDoc"));
+		assertEquals(4, histogram.getTotal());
+	}
+
+	@Test
+	public void stringsDontCount() {
+		FunctionHistogram histogram = FormulaTokenizerTest.profile("REM {@Now is old}; x := \"mail@host \\\" @Today\"; @Now");
+		assertEquals(1, histogram.getCount("@Now"));
+		assertEquals(0, histogram.getCount("@Today"));
+		assertEquals(0, histogram.getCount("@host"));
+	}
+
+	@Test
+	public void commandsByName() {
+		FunctionHistogram histogram = FormulaTokenizerTest.profile("@Command( [FileSave] ); @PostedCommand([FileCloseWindow]);"
+				+ "@Command([FileSave]); @Command(x); @");
+		assertEquals(2, histogram.getCount("@Command([FileSave])"));
+		assertEquals(1, histogram.getCount("@PostedCommand([FileCloseWindow])"));
+		// Not a literal, the function counts
+		assertEquals(1, histogram.getCount("@Command"));
+		assertEquals(4, histogram.getTotal());
+	}
+
+	@Test
+	public void mostUsedFirst() {
+		FunctionHistogram histogram = FormulaTokenizerTest.profile("@b;@A;@c;@C;@a");
+		assertArrayEquals(new String[] { "@A", "@C", "@b" }, histogram.getNames());
+	}
+
+	@Test
+	public void addAndSubtract() {
+		FunctionHistogram total = new FunctionHistogram();
+		FunctionHistogram one = FormulaTokenizerTest.profile("@Now;@Now;@Today");
+		total.add(one, 1);
+		total.add(FormulaTokenizerTest.profile("@now"), 1);
+		assertEquals(3, total.getCount("@Now"));
+		total.add(one, -1);
+		assertEquals(1, total.getCount("@Now"));
+		assertArrayEquals(new String[] { "@Now" }, total.getNames());
+	}
+
+	@Test
+	public void growsBeyondTheFirstTable() {
+		StringBuilder formula = new StringBuilder();
+		for (int i = 0; i < 1000; i++) {
+			formula.append("@F").append(i).append(";@f").append(i % 10).append(";");
+		}
+		FunctionHistogram histogram = FormulaTokenizerTest.profile(formula);
+		assertEquals(1000, histogram.getNames().length);
+		assertEquals(101, histogram.getCount("@F7"));
+		assertEquals(1, histogram.getCount("@F999"));
+	}
+
+	private static FunctionHistogram profile(CharSequence formula) {
+		FunctionHistogram histogram = new FunctionHistogram();
+		FormulaTokenizer.profile(formula, histogram);
+		return histogram;
+	}
+}
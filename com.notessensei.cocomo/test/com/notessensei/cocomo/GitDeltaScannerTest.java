@@ -0,0 +1,190 @@
+/** ========================================================================= *
+ * Copyright (C) 2014,      IBM Corporation ( http://www.ibm.com/ )           *
+ *                            All rights reserved.                            *
+ * ========================================================================== *
+ *                                                                            *
+ * Licensed under the  Apache License, Version 2.0  (the "License").  You may *
+ * not use this file except in compliance with the License.  You may obtain a *
+ * copy of the License at <http://www.apache.org/licenses/LICENSE-2.0>.       *
+ *                                                                            *
+ * Unless  required  by applicable  law or  agreed  to  in writing,  software *
+ * distributed under the License is distributed on an  "AS IS" BASIS, WITHOUT *
+ * WARRANTIES OR  CONDITIONS OF ANY KIND, either express or implied.  See the *
+ * License for the  specific language  governing permissions  and limitations *
+ * under the License.                                                         *
+ *                                                                            *
+ * ========================================================================== */
+package com.notessensei.cocomo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The delta between two commits of a temporary git repository, skipped when
+ * there is no git
+ * 
+ * @author stw
+ * 
+ */
+public class GitDeltaScannerTest {
+
+	private static final String	SCRIPT	= "Option Public\nSub Initialize\n  Print 1\nEnd Sub\n";
+	private static final String	BIGGER	= "Option Public\nSub Initialize\n  Print 1\n  Print 2\n  Print 3\nEnd Sub\n";
+	private static final String	FORM	= "<form name='F'><field name='a'/></form>";
+
+	private File				root;
+
+	@Before
+	public void setUp() throws IOException {
+		assumeTrue(GitDeltaScannerTest.hasGit());
+		this.root = File.createTempFile("gitdelta", "");
+		this.root.delete();
+		this.root.mkdirs();
+	}
+
+	@After
+	public void tearDown() {
+		if (this.root != null) {
+			ScanPipelineTest.delete(this.root);
+		}
+	}
+
+	@Test(timeout = 60000)
+	public void projectPerDirectory() throws IOException {
+		File repo = new File(this.root, "estate");
+		ScanPipelineTest.write(new File(repo, "AppA/Code/ScriptLibraries/Lib.lss"), GitDeltaScannerTest.SCRIPT);
+		ScanPipelineTest.write(new File(repo, "AppA/Forms/Old Form.form"), GitDeltaScannerTest.FORM);
+		ScanPipelineTest.write(new File(repo, "AppB/Forms/Main.form"), GitDeltaScannerTest.FORM);
+		ScanPipelineTest.write(new File(repo, "README.txt"), "Not design");
+		String from = this.commit(repo, "First");
+
+		// Changed, deleted and added, the name with a non-ASCII char only
+		// survives the -z output of git unquoted
+		ScanPipelineTest.write(new File(repo, "AppA/Code/ScriptLibraries/Lib.lss"), GitDeltaScannerTest.BIGGER);
+		new File(repo, "AppA/Forms/Old Form.form").delete();
+		ScanPipelineTest.write(new File(repo, "AppA/Forms/N\u00e9w.form"), GitDeltaScannerTest.FORM + "\n");
+		ScanPipelineTest.write(new File(repo, "AppA/Forms/.hidden/Skip.form"), GitDeltaScannerTest.FORM);
+		ScanPipelineTest.write(new File(repo, ".settings/Skip.form"), GitDeltaScannerTest.FORM);
+		ScanPipelineTest.write(new File(repo, "README.txt"), "Still not design");
+		String to = this.commit(repo, "Second");
+
+		Map<String, Map<String, String>> rows = this.delta(repo, from, to);
+		assertEquals(Arrays.asList("AppA"), new ArrayList<String>(rows.keySet()));
+		Map<String, String> appA = rows.get("AppA");
+		assertEquals("1", appA.get("Added Elements"));
+		assertEquals("1", appA.get("Changed Elements"));
+		assertEquals("1", appA.get("Deleted Elements"));
+		// Two lines more in the library, the form moved from one file to another
+		assertEquals("2", appA.get("Lines of Code"));
+	}
+
+	@Test(timeout = 60000)
+	public void singleProject() throws IOException {
+		File repo = new File(this.root, "OneApp");
+		ScanPipelineTest.write(new File(repo, ".project"), "<projectDescription/>");
+		ScanPipelineTest.write(new File(repo, "Code/ScriptLibraries/Lib.lss"), GitDeltaScannerTest.BIGGER);
+		String from = this.commit(repo, "First");
+		ScanPipelineTest.write(new File(repo, "Code/ScriptLibraries/Lib.lss"), GitDeltaScannerTest.SCRIPT);
+		ScanPipelineTest.write(new File(repo, "Code/ScriptLibraries/Other.lss"), GitDeltaScannerTest.SCRIPT);
+		String to = this.commit(repo, "Second");
+
+		Map<String, Map<String, String>> rows = this.delta(repo, from, to);
+		assertEquals(Arrays.asList("OneApp"), new ArrayList<String>(rows.keySet()));
+		Map<String, String> app = rows.get("OneApp");
+		assertEquals("1", app.get("Added Elements"));
+		assertEquals("1", app.get("Changed Elements"));
+		assertEquals("0", app.get("Deleted Elements"));
+		assertEquals("2", app.get("Lines of Code"));
+	}
+
+	/**
+	 * @return per application the values of the delta report by column
+	 */
+	private Map<String, Map<String, String>> delta(File repo, String from, String to) throws IOException {
+		File report = new File(this.root, "delta.csv");
+		ArtefactExtractor extractor = new ArtefactExtractor(repo.getAbsolutePath(), report.getAbsolutePath(), RuleSet
+				.load(this.root));
+		new GitDeltaScanner(extractor, repo, from, to).writeDeltaReport(report.getAbsolutePath());
+		Map<String, Map<String, String>> result = new TreeMap<String, Map<String, String>>();
+		BufferedReader in = LineSorter.open(report);
+		try {
+			String[] header = in.readLine().split(",");
+			String line;
+			while ((line = in.readLine()) != null) {
+				String[] values = line.split(",");
+				Map<String, String> row = new TreeMap<String, String>();
+				for (int i = 1; i < header.length; i++) {
+					row.put(header[i], values[i]);
+				}
+				result.put(values[0], row);
+			}
+		} finally {
+			in.close();
+		}
+		return result;
+	}
+
+	/**
+	 * Commits everything in the repository, creates it when needed
+	 * 
+	 * @return the commit
+	 */
+	private String commit(File repo, String message) throws IOException {
+		if (!new File(repo, ".git").exists()) {
+			GitDeltaScannerTest.git(repo, "init", "-q");
+		}
+		GitDeltaScannerTest.git(repo, "add", "-A");
+		GitDeltaScannerTest.git(repo, "-c", "user.name=Test", "-c", "user.email=test@example.com", "commit", "-q", "-m", message);
+		return GitDeltaScannerTest.git(repo, "rev-parse", "HEAD").trim();
+	}
+
+	private static boolean hasGit() {
+		try {
+			GitDeltaScannerTest.git(new File(System.getProperty("java.io.tmpdir")), "--version");
+			return true;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	private static String git(File dir, String... args) throws IOException {
+		List<String> command = new ArrayList<String>();
+		command.add("git");
+		command.addAll(Arrays.asList(args));
+		ProcessBuilder pb = new ProcessBuilder(command);
+		pb.directory(dir);
+		pb.redirectErrorStream(true);
+		Process p = pb.start();
+		p.getOutputStream().close();
+		InputStream in = p.getInputStream();
+		StringBuilder output = new StringBuilder();
+		int c;
+		while ((c = in.read()) >= 0) {
+			output.append((char) c);
+		}
+		in.close();
+		try {
+			if (p.waitFor() != 0) {
+				throw new IOException("git " + args[0] + " failed: " + output);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted waiting for git", e);
+		}
+		return output.toString();
+	}
+}
@@ -0,0 +1,83 @@
+/** ========================================================================= *
+ * Copyright (C) 2014,      IBM Corporation ( http://www.ibm.com/ )           *
+ *                            All rights reserved.                            *
+ * ========================================================================== *
+ *                                                                            *
+ * Licensed under the  Apache License, Version 2.0  (the "License").  You may *
+ * not use this file except in compliance with the License.  You may obtain a *
+ * copy of the License at <http://www.apache.org/licenses/LICENSE-2.0>.       *
+ *                                                                            *
+ * Unless  required  by applicable  law or  agreed  to  in writing,  software *
+ * distributed under the License is distributed on an  "AS IS" BASIS, WITHOUT *
+ * WARRANTIES OR  CONDITIONS OF ANY KIND, either express or implied.  See the *
+ * License for the  specific language  governing permissions  and limitations *
+ * under the License.                                                         *
+ *                                                                            *
+ * ========================================================================== */
+package com.notessensei.cocomo;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * The Aho-Corasick keyword matching against a plain search
+ * 
+ * @author stw
+ * 
+ */
+public class KeywordAutomatonTest {
+
+	@Test
+	public void overlappingKeywords() {
+		KeywordAutomaton automaton = new KeywordAutomaton(Arrays.asList("he", "she", "his", "hers"));
+		boolean[] matched = new boolean[automaton.getKeywordCount()];
+		assertEquals(3, automaton.match("ushers", 0, 6, matched));
+		assertArrayEquals(new boolean[] { true, true, false, true }, matched);
+		// Found before, nothing new
+		assertEquals(0, automaton.match("she", 0, 3, matched));
+	}
+
+	@Test
+	public void ignoresCaseAndKnowsNonAscii() {
+		KeywordAutomaton automaton = new KeywordAutomaton(Arrays.asList("NotesDatabase", "gr\u00f6\u00dfe"));
+		boolean[] matched = new boolean[automaton.getKeywordCount()];
+		String line = "Dim db As notesdatabase ' GR\u00d6\u00dfE";
+		assertEquals(2, automaton.match(line, 0, line.length(), matched));
+	}
+
+	@Test
+	public void onlyLooksInTheRange() {
+		KeywordAutomaton automaton = new KeywordAutomaton(Arrays.asList("abc"));
+		boolean[] matched = new boolean[1];
+		assertEquals(0, automaton.match("xabcx", 2, 5, matched));
+		assertEquals(0, automaton.match("xabcx", 0, 3, matched));
+		assertEquals(1, automaton.match("xabcx", 1, 4, matched));
+	}
+
+	@Test
+	public void sameAsPlainSearch() {
+		List<String> keywords = Arrays.asList("a", "ab", "bab", "bc", "bca", "c", "caa", "aaaa", "cab");
+		KeywordAutomaton automaton = new KeywordAutomaton(keywords);
+		Random random = new Random(42);
+		for (int round = 0; round < 2000; round++) {
+			StringBuilder text = new StringBuilder();
+			int length = random.nextInt(12);
+			for (int i = 0; i < length; i++) {
+				text.append("abcdABC".charAt(random.nextInt(7)));
+			}
+			boolean[] expected = new boolean[keywords.size()];
+			for (int k = 0; k < expected.length; k++) {
+				expected[k] = text.toString().toLowerCase().contains(keywords.get(k));
+			}
+			boolean[] matched = new boolean[keywords.size()];
+			automaton.match(text, 0, text.length(), matched);
+			assertArrayEquals(text.toString(), expected, matched);
+		}
+	}
+}
@@ -0,0 +1,197 @@
+/** ========================================================================= *
+ * Copyright (C) 2014,      IBM Corporation ( http://www.ibm.com/ )           *
+ *                            All rights reserved.                            *
+ * ========================================================================== *
+ *                                                                            *
+ * Licensed under the  Apache License, Version 2.0  (the "License").  You may *
+ * not use this file except in compliance with the License.  You may obtain a *
+ * copy of the License at <http://www.apache.org/licenses/LICENSE-2.0>.       *
+ *                                                                            *
+ * Unless  required  by applicable  law or  agreed  to  in writing,  software *
+ * distributed under the License is distributed on an  "AS IS" BASIS, WITHOUT *
+ * WARRANTIES OR  CONDITIONS OF ANY KIND, either express or implied.  See the *
+ * License for the  specific language  governing permissions  and limitations *
+ * under the License.                                                         *
+ *                                                                            *
+ * ========================================================================== */
+package com.notessensei.cocomo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import java.util.TimeZone;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Varints, the columns of a segment and the queries over several runs
+ * 
+ * @author stw
+ * 
+ */
+public class MetricsStoreTest {
+
+	private static final long	DAY	= 24L * 60 * 60 * 1000;
+
+	private File				dir;
+
+	@Before
+	public void setUp() throws IOException {
+		this.dir = File.createTempFile("store", "");
+		this.dir.delete();
+	}
+
+	@After
+	public void tearDown() {
+		ScanPipelineTest.delete(this.dir);
+	}
+
+	@Test
+	public void varIntRoundTrip() {
+		int[] values = { 0, 1, 127, 128, 16383, 16384, Integer.MAX_VALUE, -1, Integer.MIN_VALUE };
+		int[] sizes = { 1, 1, 1, 2, 2, 3, 5, 5, 5 };
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for (int i = 0; i < values.length; i++) {
+			int before = out.size();
+			MetricsStore.writeVarInt(out, values[i]);
+			assertEquals(String.valueOf(values[i]), sizes[i], out.size() - before);
+		}
+		Random random = new Random(7);
+		int[] more = new int[1000];
+		for (int i = 0; i < more.length; i++) {
+			more[i] = random.nextInt() >> random.nextInt(32);
+			MetricsStore.writeVarInt(out, more[i]);
+		}
+		byte[] data = out.toByteArray();
+		int[] pos = new int[1];
+		for (int value : values) {
+			assertEquals(value, MetricsStore.readVarInt(data, pos));
+		}
+		for (int value : more) {
+			assertEquals(value, MetricsStore.readVarInt(data, pos));
+		}
+		assertEquals(data.length, pos[0]);
+	}
+
+	@Test
+	public void runRoundTrip() throws IOException {
+		MetricsStore store = new MetricsStore(this.dir);
+		assertNull(store.readLatest());
+		Random random = new Random(11);
+		int[][] expected = new int[300][3];
+		MetricsStore.Run run = store.startRun(DAY);
+		// Added in no particular order, like the pipeline finishes them
+		for (int a = expected.length - 1; a >= 0; a--) {
+			ArtefactResult result = new ArtefactResult();
+			for (int k = 0; k < 3; k++) {
+				// Every other application has no value for a counter
+				if (random.nextBoolean()) {
+					expected[a][k] = random.nextInt(200000) - 1000;
+					result.add("key" + k, expected[a][k]);
+				}
+			}
+			run.add(MetricsStoreTest.appName(a), result);
+		}
+		run.commit();
+
+		// A new store reads what the old one wrote
+		MetricsStore.Snapshot snapshot = new MetricsStore(this.dir).readLatest();
+		assertEquals(DAY, snapshot.getTime());
+		for (int a = 0; a < expected.length; a++) {
+			int app = snapshot.findApplication(MetricsStoreTest.appName(a));
+			for (int k = 0; k < 3; k++) {
+				int key = snapshot.findKey("key" + k);
+				int value = (app < 0) ? 0 : snapshot.getValue(key, app);
+				assertEquals(MetricsStoreTest.appName(a) + " key" + k, expected[a][k], value);
+			}
+		}
+		assertEquals(-1, snapshot.findKey("missing"));
+	}
+
+	@Test
+	public void historyAndGrowth() throws IOException {
+		MetricsStore store = new MetricsStore(this.dir);
+		this.commit(store, 1, new String[] { "A", "B" }, new int[] { 10, 5 });
+		this.commit(store, 2, new String[] { "A", "B", "C" }, new int[] { 12, 50, 3 });
+		this.commit(store, 3, new String[] { "A", "C" }, new int[] { 20, 40 });
+		assertEquals(3, store.getRunCount());
+
+		Collection<String> keys = Arrays.asList("form", "view");
+		List<MetricsStore.Sample> history = store.history("A", keys, 0);
+		assertEquals(3, history.size());
+		assertEquals(2 * DAY, history.get(1).getTime());
+		// form and view add up
+		assertEquals(24, history.get(1).getValue());
+		assertEquals(2, store.history("B", keys, 0).size());
+		assertEquals(1, store.history("B", keys, 2 * DAY).size());
+		assertEquals(0, store.history("Unknown", keys, 0).size());
+
+		List<MetricsStore.Growth> growers = store.topGrowers(keys, 10, 0);
+		assertEquals(2, growers.size());
+		assertEquals("C", growers.get(0).getApplication());
+		assertEquals(0, growers.get(0).getBefore());
+		assertEquals(80, growers.get(0).getGrowth());
+		assertEquals("A", growers.get(1).getApplication());
+		assertEquals(20, growers.get(1).getGrowth());
+		assertEquals(1, store.topGrowers(keys, 1, 0).size());
+		// Since the second run B had 100 and C 6
+		assertEquals(74, store.topGrowers(keys, 1, 2 * DAY).get(0).getGrowth());
+	}
+
+	@Test
+	public void runsAcrossTheEndOfDaylightSavingTime() throws IOException {
+		TimeZone local = TimeZone.getDefault();
+		TimeZone.setDefault(TimeZone.getTimeZone("Europe/Berlin"));
+		try {
+			// 2014-10-26 00:30 and 01:10 UTC are 02:30 CEST and 02:10 CET
+			long first = 1414283400000L;
+			long second = first + 40 * 60 * 1000;
+			MetricsStore store = new MetricsStore(this.dir);
+			MetricsStore.Run run = store.startRun(first);
+			ArtefactResult result = new ArtefactResult();
+			result.add("form", 1);
+			run.add("A", result);
+			run.commit();
+			run = store.startRun(second);
+			result = new ArtefactResult();
+			result.add("form", 2);
+			run.add("A", result);
+			run.commit();
+
+			assertEquals("20141026-011000-000", store.getLatestRunName().substring(0, 19));
+			assertEquals(second, store.readLatest().getTime());
+			List<MetricsStore.Sample> history = store.history("A", Arrays.asList("form"), first);
+			assertEquals(2, history.size());
+			assertEquals(first, history.get(0).getTime());
+			assertEquals(2, history.get(1).getValue());
+			assertEquals(1, store.history("A", Arrays.asList("form"), second).size());
+		} finally {
+			TimeZone.setDefault(local);
+		}
+	}
+
+	private void commit(MetricsStore store, int day, String[] apps, int[] values) throws IOException {
+		MetricsStore.Run run = store.startRun(day * DAY);
+		for (int i = 0; i < apps.length; i++) {
+			ArtefactResult result = new ArtefactResult();
+			result.add("form", values[i]);
+			result.add("view", values[i]);
+			result.add("agent", 1000);
+			run.add(apps[i], result);
+		}
+		run.commit();
+	}
+
+	private static String appName(int a) {
+		return "App" + a;
+	}
+}
@@ -0,0 +1,120 @@
+/** ========================================================================= *
+ * Copyright (C) 2014,      IBM Corporation ( http://www.ibm.com/ )           *
+ *                            All rights reserved.                            *
+ * ========================================================================== *
+ *                                                                            *
+ * Licensed under the  Apache License, Version 2.0  (the "License").  You may *
+ * not use this file except in compliance with the License.  You may obtain a *
+ * copy of the License at <http://www.apache.org/licenses/LICENSE-2.0>.       *
+ *                                                                            *
+ * Unless  required  by applicable  law or  agreed  to  in writing,  software *
+ * distributed under the License is distributed on an  "AS IS" BASIS, WITHOUT *
+ * WARRANTIES OR  CONDITIONS OF ANY KIND, either express or implied.  See the *
+ * License for the  specific language  governing permissions  and limitations *
+ * under the License.                                                         *
+ *                                                                            *
+ * ========================================================================== */
+package com.notessensei.cocomo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+/**
+ * MinHash signatures of code units and their clusters via LSH
+ * 
+ * @author stw
+ * 
+ */
+public class MinHasherTest {
+
+	private final MinHasher	hasher	= new MinHasher();
+
+	@Test
+	public void formattingDoesNotMatter() {
+		int[] a = this.sign("Dim count As Integer", "count = count + 1", "Print \"Total: \" & count", "If count > 10 Then",
+				"  Exit Sub", "End If", "count = 0");
+		// Other case, spacing, numbers and strings
+		int[] b = this.sign("dim   COUNT as integer", "count=count+2", "print \"Sum\"&count", "if count>99 then exit sub",
+				"end if", "count=0");
+		assertEquals(MinHasher.SIGNATURE_SIZE, a.length);
+		assertEquals(1.0, MinHasher.similarity(a, b), 0);
+	}
+
+	@Test
+	public void smallUnitsHaveNoSignature() {
+		// 23 tokens
+		assertNull(this.sign("a = b + c", "d = e + f", "g = h + i", "j = k + l", "m = n"));
+		assertTrue(this.sign("a = b + c", "d = e + f", "g = h + i", "j = k + l", "m = n", "o") != null);
+	}
+
+	@Test
+	public void similarityFollowsTheChanges() {
+		Random random = new Random(5);
+		String[] unit = MinHasherTest.randomUnit(random, 60);
+		int[] original = this.sign(unit);
+		String[] changed = unit.clone();
+		changed[30] = "changed = here * now";
+		double close = MinHasher.similarity(original, this.sign(changed));
+		assertTrue(String.valueOf(close), close > 0.8 && close < 1.0);
+		double far = MinHasher.similarity(original, this.sign(MinHasherTest.randomUnit(random, 60)));
+		assertTrue(String.valueOf(far), far < 0.1);
+	}
+
+	@Test
+	public void clustersCopiesAcrossApplications() {
+		Random random = new Random(9);
+		String[] shared = MinHasherTest.randomUnit(random, 40);
+		String[] nearCopy = shared.clone();
+		nearCopy[39] = "last = line + 1";
+		CodeSimilarityIndex index = new CodeSimilarityIndex();
+		// Enough units to grow the arrays of the index
+		for (int app = 0; app < 3; app++) {
+			Map<String, int[]> units = new TreeMap<String, int[]>();
+			for (int u = 0; u < 500; u++) {
+				units.put("unit" + u, this.sign(MinHasherTest.randomUnit(random, 30)));
+			}
+			units.put("copy", this.sign((app == 2) ? nearCopy : shared));
+			index.add("App" + app, units);
+		}
+		List<List<String>> clusters = index.getClusters();
+		assertEquals(1, clusters.size());
+		List<String> cluster = new ArrayList<String>(clusters.get(0));
+		Collections.sort(cluster);
+		assertEquals(Arrays.asList("App0/copy", "App1/copy", "App2/copy"), cluster);
+	}
+
+	private int[] sign(String... lines) {
+		MinHasher.Signer signer = this.hasher.newSigner();
+		for (String line : lines) {
+			signer.feed(line);
+		}
+		return signer.finish();
+	}
+
+	/**
+	 * Statements with random names, 6 tokens each
+	 */
+	private static String[] randomUnit(Random random, int statements) {
+		String[] result = new String[statements];
+		for (int i = 0; i < statements; i++) {
+			result[i] = MinHasherTest.name(random) + " = " + MinHasherTest.name(random) + " + " + MinHasherTest.name(random)
+					+ " : ";
+		}
+		return result;
+	}
+
+	private static String name(Random random) {
+		return "v" + Integer.toString(random.nextInt(1 << 20), 36);
+	}
+}
@@ -0,0 +1,199 @@
+/** ========================================================================= *
+ * Copyright (C) 2014,      IBM Corporation ( http://www.ibm.com/ )           *
+ *                            All rights reserved.                            *
+ * ========================================================================== *
+ *                                                                            *
+ * Licensed under the  Apache License, Version 2.0  (the "License").  You may *
+ * not use this file except in compliance with the License.  You may obtain a *
+ * copy of the License at <http://www.apache.org/licenses/LICENSE-2.0>.       *
+ *                                                                            *
+ * Unless  required  by applicable  law or  agreed  to  in writing,  software *
+ * distributed under the License is distributed on an  "AS IS" BASIS, WITHOUT *
+ * WARRANTIES OR  CONDITIONS OF ANY KIND, either express or implied.  See the *
+ * License for the  specific language  governing permissions  and limitations *
+ * under the License.                                                         *
+ *                                                                            *
+ * ========================================================================== */
+package com.notessensei.cocomo;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Shard selection, the partial result files and their merge
+ * 
+ * @author stw
+ * 
+ */
+public class PartialResultTest {
+
+	private static final String	FORM	= "<form name='Main'><field name='a'/><field name='b'/><action/></form>";
+
+	private File				root;
+
+	@Before
+	public void setUp() throws IOException {
+		this.root = File.createTempFile("shards", "");
+		this.root.delete();
+		this.root.mkdirs();
+	}
+
+	@After
+	public void tearDown() {
+		ScanPipelineTest.delete(this.root);
+	}
+
+	@Test
+	public void keysSurviveTheRoundTrip() throws IOException {
+		File f = new File(this.root, "test.partial");
+		String[] keys = { "tab\there", "two\nlines", "back\\slash", "\\t is no tab", "mixed\t\\\n\r", "plain" };
+		ArtefactResult result = new ArtefactResult();
+		for (int i = 0; i < keys.length; i++) {
+			result.add(keys[i], i + 1);
+		}
+		result.addFingerprint("Forms\\Main\t.form", -42L);
+		result.addCodeSignature("Code\nAgent", new int[] { 1, -2, 3 });
+		result.getFunctions().add("@DbLookup", 0, 9, 4);
+		File source = new File(this.root, "App\twith tab");
+		PartialResult partial = new PartialResult(f, new ShardSpec(2, 3, ShardSpec.BY_RANGE));
+		partial.write(7, source, result);
+		partial.close();
+
+		PartialResult.Shard shard = PartialResult.read(f);
+		assertEquals("2/3", shard.getSpec().toString());
+		assertEquals(ShardSpec.BY_RANGE, shard.getSpec().getMethod());
+		assertEquals(1, shard.getApplications().size());
+		PartialResult.Application app = shard.getApplications().get(0);
+		assertEquals(7, app.getPosition());
+		assertEquals(source.getAbsolutePath(), app.getSource().getPath());
+		assertEquals(result.getCounters(), app.getResult().getCounters());
+		assertEquals(result.getFingerprints(), app.getResult().getFingerprints());
+		assertArrayEquals(new int[] { 1, -2, 3 }, app.getResult().getCodeSignatures().get("Code\nAgent"));
+		assertEquals(4, app.getResult().getFunctions().getCount("@DbLookup"));
+	}
+
+	@Test
+	public void unfinishedFileIsRejected() throws IOException {
+		File f = new File(this.root, "test.partial");
+		ArtefactResult result = new ArtefactResult();
+		result.add("form", 1);
+		// The worker died before close
+		PartialResult partial = new PartialResult(f, new ShardSpec(1, 2, ShardSpec.BY_HASH));
+		partial.write(0, new File(this.root, "App"), result);
+		try {
+			PartialResult.read(f);
+			fail("Read a partial result without end");
+		} catch (IOException e) {
+			assertTrue(e.getMessage(), e.getMessage().endsWith("is incomplete, the worker didn't finish"));
+		}
+		partial.close();
+		assertEquals(1, PartialResult.read(f).getApplications().size());
+	}
+
+	@Test
+	public void everyApplicationInExactlyOneShard() {
+		List<File> sources = new ArrayList<File>();
+		for (int i = 0; i < 50; i++) {
+			sources.add(new File(this.root, "App" + i));
+		}
+		for (String method : new String[] { ShardSpec.BY_HASH, ShardSpec.BY_RANGE }) {
+			for (int count : new int[] { 1, 2, 3, 7, 50, 60 }) {
+				Map<Integer, File> seen = new TreeMap<Integer, File>();
+				for (int shard = 1; shard <= count; shard++) {
+					int previous = -1;
+					for (Map.Entry<File, Integer> me : new ShardSpec(shard, count, method).select(sources).entrySet()) {
+						int position = me.getValue().intValue();
+						assertEquals(sources.get(position), me.getKey());
+						assertEquals(method + " " + count, null, seen.put(me.getValue(), me.getKey()));
+						if (method.equals(ShardSpec.BY_RANGE) && previous >= 0) {
+							// One slice without gaps
+							assertEquals(previous + 1, position);
+						}
+						previous = position;
+					}
+				}
+				assertEquals(method + " " + count, sources.size(), seen.size());
+			}
+		}
+		// Hash shards don't depend on the rest of the list
+		ShardSpec spec = new ShardSpec(2, 3, ShardSpec.BY_HASH);
+		for (File source : sources) {
+			boolean inAll = spec.select(sources).containsKey(source);
+			assertEquals(inAll, spec.select(Arrays.asList(source)).containsKey(source));
+		}
+	}
+
+	@Test
+	public void mergeMatchesOneProcess() throws IOException {
+		File sources = new File(this.root, "projects");
+		for (int app = 0; app < 6; app++) {
+			for (int i = 0; i <= app; i++) {
+				ScanPipelineTest.write(new File(sources, "App" + app + "/Forms/Form" + i + ".form"), PartialResultTest.FORM);
+			}
+		}
+		String expected = this.extract(sources, "single.csv", null);
+		assertEquals(7, expected.split("\n").length);
+
+		for (String method : new String[] { ShardSpec.BY_HASH, ShardSpec.BY_RANGE }) {
+			List<File> partials = new ArrayList<File>();
+			for (int shard = 2; shard >= 1; shard--) {
+				this.extract(sources, "shard" + shard + ".csv", new ShardSpec(shard, 2, method));
+				partials.add(new File(this.root, "shard" + shard + ".partial"));
+			}
+			File merged = new File(this.root, "merged.csv");
+			this.newExtractor(sources, merged).mergePartials(partials);
+			assertEquals(method, expected, PartialResultTest.read(merged));
+
+			// One shard alone is no report
+			try {
+				this.newExtractor(sources, merged).mergePartials(partials.subList(0, 1));
+				fail("Merged without all shards");
+			} catch (IOException e) {
+				// Expected
+			}
+		}
+	}
+
+	private String extract(File sources, String reportName, ShardSpec shard) throws IOException {
+		File report = new File(this.root, reportName);
+		ArtefactExtractor extractor = this.newExtractor(sources, report);
+		if (shard != null) {
+			extractor.setShard(shard);
+		}
+		extractor.extract();
+		return PartialResultTest.read(report);
+	}
+
+	private ArtefactExtractor newExtractor(File sources, File report) {
+		return new ArtefactExtractor(sources.getAbsolutePath(), report.getAbsolutePath(), RuleSet.load(this.root));
+	}
+
+	static String read(File f) throws IOException {
+		StringBuilder result = new StringBuilder();
+		BufferedReader in = LineSorter.open(f);
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				result.append(line).append("\n");
+			}
+		} finally {
+			in.close();
+		}
+		return result.toString();
+	}
+}
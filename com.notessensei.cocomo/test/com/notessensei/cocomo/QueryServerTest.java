@@ -0,0 +1,196 @@
+/** ========================================================================= *
+ * Copyright (C) 2014,      IBM Corporation ( http://www.ibm.com/ )           *
+ *                            All rights reserved.                            *
+ * ========================================================================== *
+ *                                                                            *
+ * Licensed under the  Apache License, Version 2.0  (the "License").  You may *
+ * not use this file except in compliance with the License.  You may obtain a *
+ * copy of the License at <http://www.apache.org/licenses/LICENSE-2.0>.       *
+ *                                                                            *
+ * Unless  required  by applicable  law or  agreed  to  in writing,  software *
+ * distributed under the License is distributed on an  "AS IS" BASIS, WITHOUT *
+ * WARRANTIES OR  CONDITIONS OF ANY KIND, either express or implied.  See the *
+ * License for the  specific language  governing permissions  and limitations *
+ * under the License.                                                         *
+ *                                                                            *
+ * ========================================================================== */
+package com.notessensei.cocomo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The HTTP answers of the query server over a small metrics store
+ * 
+ * @author stw
+ * 
+ */
+public class QueryServerTest {
+
+	private static final long		DAY			= 24L * 60 * 60 * 1000;
+	private static final long		START		= 1400000000000L;
+	private static final Pattern	APPLICATION	= Pattern.compile("\"application\":\"([^\"]*)\"");
+
+	private File					dir;
+	private MetricsStore			store;
+	private QueryServer				server;
+
+	@Before
+	public void setUp() throws IOException {
+		this.dir = File.createTempFile("query", "");
+		this.dir.delete();
+		this.store = new MetricsStore(this.dir);
+		MetricsStore.Run run = this.store.startRun(QueryServerTest.START);
+		run.add("Alpha", QueryServerTest.result(10, 1, 2));
+		run.add("Beta", QueryServerTest.result(30, 0, 1));
+		run.add("Bravo", QueryServerTest.result(5, 0, 0));
+		run.add("Gamma", QueryServerTest.result(20, 4, 0));
+		run.commit();
+		ArtefactExtractor extractor = new ArtefactExtractor(this.dir.getAbsolutePath(), new File(this.dir, "unused.csv")
+				.getAbsolutePath(), RuleSet.load(this.dir));
+		this.server = new QueryServer(extractor, this.dir, 0, 2);
+		this.server.serve();
+	}
+
+	@After
+	public void tearDown() {
+		if (this.server != null) {
+			this.server.stop();
+		}
+		ScanPipelineTest.delete(this.dir);
+	}
+
+	@Test(timeout = 60000)
+	public void columnsResolveToTheirCounters() throws IOException {
+		// Forms is File-form and File-page, a raw counter is its own column
+		String body = this.get("/applications?name=Alpha&columns=" + QueryServerTest.encode("Forms,Lines of Code,File-page"));
+		assertEquals("[\n{\"application\":\"Alpha\",\"Forms\":3,\"Lines of Code\":10,\"File-page\":2}]", body);
+		body = this.get("/applications/Gamma?prefix=File-");
+		assertEquals("{\"application\":\"Gamma\",\"counters\":{\"File-form\":4}}", body);
+		// Without columns: all report columns and the total, which like the
+		// report counts File-form in Forms and in Files
+		body = this.get("/applications?name=Gamma");
+		assertTrue(body, body.contains("\"Lines of Code\":20"));
+		assertTrue(body, body.contains("\"Files\":4"));
+		assertTrue(body, body.contains("\"Total\":28"));
+	}
+
+	@Test(timeout = 60000)
+	public void selectFiltersAndSorts() throws IOException {
+		String loc = "sort=" + QueryServerTest.encode("Lines of Code");
+		assertEquals(Arrays.asList("Beta", "Gamma", "Alpha", "Bravo"), this.applications("/applications?" + loc));
+		assertEquals(Arrays.asList("Bravo", "Alpha", "Gamma", "Beta"), this.applications("/applications?order=asc&" + loc));
+		assertEquals(Arrays.asList("Gamma", "Alpha"), this.applications("/applications?min=10&max=20&" + loc));
+		assertEquals(Arrays.asList("Beta", "Gamma"), this.applications("/applications?limit=2&" + loc));
+		assertEquals(Arrays.asList("Beta", "Bravo"), this.applications("/applications?name=B&" + loc));
+		// Without sort the order of the run, min and max need a sort column
+		assertEquals(Arrays.asList("Alpha", "Beta", "Bravo", "Gamma"), this.applications("/applications?min=15"));
+
+		String aggregate = this.get("/aggregate?name=B&columns=" + QueryServerTest.encode("Lines of Code"));
+		assertEquals("{\"applications\":2,\"columns\":{\n\"Lines of Code\":{\"sum\":35,\"min\":5,\"max\":30,\"avg\":17.5}}}", aggregate);
+	}
+
+	@Test(timeout = 60000)
+	public void newerRunReplacesTheServedOne() throws IOException, InterruptedException {
+		String sort = "sort=" + QueryServerTest.encode("Lines of Code");
+		String query = "/applications?limit=1&" + sort;
+		assertEquals(Arrays.asList("Beta"), this.applications(query));
+
+		MetricsStore.Run run = this.store.startRun(QueryServerTest.START + QueryServerTest.DAY);
+		run.add("Alpha", QueryServerTest.result(100, 1, 2));
+		run.add("Beta", QueryServerTest.result(30, 0, 1));
+		run.add("Delta", QueryServerTest.result(50, 0, 0));
+		run.commit();
+
+		// The server looks for new runs once a second at most
+		List<String> top = this.applications(query);
+		while (top.equals(Arrays.asList("Beta"))) {
+			Thread.sleep(100);
+			top = this.applications(query);
+		}
+		assertEquals(Arrays.asList("Alpha"), top);
+		assertEquals(Arrays.asList("Alpha", "Delta", "Beta"), this.applications("/applications?" + sort));
+		assertEquals(404, this.status("/applications/Gamma"));
+	}
+
+	@Test(timeout = 60000)
+	public void badRequests() throws IOException {
+		assertEquals(400, this.status("/applications?limit=ten"));
+		assertEquals(404, this.status("/nothing"));
+		assertEquals(404, this.status("/applications/Nobody"));
+	}
+
+	private List<String> applications(String path) throws IOException {
+		List<String> result = new ArrayList<String>();
+		Matcher m = QueryServerTest.APPLICATION.matcher(this.get(path));
+		while (m.find()) {
+			result.add(m.group(1));
+		}
+		return result;
+	}
+
+	private String get(String path) throws IOException {
+		HttpURLConnection connection = this.open(path);
+		try {
+			assertEquals(path, 200, connection.getResponseCode());
+			InputStream in = connection.getInputStream();
+			StringBuilder body = new StringBuilder();
+			byte[] buffer = new byte[4096];
+			int count;
+			while ((count = in.read(buffer)) > 0) {
+				body.append(new String(buffer, 0, count, "UTF-8"));
+			}
+			in.close();
+			return body.toString();
+		} finally {
+			connection.disconnect();
+		}
+	}
+
+	private int status(String path) throws IOException {
+		HttpURLConnection connection = this.open(path);
+		try {
+			return connection.getResponseCode();
+		} finally {
+			connection.disconnect();
+		}
+	}
+
+	private HttpURLConnection open(String path) throws IOException {
+		URL url = new URL("http://127.0.0.1:" + this.server.getLocalPort() + path);
+		return (HttpURLConnection) url.openConnection();
+	}
+
+	private static String encode(String value) throws UnsupportedEncodingException {
+		return URLEncoder.encode(value, "UTF-8");
+	}
+
+	private static ArtefactResult result(int loc, int forms, int pages) {
+		ArtefactResult result = new ArtefactResult();
+		result.add("LOC", loc);
+		if (forms > 0) {
+			result.add("File-form", forms);
+		}
+		if (pages > 0) {
+			result.add("File-page", pages);
+		}
+		return result;
+	}
+}
@@ -0,0 +1,146 @@
+/** ========================================================================= *
+ * Copyright (C) 2014,      IBM Corporation ( http://www.ibm.com/ )           *
+ *                            All rights reserved.                            *
+ * ========================================================================== *
+ *                                                                            *
+ * Licensed under the  Apache License, Version 2.0  (the "License").  You may *
+ * not use this file except in compliance with the License.  You may obtain a *
+ * copy of the License at <http://www.apache.org/licenses/LICENSE-2.0>.       *
+ *                                                                            *
+ * Unless  required  by applicable  law or  agreed  to  in writing,  software *
+ * distributed under the License is distributed on an  "AS IS" BASIS, WITHOUT *
+ * WARRANTIES OR  CONDITIONS OF ANY KIND, either express or implied.  See the *
+ * License for the  specific language  governing permissions  and limitations *
+ * under the License.                                                         *
+ *                                                                            *
+ * ========================================================================== */
+package com.notessensei.cocomo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The external sort of reports and the delta of two runs
+ * 
+ * @author stw
+ * 
+ */
+public class RunDiffTest {
+
+	private File	root;
+
+	@Before
+	public void setUp() throws IOException {
+		this.root = File.createTempFile("rundiff", "");
+		this.root.delete();
+		this.root.mkdirs();
+	}
+
+	@After
+	public void tearDown() {
+		ScanPipelineTest.delete(this.root);
+	}
+
+	@Test
+	public void sortsInChunks() throws IOException {
+		Random random = new Random(42);
+		List<String> rows = new ArrayList<String>();
+		StringBuilder report = new StringBuilder("Application,form\n");
+		for (int i = 0; i < 100; i++) {
+			String row = "App" + random.nextInt(40) + "," + random.nextInt(1000);
+			rows.add(row);
+			report.append(row).append("\n");
+		}
+		File f = new File(this.root, "report.csv");
+		ScanPipelineTest.write(f, report.toString());
+		Collections.sort(rows, LineSorter.BY_FIRST_FIELD);
+		// One chunk, many chunks, one row per chunk
+		for (int chunkLines : new int[] { 1000, 7, 1 }) {
+			assertEquals(rows, RunDiffTest.readAll(new LineSorter(chunkLines).openSorted(f)));
+		}
+	}
+
+	@Test
+	public void sortedReportIsReadAsItIs() throws IOException {
+		File f = new File(this.root, "report.csv");
+		ScanPipelineTest.write(f, "Application,form\nA,1\nB,2\nB,3\n");
+		List<String> expected = new ArrayList<String>();
+		Collections.addAll(expected, "A,1", "B,2", "B,3");
+		assertEquals(expected, RunDiffTest.readAll(new LineSorter(1).openSorted(f)));
+	}
+
+	@Test
+	public void reportDelta() throws IOException {
+		File oldRun = new File(this.root, "old.csv");
+		File newRun = new File(this.root, "new.csv");
+		ScanPipelineTest.write(oldRun, "Application,form,view\nGone,1,1\nSame,2,3\nGrown,5,5\n");
+		// Column view is gone, agent is new
+		ScanPipelineTest.write(newRun, "Application,form,agent\nAdded,1,4\nGrown,7,1\nSame,2,0\n");
+		assertEquals("Application,Status,form,agent,view\n" + "Added,new,1,4,0\n" + "Gone,removed,-1,0,-1\n"
+				+ "Grown,changed,2,1,-5\n" + "Same,changed,0,0,-3\n", this.diff(oldRun, newRun));
+
+		ScanPipelineTest.write(newRun, "Application,form,view\nSame,2,3\n");
+		assertEquals("Application,Status,form,view\n" + "Gone,removed,-1,-1\n" + "Grown,removed,-5,-5\n"
+				+ "Same,unchanged,0,0\n", this.diff(oldRun, newRun));
+	}
+
+	@Test
+	public void metricsDelta() throws IOException {
+		File oldRun = new File(this.root, "old");
+		File newRun = new File(this.root, "new");
+		ScanPipelineTest.write(new File(oldRun, "Aapp.metrics"), "form=2\nview=1\n");
+		ScanPipelineTest.write(new File(oldRun, "Bapp.metrics"), "agent=1\n");
+		ScanPipelineTest.write(new File(newRun, "Aapp.metrics"), "agent=3\nform=2\nview=4\n");
+		ScanPipelineTest.write(new File(newRun, "Capp.metrics"), "{EMPTY}\n");
+		ScanPipelineTest.write(new File(newRun, "Dapp.metrics"), "form=1\n");
+		assertEquals("Application,Status,Counter,Old,New,Delta\n" + "A,changed,agent,0,3,3\n" + "A,changed,view,1,4,3\n"
+				+ "B,removed,agent,1,0,-1\n" + "D,new,form,0,1,1\n", this.diff(oldRun, newRun));
+	}
+
+	@Test
+	public void reportAgainstMetricsFails() throws IOException {
+		File oldRun = new File(this.root, "old.csv");
+		ScanPipelineTest.write(oldRun, "Application,form\n");
+		try {
+			this.diff(oldRun, this.root);
+			fail("Report and metrics directory compared");
+		} catch (IOException e) {
+			// Expected
+		}
+	}
+
+	private String diff(File oldRun, File newRun) throws IOException {
+		File delta = new File(this.root, "delta.csv");
+		new RunDiff(oldRun, newRun).writeDelta(delta.getPath());
+		StringBuilder result = new StringBuilder();
+		for (String line : RunDiffTest.readAll(LineSorter.open(delta))) {
+			result.append(line).append("\n");
+		}
+		return result.toString();
+	}
+
+	private static List<String> readAll(BufferedReader in) throws IOException {
+		List<String> result = new ArrayList<String>();
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				result.add(line);
+			}
+		} finally {
+			in.close();
+		}
+		return result;
+	}
+}
@@ -0,0 +1,174 @@
+/** ========================================================================= *
+ * Copyright (C) 2014,      IBM Corporation ( http://www.ibm.com/ )           *
+ *                            All rights reserved.                            *
+ * ========================================================================== *
+ *                                                                            *
+ * Licensed under the  Apache License, Version 2.0  (the "License").  You may *
+ * not use this file except in compliance with the License.  You may obtain a *
+ * copy of the License at <http://www.apache.org/licenses/LICENSE-2.0>.       *
+ *                                                                            *
+ * Unless  required  by applicable  law or  agreed  to  in writing,  software *
+ * distributed under the License is distributed on an  "AS IS" BASIS, WITHOUT *
+ * WARRANTIES OR  CONDITIONS OF ANY KIND, either express or implied.  See the *
+ * License for the  specific language  governing permissions  and limitations *
+ * under the License.                                                         *
+ *                                                                            *
+ * ========================================================================== */
+package com.notessensei.cocomo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The t quantiles and the estimates of the sampling mode
+ * 
+ * @author stw
+ * 
+ */
+public class SampleEstimatorTest {
+
+	private static final String	FORM	= "<form name='Main'><field name='a'/><field name='b'/><action/></form>";
+
+	private File				root;
+	private File				sources;
+
+	@Before
+	public void setUp() throws IOException {
+		this.root = File.createTempFile("sample", "");
+		this.root.delete();
+		this.sources = new File(this.root, "sources");
+		// Files of different size, so a sample has a variance
+		for (int i = 0; i < 12; i++) {
+			StringBuilder script = new StringBuilder("Option Public\nSub Initialize\n");
+			for (int line = 0; line < i; line++) {
+				script.append("  Print ").append(line).append("\n");
+			}
+			script.append("End Sub\n");
+			ScanPipelineTest.write(new File(this.sources, "App1/Code/ScriptLibraries/Lib" + i + ".lss"), script.toString());
+		}
+		for (int i = 0; i < 5; i++) {
+			ScanPipelineTest.write(new File(this.sources, "App1/Forms/Form" + i + ".form"), SampleEstimatorTest.FORM);
+		}
+		for (int i = 0; i < 3; i++) {
+			ScanPipelineTest.write(new File(this.sources, "App2/Code/ScriptLibraries/Lib" + i + ".lss"),
+					"Sub Initialize\n  Print 1\nEnd Sub\n");
+		}
+	}
+
+	@After
+	public void tearDown() {
+		ScanPipelineTest.delete(this.root);
+	}
+
+	@Test
+	public void tQuantileAtTablePoints() {
+		assertEquals(12.706, SampleEstimator.tQuantile(1), 1e-9);
+		assertEquals(2.228, SampleEstimator.tQuantile(10), 1e-9);
+		assertEquals(2.042, SampleEstimator.tQuantile(30), 1e-9);
+		assertEquals(1.980, SampleEstimator.tQuantile(120), 1e-9);
+		// Below one degree of freedom the first entry
+		assertEquals(12.706, SampleEstimator.tQuantile(0.5), 1e-9);
+	}
+
+	@Test
+	public void tQuantileBetweenTablePoints() {
+		// Linear on 1/df: 35 is 4/7 of the way from 30 to 40
+		double share = (1 / 30.0 - 1 / 35.0) / (1 / 30.0 - 1 / 40.0);
+		assertEquals(2.042 + share * (2.021 - 2.042), SampleEstimator.tQuantile(35), 1e-9);
+		assertEquals((2.228 + 2.201) / 2, SampleEstimator.tQuantile(2 / (1 / 10.0 + 1 / 11.0)), 1e-9);
+		// Beyond the table towards the normal quantile
+		double last = SampleEstimator.tQuantile(120);
+		for (double df = 1.5; df < 1e6; df *= 1.7) {
+			double t = SampleEstimator.tQuantile(df);
+			assertTrue(df + ": " + t, t > 1.96 && t < 12.706);
+		}
+		assertTrue(SampleEstimator.tQuantile(240) < last);
+		assertEquals(1.96, SampleEstimator.tQuantile(1e12), 1e-6);
+	}
+
+	@Test(timeout = 60000)
+	public void fullSampleIsExact() throws IOException {
+		File full = new File(this.root, "full.csv");
+		new ArtefactExtractor(this.sources.getAbsolutePath(), full.getAbsolutePath(), RuleSet.load(this.root)).extract();
+		Map<String, Map<String, String>> expected = SampleEstimatorTest.rows(full);
+
+		Map<String, Map<String, String>> estimate = SampleEstimatorTest.rows(this.estimate(1.0, 7));
+		assertEquals(Arrays.asList("App1", "App2", "All applications"), Arrays.asList(estimate.keySet().toArray()));
+		assertEquals("17", estimate.get("App1").get("Sampled"));
+		assertEquals("17", estimate.get("App1").get("Files"));
+		int checked = 0;
+		for (String app : expected.keySet()) {
+			for (Map.Entry<String, String> me : expected.get(app).entrySet()) {
+				String estimated = estimate.get(app).get(me.getKey());
+				if (estimated != null) {
+					assertEquals(app + " " + me.getKey(), me.getValue(), estimated);
+					assertEquals(app + " " + me.getKey(), "0", estimate.get(app).get(me.getKey() + " +-"));
+					checked++;
+				}
+			}
+		}
+		assertTrue(checked > 10);
+		assertFalse("0".equals(estimate.get("App1").get("Lines of Code")));
+	}
+
+	@Test(timeout = 60000)
+	public void sameSeedSameSample() throws IOException {
+		String first = PartialResultTest.read(this.estimate(0.25, 42));
+		assertEquals(first, PartialResultTest.read(this.estimate(0.25, 42)));
+
+		Map<String, String> app1 = SampleEstimatorTest.rows(this.estimate(0.25, 42)).get("App1");
+		// 3 of the 12 scripts and at least 2 of the 5 forms
+		assertEquals("5", app1.get("Sampled"));
+		assertEquals("17", app1.get("Files"));
+		assertFalse("0".equals(app1.get("Lines of Code +-")));
+		// App2 has 3 scripts, 2 of them are sampled
+		Map<String, String> app2 = SampleEstimatorTest.rows(this.estimate(0.25, 42)).get("App2");
+		assertEquals("2", app2.get("Sampled"));
+		// All scripts of App2 are the same, no variance
+		assertEquals("0", app2.get("Lines of Code +-"));
+	}
+
+	private File estimate(double rate, long seed) throws IOException {
+		File report = new File(this.root, "estimate.csv");
+		ArtefactExtractor extractor = new ArtefactExtractor(this.sources.getAbsolutePath(), report.getAbsolutePath(), RuleSet
+				.load(this.root));
+		new SampleEstimator(extractor, rate, seed, 2).writeEstimate(report.getAbsolutePath());
+		return report;
+	}
+
+	/**
+	 * @return per application the values by column
+	 */
+	private static Map<String, Map<String, String>> rows(File report) throws IOException {
+		Map<String, Map<String, String>> result = new LinkedHashMap<String, Map<String, String>>();
+		BufferedReader in = LineSorter.open(report);
+		try {
+			List<String> header = Arrays.asList(in.readLine().split(","));
+			String line;
+			while ((line = in.readLine()) != null) {
+				String[] values = line.split(",");
+				Map<String, String> row = new LinkedHashMap<String, String>();
+				for (int i = 1; i < header.size() && i < values.length; i++) {
+					row.put(header.get(i), values[i]);
+				}
+				result.put(values[0], row);
+			}
+		} finally {
+			in.close();
+		}
+		return result;
+	}
+}
@@ -0,0 +1,168 @@
+/** ========================================================================= *
+ * Copyright (C) 2014,      IBM Corporation ( http://www.ibm.com/ )           *
+ *                            All rights reserved.                            *
+ * ========================================================================== *
+ *                                                                            *
+ * Licensed under the  Apache License, Version 2.0  (the "License").  You may *
+ * not use this file except in compliance with the License.  You may obtain a *
+ * copy of the License at <http://www.apache.org/licenses/LICENSE-2.0>.       *
+ *                                                                            *
+ * Unless  required  by applicable  law or  agreed  to  in writing,  software *
+ * distributed under the License is distributed on an  "AS IS" BASIS, WITHOUT *
+ * WARRANTIES OR  CONDITIONS OF ANY KIND, either express or implied.  See the *
+ * License for the  specific language  governing permissions  and limitations *
+ * under the License.                                                         *
+ *                                                                            *
+ * ========================================================================== */
+package com.notessensei.cocomo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.xml.sax.SAXException;
+
+/**
+ * Error budget, retries and the error log of failed files
+ * 
+ * @author stw
+ * 
+ */
+public class ScanErrorLogTest {
+
+	private static final String	FORM	= "<form><field name='a'/><field name='b'/></form>";
+
+	/**
+	 * Fails the first opens, then delivers the form
+	 */
+	private static class FlakySource implements ArtefactExtractor.EntrySource {
+		private int	failures;
+
+		private FlakySource(int failures) {
+			this.failures = failures;
+		}
+
+		public InputStream open() throws IOException {
+			if (this.failures > 0) {
+				this.failures--;
+				throw new IOException("Locked");
+			}
+			return new ByteArrayInputStream(ScanErrorLogTest.FORM.getBytes("UTF-8"));
+		}
+	}
+
+	@Test
+	public void stopsWhenTheBudgetIsUsedUp() throws IOException {
+		ScanErrorLog log = new ScanErrorLog();
+		log.setMaxErrors(1);
+		log.record("App", "a.form", 1, new IOException("one"));
+		try {
+			log.record("App", "b.form", 1, new IOException("two"));
+			fail("Second error is over the budget");
+		} catch (ScanErrorLog.ErrorBudgetExceededException e) {
+			assertEquals(2, log.getErrorCount());
+		}
+	}
+
+	@Test
+	public void noLimitByDefault() throws IOException {
+		ScanErrorLog log = new ScanErrorLog();
+		for (int i = 0; i < 100; i++) {
+			log.record("App", i + ".form", 1, new RuntimeException());
+		}
+		assertEquals(100, log.getErrorCount());
+	}
+
+	@Test
+	public void oneLinePerFileWithPhase() throws IOException {
+		ScanErrorLog log = new ScanErrorLog();
+		log.record("App", "a.form", 1, new IOException("Broken", new SAXException("Unexpected end, line 3")));
+		log.record("App", "b,c.form", 2, new IOException("Locked"));
+		log.record("App", "d.form", 1, new IllegalStateException("Say \"no\""));
+		File csv = File.createTempFile("errors", ".csv");
+		try {
+			log.writeErrors(csv.getPath());
+			List<String> lines = new ArrayList<String>();
+			BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(csv), "UTF-8"));
+			try {
+				String line;
+				while ((line = in.readLine()) != null) {
+					lines.add(line);
+				}
+			} finally {
+				in.close();
+			}
+			assertEquals(4, lines.size());
+			assertTrue(lines.get(1), lines.get(1).endsWith(",App,a.form,parse,1,org.xml.sax.SAXException,\"Unexpected end, line 3\""));
+			assertTrue(lines.get(2), lines.get(2).endsWith(",App,\"b,c.form\",read,2,java.io.IOException,Locked"));
+			assertTrue(lines.get(3), lines.get(3).endsWith(",App,d.form,scan,1,java.lang.IllegalStateException,\"Say \"\"no\"\"\""));
+		} finally {
+			csv.delete();
+		}
+	}
+
+	@Test
+	public void retriedFileCountsOnce() throws IOException {
+		ArtefactExtractor extractor = ScannerRegistryTest.newExtractor();
+		extractor.getErrorLog().setRetries(1);
+		ArtefactResult result = new ArtefactResult();
+		assertTrue(extractor.scanEntrySafely("App", "/App/Forms/Main.form", "", "Main.form", new FlakySource(1), result));
+		assertEquals(Integer.valueOf(2), result.getCounters().get("field"));
+		assertEquals(0, extractor.getErrorLog().getErrorCount());
+	}
+
+	@Test
+	public void failedFileCountsNothing() throws IOException {
+		ArtefactExtractor extractor = ScannerRegistryTest.newExtractor();
+		ArtefactResult result = new ArtefactResult();
+		assertFalse(extractor.scanEntrySafely("App", "/App/Forms/Main.form", "", "Main.form", new FlakySource(1), result));
+		assertEquals(null, result.getCounters().get("field"));
+		assertEquals(1, extractor.getErrorLog().getErrorCount());
+	}
+
+	@Test
+	public void hugeTimeLimitIsNoLimit() throws IOException {
+		// Milliseconds that don't fit into nanoseconds must not expire at once
+		ArtefactExtractor extractor = ScannerRegistryTest.newExtractor();
+		extractor.setScanBudget(Long.MAX_VALUE, 0);
+		ArtefactResult result = new ArtefactResult();
+		assertTrue(extractor.scanEntrySafely("App", "/App/Forms/Main.form", "", "Main.form", new FlakySource(0), result));
+		assertEquals(null, result.getCounters().get("quarantined"));
+		assertEquals(Integer.valueOf(2), result.getCounters().get("field"));
+	}
+
+	@Test
+	public void tooDeepGetsTheFallbackScan() throws IOException {
+		ArtefactExtractor extractor = ScannerRegistryTest.newExtractor();
+		extractor.setScanBudget(60000, 5);
+		StringBuilder xml = new StringBuilder("<form>");
+		for (int i = 0; i < 10; i++) {
+			xml.append("<field>");
+		}
+		for (int i = 0; i < 10; i++) {
+			xml.append("</field>");
+		}
+		final byte[] content = xml.append("</form>").toString().getBytes("UTF-8");
+		ArtefactResult result = new ArtefactResult();
+		assertTrue(extractor.scanEntrySafely("App", "/App/Forms/Deep.form", "", "Deep.form", new ArtefactExtractor.EntrySource() {
+			public InputStream open() {
+				return new ByteArrayInputStream(content);
+			}
+		}, result));
+		assertEquals(Integer.valueOf(1), result.getCounters().get("quarantined"));
+		assertEquals(Integer.valueOf(10), result.getCounters().get("field"));
+		assertTrue(extractor.getQuarantine().contains("/App/Forms/Deep.form"));
+	}
+}
@@ -0,0 +1,226 @@
+/** ========================================================================= *
+ * Copyright (C) 2014,      IBM Corporation ( http://www.ibm.com/ )           *
+ *                            All rights reserved.                            *
+ * ========================================================================== *
+ *                                                                            *
+ * Licensed under the  Apache License, Version 2.0  (the "License").  You may *
+ * not use this file except in compliance with the License.  You may obtain a *
+ * copy of the License at <http://www.apache.org/licenses/LICENSE-2.0>.       *
+ *                                                                            *
+ * Unless  required  by applicable  law or  agreed  to  in writing,  software *
+ * distributed under the License is distributed on an  "AS IS" BASIS, WITHOUT *
+ * WARRANTIES OR  CONDITIONS OF ANY KIND, either express or implied.  See the *
+ * License for the  specific language  governing permissions  and limitations *
+ * under the License.                                                         *
+ *                                                                            *
+ * ========================================================================== */
+package com.notessensei.cocomo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Runs the staged pipeline end to end over a small On-Disk-Project tree,
+ * with small queues so every stage has to wait for the next one
+ * 
+ * @author stw
+ * 
+ */
+public class ScanPipelineTest {
+
+	private static final String	FORM	= "<?xml version='1.0' encoding='utf-8'?>\n"
+												+ "<form xmlns='http://www.lotus.com/dxl' name='Main'><body><richtext><par>Hello</par></richtext></body>\n"
+												+ "<field name='f'><code event='defaultvalue'><formula>@DbLookup(\"\";\"\";\"a\";1)</formula></code></field></form>\n";
+	private static final String	SCRIPT	= "Option Public\n' comment\nSub Initialize\n  Dim s as NotesUIWorkspace\nEnd Sub\n";
+
+	private File				root;
+
+	@Before
+	public void setUp() throws IOException {
+		this.root = File.createTempFile("pipeline", "");
+		this.root.delete();
+		this.root.mkdirs();
+		for (int app = 1; app <= 4; app++) {
+			File appDir = new File(this.root, "App" + app);
+			for (int i = 0; i < 10 * app; i++) {
+				ScanPipelineTest.write(new File(appDir, "Code/ScriptLibraries/lib" + i + ".lss"), SCRIPT);
+				ScanPipelineTest.write(new File(appDir, "Forms/Form" + i + ".form"), FORM);
+			}
+			// Only counted, never read
+			ScanPipelineTest.write(new File(appDir, "Resources/Images/logo.gif"), "GIF89a");
+		}
+	}
+
+	@After
+	public void tearDown() {
+		ScanPipelineTest.delete(this.root);
+	}
+
+	@Test(timeout = 60000)
+	public void sameRowsWithConcurrentIo() throws IOException {
+		String expected = this.scan(0, 1, 2, 1, 1, ScanPipeline.DEFAULT_QUEUE_SIZE);
+		assertEquals(4, expected.split("\n").length);
+		assertEquals(expected, this.scan(4, 1, 8, 2, 2, 2));
+		assertEquals(expected, this.scan(1, 2, 1, 1, 1, 1));
+	}
+
+	@Test(timeout = 60000)
+	public void sameRowsWithManyThreads() throws IOException {
+		String expected = this.scan(0, 1, 1, 1, 1, 1);
+		assertEquals(expected, this.scan(0, 4, 8, 4, 4, 1));
+	}
+
+	@Test(timeout = 60000)
+	public void stopsWhenErrorBudgetIsUsedUp() throws IOException {
+		for (int i = 0; i < 20; i++) {
+			ScanPipelineTest.write(new File(this.root, "App2/Forms/Broken" + i + ".form"), "<form><par>");
+		}
+		for (int io = 0; io <= 4; io += 4) {
+			ArtefactExtractor extractor = this.createExtractor();
+			extractor.getErrorLog().setMaxErrors(0);
+			try {
+				this.scan(extractor, io, 1, 8, 2, 2, 2);
+				fail("Error budget not checked");
+			} catch (ScanErrorLog.ErrorBudgetExceededException e) {
+				// Expected
+			}
+			assertTrue(extractor.getErrorLog().getErrorCount() > 0);
+		}
+	}
+
+	@Test(timeout = 60000)
+	public void noSourcesNoRows() throws IOException {
+		ScanPipeline pipeline = new ScanPipeline(this.createExtractor(), 1);
+		StringWriter rows = new StringWriter();
+		pipeline.run(new ArrayList<File>(), new PrintWriter(rows));
+		assertEquals("", rows.toString());
+		assertFalse(ScanPipelineTest.awaitStages());
+	}
+
+	@Test(timeout = 60000)
+	public void stagesEndAfterAFailure() throws IOException {
+		ScanPipelineTest.write(new File(this.root, "App1/Forms/Broken.form"), "<form><par>");
+		for (int io = 0; io <= 4; io += 4) {
+			ArtefactExtractor extractor = this.createExtractor();
+			extractor.getErrorLog().setMaxErrors(0);
+			try {
+				this.scan(extractor, io, 2, 2, 2, 2, 1);
+				fail("Error budget not checked");
+			} catch (ScanErrorLog.ErrorBudgetExceededException e) {
+				// Expected
+			}
+			assertFalse("Stage threads left after a failure", ScanPipelineTest.awaitStages());
+		}
+	}
+
+	@Test(timeout = 60000)
+	public void interruptedRunStopsAllStages() throws IOException {
+		for (int io = 0; io <= 4; io += 4) {
+			ScanPipeline pipeline = new ScanPipeline(this.createExtractor(), 1);
+			pipeline.setStageThreads(2, 2, 2, 2);
+			pipeline.setIoConcurrency(io);
+			Thread.currentThread().interrupt();
+			try {
+				pipeline.run(this.getSources(), new PrintWriter(new StringWriter()));
+				fail("Interrupt ignored");
+			} catch (IOException e) {
+				assertTrue(e.getCause() instanceof InterruptedException);
+				// The caller still sees the interrupt
+				assertTrue(Thread.interrupted());
+			}
+			assertFalse("Stage threads left after an interrupt", ScanPipelineTest.awaitStages());
+		}
+	}
+
+	/**
+	 * Waits up to 10 seconds for the threads of the pipeline and its I/O
+	 * executors to end
+	 * 
+	 * @return true when some are still alive
+	 */
+	private static boolean awaitStages() {
+		long deadline = System.currentTimeMillis() + 10000;
+		while (true) {
+			boolean alive = false;
+			for (Thread t : Thread.getAllStackTraces().keySet()) {
+				if (t.isAlive() && t.getName().startsWith("cocomo-") && !t.getName().equals("cocomo-watchdog")) {
+					alive = true;
+				}
+			}
+			if (!alive || System.currentTimeMillis() > deadline) {
+				return alive;
+			}
+			try {
+				Thread.sleep(20);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return true;
+			}
+		}
+	}
+
+	private String scan(int io, int walk, int read, int parse, int count, int queueSize) throws IOException {
+		return this.scan(this.createExtractor(), io, walk, read, parse, count, queueSize);
+	}
+
+	private String scan(ArtefactExtractor extractor, int io, int walk, int read, int parse, int count, int queueSize)
+			throws IOException {
+		ScanPipeline pipeline = new ScanPipeline(extractor, queueSize);
+		pipeline.setStageThreads(walk, read, parse, count);
+		pipeline.setIoConcurrency(io);
+		StringWriter rows = new StringWriter();
+		PrintWriter report = new PrintWriter(rows);
+		pipeline.run(this.getSources(), report);
+		report.flush();
+		return rows.toString();
+	}
+
+	private ArtefactExtractor createExtractor() {
+		return new ArtefactExtractor(this.root.getAbsolutePath(), new File(this.root, "report.csv").getAbsolutePath(),
+				RuleSet.load(this.root));
+	}
+
+	private List<File> getSources() {
+		List<File> result = new ArrayList<File>();
+		for (int app = 1; app <= 4; app++) {
+			result.add(new File(this.root, "App" + app));
+		}
+		return result;
+	}
+
+	static void write(File file, String content) throws IOException {
+		file.getParentFile().mkdirs();
+		Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+		try {
+			out.write(content);
+		} finally {
+			out.close();
+		}
+	}
+
+	static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				ScanPipelineTest.delete(child);
+			}
+		}
+		file.delete();
+	}
+}
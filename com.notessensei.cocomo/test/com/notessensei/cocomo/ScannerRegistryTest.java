@@ -0,0 +1,111 @@
+/** ========================================================================= *
+ * Copyright (C) 2014,      IBM Corporation ( http://www.ibm.com/ )           *
+ *                            All rights reserved.                            *
+ * ========================================================================== *
+ *                                                                            *
+ * Licensed under the  Apache License, Version 2.0  (the "License").  You may *
+ * not use this file except in compliance with the License.  You may obtain a *
+ * copy of the License at <http://www.apache.org/licenses/LICENSE-2.0>.       *
+ *                                                                            *
+ * Unless  required  by applicable  law or  agreed  to  in writing,  software *
+ * distributed under the License is distributed on an  "AS IS" BASIS, WITHOUT *
+ * WARRANTIES OR  CONDITIONS OF ANY KIND, either express or implied.  See the *
+ * License for the  specific language  governing permissions  and limitations *
+ * under the License.                                                         *
+ *                                                                            *
+ * ========================================================================== */
+package com.notessensei.cocomo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.Collections;
+
+import org.junit.Test;
+
+/**
+ * Dispatch from file names to the built-in scanners and how a scanner is
+ * run
+ * 
+ * @author stw
+ * 
+ */
+public class ScannerRegistryTest {
+
+	/**
+	 * Declares itself neither streaming nor thread safe
+	 */
+	private static class RecordingScanner implements ArtefactScanner {
+		private int	available	= -1;
+
+		public Collection<String> getExtensions(ArtefactExtractor extractor) {
+			return Collections.emptyList();
+		}
+
+		public Collection<String> getFileNames(ArtefactExtractor extractor) {
+			return Collections.emptyList();
+		}
+
+		public boolean isStreaming() {
+			return false;
+		}
+
+		public boolean isThreadSafe() {
+			return false;
+		}
+
+		public void scan(ArtefactExtractor extractor, String fileName, String extension, InputStream in, ArtefactResult result)
+				throws IOException {
+			this.available = in.available();
+			result.add("scanned");
+		}
+	}
+
+	@Test
+	public void builtInScannersByExtension() {
+		ScannerRegistry registry = new ScannerRegistry(ScannerRegistryTest.newExtractor());
+		assertTrue(registry.getScanner("Main.form", "form") instanceof XmlFileScanner);
+		assertTrue(registry.getScanner("Lib.lss", "lss") instanceof CodeFileScanner);
+		assertTrue(registry.getScanner("Util.java", "java") instanceof CodeFileScanner);
+		assertTrue(registry.getScanner("Strings.properties", "properties") instanceof PlainFileScanner);
+		assertNull(registry.getScanner("logo.gif", "gif"));
+	}
+
+	@Test
+	public void bufferedScannerGetsWholeFile() throws IOException {
+		RecordingScanner scanner = new RecordingScanner();
+		ArtefactResult result = new ArtefactResult();
+		byte[] content = new byte[100000];
+		// A stream that hands out little at a time, like a socket
+		InputStream in = new ByteArrayInputStream(content) {
+			@Override
+			public synchronized int available() {
+				return Math.min(10, super.available());
+			}
+		};
+		ScannerRegistry.runScanner(scanner, ScannerRegistryTest.newExtractor(), "big.bin", "bin", in, result);
+		assertEquals(content.length, scanner.available);
+		assertEquals(Integer.valueOf(1), result.getCounters().get("scanned"));
+	}
+
+	@Test
+	public void codeFileCountedByLexer() throws IOException {
+		ArtefactResult result = new ArtefactResult();
+		String source = "%REM\nSub Old\nEnd Sub\n%END REM\nSub Initialize\n  Print \"a\" & _\n    \"b\"\nEnd Sub\n";
+		new CodeFileScanner().scan(ScannerRegistryTest.newExtractor(), "Lib.lss", "lss", new ByteArrayInputStream(source
+				.getBytes("UTF-8")), result);
+		assertEquals(Integer.valueOf(1), result.getCounters().get("functions_lss"));
+		assertEquals(Integer.valueOf(4), result.getCounters().get("LOC_lss"));
+	}
+
+	static ArtefactExtractor newExtractor() {
+		File dir = new File(System.getProperty("java.io.tmpdir"));
+		return new ArtefactExtractor(dir.getPath(), new File(dir, "unused.csv").getPath(), RuleSet.load(dir));
+	}
+}
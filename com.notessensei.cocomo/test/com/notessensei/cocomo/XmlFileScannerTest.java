@@ -0,0 +1,90 @@
+/** ========================================================================= *
+ * Copyright (C) 2014,      IBM Corporation ( http://www.ibm.com/ )           *
+ *                            All rights reserved.                            *
+ * ========================================================================== *
+ *                                                                            *
+ * Licensed under the  Apache License, Version 2.0  (the "License").  You may *
+ * not use this file except in compliance with the License.  You may obtain a *
+ * copy of the License at <http://www.apache.org/licenses/LICENSE-2.0>.       *
+ *                                                                            *
+ * Unless  required  by applicable  law or  agreed  to  in writing,  software *
+ * distributed under the License is distributed on an  "AS IS" BASIS, WITHOUT *
+ * WARRANTIES OR  CONDITIONS OF ANY KIND, either express or implied.  See the *
+ * License for the  specific language  governing permissions  and limitations *
+ * under the License.                                                         *
+ *                                                                            *
+ * ========================================================================== */
+package com.notessensei.cocomo;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Counts of the XML scanner for single documents
+ * 
+ * @author stw
+ * 
+ */
+public class XmlFileScannerTest {
+
+	@Test
+	public void bindingsAfterBraceAtStart() throws IOException {
+		Map<String, Integer> counters = XmlFileScannerTest.scan("xsp", "<xp:view xmlns:xp='http://www.ibm.com/xsp/core'>"
+				+ "<xp:text value='{plain} #{view.title} ${javascript:return 1;}'/></xp:view>");
+		assertEquals(Integer.valueOf(2), counters.get("bindings"));
+		assertEquals(Integer.valueOf(1), counters.get("el_bindings"));
+		assertEquals(Integer.valueOf(1), counters.get("ssjs_bindings"));
+	}
+
+	@Test
+	public void bindingAtStartIsNoBinding() throws IOException {
+		Map<String, Integer> counters = XmlFileScannerTest.scan("xsp", "<xp:view xmlns:xp='http://www.ibm.com/xsp/core'>"
+				+ "<xp:text value='{plain}'/></xp:view>");
+		assertEquals(null, counters.get("bindings"));
+	}
+
+	@Test
+	public void severalBindingsInOneAttribute() throws IOException {
+		// Braces of the code and in its strings don't end a binding
+		Map<String, Integer> counters = XmlFileScannerTest.scan("xsp", "<xp:view xmlns:xp='http://www.ibm.com/xsp/core'>"
+				+ "<xp:text value='#{javascript:if (a) { return \"}\"; }} and #{javascript:b()} #{view.title}'/></xp:view>");
+		assertEquals(Integer.valueOf(3), counters.get("bindings"));
+		assertEquals(Integer.valueOf(2), counters.get("ssjs_bindings"));
+		assertEquals(Integer.valueOf(1), counters.get("el_bindings"));
+		// Each binding is lexed on its own, the text between them is no code
+		assertEquals(Integer.valueOf(2), counters.get("LOC_ssjs"));
+		assertEquals(Integer.valueOf(2), counters.get("statements_ssjs"));
+	}
+
+	@Test
+	public void embeddedProceduresAreNoFunctions() throws IOException {
+		Map<String, Integer> counters = XmlFileScannerTest.scan("form", "<form><code><lotusscript>Sub Click(Source As Button)\n"
+				+ "Print 1\nEnd Sub\n</lotusscript></code></form>");
+		assertEquals(Integer.valueOf(1), counters.get("procedures_lotusscript"));
+		assertEquals(null, counters.get("functions"));
+	}
+
+	@Test
+	public void codeSplitByCdataIsLexedAsOne() throws IOException {
+		Map<String, Integer> counters = XmlFileScannerTest.scan("form", "<form><code><lotusscript>Sub Click<![CDATA[(Source)\n"
+				+ "Print \"a\" & _]]>\n\"b\"\nEnd Sub\n</lotusscript></code></form>");
+		assertEquals(Integer.valueOf(1), counters.get("procedures_lotusscript"));
+		assertEquals(Integer.valueOf(3), counters.get("statements_lotusscript"));
+		assertEquals(Integer.valueOf(4), counters.get("LOC_lotusscript"));
+	}
+
+	static Map<String, Integer> scan(String extension, String xml) throws IOException {
+		File dir = new File(System.getProperty("java.io.tmpdir"));
+		ArtefactExtractor extractor = new ArtefactExtractor(dir.getPath(), new File(dir, "unused.csv").getPath(), RuleSet.load(dir));
+		ArtefactResult result = new ArtefactResult();
+		new XmlFileScanner().scan(extractor, "test." + extension, extension, new ByteArrayInputStream(xml.getBytes("UTF-8")),
+				result);
+		return result.getCounters();
+	}
+}